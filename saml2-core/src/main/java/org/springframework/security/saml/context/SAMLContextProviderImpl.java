@@ -29,22 +29,31 @@ import org.opensaml.xml.Configuration;
 import org.opensaml.xml.encryption.ChainingEncryptedKeyResolver;
 import org.opensaml.xml.encryption.InlineEncryptedKeyResolver;
 import org.opensaml.xml.encryption.SimpleRetrievalMethodEncryptedKeyResolver;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
 import org.opensaml.xml.security.credential.Credential;
 import org.opensaml.xml.security.keyinfo.KeyInfoCredentialResolver;
 import org.opensaml.xml.security.keyinfo.StaticKeyInfoCredentialResolver;
 import org.opensaml.xml.security.trust.ExplicitX509CertificateTrustEngine;
 import org.opensaml.xml.security.trust.TrustEngine;
+import org.opensaml.xml.security.x509.BasicX509CredentialNameEvaluator;
 import org.opensaml.xml.security.x509.PKIXX509CredentialTrustEngine;
 import org.opensaml.xml.security.x509.X509Credential;
 import org.opensaml.xml.signature.SignatureTrustEngine;
 import org.opensaml.xml.signature.impl.ExplicitKeySignatureTrustEngine;
 import org.opensaml.xml.signature.impl.PKIXSignatureTrustEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.saml.SAMLCredential;
 import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.key.ObservableKeyManager;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
 import org.springframework.security.saml.metadata.MetadataManager;
+import org.springframework.security.saml.metadata.MetadataSnapshot;
+import org.springframework.security.saml.trust.CachingPKIXTrustEvaluator;
 import org.springframework.security.saml.trust.MetadataCredentialResolver;
 import org.springframework.security.saml.trust.PKIXInformationResolver;
 import org.springframework.util.Assert;
@@ -53,15 +62,32 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Class is responsible for parsing HttpRequest/Response and determining which local entity (IDP/SP) is responsible
  * for it's handling.
+ * <p/>
+ * Metadata, credentials, decrypter and trust engines of each local entity and role are populated once per metadata
+ * snapshot into a template, which is then shared by all contexts of the entity. Only the message transports are
+ * populated for each request. Templates are created again after each metadata refresh and after each change of keys
+ * of an ObservableKeyManager.
+ * <p/>
+ * While templates are used, the protected populate methods are called once per template with a context containing
+ * only localEntityId and localEntityRole, without inbound or outbound message transport. Subclasses whose
+ * overrides depend on the current request (e.g. select keys based on the host name) must disable useTemplates,
+ * the methods are then called with the complete context of each request.
  *
  * @author Vladimir Schaefer
  */
 public class SAMLContextProviderImpl implements SAMLContextProvider, InitializingBean {
 
+    // Class logger
+    private final Logger log = LoggerFactory.getLogger(SAMLContextProviderImpl.class);
+
     // Way to obtain encrypted key info from XML Encryption
     private static ChainingEncryptedKeyResolver encryptedKeyResolver = new ChainingEncryptedKeyResolver();
 
@@ -75,6 +101,13 @@ public class SAMLContextProviderImpl implements SAMLContextProvider, Initializin
     protected MetadataManager metadata;
     protected MetadataCredentialResolver metadataResolver;
     protected PKIXInformationResolver pkixResolver;
+    protected CachingPKIXTrustEvaluator pkixTrustEvaluator;
+
+    // Templates of local entities populated from the current metadata snapshot
+    private volatile TemplateCache templates = new TemplateCache(null);
+
+    // True when values of local entities are populated once per template instead of once per request
+    private boolean useTemplates = true;
 
     /**
      * Creates a SAMLContext with local entity values filled. Also request and response must be stored in the context
@@ -122,11 +155,62 @@ public class SAMLContextProviderImpl implements SAMLContextProvider, Initializin
         context.setInboundMessageTransport(inTransport);
         context.setOutboundMessageTransport(outTransport);
 
+        if (useTemplates) {
+            getTemplate(context.getLocalEntityId(), context.getLocalEntityRole()).apply(context);
+        } else {
+            populateLocalEntityValues(context);
+        }
+
+    }
+
+    /**
+     * Populates metadata, credentials, decrypter and trust engines of the local entity.
+     *
+     * @param context context with localEntityId and localEntityRole set
+     * @throws MetadataProviderException in case metadata of the entity can't be populated
+     */
+    private void populateLocalEntityValues(SAMLMessageContext context) throws MetadataProviderException {
         populateLocalEntity(context);
         populateDecrypter(context);
         populateSSLCredential(context);
         populateTrustEngine(context);
         populateSSLTrustEngine(context);
+    }
+
+    /**
+     * Returns template of the local entity populated from the current metadata snapshot, template is created
+     * in case it doesn't exist yet.
+     *
+     * @param localEntityId   local entity
+     * @param localEntityRole role of the local entity
+     * @return template
+     * @throws MetadataProviderException in case metadata of the entity can't be populated
+     */
+    private LocalEntityTemplate getTemplate(String localEntityId, QName localEntityRole) throws MetadataProviderException {
+
+        if (localEntityId == null) {
+            throw new MetadataProviderException("No hosted service provider is configured and no alias was selected");
+        }
+
+        MetadataSnapshot snapshot = metadata.getSnapshot();
+        TemplateCache cache = templates;
+        if (cache.snapshot != snapshot) {
+            cache = new TemplateCache(snapshot);
+            templates = cache;
+        }
+
+        TemplateKey key = new TemplateKey(localEntityId, localEntityRole);
+        LocalEntityTemplate template = cache.templates.get(key);
+        if (template == null) {
+            SAMLMessageContext context = new SAMLMessageContext();
+            context.setLocalEntityId(localEntityId);
+            context.setLocalEntityRole(localEntityRole);
+            populateLocalEntityValues(context);
+            template = new LocalEntityTemplate(context);
+            cache.templates.put(key, template);
+        }
+
+        return template;
 
     }
 
@@ -242,6 +326,8 @@ public class SAMLContextProviderImpl implements SAMLContextProvider, Initializin
     /**
      * Populates X509 Credential used to authenticate this machine against peer servers. Uses key with alias specified
      * in extended metadata under TlsKey, when not set uses the default credential.
+     * <p/>
+     * With useTemplates enabled the method is called once per template and the context has no message transports.
      *
      * @param samlContext context to populate
      */
@@ -261,6 +347,8 @@ public class SAMLContextProviderImpl implements SAMLContextProvider, Initializin
     /**
      * Populates a decrypter based on settings in the extended metadata or using a default credential when no
      * encryption credential is specified in the extended metadata.
+     * <p/>
+     * With useTemplates enabled the decrypter is created once per template, the context has no message transports.
      *
      * @param samlContext context to populate decryptor for.
      */
@@ -268,16 +356,34 @@ public class SAMLContextProviderImpl implements SAMLContextProvider, Initializin
 
         // Locate encryption key for this entity
         Credential encryptionCredential;
-        if (samlContext.getLocalExtendedMetadata().getEncryptionKey() != null) {
-            encryptionCredential = keyManager.getCredential(samlContext.getLocalExtendedMetadata().getEncryptionKey());
+        String encryptionKey = samlContext.getLocalExtendedMetadata().getEncryptionKey();
+        if (encryptionKey != null) {
+            encryptionCredential = keyManager.getCredential(encryptionKey);
         } else {
             encryptionCredential = keyManager.getDefaultCredential();
+            encryptionKey = keyManager.getDefaultCredentialName();
+        }
+
+        // Key manager can provide further private keys with the same name, e.g. keys replaced during reload of keystore,
+        // observable key managers notify once they stop doing so and the decrypter is then created again
+        List<Credential> credentials = new ArrayList<Credential>(1);
+        credentials.add(encryptionCredential);
+        if (encryptionCredential != null && encryptionKey != null) {
+            try {
+                for (Credential credential : keyManager.resolve(new CriteriaSet(new EntityIDCriteria(encryptionKey)))) {
+                    if (credential.getPrivateKey() != null && !credential.getPublicKey().equals(encryptionCredential.getPublicKey())) {
+                        credentials.add(credential);
+                    }
+                }
+            } catch (SecurityException e) {
+                log.warn("Error resolving additional decryption keys for " + encryptionKey, e);
+            }
         }
 
         // Entity used for decrypting of encrypted XML parts
         // Extracts EncryptedKey from the encrypted XML using the encryptedKeyResolver and attempts to decrypt it
         // using private keys supplied by the resolver.
-        KeyInfoCredentialResolver resolver = new StaticKeyInfoCredentialResolver(encryptionCredential);
+        KeyInfoCredentialResolver resolver = new StaticKeyInfoCredentialResolver(credentials);
 
         Decrypter decrypter = new Decrypter(null, resolver, encryptedKeyResolver);
         decrypter.setRootInNewDocument(true);
@@ -290,13 +396,15 @@ public class SAMLContextProviderImpl implements SAMLContextProvider, Initializin
      * Based on the settings in the extended metadata either creates a PKIX trust engine with trusted keys specified
      * in the extended metadata as anchors or (by default) an explicit trust engine using data from the metadata or
      * from the values overriden in the ExtendedMetadata.
+     * <p/>
+     * With useTemplates enabled the engine is created once per template, the context has no message transports.
      *
      * @param samlContext context to populate
      */
     protected void populateTrustEngine(SAMLMessageContext samlContext) {
         SignatureTrustEngine engine;
         if ("pkix".equalsIgnoreCase(samlContext.getLocalExtendedMetadata().getSecurityProfile())) {
-            engine = new PKIXSignatureTrustEngine(pkixResolver, Configuration.getGlobalSecurityConfiguration().getDefaultKeyInfoCredentialResolver());
+            engine = new PKIXSignatureTrustEngine(pkixResolver, Configuration.getGlobalSecurityConfiguration().getDefaultKeyInfoCredentialResolver(), pkixTrustEvaluator, new BasicX509CredentialNameEvaluator());
         } else {
             engine = new ExplicitKeySignatureTrustEngine(metadataResolver, Configuration.getGlobalSecurityConfiguration().getDefaultKeyInfoCredentialResolver());
         }
@@ -307,19 +415,102 @@ public class SAMLContextProviderImpl implements SAMLContextProvider, Initializin
      * Based on the settings in the extended metadata either creates a PKIX trust engine with trusted keys specified
      * in the extended metadata as anchors or (by default) an explicit trust engine using data from the metadata or
      * from the values overriden in the ExtendedMetadata. The trust engine is used to verify SSL connections.
+     * <p/>
+     * With useTemplates enabled the engine is created once per template, the context has no message transports.
      *
      * @param samlContext context to populate
      */
     protected void populateSSLTrustEngine(SAMLMessageContext samlContext) {
         TrustEngine<X509Credential> engine;
         if ("pkix".equalsIgnoreCase(samlContext.getLocalExtendedMetadata().getSecurityProfile())) {
-            engine = new PKIXX509CredentialTrustEngine(pkixResolver);
+            engine = new PKIXX509CredentialTrustEngine(pkixResolver, pkixTrustEvaluator, new BasicX509CredentialNameEvaluator());
         } else {
             engine = new ExplicitX509CertificateTrustEngine(metadataResolver);
         }
         samlContext.setLocalSSLTrustEngine(engine);
     }
 
+    /**
+     * Values of a local entity shared by all contexts created for it. Template is never modified after creation.
+     */
+    private static final class LocalEntityTemplate {
+
+        private final EntityDescriptor entityDescriptor;
+        private final RoleDescriptor roleDescriptor;
+        private final ExtendedMetadata extendedMetadata;
+        private final Credential signingCredential;
+        private final Decrypter decrypter;
+        private final X509Credential sslCredential;
+        private final SignatureTrustEngine trustEngine;
+        private final TrustEngine<X509Credential> sslTrustEngine;
+
+        private LocalEntityTemplate(SAMLMessageContext context) {
+            this.entityDescriptor = context.getLocalEntityMetadata();
+            this.roleDescriptor = context.getLocalEntityRoleMetadata();
+            this.extendedMetadata = context.getLocalExtendedMetadata();
+            this.signingCredential = context.getLocalSigningCredential();
+            this.decrypter = context.getLocalDecrypter();
+            this.sslCredential = context.getLocalSSLCredential();
+            this.trustEngine = context.getLocalTrustEngine();
+            this.sslTrustEngine = context.getLocalSSLTrustEngine();
+        }
+
+        private void apply(SAMLMessageContext context) {
+            context.setLocalEntityMetadata(entityDescriptor);
+            context.setLocalEntityRoleMetadata(roleDescriptor);
+            context.setLocalExtendedMetadata(extendedMetadata);
+            context.setLocalSigningCredential(signingCredential);
+            context.setLocalDecrypter(decrypter);
+            context.setLocalSSLCredential(sslCredential);
+            context.setLocalTrustEngine(trustEngine);
+            context.setLocalSSLTrustEngine(sslTrustEngine);
+        }
+
+    }
+
+    /**
+     * Templates created from a single metadata snapshot.
+     */
+    private static final class TemplateCache {
+
+        private final MetadataSnapshot snapshot;
+        private final ConcurrentMap<TemplateKey, LocalEntityTemplate> templates = new ConcurrentHashMap<TemplateKey, LocalEntityTemplate>();
+
+        private TemplateCache(MetadataSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+    }
+
+    /**
+     * Local entity and its role.
+     */
+    private static final class TemplateKey {
+
+        private final String entityId;
+        private final QName role;
+
+        private TemplateKey(String entityId, QName role) {
+            this.entityId = entityId;
+            this.role = role;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TemplateKey)) {
+                return false;
+            }
+            TemplateKey key = (TemplateKey) o;
+            return entityId.equals(key.entityId) && (role == null ? key.role == null : role.equals(key.role));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * entityId.hashCode() + (role != null ? role.hashCode() : 0);
+        }
+
+    }
+
     @Autowired
     public void setMetadata(MetadataManager metadata) {
         this.metadata = metadata;
@@ -330,6 +521,20 @@ public class SAMLContextProviderImpl implements SAMLContextProvider, Initializin
         this.keyManager = keyManager;
     }
 
+    /**
+     * When enabled, metadata, credentials, decrypter and trust engines of each local entity are populated once per
+     * metadata snapshot and shared by all requests. The populate methods then receive a context without message
+     * transports. Disable in case a subclass populates the values based on the current request, the values are
+     * then populated for each request.
+     * <p/>
+     * Default value is true.
+     *
+     * @param useTemplates false to populate the values for each request
+     */
+    public void setUseTemplates(boolean useTemplates) {
+        this.useTemplates = useTemplates;
+    }
+
     /**
      * Verifies that required entities were autowired or set and initializes resolvers used to construct trust engines.
      *
@@ -344,6 +549,17 @@ public class SAMLContextProviderImpl implements SAMLContextProvider, Initializin
         metadataResolver.setMeetAllCriteria(false);
         metadataResolver.setUnevaluableSatisfies(true);
         pkixResolver = new PKIXInformationResolver(metadataResolver, metadata, keyManager);
+        pkixTrustEvaluator = new CachingPKIXTrustEvaluator();
+
+        if (keyManager instanceof ObservableKeyManager) {
+            ((ObservableKeyManager) keyManager).getObservers().add(new ObservableKeyManager.Observer() {
+                public void onEvent(KeyManager keyManager) {
+                    log.debug("Keys have changed, templates of local entities will be created again");
+                    templates = new TemplateCache(null);
+                    pkixTrustEvaluator.clearCache();
+                }
+            });
+        }
 
     }
 
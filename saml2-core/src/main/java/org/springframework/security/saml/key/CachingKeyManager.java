@@ -0,0 +1,153 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.key;
+
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.credential.Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Key manager decorator keeping credentials returned from getCredential of the delegate, so that private keys are
+ * only unwrapped during the first call for each key name. Returned credentials are shared and mustn't be modified.
+ * Unknown names and criteria based resolve calls are not cached.
+ * <p/>
+ * In case the delegate is an ObservableKeyManager the cache is cleared whenever its keys change and the change
+ * is forwarded to observers of this key manager. For other delegates clearCredentialCache must be called once
+ * their credentials change, e.g. when credentials of the resolver used by a ResolvingKeyManager are replaced.
+ */
+public class CachingKeyManager implements ObservableKeyManager {
+
+    // Class logger
+    private final Logger log = LoggerFactory.getLogger(CachingKeyManager.class);
+
+    private final KeyManager delegate;
+
+    // Credentials resolved by name, replaced by an empty map when the cache is cleared
+    private volatile ConcurrentMap<String, Credential> credentials = new ConcurrentHashMap<String, Credential>();
+
+    private final List<Observer> observers = new CopyOnWriteArrayList<Observer>();
+
+    /**
+     * @param delegate key manager resolving the credentials
+     */
+    public CachingKeyManager(KeyManager delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate key manager may not be null");
+        }
+        this.delegate = delegate;
+        if (delegate instanceof ObservableKeyManager) {
+            ((ObservableKeyManager) delegate).getObservers().add(new Observer() {
+                public void onEvent(KeyManager keyManager) {
+                    clearCredentialCache();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns Credential object used to sign the messages issued by this entity.
+     * Public, X509 and Private keys are set in the credential. Credential is only resolved during the first
+     * call for each key name.
+     *
+     * @param keyName name of the key to use, in case of null default key is used
+     * @return credential
+     */
+    public Credential getCredential(String keyName) {
+
+        if (keyName == null) {
+            keyName = delegate.getDefaultCredentialName();
+        }
+
+        if (keyName == null) {
+            return delegate.getCredential(null);
+        }
+
+        // Credential resolved while the cache is cleared is only stored in the discarded map
+        ConcurrentMap<String, Credential> cache = credentials;
+        Credential credential = cache.get(keyName);
+        if (credential == null) {
+            credential = delegate.getCredential(keyName);
+            if (credential != null) {
+                Credential cached = cache.putIfAbsent(keyName, credential);
+                if (cached != null) {
+                    credential = cached;
+                }
+            }
+        }
+
+        return credential;
+
+    }
+
+    /**
+     * Removes all cached credentials and notifies observers, subsequent calls to getCredential resolve
+     * the credentials again. Failure of an observer doesn't prevent notification of the others.
+     */
+    public void clearCredentialCache() {
+        credentials = new ConcurrentHashMap<String, Credential>();
+        for (Observer observer : observers) {
+            try {
+                observer.onEvent(this);
+            } catch (RuntimeException e) {
+                log.warn("Key manager observer " + observer + " has failed", e);
+            }
+        }
+    }
+
+    public Credential getDefaultCredential() {
+        return getCredential(null);
+    }
+
+    public String getDefaultCredentialName() {
+        return delegate.getDefaultCredentialName();
+    }
+
+    public Set<String> getAvailableCredentials() {
+        return delegate.getAvailableCredentials();
+    }
+
+    public X509Certificate getCertificate(String alias) {
+        return delegate.getCertificate(alias);
+    }
+
+    public Iterable<Credential> resolve(CriteriaSet criteriaSet) throws SecurityException {
+        return delegate.resolve(criteriaSet);
+    }
+
+    public Credential resolveSingle(CriteriaSet criteriaSet) throws SecurityException {
+        return delegate.resolveSingle(criteriaSet);
+    }
+
+    public List<Observer> getObservers() {
+        return observers;
+    }
+
+    /**
+     * @return key manager resolving the credentials
+     */
+    public KeyManager getDelegate() {
+        return delegate;
+    }
+
+}
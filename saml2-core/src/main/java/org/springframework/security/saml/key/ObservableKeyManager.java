@@ -0,0 +1,47 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.key;
+
+import java.util.List;
+
+/**
+ * Key manager whose keys can change during its lifetime, registered observers are notified after each change.
+ * Components caching credentials or certificates obtained from the key manager should register an observer
+ * and discard the cached data upon notification.
+ */
+public interface ObservableKeyManager extends KeyManager {
+
+    /**
+     * Gets the list of observers for the key manager. New observers may be added to the list or old ones removed.
+     *
+     * @return the list of observers
+     */
+    public List<Observer> getObservers();
+
+    /**
+     * An observer of changes of the key manager.
+     */
+    public interface Observer {
+
+        /**
+         * Called when the keys of the key manager have changed, the new keys are already in use.
+         *
+         * @param keyManager key manager which has changed
+         */
+        public void onEvent(KeyManager keyManager);
+
+    }
+
+}
@@ -0,0 +1,374 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.key;
+
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.credential.Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
+import org.springframework.security.saml.util.SAMLUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Key manager backed by a keystore resource which is periodically checked for changes and reloaded without
+ * a restart. Content of the resource is compared using SHA-256 digest, once it changes the new keystore together
+ * with a new credential cache replaces the previous one atomically and registered observers are notified.
+ * <p/>
+ * Keys of the previous keystore remain available for overlapInterval after each reload, so that messages encrypted
+ * by peers which still use the old metadata can be decrypted. During the overlap resolve returns credentials
+ * of both keystores, while getCredential and all other methods use the new keystore only. Once the overlap passes
+ * keys of the previous keystore are dropped and observers are notified again, so that components which copied
+ * the credentials (e.g. decrypters) stop using them.
+ * <p/>
+ * A keystore which can't be loaded is ignored and the current keys remain in use, the first load must succeed.
+ */
+public class ReloadingKeyManager implements ObservableKeyManager, InitializingBean, DisposableBean {
+
+    // Class logger
+    private final Logger log = LoggerFactory.getLogger(ReloadingKeyManager.class);
+
+    private final Resource storeFile;
+    private final String storePass;
+    private final Map<String, String> passwords;
+    private final String defaultKey;
+
+    // Interval of checks for keystore changes in ms
+    private long refreshCheckInterval = 60000l;
+
+    // Time during which keys of the previous keystore are still accepted in ms
+    private long overlapInterval = 86400000l;
+
+    // Currently used keys
+    private volatile KeyStoreState state;
+
+    // Observers notified about reloads
+    private final List<Observer> observers = new CopyOnWriteArrayList<Observer>();
+
+    // Executor performing the checks and ending the overlaps, null when not started
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates key manager and loads the keystore for the first time.
+     *
+     * @param storeFile  resource pointing to the JKS keystore
+     * @param storePass  password to access the keystore
+     * @param passwords  passwords used to access private keys
+     * @param defaultKey default key
+     */
+    public ReloadingKeyManager(Resource storeFile, String storePass, Map<String, String> passwords, String defaultKey) {
+        this.storeFile = storeFile;
+        this.storePass = storePass;
+        this.passwords = passwords;
+        this.defaultKey = defaultKey;
+        try {
+            byte[] content = read();
+            this.state = new KeyStoreState(load(content), getDigest(content), null, 0);
+        } catch (Exception e) {
+            log.error("Error initializing key store", e);
+            throw new RuntimeException("Error initializing keystore", e);
+        }
+    }
+
+    /**
+     * Starts periodic checks of the keystore, unless refreshCheckInterval is zero or less. Overlaps are only ended
+     * by a timer once this method was called, otherwise the previous keys are dropped during the next reload.
+     */
+    public synchronized void afterPropertiesSet() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Keystore-reload");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            if (refreshCheckInterval > 0) {
+                log.debug("Starting keystore checks with interval {}", refreshCheckInterval);
+                executor.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        reload();
+                    }
+                }, refreshCheckInterval, refreshCheckInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Stops periodic checks of the keystore.
+     */
+    public synchronized void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Loads the keystore in case its content has changed since the last load and notifies observers.
+     *
+     * @return true when the keystore was reloaded
+     */
+    public synchronized boolean reload() {
+
+        expireOverlap();
+
+        KeyStoreState current = state;
+        KeyStoreState next;
+
+        try {
+
+            byte[] content = read();
+            String digest = getDigest(content);
+            if (digest.equals(current.digest)) {
+                return false;
+            }
+
+            log.info("Keystore {} has changed and will be reloaded", storeFile);
+            JKSKeyManager previous = overlapInterval > 0 ? current.keyManager : null;
+            next = new KeyStoreState(load(content), digest, previous, System.currentTimeMillis() + overlapInterval);
+
+        } catch (Exception e) {
+            log.warn("Keystore " + storeFile + " can't be reloaded, current keys remain in use", e);
+            return false;
+        }
+
+        state = next;
+        notifyObservers();
+
+        if (next.previous != null && executor != null) {
+            final KeyStoreState overlap = next;
+            executor.schedule(new Runnable() {
+                public void run() {
+                    endOverlap(overlap);
+                }
+            }, overlapInterval, TimeUnit.MILLISECONDS);
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Drops keys of the previous keystore in case the overlap interval has passed and notifies observers.
+     *
+     * @return true when keys of the previous keystore were dropped
+     */
+    public synchronized boolean expireOverlap() {
+        KeyStoreState current = state;
+        if (current.previous != null && current.getPrevious() == null) {
+            return endOverlap(current);
+        }
+        return false;
+    }
+
+    /**
+     * Drops keys of the previous keystore, unless the state was replaced in the meantime.
+     *
+     * @param overlap state whose overlap has ended
+     * @return true when keys of the previous keystore were dropped
+     */
+    private synchronized boolean endOverlap(KeyStoreState overlap) {
+        if (state != overlap || overlap.previous == null) {
+            return false;
+        }
+        log.info("Overlap of keystore {} has ended, keys of the previous keystore are no longer used", storeFile);
+        state = new KeyStoreState(overlap.keyManager, overlap.digest, null, 0);
+        notifyObservers();
+        return true;
+    }
+
+    private void notifyObservers() {
+        for (Observer observer : observers) {
+            try {
+                observer.onEvent(this);
+            } catch (RuntimeException e) {
+                log.warn("Keystore observer " + observer + " has failed", e);
+            }
+        }
+    }
+
+    private byte[] read() throws IOException {
+        InputStream input = storeFile.getInputStream();
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) {
+                log.debug("Error closing input stream for keystore.", e);
+            }
+        }
+    }
+
+    private String getDigest(byte[] content) throws Exception {
+        return SAMLUtil.toHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    private JKSKeyManager load(byte[] content) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(new ByteArrayInputStream(content), storePass.toCharArray());
+        return new JKSKeyManager(keyStore, passwords, defaultKey);
+    }
+
+    /**
+     * Returns credentials of the current keystore, followed by credentials of the previous keystore while
+     * the overlap interval lasts.
+     *
+     * @param criteriaSet criteria
+     * @return matching credentials
+     * @throws SecurityException error
+     */
+    public Iterable<Credential> resolve(CriteriaSet criteriaSet) throws SecurityException {
+        KeyStoreState current = state;
+        JKSKeyManager previous = current.getPrevious();
+        if (previous == null) {
+            return current.keyManager.resolve(criteriaSet);
+        }
+        List<Credential> credentials = new ArrayList<Credential>();
+        for (Credential credential : current.keyManager.resolve(criteriaSet)) {
+            credentials.add(credential);
+        }
+        for (Credential credential : previous.resolve(criteriaSet)) {
+            credentials.add(credential);
+        }
+        return credentials;
+    }
+
+    /**
+     * Returns the first credential of the current keystore, or of the previous keystore while the overlap interval
+     * lasts.
+     *
+     * @param criteriaSet criteria
+     * @return matching credential or null
+     * @throws SecurityException error
+     */
+    public Credential resolveSingle(CriteriaSet criteriaSet) throws SecurityException {
+        KeyStoreState current = state;
+        Credential credential = current.keyManager.resolveSingle(criteriaSet);
+        JKSKeyManager previous = current.getPrevious();
+        if (credential == null && previous != null) {
+            credential = previous.resolveSingle(criteriaSet);
+        }
+        return credential;
+    }
+
+    public Credential getCredential(String keyName) {
+        return state.credentials.getCredential(keyName);
+    }
+
+    public Credential getDefaultCredential() {
+        return state.credentials.getDefaultCredential();
+    }
+
+    public String getDefaultCredentialName() {
+        return defaultKey;
+    }
+
+    public Set<String> getAvailableCredentials() {
+        return state.keyManager.getAvailableCredentials();
+    }
+
+    public X509Certificate getCertificate(String alias) {
+        return state.keyManager.getCertificate(alias);
+    }
+
+    /**
+     * @return currently used keystore
+     */
+    public KeyStore getKeyStore() {
+        return state.keyManager.getKeyStore();
+    }
+
+    public List<Observer> getObservers() {
+        return observers;
+    }
+
+    /**
+     * Interval in milliseconds of checks whether the keystore has changed. Value of zero or less disables the checks,
+     * reload can then only be triggered by calling the reload method. The value can only be changed before the call
+     * to afterPropertiesSet.
+     * <p/>
+     * Default value is 60000 ms.
+     *
+     * @param refreshCheckInterval interval in ms
+     */
+    public void setRefreshCheckInterval(long refreshCheckInterval) {
+        this.refreshCheckInterval = refreshCheckInterval;
+    }
+
+    /**
+     * Time in milliseconds during which keys of the previous keystore are still returned from resolve after reload,
+     * e.g. to decrypt messages of peers which haven't loaded the new metadata yet. Observers are notified once
+     * the overlap ends. Value of zero disables the overlap.
+     * <p/>
+     * Default value is 86400000 ms (24 hours).
+     *
+     * @param overlapInterval overlap in ms
+     */
+    public void setOverlapInterval(long overlapInterval) {
+        this.overlapInterval = overlapInterval;
+    }
+
+    /**
+     * Keys loaded from one version of the keystore, replaced as a whole.
+     */
+    private static final class KeyStoreState {
+
+        private final JKSKeyManager keyManager;
+        private final KeyManager credentials;
+        private final String digest;
+        private final JKSKeyManager previous;
+        private final long previousExpiration;
+
+        private KeyStoreState(JKSKeyManager keyManager, String digest, JKSKeyManager previous, long previousExpiration) {
+            this.keyManager = keyManager;
+            this.credentials = new CachingKeyManager(keyManager);
+            this.digest = digest;
+            this.previous = previous;
+            this.previousExpiration = previousExpiration;
+        }
+
+        /**
+         * @return keys of the previous keystore or null when none exist or the overlap interval has passed
+         */
+        private JKSKeyManager getPrevious() {
+            if (previous != null && System.currentTimeMillis() < previousExpiration) {
+                return previous;
+            }
+            return null;
+        }
+
+    }
+
+}
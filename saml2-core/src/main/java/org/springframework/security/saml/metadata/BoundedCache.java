@@ -0,0 +1,294 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent cache of limited size shared by the metadata and trust caches. Reading a value never locks, it only
+ * records time of the access in the entry. Once an insertion exceeds maxSize the least recently used entries are
+ * located by scanning the cache and removed. Only one thread evicts at a time, the cache can therefore exceed
+ * the limit for a short time while other threads insert values concurrently.
+ * <p/>
+ * Each value can have its own expiration time, expired values are removed when read. Invalidation increments
+ * generation of the cache, values loaded during an invalidation can be stored with the generation read before
+ * the load started and are discarded in that case. Evictions and expirations are recorded in the CacheStatistics,
+ * recording of hits and misses is left to the owner of the cache.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class BoundedCache<K, V> {
+
+    private final ConcurrentMap<K, Entry<K, V>> entries = new ConcurrentHashMap<K, Entry<K, V>>();
+
+    // Incremented on every invalidation
+    private final AtomicLong generation = new AtomicLong();
+
+    // Held by the thread evicting entries
+    private final Lock evictionLock = new ReentrantLock();
+
+    private final CacheStatistics statistics;
+
+    private volatile int maxSize;
+
+    /**
+     * @param maxSize    maximum number of values
+     * @param statistics counters to record evictions and expirations in
+     */
+    public BoundedCache(int maxSize, CacheStatistics statistics) {
+        if (statistics == null) {
+            throw new IllegalArgumentException("Statistics may not be null");
+        }
+        setMaxSize(maxSize);
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns value stored under the key and records the access. Expired value is removed and null is returned.
+     *
+     * @param key key
+     * @return value or null when not cached or expired
+     */
+    public V get(K key) {
+        Entry<K, V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiration != Long.MAX_VALUE && entry.expiration <= System.currentTimeMillis()) {
+            if (entries.remove(key, entry)) {
+                statistics.recordExpiration();
+            }
+            return null;
+        }
+        entry.accessed = System.nanoTime();
+        return entry.value;
+    }
+
+    /**
+     * Stores value which doesn't expire, unless a value is already stored under the key.
+     *
+     * @param key   key
+     * @param value value
+     * @return value already stored under the key, null when the value was stored
+     */
+    public V putIfAbsent(K key, V value) {
+        Entry<K, V> entry = new Entry<K, V>(key, value, Long.MAX_VALUE);
+        Entry<K, V> existing = entries.putIfAbsent(key, entry);
+        if (existing != null) {
+            existing.accessed = System.nanoTime();
+            return existing.value;
+        }
+        evict();
+        return null;
+    }
+
+    /**
+     * Stores value, replacing any value stored under the key.
+     *
+     * @param key        key
+     * @param value      value
+     * @param expiration time in ms when the value expires, Long.MAX_VALUE for no expiration
+     */
+    public void put(K key, V value, long expiration) {
+        entries.put(key, new Entry<K, V>(key, value, expiration));
+        evict();
+    }
+
+    /**
+     * Stores value loaded after the given generation was read, value is discarded in case the cache was
+     * invalidated in the meantime.
+     *
+     * @param key        key
+     * @param value      value
+     * @param expiration time in ms when the value expires, Long.MAX_VALUE for no expiration
+     * @param generation generation read before the value was loaded
+     * @return true when value was stored, false when it was discarded
+     * @see #getGeneration()
+     */
+    public boolean put(K key, V value, long expiration, long generation) {
+        Entry<K, V> entry = new Entry<K, V>(key, value, expiration);
+        entries.put(key, entry);
+        if (generation != this.generation.get()) {
+            // Invalidation might have missed the entry, only remove this value, not one stored by a later load
+            entries.remove(key, entry);
+            return false;
+        }
+        evict();
+        return true;
+    }
+
+    /**
+     * Removes the value in case it is still stored under the key.
+     *
+     * @param key   key
+     * @param value value to remove
+     * @return true when value was removed
+     */
+    public boolean remove(K key, V value) {
+        Entry<K, V> entry = entries.get(key);
+        return entry != null && entry.value == value && entries.remove(key, entry);
+    }
+
+    /**
+     * Removes values whose keys are accepted by the filter and increments generation of the cache, so that values
+     * being loaded at the same time are not stored.
+     *
+     * @param filter filter of keys to remove, null to remove all values
+     */
+    public void invalidate(KeyFilter<K> filter) {
+        generation.incrementAndGet();
+        if (filter == null) {
+            entries.clear();
+        } else {
+            for (Iterator<K> iterator = entries.keySet().iterator(); iterator.hasNext();) {
+                if (filter.accept(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all values, same as invalidate(null).
+     */
+    public void clear() {
+        invalidate(null);
+    }
+
+    /**
+     * @return generation of the cache to be passed to put once the value is loaded
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param count maximum number of keys to return
+     * @return keys of the cache, most recently used first
+     */
+    public List<K> getRecentlyUsed(int count) {
+        List<Entry<K, V>> snapshot = new ArrayList<Entry<K, V>>(entries.values());
+        final long[] accessed = getAccessTimes(snapshot);
+        Integer[] order = new Integer[accessed.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return accessed[o1] < accessed[o2] ? 1 : (accessed[o1] == accessed[o2] ? 0 : -1);
+            }
+        });
+        List<K> keys = new ArrayList<K>(Math.min(count, order.length));
+        for (int i = 0; i < count && i < order.length; i++) {
+            keys.add(snapshot.get(order[i]).key);
+        }
+        return keys;
+    }
+
+    /**
+     * @return number of values currently stored, including the expired ones which were not read yet
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param maxSize maximum number of values, the least recently used values are removed once it is exceeded
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Removes the least recently used entries until size of the cache is within the limit. Access times are copied
+     * before they are compared, as readers keep updating them during the scan.
+     */
+    private void evict() {
+        if (entries.size() <= maxSize || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int excess = entries.size() - maxSize;
+            if (excess <= 0) {
+                return;
+            }
+            List<Entry<K, V>> snapshot = new ArrayList<Entry<K, V>>(entries.values());
+            long[] accessed = getAccessTimes(snapshot);
+            long[] sorted = accessed.clone();
+            Arrays.sort(sorted);
+            long threshold = sorted[Math.min(excess, sorted.length) - 1];
+            for (int i = 0; i < accessed.length && excess > 0; i++) {
+                Entry<K, V> entry = snapshot.get(i);
+                if (accessed[i] <= threshold && entries.remove(entry.key, entry)) {
+                    statistics.recordEviction();
+                    excess--;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private long[] getAccessTimes(List<Entry<K, V>> snapshot) {
+        long[] accessed = new long[snapshot.size()];
+        for (int i = 0; i < accessed.length; i++) {
+            accessed[i] = snapshot.get(i).accessed;
+        }
+        return accessed;
+    }
+
+    /**
+     * Filter of keys to invalidate.
+     *
+     * @param <K> type of keys
+     */
+    public interface KeyFilter<K> {
+
+        /**
+         * @param key key of a cached value
+         * @return true when the value should be removed
+         */
+        boolean accept(K key);
+
+    }
+
+    /**
+     * Value of the cache together with its expiration and time of the last access.
+     */
+    private static final class Entry<K, V> {
+
+        private final K key;
+        private final V value;
+        private final long expiration;
+        private volatile long accessed = System.nanoTime();
+
+        private Entry(K key, V value, long expiration) {
+            this.key = key;
+            this.value = value;
+            this.expiration = expiration;
+        }
+
+    }
+
+}
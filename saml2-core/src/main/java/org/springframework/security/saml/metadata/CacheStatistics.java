@@ -0,0 +1,110 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a cache maintained by the CachingMetadataManager or PKIXInformationResolver. Values are cumulative
+ * since creation of the cache owner and are not reset when caches are cleared after refresh.
+ */
+public class CacheStatistics {
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong loadTime = new AtomicLong();
+
+    /**
+     * Records request served from the cache.
+     */
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Records request which had to load the value.
+     *
+     * @param loadNanos time spent loading the value in ns
+     */
+    public void recordMiss(long loadNanos) {
+        misses.incrementAndGet();
+        loadTime.addAndGet(loadNanos);
+    }
+
+    /**
+     * Records removal of a value due to the size limit.
+     */
+    public void recordEviction() {
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * Records removal of a value due to the time to live.
+     */
+    public void recordExpiration() {
+        expirations.incrementAndGet();
+    }
+
+    /**
+     * @return number of requests served from the cache, including requests which waited for a load in progress
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of requests which loaded the value
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of values removed because the cache reached its maximum size
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of values removed because they were older than the time to live
+     */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * @return total time spent loading values in ns
+     */
+    public long getTotalLoadTime() {
+        return loadTime.get();
+    }
+
+    /**
+     * @return average time spent loading a value in ns
+     */
+    public long getAverageLoadTime() {
+        long count = misses.get();
+        return count == 0 ? 0 : loadTime.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", expirations=" + expirations + ", averageLoadTime=" + getAverageLoadTime() + "ns}";
+    }
+
+}
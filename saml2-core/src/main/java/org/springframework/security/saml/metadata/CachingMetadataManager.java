@@ -17,36 +17,63 @@ package org.springframework.security.saml.metadata;
 import org.opensaml.saml2.metadata.EntityDescriptor;
 import org.opensaml.saml2.metadata.provider.MetadataProvider;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.springframework.util.Assert;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Metadata manager caches all results of EntityDescriptors loaded from the providers. Cache is cleaned
  * whenever some of the providers published an observed message.
  * <p/>
- * The class is synchronized using the superclass ReentrantReadWriteLock.
+ * Each cache generation belongs to one MetadataSnapshot of the superclass. Refresh builds the new snapshot without
+ * holding any lock needed by the readers, which keep using the previous generation until the new snapshot is
+ * published. The new generation then replaces the previous one atomically, requests already in progress
+ * finish with the data they have started with.
+ * <p/>
+ * Values are loaded at most once per key and generation, concurrent requests for a key which is being loaded wait
+ * for the single load in progress, while loads of different keys run in parallel. Reading of already cached values
+ * never waits for loads.
+ * <p/>
+ * Size of each cache is limited by maxCacheSize, the least recently used values are evicted first, see BoundedCache.
+ * Values (including results of lookups which found nothing) can optionally expire after cacheTimeToLive. Hits,
+ * misses, evictions and load times of each cache are available from the CacheStatistics.
+ * <p/>
+ * With warmUpCaches enabled the caches of a new snapshot are populated during refresh, before the snapshot is
+ * published, with all local entities and the entities most recently used from the previous caches. Requests
+ * following the refresh are then served from the cache right away instead of loading the same entities at once.
+ * <p/>
+ * Entities which are not indexed in the snapshot are not cached once some of the providers resolves entities
+ * on demand, such providers maintain their own cache respecting validity of the entities.
  *
  * @author Vladimir Schaefer
  */
 public class CachingMetadataManager extends MetadataManager {
 
-    // Cache for alias data
-    private Map<String, String> aliasCache;
+    // Caches of the currently published snapshot
+    private final AtomicReference<CacheGeneration> generation;
+
+    // Maximum number of values in each cache
+    private int maxCacheSize = 1000;
+
+    // Time after which cached values expire in ms, 0 when values don't expire
+    private long cacheTimeToLive = 0;
+
+    // Counters of the entity descriptor cache
+    private final CacheStatistics entityStatistics = new CacheStatistics();
 
-    // Cache for basic metadata
-    private Map<String, EntityDescriptor> basicMetadataCache;
+    // Counters of the extended metadata cache
+    private final CacheStatistics extendedMetadataStatistics = new CacheStatistics();
 
-    // Cache for basic metadata based on SHA-1 hash of the entityID
-    private Map<byte[], EntityDescriptor> hashMetadataCache;
+    // Caches populated for a snapshot which is about to be published
+    private volatile CacheGeneration prepared;
 
-    // Cache for extended metadata
-    private Map<String, ExtendedMetadata> extendedMetadataCache;
+    // True when caches of new snapshots are populated before publishing
+    private boolean warmUpCaches = false;
 
-    // Lock for the cache
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Number of most recently used entities reloaded during warm-up, in addition to the local ones
+    private int warmUpRecentEntities = 100;
 
     /**
      * Creates caching metadata provider.
@@ -58,50 +85,109 @@ public class CachingMetadataManager extends MetadataManager {
 
         super(providers);
 
-        this.aliasCache = new HashMap<String, String>();
-        this.basicMetadataCache = new HashMap<String, EntityDescriptor>();
-        this.hashMetadataCache = new HashMap<byte[], EntityDescriptor>();
-        this.extendedMetadataCache = new HashMap<String, ExtendedMetadata>();
+        this.generation = new AtomicReference<CacheGeneration>(new CacheGeneration(getSnapshot()));
 
     }
 
     /**
-     * Guaranteed to be called by the superclass as part of the initialization.
+     * Guaranteed to be called by the superclass as part of the initialization. Readers aren't blocked during
+     * the refresh, caches of the new snapshot replace the current ones once it is published.
      */
     @Override
     public void refreshMetadata() {
 
-        try {
+        // Do whatever it takes to refresh the metadata
+        super.refreshMetadata();
+
+        // Start using caches of the new data right away
+        getGeneration();
 
-            lock.writeLock().lock();
-            log.debug("Clearing metadata cache");
+    }
 
-            // Clear the caches so they get reinitialized as needed from the new data
-            this.aliasCache = new HashMap<String, String>();
-            this.basicMetadataCache = new HashMap<String, EntityDescriptor>();
-            this.hashMetadataCache = new HashMap<byte[], EntityDescriptor>();
-            this.extendedMetadataCache = new HashMap<String, ExtendedMetadata>();
+    /**
+     * Populates caches for the new snapshot in case warmUpCaches is enabled. Loading uses the new snapshot, while
+     * readers keep being served from the current caches.
+     *
+     * @param next snapshot to be published
+     */
+    @Override
+    protected void prepareSnapshot(final MetadataSnapshot next) {
 
-            // Do whatever it takes to refresh the metadata
-            super.refreshMetadata();
+        if (!warmUpCaches) {
+            return;
+        }
 
-        } finally {
+        long start = System.currentTimeMillis();
+        CacheGeneration warmed = new CacheGeneration(next);
 
-            lock.writeLock().unlock();
+        Set<String> entities = new LinkedHashSet<String>();
+        for (Map.Entry<String, ExtendedMetadata> entry : next.getExtendedMetadataIndex().entrySet()) {
+            if (entry.getValue().isLocal()) {
+                entities.add(entry.getKey());
+            }
+        }
+        for (String entityID : generation.get().getBasicMetadataCache().getRecentlyUsed(warmUpRecentEntities)) {
+            if (next.isIndexed(entityID)) {
+                entities.add(entityID);
+            }
+        }
 
+        ValueLoader<EntityDescriptor, String> snapshotEntityLoader = new ValueLoader<EntityDescriptor, String>() {
+            public EntityDescriptor getValue(String identifier) throws MetadataProviderException {
+                return getEntityDescriptor(next, identifier);
+            }
+        };
+
+        ValueLoader<ExtendedMetadata, String> snapshotExtendedLoader = new ValueLoader<ExtendedMetadata, String>() {
+            public ExtendedMetadata getValue(String identifier) throws MetadataProviderException {
+                return getExtendedMetadata(next, identifier);
+            }
+        };
+
+        for (String entityID : entities) {
+            try {
+                getFromCacheOrUpdate(warmed.getBasicMetadataCache(), entityStatistics, entityID, snapshotEntityLoader);
+                getFromCacheOrUpdate(warmed.getExtendedMetadataCache(), extendedMetadataStatistics, entityID, snapshotExtendedLoader);
+            } catch (MetadataProviderException e) {
+                log.warn("Error warming up metadata cache for entity " + entityID + ", entity will be loaded on demand", e);
+            }
         }
 
+        prepared = warmed;
+        log.debug("Metadata cache was warmed up with {} entities in {} ms", entities.size(), System.currentTimeMillis() - start);
+
     }
 
     /**
-     * Locates name of the entity for the given alias.
+     * Returns caches belonging to the currently published snapshot, new empty caches are created the first time
+     * a newly published snapshot is encountered, unless caches were prepared for it during refresh.
      *
-     * @param entityAlias to load entityId for
-     * @return entityId or null if not found
-     * @throws MetadataProviderException provider in case alias is not unique or missing
+     * @return current cache generation
      */
-    public String getEntityIdForAlias(String entityAlias) throws MetadataProviderException {
-        return getFromCacheOrUpdate(aliasCache, entityAlias, aliasLoader);
+    private CacheGeneration getGeneration() {
+
+        while (true) {
+
+            // Generation must be read before the snapshot, so that the snapshot is never older than the generation
+            CacheGeneration current = generation.get();
+            MetadataSnapshot snapshot = getSnapshot();
+
+            if (current.getSnapshot() == snapshot) {
+                return current;
+            }
+
+            CacheGeneration next = prepared;
+            if (next == null || next.getSnapshot() != snapshot) {
+                next = new CacheGeneration(snapshot);
+            }
+            if (generation.compareAndSet(current, next)) {
+                log.debug("Clearing metadata cache");
+                prepared = null;
+                return next;
+            }
+
+        }
+
     }
 
     /**
@@ -113,18 +199,11 @@ public class CachingMetadataManager extends MetadataManager {
      */
     @Override
     public EntityDescriptor getEntityDescriptor(String entityID) throws MetadataProviderException {
-        return getFromCacheOrUpdate(basicMetadataCache, entityID, entityLoader);
-    }
-
-    /**
-     * Locates entity descriptor whose entityId SHA-1 hash equals the one in the parameter.
-     *
-     * @param hash hash of the entity descriptor
-     * @return found descriptor or null
-     */
-    @Override
-    public EntityDescriptor getEntityDescriptor(byte[] hash) throws MetadataProviderException {
-        return getFromCacheOrUpdate(hashMetadataCache, hash, entityHashLoader);
+        CacheGeneration cache = getGeneration();
+        if (!isCacheable(cache, entityID)) {
+            return super.getEntityDescriptor(entityID);
+        }
+        return getFromCacheOrUpdate(cache.getBasicMetadataCache(), entityStatistics, entityID, entityLoader);
     }
 
     /**
@@ -136,58 +215,222 @@ public class CachingMetadataManager extends MetadataManager {
      */
     @Override
     public ExtendedMetadata getExtendedMetadata(String entityID) throws MetadataProviderException {
-        return getFromCacheOrUpdate(extendedMetadataCache, entityID, extendedLoader);
+        CacheGeneration cache = getGeneration();
+        if (!isCacheable(cache, entityID)) {
+            return super.getExtendedMetadata(entityID);
+        }
+        return getFromCacheOrUpdate(cache.getExtendedMetadataCache(), extendedMetadataStatistics, entityID, extendedLoader);
+    }
+
+    /**
+     * @param cache    current generation
+     * @param entityID entity
+     * @return false when entity might be provided by a dynamic provider and mustn't be cached
+     */
+    private boolean isCacheable(CacheGeneration cache, String entityID) {
+        MetadataSnapshot snapshot = cache.getSnapshot();
+        return entityID == null || !snapshot.hasDynamicProviders() || snapshot.isIndexed(entityID);
     }
 
     /**
      * Attempts to load value from the cache, in case it doesn't exist locates it from the chainingProvider and adds
-     * to the cache.
+     * to the cache. The first thread missing the key loads the value, other threads requesting the same key wait
+     * for its result. Failed loads are not cached.
      *
-     * @param cache       caching map
+     * @param cache       cache
+     * @param statistics  counters of the cache
      * @param key         key to find the value
      * @param valueLoader loader to load value in case it is not present in the cache
      * @param <T>         type of cache
      * @return found value or null if not found
      * @throws MetadataProviderException error or null key
      */
-    private <T, U> T getFromCacheOrUpdate(Map<U, T> cache, U key, ValueLoader<T, U> valueLoader) throws MetadataProviderException {
+    private <T, U> T getFromCacheOrUpdate(BoundedCache<U, CacheEntry<T>> cache, CacheStatistics statistics, final U key, final ValueLoader<T, U> valueLoader) throws MetadataProviderException {
 
         if (key == null) {
             return null;
         }
 
-        // Try to load the cached value
-        lock.readLock().lock();
-        if (cache.containsKey(key)) {
-            T item = cache.get(key);
-            lock.readLock().unlock();
-            return item;
-        }
+        CacheEntry<T> entry = cache.get(key);
 
-        // Upgrade lock when not found
-        lock.readLock().unlock();
-        lock.writeLock().lock();
+        // Expire old value, values being loaded don't expire
+        if (entry != null && cacheTimeToLive > 0 && entry.task.isDone() && System.currentTimeMillis() - entry.created > cacheTimeToLive) {
+            if (cache.remove(key, entry)) {
+                statistics.recordExpiration();
+            }
+            entry = null;
+        }
 
-        // Re-verify cache
-        if (cache.containsKey(key)) {
-            T item = cache.get(key);
-            lock.writeLock().unlock();
-            return item;
+        if (entry == null) {
+            CacheEntry<T> load = new CacheEntry<T>(new FutureTask<T>(new Callable<T>() {
+                public T call() throws MetadataProviderException {
+                    return valueLoader.getValue(key);
+                }
+            }));
+            entry = cache.putIfAbsent(key, load);
+            if (entry == null) {
+                entry = load;
+                long start = System.nanoTime();
+                load.task.run();
+                statistics.recordMiss(System.nanoTime() - start);
+            } else {
+                statistics.recordHit();
+            }
+        } else {
+            statistics.recordHit();
         }
 
         try {
 
-            // Load new value
-            T value = valueLoader.getValue(key);
-            cache.put(key, value);
-            return value;
+            return entry.task.get();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new MetadataProviderException("Interrupted while waiting for metadata of " + key, e);
+
+        } catch (ExecutionException e) {
+
+            // Let the next request retry the load
+            cache.remove(key, entry);
+
+            Throwable cause = e.getCause();
+            if (cause instanceof MetadataProviderException) {
+                throw (MetadataProviderException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new MetadataProviderException((Exception) cause);
+            }
 
-        } finally {
-            lock.writeLock().unlock();
         }
 
     }
 
+    /**
+     * Caches of values loaded from one snapshot of the metadata.
+     */
+    private class CacheGeneration {
+
+        private final MetadataSnapshot snapshot;
+        private final BoundedCache<String, CacheEntry<EntityDescriptor>> basicMetadataCache = new BoundedCache<String, CacheEntry<EntityDescriptor>>(maxCacheSize, entityStatistics);
+        private final BoundedCache<String, CacheEntry<ExtendedMetadata>> extendedMetadataCache = new BoundedCache<String, CacheEntry<ExtendedMetadata>>(maxCacheSize, extendedMetadataStatistics);
+
+        CacheGeneration(MetadataSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        MetadataSnapshot getSnapshot() {
+            return snapshot;
+        }
+
+        BoundedCache<String, CacheEntry<EntityDescriptor>> getBasicMetadataCache() {
+            return basicMetadataCache;
+        }
+
+        BoundedCache<String, CacheEntry<ExtendedMetadata>> getExtendedMetadataCache() {
+            return extendedMetadataCache;
+        }
+
+    }
+
+    /**
+     * Value of a cache together with time of its creation.
+     */
+    private static class CacheEntry<T> {
+
+        private final FutureTask<T> task;
+        private final long created = System.currentTimeMillis();
+
+        CacheEntry(FutureTask<T> task) {
+            this.task = task;
+        }
+
+    }
+
+    /**
+     * @return counters of the entity descriptor cache
+     */
+    public CacheStatistics getEntityCacheStatistics() {
+        return entityStatistics;
+    }
+
+    /**
+     * @return counters of the extended metadata cache
+     */
+    public CacheStatistics getExtendedMetadataCacheStatistics() {
+        return extendedMetadataStatistics;
+    }
+
+    /**
+     * @return number of entity descriptors currently cached
+     */
+    public int getEntityCacheSize() {
+        return getGeneration().getBasicMetadataCache().size();
+    }
+
+    /**
+     * @return number of extended metadata currently cached
+     */
+    public int getExtendedMetadataCacheSize() {
+        return getGeneration().getExtendedMetadataCache().size();
+    }
+
+    /**
+     * Maximum number of values kept in each of the caches, the oldest values are removed once the limit is exceeded.
+     * Results of lookups which found nothing are cached as well and count towards the limit.
+     * <p/>
+     * Default value is 1000.
+     *
+     * @param maxCacheSize maximum number of values
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        Assert.isTrue(maxCacheSize > 0, "Cache size must be positive");
+        this.maxCacheSize = maxCacheSize;
+        CacheGeneration current = generation.get();
+        current.getBasicMetadataCache().setMaxSize(maxCacheSize);
+        current.getExtendedMetadataCache().setMaxSize(maxCacheSize);
+    }
+
+    /**
+     * Time after which a cached value is loaded again, even when no refresh happened in the meantime. Value of 0
+     * keeps the values until the next refresh.
+     * <p/>
+     * Default value is 0.
+     *
+     * @param cacheTimeToLive time to live in ms
+     */
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
+    /**
+     * When enabled, caches of each new snapshot are populated during refresh before the snapshot is published,
+     * with all local entities and warmUpRecentEntities entities most recently used from the previous caches.
+     * Refresh takes longer, but requests following it don't need to load the entities again.
+     * <p/>
+     * Default value is false.
+     *
+     * @param warmUpCaches true to enable warm-up
+     */
+    public void setWarmUpCaches(boolean warmUpCaches) {
+        this.warmUpCaches = warmUpCaches;
+    }
+
+    /**
+     * Maximum number of most recently used remote entities loaded during warm-up, local entities are always loaded.
+     * <p/>
+     * Default value is 100.
+     *
+     * @param warmUpRecentEntities number of entities
+     */
+    public void setWarmUpRecentEntities(int warmUpRecentEntities) {
+        Assert.isTrue(warmUpRecentEntities >= 0, "Number of entities can't be negative");
+        this.warmUpRecentEntities = warmUpRecentEntities;
+    }
+
     /**
      * Interface whose implementations should load value related to the given identifier.
      *
@@ -197,24 +440,12 @@ public class CachingMetadataManager extends MetadataManager {
         T getValue(U identifier) throws MetadataProviderException;
     }
 
-    private final ValueLoader<String, String> aliasLoader = new ValueLoader<String, String>() {
-        public String getValue(String identifier) throws MetadataProviderException {
-            return CachingMetadataManager.super.getEntityIdForAlias(identifier);
-        }
-    };
-
     private final ValueLoader<EntityDescriptor, String> entityLoader = new ValueLoader<EntityDescriptor, String>() {
         public EntityDescriptor getValue(String identifier) throws MetadataProviderException {
             return CachingMetadataManager.super.getEntityDescriptor(identifier);
         }
     };
 
-    private final ValueLoader<EntityDescriptor, byte[]> entityHashLoader = new ValueLoader<EntityDescriptor, byte[]>() {
-        public EntityDescriptor getValue(byte[] identifier) throws MetadataProviderException {
-            return CachingMetadataManager.super.getEntityDescriptor(identifier);
-        }
-    };
-
     private final ValueLoader<ExtendedMetadata, String> extendedLoader = new ValueLoader<ExtendedMetadata, String>() {
         public ExtendedMetadata getValue(String identifier) throws MetadataProviderException {
             return CachingMetadataManager.super.getExtendedMetadata(identifier);
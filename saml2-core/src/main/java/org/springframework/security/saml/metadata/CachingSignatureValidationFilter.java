@@ -0,0 +1,124 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.provider.FilterException;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.signature.SignatureTrustEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.w3c.dom.Element;
+
+import java.io.UnsupportedEncodingException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Signature validation filter which skips verification of documents that were already successfully verified
+ * with the same trust settings. Documents are identified by SHA-256 digest of their DOM content, verification
+ * is therefore only skipped when the document didn't change at all. Successful verifications are recorded
+ * in the SignatureVerificationCache, together with the key identifying the trust anchors and revocation settings
+ * used by the trust engine.
+ * <p/>
+ * Documents without DOM are always verified. Verifications which removed some of the nested entities due to invalid
+ * signatures are not recorded, as skipping them would keep the invalid entities.
+ */
+public class CachingSignatureValidationFilter extends ParallelSignatureValidationFilter {
+
+    // Class logger
+    private final Logger log = LoggerFactory.getLogger(CachingSignatureValidationFilter.class);
+
+    /**
+     * Records of successful verifications.
+     */
+    private final SignatureVerificationCache cache;
+
+    /**
+     * Key identifying trust anchors and options of the trust engine.
+     */
+    private final String trustKey;
+
+    /**
+     * @param engine   trust engine used to verify signatures
+     * @param cache    records of successful verifications
+     * @param trustKey key identifying trust anchors and options of the trust engine, must change whenever they change
+     */
+    public CachingSignatureValidationFilter(SignatureTrustEngine engine, SignatureVerificationCache cache, String trustKey) {
+        super(engine);
+        Assert.notNull(cache, "Cache must be set");
+        Assert.notNull(trustKey, "Trust key must be set");
+        this.cache = cache;
+        this.trustKey = trustKey;
+    }
+
+    @Override
+    public void doFilter(XMLObject metadata) throws FilterException {
+
+        String key = getCacheKey(metadata);
+        if (key != null && cache.isVerified(key)) {
+            log.debug("Metadata was already verified, signature verification is skipped");
+            return;
+        }
+
+        int count = countDescriptors(metadata);
+        super.doFilter(metadata);
+
+        if (key != null && count == countDescriptors(metadata)) {
+            cache.markVerified(key);
+        }
+
+    }
+
+    /**
+     * @param metadata metadata to verify
+     * @return key of the verification or null when content digest can't be calculated
+     */
+    protected String getCacheKey(XMLObject metadata) {
+
+        Element element = metadata.getDOM();
+        if (element == null) {
+            return null;
+        }
+
+        try {
+            return ContentDigest.getDigest(element) + ":" + trustKey + ":" + getRequireSignature();
+        } catch (NoSuchAlgorithmException e) {
+            log.debug("Digest algorithm isn't available, signature verification can't be cached", e);
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            log.debug("Encoding isn't available, signature verification can't be cached", e);
+            return null;
+        }
+
+    }
+
+    /**
+     * @param metadata metadata
+     * @return number of entity and entities descriptors in the metadata
+     */
+    private int countDescriptors(XMLObject metadata) {
+        int count = 1;
+        if (metadata instanceof EntitiesDescriptor) {
+            EntitiesDescriptor descriptor = (EntitiesDescriptor) metadata;
+            count += descriptor.getEntityDescriptors().size();
+            for (EntitiesDescriptor nested : descriptor.getEntitiesDescriptors()) {
+                count += countDescriptors(nested);
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,109 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.springframework.security.saml.util.SAMLUtil;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Calculates SHA-256 digest of DOM content. Names, namespaces and values of elements, attributes and other nodes
+ * are included, so that the digest only stays the same when the content didn't change at all.
+ */
+final class ContentDigest {
+
+    private ContentDigest() {
+    }
+
+    /**
+     * @param node node to digest including all its descendants
+     * @return digest in hex format
+     * @throws NoSuchAlgorithmException     in case SHA-256 isn't supported
+     * @throws UnsupportedEncodingException in case UTF-8 isn't supported
+     */
+    static String getDigest(Node node) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        update(digest, node);
+        return SAMLUtil.toHex(digest.digest());
+    }
+
+    /**
+     * Updates digest with content of the node and all its descendants.
+     *
+     * @param digest digest
+     * @param node   node
+     * @throws UnsupportedEncodingException in case UTF-8 isn't supported
+     */
+    private static void update(MessageDigest digest, Node node) throws UnsupportedEncodingException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                digest.update((byte) 'E');
+                update(digest, node.getNamespaceURI());
+                update(digest, node.getNodeName());
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Node attribute = attributes.item(i);
+                    digest.update((byte) 'A');
+                    update(digest, attribute.getNamespaceURI());
+                    update(digest, attribute.getNodeName());
+                    update(digest, attribute.getNodeValue());
+                }
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    update(digest, child);
+                }
+                digest.update((byte) 'e');
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                digest.update((byte) 'T');
+                update(digest, node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                digest.update((byte) 'C');
+                update(digest, node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                digest.update((byte) 'P');
+                update(digest, node.getNodeName());
+                update(digest, node.getNodeValue());
+                break;
+            default:
+                digest.update((byte) 'O');
+                update(digest, node.getNodeName());
+                update(digest, node.getNodeValue());
+        }
+
+    }
+
+    private static void update(MessageDigest digest, String value) throws UnsupportedEncodingException {
+        if (value == null) {
+            digest.update((byte) 0);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            digest.update((byte) 1);
+            digest.update((byte) (bytes.length >>> 24));
+            digest.update((byte) (bytes.length >>> 16));
+            digest.update((byte) (bytes.length >>> 8));
+            digest.update((byte) bytes.length);
+            digest.update(bytes);
+        }
+    }
+
+
+}
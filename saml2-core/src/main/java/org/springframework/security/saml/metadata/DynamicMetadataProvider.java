@@ -0,0 +1,578 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.joda.time.DateTime;
+import org.opensaml.saml2.common.CacheableSAMLObject;
+import org.opensaml.saml2.common.TimeBoundSAMLObject;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.RoleDescriptor;
+import org.opensaml.saml2.metadata.provider.AbstractMetadataProvider;
+import org.opensaml.saml2.metadata.provider.MetadataFilter;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.io.Unmarshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.util.SAMLUtil;
+import org.springframework.util.Assert;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * Metadata provider resolving entities on demand from an EntityMetadataSource, e.g. a Metadata Query Protocol
+ * endpoint or a directory with one file per entity. Resolved entities are kept in a cache of limited size,
+ * the least recently used ones are removed first. Lookups of cached entities don't lock, see BoundedCache. Each entity is cached for the time given by its validUntil
+ * and cacheDuration (and those of the enclosing EntitiesDescriptor) within the minCacheDuration and
+ * maxCacheDuration bounds, entity is never cached past its validUntil. Entities which are not available
+ * or are rejected by the filters are remembered for negativeCacheDuration.
+ * <p/>
+ * Failures of the source are remembered for negativeCacheDuration as well, so that an unavailable source isn't
+ * queried on each lookup. In case the entity was cached before, the expired version keeps being served during
+ * the failures until its validUntil. Concurrent lookups of the same entity wait for a single request to the source.
+ * As entityIDs received from the network (e.g. issuer of a message) are resolved directly, the source is only
+ * queried for entityIDs of at most 1024 characters matching the optional entityIDPattern.
+ * <p/>
+ * Provider can't enumerate its entities, MetadataManager therefore doesn't include them in the lists of IDP and SP
+ * names, but queries the provider directly when validating an entity or resolving an artifact sender by hash.
+ * Method getMetadata returns an empty EntitiesDescriptor.
+ */
+public class DynamicMetadataProvider extends AbstractMetadataProvider implements IndexedMetadataProvider {
+
+    // Class logger
+    protected final Logger log = LoggerFactory.getLogger(DynamicMetadataProvider.class);
+
+    /**
+     * Maximal length of entityID as defined by the SAML 2.0 metadata specification.
+     */
+    private static final int MAX_ENTITY_ID_LENGTH = 1024;
+
+    /**
+     * Source of the entity metadata.
+     */
+    private final EntityMetadataSource source;
+
+    /**
+     * Minimal time in ms entity is cached for.
+     */
+    private long minCacheDuration = 60000l;
+
+    /**
+     * Maximal time in ms entity is cached for.
+     */
+    private long maxCacheDuration = 28800000l;
+
+    /**
+     * Time in ms unavailable entity is remembered for.
+     */
+    private long negativeCacheDuration = 60000l;
+
+    /**
+     * Pattern entityIDs must match in order to be requested from the source, null to allow all.
+     */
+    private Pattern entityIDPattern;
+
+    /**
+     * Counters of the cache.
+     */
+    private final CacheStatistics statistics = new CacheStatistics();
+
+    /**
+     * Cached entities keyed by hex encoded SHA-1 hash of the entityID. Expired entities are kept until evicted,
+     * as they are served when the source fails.
+     */
+    private final BoundedCache<String, CachedEntity> cache = new BoundedCache<String, CachedEntity>(1000, statistics);
+
+    /**
+     * Requests to the source currently in progress, keyed the same way as the cache.
+     */
+    private final ConcurrentMap<String, FutureTask<CachedEntity>> loading = new ConcurrentHashMap<String, FutureTask<CachedEntity>>();
+
+    /**
+     * Empty descriptor returned from getMetadata.
+     */
+    private EntitiesDescriptor metadata;
+
+    /**
+     * @param source source of the entity metadata
+     */
+    public DynamicMetadataProvider(EntityMetadataSource source) {
+        Assert.notNull(source, "Metadata source must be set");
+        this.source = source;
+    }
+
+    @Override
+    protected void doInitialization() throws MetadataProviderException {
+        metadata = (EntitiesDescriptor) Configuration.getBuilderFactory().getBuilder(EntitiesDescriptor.DEFAULT_ELEMENT_NAME).buildObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+    }
+
+    /**
+     * @return empty entities descriptor, entities can only be obtained using getEntityDescriptor
+     */
+    @Override
+    protected XMLObject doGetMetadata() throws MetadataProviderException {
+        return metadata;
+    }
+
+    /**
+     * Returns cached entity or resolves it from the source.
+     *
+     * @param entityID entity
+     * @return entity or null when not available
+     * @throws MetadataProviderException in case provider isn't initialized or source fails
+     */
+    @Override
+    public EntityDescriptor getEntityDescriptor(String entityID) throws MetadataProviderException {
+        if (entityID == null) {
+            return null;
+        }
+        if (entityID.length() > MAX_ENTITY_ID_LENGTH || (entityIDPattern != null && !entityIDPattern.matcher(entityID).matches())) {
+            log.debug("EntityID {} isn't allowed to be requested from source {}", entityID, source);
+            return null;
+        }
+        return resolve(entityID, SAMLUtil.getEntityIdHash(entityID));
+    }
+
+    /**
+     * Returns cached entity whose entityID has the given SHA-1 hash or resolves it from the source.
+     *
+     * @param hash SHA-1 hash of the entityID
+     * @return entity or null when not available
+     * @throws MetadataProviderException in case provider isn't initialized or source fails
+     */
+    public EntityDescriptor getEntityDescriptor(byte[] hash) throws MetadataProviderException {
+        if (hash == null) {
+            return null;
+        }
+        return resolve(null, hash);
+    }
+
+    /**
+     * Entities descriptors are not kept by the provider.
+     *
+     * @param name name of the descriptor
+     * @return null
+     */
+    @Override
+    public EntitiesDescriptor getEntitiesDescriptor(String name) {
+        return null;
+    }
+
+    @Override
+    public List<RoleDescriptor> getRole(String entityID, QName roleName) throws MetadataProviderException {
+        EntityDescriptor descriptor = getEntityDescriptor(entityID);
+        if (descriptor == null) {
+            return null;
+        }
+        return descriptor.getRoleDescriptors(roleName);
+    }
+
+    @Override
+    public RoleDescriptor getRole(String entityID, QName roleName, String supportedProtocol) throws MetadataProviderException {
+        EntityDescriptor descriptor = getEntityDescriptor(entityID);
+        if (descriptor == null) {
+            return null;
+        }
+        List<RoleDescriptor> roles = descriptor.getRoleDescriptors(roleName, supportedProtocol);
+        if (roles != null && roles.size() > 0) {
+            return roles.get(0);
+        }
+        return null;
+    }
+
+    /**
+     * Entities are resolved on demand and can't be enumerated.
+     *
+     * @return empty list
+     */
+    public List<String> getEntityIDs() {
+        return Collections.emptyList();
+    }
+
+    public boolean containsEntity(String entityID) throws MetadataProviderException {
+        return getEntityDescriptor(entityID) != null;
+    }
+
+    public boolean hasRole(String entityID, QName roleName, String supportedProtocol) throws MetadataProviderException {
+        return getRole(entityID, roleName, supportedProtocol) != null;
+    }
+
+    /**
+     * Entities are loaded on demand and their content isn't tracked, the method always returns null.
+     *
+     * @param entityID entity
+     * @return null
+     */
+    public String getEntityVersion(String entityID) {
+        return null;
+    }
+
+    /**
+     * Removes all entities from the cache.
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * @return number of currently cached entities, including the unavailable ones
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * @return counters of the cache, requests which were served an expired entity after failure of the source
+     *         count as misses
+     */
+    public CacheStatistics getCacheStatistics() {
+        return statistics;
+    }
+
+    private EntityDescriptor resolve(final String entityID, final byte[] hash) throws MetadataProviderException {
+
+        if (!isInitialized()) {
+            throw new MetadataProviderException("Metadata provider has not been initialized");
+        }
+
+        final String key = SAMLUtil.toHex(hash);
+        final CachedEntity cached = cache.get(key);
+        if (cached != null && cached.expiration > System.currentTimeMillis()) {
+            statistics.recordHit();
+            return cached.descriptor;
+        }
+
+        // Only one thread requests the entity from the source, others wait for its result
+        FutureTask<CachedEntity> task = new FutureTask<CachedEntity>(new Callable<CachedEntity>() {
+            public CachedEntity call() throws MetadataProviderException {
+                return loadAndCache(key, entityID, hash, cached);
+            }
+        });
+        FutureTask<CachedEntity> running = loading.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+                statistics.recordMiss(System.nanoTime() - start);
+            }
+        } else {
+            statistics.recordHit();
+        }
+
+        try {
+            return running.get().descriptor;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MetadataProviderException) {
+                throw (MetadataProviderException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new MetadataProviderException("Error loading entity from source " + source, cause);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MetadataProviderException("Interrupted while waiting for entity from source " + source, e);
+        }
+
+    }
+
+    /**
+     * Loads entity from the source and stores the result in the cache. In case the source fails, the failure is
+     * cached for negativeCacheDuration, or the previously cached entity is used when it's still valid.
+     *
+     * @param key      cache key
+     * @param entityID entity, null when only hash is known
+     * @param hash     SHA-1 hash of the entityID
+     * @param previous expired cache entry or null
+     * @return cached result
+     * @throws MetadataProviderException in case source fails and no valid previous entity is available
+     */
+    private CachedEntity loadAndCache(String key, String entityID, byte[] hash, CachedEntity previous) throws MetadataProviderException {
+
+        long now = System.currentTimeMillis();
+        long generation = cache.getGeneration();
+        CachedEntity loaded;
+        MetadataProviderException failure = null;
+
+        try {
+            loaded = load(entityID, hash, now);
+        } catch (MetadataProviderException e) {
+            String name = entityID != null ? entityID : "{sha1}" + key;
+            if (previous != null && previous.descriptor != null && previous.validUntil > now) {
+                log.warn("Entity " + name + " can't be loaded from source " + source + ", previously loaded version will be used", e);
+                loaded = new CachedEntity(previous.descriptor, Math.min(now + negativeCacheDuration, previous.validUntil), previous.validUntil);
+            } else {
+                log.debug("Entity {} can't be loaded from source {}, failure will be cached", name, source);
+                loaded = new CachedEntity(null, now + negativeCacheDuration, Long.MAX_VALUE);
+                failure = e;
+            }
+        }
+
+        // Result isn't kept when the cache was cleared during the load
+        cache.put(key, loaded, Long.MAX_VALUE, generation);
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        return loaded;
+
+    }
+
+    /**
+     * Loads entity from the source, applies filters and calculates time of its expiration from the cache.
+     *
+     * @param entityID entity, null when only hash is known
+     * @param hash     SHA-1 hash of the entityID
+     * @param now      current time
+     * @return loaded entity, descriptor is null when entity is not available or was rejected
+     * @throws MetadataProviderException in case source fails
+     */
+    private CachedEntity load(String entityID, byte[] hash, long now) throws MetadataProviderException {
+
+        String name = entityID != null ? entityID : "{sha1}" + SAMLUtil.toHex(hash);
+        InputStream input = source.getMetadata(entityID, hash);
+
+        if (input == null) {
+            log.debug("Entity {} isn't available in source {}", name, source);
+            return new CachedEntity(null, now + negativeCacheDuration, Long.MAX_VALUE);
+        }
+
+        try {
+
+            Document document = getParserPool().parse(input);
+            Element element = document.getDocumentElement();
+            Unmarshaller unmarshaller = Configuration.getUnmarshallerFactory().getUnmarshaller(element);
+            if (unmarshaller == null) {
+                throw new MetadataProviderException("Unsupported metadata element " + element.getLocalName());
+            }
+            XMLObject object = unmarshaller.unmarshall(element);
+
+            MetadataFilter filter = getMetadataFilter();
+            if (filter != null) {
+                filter.doFilter(object);
+            }
+
+            EntityDescriptor descriptor = findDescriptor(object, entityID, hash);
+            if (descriptor == null) {
+                log.warn("Metadata from source {} doesn't contain entity {}", source, name);
+                return new CachedEntity(null, now + negativeCacheDuration, Long.MAX_VALUE);
+            }
+
+            if (requireValidMetadata() && (!descriptor.isValid() || !isValid(object))) {
+                log.warn("Entity {} is no longer valid", name);
+                return new CachedEntity(null, now + negativeCacheDuration, Long.MAX_VALUE);
+            }
+
+            object.releaseDOM();
+            object.releaseChildrenDOM(true);
+
+            long validUntil = getValidUntil(object, descriptor);
+            long expiration = getExpiration(object, descriptor, now, validUntil);
+            log.debug("Entity {} was loaded and will be cached until {}", name, new Date(expiration));
+            return new CachedEntity(descriptor, expiration, validUntil);
+
+        } catch (MetadataProviderException e) {
+            throw e;
+        } catch (Exception e) {
+            log.warn("Metadata of entity " + name + " from source " + source + " was rejected", e);
+            return new CachedEntity(null, now + negativeCacheDuration, Long.MAX_VALUE);
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) {
+                log.debug("Error closing metadata stream", e);
+            }
+        }
+
+    }
+
+    /**
+     * Locates the requested entity in the loaded metadata.
+     *
+     * @param object   loaded metadata
+     * @param entityID entity, null when only hash is known
+     * @param hash     SHA-1 hash of the entityID
+     * @return entity or null when not found
+     * @throws MetadataProviderException in case hash can't be calculated
+     */
+    private EntityDescriptor findDescriptor(XMLObject object, String entityID, byte[] hash) throws MetadataProviderException {
+        if (object instanceof EntityDescriptor) {
+            EntityDescriptor descriptor = (EntityDescriptor) object;
+            if (matches(descriptor, entityID, hash)) {
+                return descriptor;
+            }
+        } else if (object instanceof EntitiesDescriptor) {
+            for (EntityDescriptor descriptor : ((EntitiesDescriptor) object).getEntityDescriptors()) {
+                if (matches(descriptor, entityID, hash)) {
+                    return descriptor;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(EntityDescriptor descriptor, String entityID, byte[] hash) throws MetadataProviderException {
+        if (descriptor.getEntityID() == null) {
+            return false;
+        } else if (entityID != null) {
+            return entityID.equals(descriptor.getEntityID());
+        } else {
+            return Arrays.equals(hash, SAMLUtil.getEntityIdHash(descriptor.getEntityID()));
+        }
+    }
+
+    private boolean isValid(XMLObject object) {
+        return !(object instanceof TimeBoundSAMLObject) || ((TimeBoundSAMLObject) object).isValid();
+    }
+
+    /**
+     * Calculates time until which the entity can be cached.
+     *
+     * @param root       root element of the loaded metadata
+     * @param descriptor entity
+     * @param now        current time
+     * @param validUntil validity of the entity
+     * @return expiration time
+     */
+    private long getExpiration(XMLObject root, EntityDescriptor descriptor, long now, long validUntil) {
+
+        long expiration = now + maxCacheDuration;
+
+        for (XMLObject object : new XMLObject[]{root, descriptor}) {
+            if (object instanceof CacheableSAMLObject) {
+                Long cacheDuration = ((CacheableSAMLObject) object).getCacheDuration();
+                if (cacheDuration != null) {
+                    expiration = Math.min(expiration, now + cacheDuration);
+                }
+            }
+        }
+
+        expiration = Math.max(expiration, now + minCacheDuration);
+        return Math.min(expiration, validUntil);
+
+    }
+
+    /**
+     * @param root       root element of the loaded metadata
+     * @param descriptor entity
+     * @return earliest validUntil of the root and the entity, Long.MAX_VALUE when not set
+     */
+    private long getValidUntil(XMLObject root, EntityDescriptor descriptor) {
+        long validUntil = Long.MAX_VALUE;
+        for (XMLObject object : new XMLObject[]{root, descriptor}) {
+            if (object instanceof TimeBoundSAMLObject) {
+                DateTime time = ((TimeBoundSAMLObject) object).getValidUntil();
+                if (time != null) {
+                    validUntil = Math.min(validUntil, time.getMillis());
+                }
+            }
+        }
+        return validUntil;
+    }
+
+    /**
+     * Maximal number of entities kept in the cache, the least recently used entities are removed first.
+     * <p/>
+     * Default value is 1000.
+     *
+     * @param maxCacheSize maximal cache size
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        cache.setMaxSize(maxCacheSize);
+    }
+
+    /**
+     * Minimal time entity is cached for, even when its cacheDuration is shorter. Entity is never cached
+     * past its validUntil.
+     * <p/>
+     * Default value is 60000 ms.
+     *
+     * @param minCacheDuration duration in ms
+     */
+    public void setMinCacheDuration(long minCacheDuration) {
+        this.minCacheDuration = minCacheDuration;
+    }
+
+    /**
+     * Maximal time entity is cached for, even when its cacheDuration is longer or not set.
+     * <p/>
+     * Default value is 28800000 ms (8 hours).
+     *
+     * @param maxCacheDuration duration in ms
+     */
+    public void setMaxCacheDuration(long maxCacheDuration) {
+        this.maxCacheDuration = maxCacheDuration;
+    }
+
+    /**
+     * Time for which entity is reported as unavailable once the source doesn't contain it, it was rejected
+     * or the source failed. Previously loaded entity is served for the same time when the source fails.
+     * <p/>
+     * Default value is 60000 ms.
+     *
+     * @param negativeCacheDuration duration in ms
+     */
+    public void setNegativeCacheDuration(long negativeCacheDuration) {
+        this.negativeCacheDuration = negativeCacheDuration;
+    }
+
+    /**
+     * Regular expression entityIDs must match in order to be requested from the source, e.g. the URL prefix
+     * of the federation members. Other entityIDs are reported as unavailable without querying the source,
+     * which prevents arbitrary entityIDs received in messages from triggering requests. Lookups by hash are
+     * not restricted.
+     * <p/>
+     * By default all entityIDs are allowed.
+     *
+     * @param entityIDPattern regular expression or null to allow all entityIDs
+     */
+    public void setEntityIDPattern(String entityIDPattern) {
+        this.entityIDPattern = entityIDPattern != null ? Pattern.compile(entityIDPattern) : null;
+    }
+
+    /**
+     * Cached result of a lookup.
+     */
+    private static class CachedEntity {
+
+        private final EntityDescriptor descriptor;
+        private final long expiration;
+        private final long validUntil;
+
+        private CachedEntity(EntityDescriptor descriptor, long expiration, long validUntil) {
+            this.descriptor = descriptor;
+            this.expiration = expiration;
+            this.validUntil = validUntil;
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.*;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Endpoint tables of roles indexed during refresh of the MetadataManager, together with single logout bindings
+ * selected for pairs of IDPs and local SPs. Roles are identified by identity, so that descriptors loaded after
+ * the refresh never match a table created for their previous version.
+ */
+final class EndpointIndex {
+
+    /**
+     * Compiled tables per role.
+     */
+    private final Map<SSODescriptor, EndpointTable> tables = new IdentityHashMap<SSODescriptor, EndpointTable>();
+
+    /**
+     * Single logout binding per IDP and SP.
+     */
+    private final Map<LogoutKey, String> logoutBindings = new HashMap<LogoutKey, String>();
+
+    /**
+     * Compiles tables of all IDP and SP roles of the entity. Must only be called before the index is published.
+     *
+     * @param descriptor entity
+     */
+    void addEntity(EntityDescriptor descriptor) {
+        for (RoleDescriptor role : descriptor.getRoleDescriptors()) {
+            if (role instanceof SSODescriptor && !tables.containsKey(role)) {
+                tables.put((SSODescriptor) role, new EndpointTable((SSODescriptor) role));
+            }
+        }
+    }
+
+    /**
+     * Stores single logout binding to be used between the IDP and SP, tables of both must be already present.
+     * Must only be called before the index is published.
+     *
+     * @param idp IDP
+     * @param sp  SP
+     */
+    void addLogoutBinding(IDPSSODescriptor idp, SPSSODescriptor sp) {
+        EndpointTable idpTable = tables.get(idp);
+        EndpointTable spTable = tables.get(sp);
+        if (idpTable != null && spTable != null) {
+            String binding = idpTable.getCommonSingleLogoutBinding(spTable);
+            if (binding != null) {
+                logoutBindings.put(new LogoutKey(idp, sp), binding);
+            }
+        }
+    }
+
+    /**
+     * @param descriptor role
+     * @return table compiled for the role or null
+     */
+    EndpointTable getTable(SSODescriptor descriptor) {
+        return tables.get(descriptor);
+    }
+
+    /**
+     * @param idp IDP
+     * @param sp  SP
+     * @return single logout binding selected for the pair or null
+     */
+    String getLogoutBinding(IDPSSODescriptor idp, SPSSODescriptor sp) {
+        return logoutBindings.get(new LogoutKey(idp, sp));
+    }
+
+    /**
+     * Pair of roles compared by identity.
+     */
+    private static final class LogoutKey {
+
+        private final IDPSSODescriptor idp;
+        private final SPSSODescriptor sp;
+
+        private LogoutKey(IDPSSODescriptor idp, SPSSODescriptor sp) {
+            this.idp = idp;
+            this.sp = sp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LogoutKey)) {
+                return false;
+            }
+            LogoutKey key = (LogoutKey) o;
+            return idp == key.idp && sp == key.sp;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(idp) + System.identityHashCode(sp);
+        }
+
+    }
+
+}
@@ -0,0 +1,225 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.*;
+
+import java.util.*;
+
+/**
+ * Endpoints of a single IDP or SP role compiled into lookup tables. Tables are built by the MetadataManager during
+ * refresh for all indexed roles, so that selection of endpoints during processing of requests doesn't need to iterate
+ * the metadata. In case multiple endpoints use the same binding or index, the first one in the metadata is used.
+ * <p/>
+ * Table reflects content of the descriptor at the time it was created and is immutable.
+ *
+ * @see MetadataManager#getEndpointTable(org.opensaml.saml2.metadata.SSODescriptor)
+ */
+public final class EndpointTable {
+
+    /**
+     * Descriptor the table was created for.
+     */
+    private final SSODescriptor descriptor;
+
+    private final Map<String, SingleSignOnService> ssoServices;
+    private final String defaultSSOBinding;
+
+    private final Map<String, SingleLogoutService> logoutServices;
+    private final List<String> logoutBindings;
+
+    private final Map<String, AssertionConsumerService> consumerServicesByBinding;
+    private final Map<Integer, AssertionConsumerService> consumerServicesByIndex;
+    private final AssertionConsumerService defaultConsumerService;
+
+    private final Map<Integer, ArtifactResolutionService> artifactResolutionServices;
+    private final boolean artifactResolution;
+
+    /**
+     * Compiles endpoints of the descriptor.
+     *
+     * @param descriptor IDP or SP descriptor
+     */
+    public EndpointTable(SSODescriptor descriptor) {
+
+        this.descriptor = descriptor;
+
+        Map<String, SingleSignOnService> sso = Collections.emptyMap();
+        String ssoBinding = null;
+        Map<String, AssertionConsumerService> acsBinding = Collections.emptyMap();
+        Map<Integer, AssertionConsumerService> acsIndex = Collections.emptyMap();
+        AssertionConsumerService acsDefault = null;
+
+        if (descriptor instanceof IDPSSODescriptor) {
+            List<SingleSignOnService> services = ((IDPSSODescriptor) descriptor).getSingleSignOnServices();
+            sso = new HashMap<String, SingleSignOnService>();
+            for (SingleSignOnService service : services) {
+                putBinding(sso, service);
+            }
+            if (!services.isEmpty()) {
+                ssoBinding = services.get(0).getBinding();
+            }
+        }
+
+        if (descriptor instanceof SPSSODescriptor) {
+            SPSSODescriptor sp = (SPSSODescriptor) descriptor;
+            acsBinding = new HashMap<String, AssertionConsumerService>();
+            acsIndex = new HashMap<Integer, AssertionConsumerService>();
+            for (AssertionConsumerService service : sp.getAssertionConsumerServices()) {
+                putBinding(acsBinding, service);
+                if (service.getIndex() != null && !acsIndex.containsKey(service.getIndex())) {
+                    acsIndex.put(service.getIndex(), service);
+                }
+            }
+            acsDefault = sp.getDefaultAssertionConsumerService();
+            if (acsDefault == null && !sp.getAssertionConsumerServices().isEmpty()) {
+                acsDefault = sp.getAssertionConsumerServices().get(0);
+            }
+        }
+
+        Map<String, SingleLogoutService> slo = new HashMap<String, SingleLogoutService>();
+        List<String> sloBindings = new ArrayList<String>();
+        for (SingleLogoutService service : descriptor.getSingleLogoutServices()) {
+            if (putBinding(slo, service)) {
+                sloBindings.add(service.getBinding());
+            }
+        }
+
+        Map<Integer, ArtifactResolutionService> ars = new HashMap<Integer, ArtifactResolutionService>();
+        for (ArtifactResolutionService service : descriptor.getArtifactResolutionServices()) {
+            if (service.getIndex() != null && !ars.containsKey(service.getIndex())) {
+                ars.put(service.getIndex(), service);
+            }
+        }
+
+        this.ssoServices = sso;
+        this.defaultSSOBinding = ssoBinding;
+        this.logoutServices = slo;
+        this.logoutBindings = Collections.unmodifiableList(sloBindings);
+        this.consumerServicesByBinding = acsBinding;
+        this.consumerServicesByIndex = acsIndex;
+        this.defaultConsumerService = acsDefault;
+        this.artifactResolutionServices = ars;
+        this.artifactResolution = !descriptor.getArtifactResolutionServices().isEmpty();
+
+    }
+
+    /**
+     * Stores the endpoint under its binding unless another endpoint with the same binding is already present.
+     *
+     * @param map      map to store endpoint in
+     * @param endpoint endpoint
+     * @return true when the endpoint was stored
+     */
+    private <T extends Endpoint> boolean putBinding(Map<String, T> map, T endpoint) {
+        if (endpoint.getBinding() == null || map.containsKey(endpoint.getBinding())) {
+            return false;
+        }
+        map.put(endpoint.getBinding(), endpoint);
+        return true;
+    }
+
+    /**
+     * @return descriptor the table was created for
+     */
+    public SSODescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * @param binding binding
+     * @return first SSO service of the IDP with the binding, or null
+     */
+    public SingleSignOnService getSingleSignOnService(String binding) {
+        return ssoServices.get(binding);
+    }
+
+    /**
+     * @return binding of the first SSO service of the IDP, or null when IDP has no SSO services
+     */
+    public String getDefaultSingleSignOnBinding() {
+        return defaultSSOBinding;
+    }
+
+    /**
+     * @param binding binding
+     * @return first single logout service with the binding, or null
+     */
+    public SingleLogoutService getSingleLogoutService(String binding) {
+        return logoutServices.get(binding);
+    }
+
+    /**
+     * @return bindings of single logout services in order of their appearance
+     */
+    public List<String> getSingleLogoutBindings() {
+        return logoutBindings;
+    }
+
+    /**
+     * Selects binding for single logout with the given peer. First binding of this table supported also by
+     * the peer is used, first binding of this table otherwise.
+     *
+     * @param peer table of the peer entity
+     * @return binding or null when this table has no single logout services
+     */
+    public String getCommonSingleLogoutBinding(EndpointTable peer) {
+        for (String binding : logoutBindings) {
+            if (peer.logoutServices.containsKey(binding)) {
+                return binding;
+            }
+        }
+        return logoutBindings.isEmpty() ? null : logoutBindings.get(0);
+    }
+
+    /**
+     * @param binding binding
+     * @return first assertion consumer service of the SP with the binding, or null
+     */
+    public AssertionConsumerService getAssertionConsumerService(String binding) {
+        return consumerServicesByBinding.get(binding);
+    }
+
+    /**
+     * @param index index
+     * @return first assertion consumer service of the SP with the index, or null
+     */
+    public AssertionConsumerService getAssertionConsumerService(Integer index) {
+        return consumerServicesByIndex.get(index);
+    }
+
+    /**
+     * @return default assertion consumer service of the SP, first one when none is marked as default, or null
+     */
+    public AssertionConsumerService getDefaultAssertionConsumerService() {
+        return defaultConsumerService;
+    }
+
+    /**
+     * @param index index
+     * @return first artifact resolution service with the index, or null
+     */
+    public ArtifactResolutionService getArtifactResolutionService(int index) {
+        return artifactResolutionServices.get(index);
+    }
+
+    /**
+     * @return true when the descriptor contains some artifact resolution service
+     */
+    public boolean hasArtifactResolutionServices() {
+        return artifactResolution;
+    }
+
+}
@@ -0,0 +1,77 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import java.util.Arrays;
+
+/**
+ * Key wrapping SHA-1 hash of an entityID (e.g. SourceID of a SAML 2.0 artifact) so that it can be used
+ * in hash based collections. Equality is based on content of the hash, not on identity of the array.
+ */
+final class EntityHashKey {
+
+    /**
+     * Copy of the hash.
+     */
+    private final byte[] hash;
+
+    /**
+     * Precomputed hash code.
+     */
+    private final int hashCode;
+
+    /**
+     * Creates key for the given hash, value is copied.
+     *
+     * @param hash hash, mustn't be null
+     */
+    EntityHashKey(byte[] hash) {
+        if (hash == null) {
+            throw new IllegalArgumentException("Hash may not be null");
+        }
+        this.hash = new byte[hash.length];
+        System.arraycopy(hash, 0, this.hash, 0, hash.length);
+        this.hashCode = Arrays.hashCode(this.hash);
+    }
+
+    /**
+     * @return the hash, mustn't be modified
+     */
+    byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof EntityHashKey)) {
+            return false;
+        }
+        EntityHashKey other = (EntityHashKey) obj;
+        return Arrays.equals(hash, other.hash);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return hashCode;
+    }
+
+}
@@ -0,0 +1,39 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+
+import java.io.InputStream;
+
+/**
+ * Source of metadata of individual entities used by the DynamicMetadataProvider. Entities are identified either
+ * by their entityID or by SHA-1 hash of the entityID (e.g. when resolving sender of an artifact).
+ */
+public interface EntityMetadataSource {
+
+    /**
+     * Loads metadata of a single entity. Returned document must contain EntityDescriptor of the entity either as
+     * the root element or as a direct child of the root EntitiesDescriptor. Caller is responsible for closing
+     * of the stream.
+     *
+     * @param entityID entityID of the requested entity, null when only hash is known
+     * @param hash     SHA-1 hash of the entityID, never null
+     * @return stream with the metadata or null when source doesn't contain the entity
+     * @throws MetadataProviderException in case metadata can't be loaded
+     */
+    InputStream getMetadata(String entityID, byte[] hash) throws MetadataProviderException;
+
+}
@@ -0,0 +1,185 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.signature.Reference;
+import org.apache.xml.security.signature.SignedInfo;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.transforms.Transforms;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xml.security.keyinfo.KeyInfoCriteria;
+import org.opensaml.xml.signature.KeyInfo;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.signature.SignatureTrustEngine;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Verifies enveloped signature of an element whose content is only available as a stream of SAX events.
+ * Signature element is parsed on its own, content of the signed element is canonicalized directly into the digest
+ * of the reference by the ExclusiveCanonicalizer. SignatureValue is then verified over SignedInfo using the trust
+ * engine, with credentials resolved from KeyInfo of the signature as candidates.
+ * <p/>
+ * Only signatures following the SAML signature profile are supported: a single reference to the ID of the signed
+ * element (or to the whole document when the element is the root), the enveloped signature transform followed by
+ * exclusive canonicalization. Signature must be the first child element of the signed element, so that its
+ * transforms are known before the content is processed.
+ */
+final class EnvelopedSignatureVerifier {
+
+    private static final String EXCLUSIVE_C14N_NS = "http://www.w3.org/2001/10/xml-exc-c14n#";
+    private static final String INCLUSIVE_NAMESPACES = "InclusiveNamespaces";
+    private static final String PREFIX_LIST = "PrefixList";
+    private static final String DEFAULT_PREFIX = "#default";
+
+    private final XMLSignature signature;
+    private final KeyInfo keyInfo;
+    private final MessageDigest digest;
+    private final byte[] digestValue;
+    private final Set<String> inclusivePrefixes;
+
+    /**
+     * @param element parsed Signature element
+     * @param id      ID of the signed element, null when not set
+     * @param root    true when the signed element is the document element
+     * @throws MetadataProviderException in case signature can't be parsed or doesn't follow the profile
+     */
+    EnvelopedSignatureVerifier(Element element, String id, boolean root) throws MetadataProviderException {
+
+        try {
+
+            signature = new XMLSignature(element, "");
+            SignedInfo signedInfo = signature.getSignedInfo();
+            if (signedInfo.getLength() != 1) {
+                throw new MetadataProviderException("Signature must contain exactly one reference");
+            }
+
+            Reference reference = signedInfo.item(0);
+            String uri = reference.getURI();
+            if (uri == null || !((root && uri.length() == 0) || (id != null && uri.equals("#" + id)))) {
+                throw new MetadataProviderException("Signature reference " + uri + " doesn't point to the signed element");
+            }
+
+            inclusivePrefixes = new HashSet<String>();
+            Transforms transforms = reference.getTransforms();
+            int length = transforms != null ? transforms.getLength() : 0;
+            if (length != 2 || !SignatureConstants.TRANSFORM_ENVELOPED_SIGNATURE.equals(transforms.item(0).getURI())
+                    || !isExclusive(transforms.item(1).getURI())) {
+                throw new MetadataProviderException("Signature must use enveloped signature transform followed by exclusive canonicalization");
+            }
+            NodeList namespaces = transforms.item(1).getElement().getElementsByTagNameNS(EXCLUSIVE_C14N_NS, INCLUSIVE_NAMESPACES);
+            if (namespaces.getLength() > 0) {
+                String prefixList = ((Element) namespaces.item(0)).getAttributeNS(null, PREFIX_LIST);
+                for (String prefix : prefixList.trim().split("\\s+")) {
+                    if (prefix.length() > 0) {
+                        inclusivePrefixes.add(DEFAULT_PREFIX.equals(prefix) ? "" : prefix);
+                    }
+                }
+            }
+
+            digest = MessageDigest.getInstance(JCEMapper.translateURItoJCEID(reference.getMessageDigestAlgorithm().getAlgorithmURI()));
+            digestValue = reference.getDigestValue();
+
+            Signature signatureObject = (Signature) Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+            keyInfo = signatureObject.getKeyInfo();
+
+        } catch (MetadataProviderException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MetadataProviderException("Signature can't be parsed", e);
+        }
+
+    }
+
+    /**
+     * Creates canonicalizer which calculates digest of the reference. Start of the signed element and all content
+     * except for the Signature element must be passed to it.
+     *
+     * @param namespaces namespaces in scope of the signed element, including its own declarations
+     * @return canonicalizer
+     */
+    ExclusiveCanonicalizer createCanonicalizer(Map<String, String> namespaces) {
+        return new ExclusiveCanonicalizer(digest, namespaces, inclusivePrefixes);
+    }
+
+    /**
+     * Verifies that digest of the canonicalized content matches the reference and that SignatureValue is valid
+     * and trusted. Must be called after the canonicalizer was finished.
+     *
+     * @param engine   trust engine
+     * @param criteria criteria used as the trust basis
+     * @throws MetadataProviderException in case signature isn't valid or trusted
+     */
+    void verify(SignatureTrustEngine engine, CriteriaSet criteria) throws MetadataProviderException {
+
+        if (!MessageDigest.isEqual(digestValue, digest.digest())) {
+            throw new MetadataProviderException("Digest of the signed content doesn't match the signature reference");
+        }
+
+        try {
+
+            byte[] content = signature.getSignedInfo().getCanonicalizedOctetStream();
+            byte[] value = signature.getSignatureValue();
+            String algorithm = signature.getSignedInfo().getSignatureMethodURI();
+
+            for (Credential candidate : getCandidates(engine)) {
+                if (engine.validate(value, content, algorithm, criteria, candidate)) {
+                    return;
+                }
+            }
+
+            // Engines with own trusted credentials don't need a candidate
+            if (engine.validate(value, content, algorithm, criteria, null)) {
+                return;
+            }
+
+        } catch (Exception e) {
+            throw new MetadataProviderException("Error verifying signature value", e);
+        }
+
+        throw new MetadataProviderException("Signature value isn't valid or trusted");
+
+    }
+
+    /**
+     * @param engine trust engine
+     * @return credentials resolved from KeyInfo of the signature
+     * @throws Exception in case KeyInfo can't be resolved
+     */
+    private List<Credential> getCandidates(SignatureTrustEngine engine) throws Exception {
+        List<Credential> candidates = new LinkedList<Credential>();
+        KeyInfoCredentialResolver resolver = engine.getKeyInfoResolver();
+        if (keyInfo != null && resolver != null) {
+            for (Credential credential : resolver.resolve(new CriteriaSet(new KeyInfoCriteria(keyInfo)))) {
+                candidates.add(credential);
+            }
+        }
+        return candidates;
+    }
+
+    private boolean isExclusive(String algorithm) {
+        return SignatureConstants.TRANSFORM_C14N_EXCL_OMIT_COMMENTS.equals(algorithm) || SignatureConstants.TRANSFORM_C14N_EXCL_WITH_COMMENTS.equals(algorithm);
+    }
+
+}
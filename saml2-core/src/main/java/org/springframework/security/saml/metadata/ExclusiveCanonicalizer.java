@@ -0,0 +1,254 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.xml.sax.Attributes;
+
+import javax.xml.XMLConstants;
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Exclusive XML canonicalization (http://www.w3.org/2001/10/xml-exc-c14n#) of an element subtree reported
+ * by SAX events. Canonical form is written into a digest as the events arrive, so that digest of a signed element
+ * can be calculated without keeping its content in memory. Comments are not reported by the SAX handlers and are
+ * therefore always omitted, as required for same-document references.
+ */
+final class ExclusiveCanonicalizer {
+
+    /**
+     * Canonical form of the events, encoded in UTF-8.
+     */
+    private final Writer out;
+
+    /**
+     * Prefixes of the InclusiveNamespaces PrefixList, default namespace is represented by an empty prefix.
+     */
+    private final Set<String> inclusivePrefixes;
+
+    /**
+     * Namespaces in scope of the open elements, the innermost first.
+     */
+    private final LinkedList<Map<String, String>> inScope = new LinkedList<Map<String, String>>();
+
+    /**
+     * Namespaces rendered by the open elements and their output ancestors, the innermost first.
+     */
+    private final LinkedList<Map<String, String>> rendered = new LinkedList<Map<String, String>>();
+
+    /**
+     * @param digest            digest to write the canonical form into
+     * @param namespaces        namespaces in scope of the first element, including its own declarations
+     * @param inclusivePrefixes prefixes treated as in the inclusive canonicalization, empty for the default namespace
+     */
+    ExclusiveCanonicalizer(final MessageDigest digest, Map<String, String> namespaces, Set<String> inclusivePrefixes) {
+        OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) {
+                digest.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        };
+        try {
+            this.out = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 encoding isn't supported", e);
+        }
+        this.inclusivePrefixes = inclusivePrefixes;
+        this.inScope.addFirst(new HashMap<String, String>(namespaces));
+        this.rendered.addFirst(new HashMap<String, String>());
+    }
+
+    /**
+     * Renders start tag with namespaces visibly utilized by the element which weren't rendered by its output
+     * ancestors, and with attributes sorted by namespace and local name.
+     *
+     * @param qName      qualified name of the element
+     * @param attributes attributes of the element
+     * @param declared   namespaces declared on the element
+     * @throws IOException in case writing fails
+     */
+    void startElement(String qName, Attributes attributes, Map<String, String> declared) throws IOException {
+
+        Map<String, String> namespaces = inScope.getFirst();
+        if (!declared.isEmpty()) {
+            namespaces = new HashMap<String, String>(namespaces);
+            namespaces.putAll(declared);
+        }
+
+        SortedSet<String> utilized = new TreeSet<String>(inclusivePrefixes);
+        utilized.add(getPrefix(qName));
+        for (int i = 0; i < attributes.getLength(); i++) {
+            // Attributes without prefix don't utilize the default namespace
+            String prefix = getPrefix(attributes.getQName(i));
+            if (prefix.length() > 0) {
+                utilized.add(prefix);
+            }
+        }
+
+        out.write('<');
+        out.write(qName);
+
+        Map<String, String> output = rendered.getFirst();
+        Map<String, String> next = output;
+        for (String prefix : utilized) {
+            if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+                continue;
+            }
+            String uri = namespaces.get(prefix);
+            String previous = output.get(prefix);
+            if (prefix.length() == 0) {
+                uri = uri != null ? uri : "";
+                previous = previous != null ? previous : "";
+            } else if (uri == null) {
+                // Included prefix which isn't in scope
+                continue;
+            }
+            if (!uri.equals(previous)) {
+                if (next == output) {
+                    next = new HashMap<String, String>(output);
+                }
+                next.put(prefix, uri);
+                out.write(prefix.length() == 0 ? " xmlns=\"" : " xmlns:" + prefix + "=\"");
+                writeAttributeValue(uri);
+                out.write('"');
+            }
+        }
+
+        for (int i : getSortedAttributes(attributes)) {
+            out.write(' ');
+            out.write(attributes.getQName(i));
+            out.write("=\"");
+            writeAttributeValue(attributes.getValue(i));
+            out.write('"');
+        }
+
+        out.write('>');
+
+        inScope.addFirst(namespaces);
+        rendered.addFirst(next);
+
+    }
+
+    /**
+     * @param qName qualified name of the element
+     * @throws IOException in case writing fails
+     */
+    void endElement(String qName) throws IOException {
+        out.write("</");
+        out.write(qName);
+        out.write('>');
+        inScope.removeFirst();
+        rendered.removeFirst();
+    }
+
+    void characters(char[] ch, int start, int length) throws IOException {
+        for (int i = start; i < start + length; i++) {
+            char c = ch[i];
+            switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '\r':
+                    out.write("&#xD;");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+
+    void processingInstruction(String target, String data) throws IOException {
+        out.write("<?");
+        out.write(target);
+        if (data != null && data.length() > 0) {
+            out.write(' ');
+            out.write(data);
+        }
+        out.write("?>");
+    }
+
+    /**
+     * Writes all buffered output into the digest, to be called once the subtree is ended.
+     *
+     * @throws IOException in case writing fails
+     */
+    void finish() throws IOException {
+        out.flush();
+    }
+
+    private void writeAttributeValue(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                case '\t':
+                    out.write("&#x9;");
+                    break;
+                case '\n':
+                    out.write("&#xA;");
+                    break;
+                case '\r':
+                    out.write("&#xD;");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+
+    /**
+     * @param attributes attributes
+     * @return indexes of the attributes ordered by namespace and local name
+     */
+    private Integer[] getSortedAttributes(final Attributes attributes) {
+        Integer[] order = new Integer[attributes.getLength()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                int result = attributes.getURI(o1).compareTo(attributes.getURI(o2));
+                return result != 0 ? result : attributes.getLocalName(o1).compareTo(attributes.getLocalName(o2));
+            }
+        });
+        return order;
+    }
+
+    private String getPrefix(String qName) {
+        int index = qName.indexOf(':');
+        return index < 0 ? "" : qName.substring(0, index);
+    }
+
+}
@@ -15,12 +15,17 @@
 package org.springframework.security.saml.metadata;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
  * Class contains additional information describing a SAML entity. Metadata can be used both for local entities
  * (= the ones accessible as part of the deployed application using the SAML Extension) and remove entities (= the ones
  * user can interact with like IDPs).
+ * <p/>
+ * Instances returned from the MetadataManager are frozen and shared by all callers, any attempt to modify them
+ * fails. Callers which need to change the values must work on a copy obtained using the clone method.
  *
  * @author Vladimir Schaefer
  */
@@ -76,6 +81,11 @@ public class ExtendedMetadata implements Serializable, Cloneable {
 
     private boolean requireArtifactResolveSigned;
 
+    /**
+     * True when the object can't be modified anymore.
+     */
+    private boolean frozen;
+
     /**
      * Security profile to use for this local entity - MetaIOP (default) or PKIX.
      *
@@ -101,6 +111,7 @@ public class ExtendedMetadata implements Serializable, Cloneable {
      * @param securityProfile profile to use - PKIX when set to "pkix", MetaIOP otherwise
      */
     public void setSecurityProfile(String securityProfile) {
+        checkModifiable();
         this.securityProfile = securityProfile;
     }
 
@@ -125,6 +136,7 @@ public class ExtendedMetadata implements Serializable, Cloneable {
      * @param alias alias value
      */
     public void setAlias(String alias) {
+        checkModifiable();
         this.alias = alias;
     }
 
@@ -146,6 +158,7 @@ public class ExtendedMetadata implements Serializable, Cloneable {
      * @param signingKey key for creation/verification of signatures
      */
     public void setSigningKey(String signingKey) {
+        checkModifiable();
         this.signingKey = signingKey;
     }
 
@@ -168,6 +181,7 @@ public class ExtendedMetadata implements Serializable, Cloneable {
      * @param encryptionKey key for creation/verification of signatures
      */
     public void setEncryptionKey(String encryptionKey) {
+        checkModifiable();
         this.encryptionKey = encryptionKey;
     }
 
@@ -186,6 +200,7 @@ public class ExtendedMetadata implements Serializable, Cloneable {
      * @param requireLogoutRequestSigned logout request signature flag
      */
     public void setRequireLogoutRequestSigned(boolean requireLogoutRequestSigned) {
+        checkModifiable();
         this.requireLogoutRequestSigned = requireLogoutRequestSigned;
     }
 
@@ -204,6 +219,7 @@ public class ExtendedMetadata implements Serializable, Cloneable {
      * @param requireLogoutResponseSigned logout response signature flag
      */
     public void setRequireLogoutResponseSigned(boolean requireLogoutResponseSigned) {
+        checkModifiable();
         this.requireLogoutResponseSigned = requireLogoutResponseSigned;
     }
 
@@ -222,6 +238,7 @@ public class ExtendedMetadata implements Serializable, Cloneable {
      * @param requireArtifactResolveSigned artifact resolve signature flag
      */
     public void setRequireArtifactResolveSigned(boolean requireArtifactResolveSigned) {
+        checkModifiable();
         this.requireArtifactResolveSigned = requireArtifactResolveSigned;
     }
 
@@ -242,6 +259,7 @@ public class ExtendedMetadata implements Serializable, Cloneable {
      * @param tlsKey tls key
      */
     public void setTlsKey(String tlsKey) {
+        checkModifiable();
         this.tlsKey = tlsKey;
     }
 
@@ -263,6 +281,7 @@ public class ExtendedMetadata implements Serializable, Cloneable {
      * @param trustedKeys keys
      */
     public void setTrustedKeys(Set<String> trustedKeys) {
+        checkModifiable();
         this.trustedKeys = trustedKeys;
     }
 
@@ -277,18 +296,57 @@ public class ExtendedMetadata implements Serializable, Cloneable {
      * @param local true when entity is deployed locally
      */
     public void setLocal(boolean local) {
+        checkModifiable();
         this.local = local;
     }
 
     /**
-     * Clones the existing metadata object.
+     * Makes the object read-only, all subsequent calls to setters will fail. Set of trusted keys is copied
+     * and made unmodifiable. Frozen objects can be safely shared between threads.
+     *
+     * @return this object
+     */
+    public ExtendedMetadata freeze() {
+        if (!frozen) {
+            if (trustedKeys != null) {
+                trustedKeys = Collections.unmodifiableSet(new LinkedHashSet<String>(trustedKeys));
+            }
+            frozen = true;
+        }
+        return this;
+    }
+
+    /**
+     * @return true when the object is read-only
+     * @see #freeze()
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkModifiable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Extended metadata is frozen, use clone to obtain a modifiable copy");
+        }
+    }
+
+    /**
+     * Clones the existing metadata object. The clone is always modifiable, including its set of trusted keys,
+     * even when this object is frozen.
      *
      * @return clone of the metadata
      */
     @Override
     public ExtendedMetadata clone() {
         try {
-            return (ExtendedMetadata) super.clone();
+            ExtendedMetadata clone = (ExtendedMetadata) super.clone();
+            if (frozen) {
+                clone.frozen = false;
+                if (trustedKeys != null) {
+                    clone.trustedKeys = new LinkedHashSet<String>(trustedKeys);
+                }
+            }
+            return clone;
         } catch (CloneNotSupportedException e) {
             throw new RuntimeException("Extended metadata not cloneable", e);
         }
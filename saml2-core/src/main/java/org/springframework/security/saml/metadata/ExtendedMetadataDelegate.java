@@ -14,7 +14,6 @@
  */
 package org.springframework.security.saml.metadata;
 
-import org.opensaml.saml2.metadata.EntityDescriptor;
 import org.opensaml.saml2.metadata.provider.AbstractMetadataProvider;
 import org.opensaml.saml2.metadata.provider.MetadataProvider;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
@@ -57,6 +56,12 @@ public class ExtendedMetadataDelegate extends AbstractMetadataDelegate implement
      */
     private Set<String> metadataTrustedKeys = null;
 
+    /**
+     * Interval in milliseconds between checks for reload of this provider, zero or less for the default of the
+     * MetadataManager.
+     */
+    private long refreshCheckInterval = 0;
+
     /**
      * Metadata to use in case map doesn't contain any value.
      */
@@ -136,8 +141,11 @@ public class ExtendedMetadataDelegate extends AbstractMetadataDelegate implement
      */
     public ExtendedMetadata getExtendedMetadata(String entityID) throws MetadataProviderException {
 
-        EntityDescriptor entityDescriptor = getEntityDescriptor(entityID);
-        if (entityDescriptor == null) {
+        if (getDelegate() instanceof IndexedMetadataProvider) {
+            if (!((IndexedMetadataProvider) getDelegate()).containsEntity(entityID)) {
+                return null;
+            }
+        } else if (getEntityDescriptor(entityID) == null) {
             return null;
         }
 
@@ -238,6 +246,27 @@ public class ExtendedMetadataDelegate extends AbstractMetadataDelegate implement
         this.forceMetadataRevocationCheck = forceMetadataRevocationCheck;
     }
 
+    /**
+     * Interval in milliseconds between checks for reload of this provider used by the MetadataRefreshScheduler.
+     *
+     * @return interval, zero or less when the default of the MetadataManager is used
+     */
+    public long getRefreshCheckInterval() {
+        return refreshCheckInterval;
+    }
+
+    /**
+     * Sets interval in milliseconds between checks for reload of this provider. Allows providers to be checked
+     * in a different pace than the rest, e.g. remote providers less often than local files.
+     * <p/>
+     * By default the value is 0 and refreshCheckInterval of the MetadataManager is used.
+     *
+     * @param refreshCheckInterval interval, zero or less to use the default
+     */
+    public void setRefreshCheckInterval(long refreshCheckInterval) {
+        this.refreshCheckInterval = refreshCheckInterval;
+    }
+
     protected boolean isTrustFiltersInitialized() {
         return trustFiltersInitialized;
     }
@@ -0,0 +1,89 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.util.SAMLUtil;
+
+import java.io.*;
+
+/**
+ * Source loading metadata of entities from a directory containing one file per entity. Name of each file
+ * is the lower case hex encoded SHA-1 hash of the entityID followed by the suffix (".xml" by default).
+ */
+public class FilesystemEntityMetadataSource implements EntityMetadataSource {
+
+    // Class logger
+    protected final Logger log = LoggerFactory.getLogger(FilesystemEntityMetadataSource.class);
+
+    /**
+     * Directory with the metadata files.
+     */
+    private final File directory;
+
+    /**
+     * Suffix of the metadata files.
+     */
+    private String suffix = ".xml";
+
+    /**
+     * @param directory directory with the metadata files
+     * @throws MetadataProviderException in case directory doesn't exist or can't be read
+     */
+    public FilesystemEntityMetadataSource(File directory) throws MetadataProviderException {
+        if (directory == null || !directory.isDirectory()) {
+            throw new MetadataProviderException("Metadata directory " + directory + " doesn't exist");
+        }
+        if (!directory.canRead()) {
+            throw new MetadataProviderException("Metadata directory " + directory + " can't be read");
+        }
+        this.directory = directory;
+    }
+
+    public InputStream getMetadata(String entityID, byte[] hash) throws MetadataProviderException {
+
+        File file = new File(directory, SAMLUtil.toHex(hash) + suffix);
+        if (!file.isFile()) {
+            log.debug("Metadata file {} for entity {} doesn't exist", file, entityID);
+            return null;
+        }
+
+        try {
+            return new BufferedInputStream(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            throw new MetadataProviderException("Metadata file " + file + " can't be read", e);
+        }
+
+    }
+
+    /**
+     * Suffix appended to the hash of entityID in order to create name of the metadata file.
+     * <p/>
+     * Default value is ".xml".
+     *
+     * @param suffix file suffix
+     */
+    public void setSuffix(String suffix) {
+        this.suffix = suffix;
+    }
+
+    @Override
+    public String toString() {
+        return "FilesystemEntityMetadataSource{directory=" + directory + "}";
+    }
+
+}
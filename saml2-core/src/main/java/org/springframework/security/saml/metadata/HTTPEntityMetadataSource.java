@@ -0,0 +1,167 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.util.SAMLUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Source loading metadata of entities from an HTTP endpoint using requests in the format of the Metadata Query
+ * Protocol, i.e. GET {baseURL}/entities/{url encoded entityID}. Lookups by hash use the {sha1} transformed
+ * identifier.
+ */
+public class HTTPEntityMetadataSource implements EntityMetadataSource {
+
+    // Class logger
+    protected final Logger log = LoggerFactory.getLogger(HTTPEntityMetadataSource.class);
+
+    /**
+     * Content type requested from the server.
+     */
+    private static final String METADATA_CONTENT_TYPE = "application/samlmetadata+xml";
+
+    /**
+     * Client used to perform the requests.
+     */
+    private final HttpClient httpClient;
+
+    /**
+     * Base URL of the endpoint, ends with a slash.
+     */
+    private final String baseURL;
+
+    /**
+     * Maximal size of the response in bytes.
+     */
+    private int maxResponseSize = 1048576;
+
+    /**
+     * @param baseURL    base URL of the metadata query endpoint
+     * @param httpClient client used to perform the requests, its timeouts should be configured
+     */
+    public HTTPEntityMetadataSource(String baseURL, HttpClient httpClient) {
+        if (!baseURL.endsWith("/")) {
+            baseURL = baseURL + "/";
+        }
+        this.baseURL = baseURL;
+        this.httpClient = httpClient;
+    }
+
+    public InputStream getMetadata(String entityID, byte[] hash) throws MetadataProviderException {
+
+        String url = getRequestURL(entityID, hash);
+        GetMethod method = new GetMethod(url);
+        method.setRequestHeader("Accept", METADATA_CONTENT_TYPE);
+
+        try {
+
+            log.debug("Requesting metadata from {}", url);
+            int status = httpClient.executeMethod(method);
+
+            if (status == HttpStatus.SC_NOT_FOUND) {
+                log.debug("Metadata of entity {} isn't available at {}", entityID, url);
+                return null;
+            } else if (status != HttpStatus.SC_OK) {
+                throw new MetadataProviderException("Request for metadata " + url + " failed with status " + status);
+            }
+
+            if (method.getResponseContentLength() > maxResponseSize) {
+                throw new MetadataProviderException("Metadata " + url + " exceeds maximal size of " + maxResponseSize + " bytes");
+            }
+
+            return new ByteArrayInputStream(readResponse(method, url));
+
+        } catch (IOException e) {
+            throw new MetadataProviderException("Error requesting metadata from " + url, e);
+        } finally {
+            method.releaseConnection();
+        }
+
+    }
+
+    /**
+     * Reads response body, but at most maxResponseSize bytes.
+     *
+     * @param method executed method
+     * @param url    requested URL
+     * @return response body
+     * @throws IOException               in case reading fails
+     * @throws MetadataProviderException in case response exceeds maximal size
+     */
+    private byte[] readResponse(GetMethod method, String url) throws IOException, MetadataProviderException {
+        InputStream input = method.getResponseBodyAsStream();
+        if (input == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            if (output.size() + read > maxResponseSize) {
+                throw new MetadataProviderException("Metadata " + url + " exceeds maximal size of " + maxResponseSize + " bytes");
+            }
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Maximal size of metadata of a single entity accepted from the server, larger responses are treated
+     * as failures.
+     * <p/>
+     * Default value is 1048576 bytes (1 MB).
+     *
+     * @param maxResponseSize size in bytes
+     */
+    public void setMaxResponseSize(int maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    /**
+     * @param entityID entity, can be null
+     * @param hash     SHA-1 hash of the entityID
+     * @return URL of the request for the entity
+     * @throws MetadataProviderException in case URL can't be created
+     */
+    protected String getRequestURL(String entityID, byte[] hash) throws MetadataProviderException {
+        try {
+            if (entityID != null) {
+                return baseURL + "entities/" + URLEncoder.encode(entityID, "UTF-8");
+            } else {
+                return baseURL + "entities/" + URLEncoder.encode("{sha1}", "UTF-8") + SAMLUtil.toHex(hash);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new MetadataProviderException("UTF-8 encoding is not supported", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HTTPEntityMetadataSource{baseURL=" + baseURL + "}";
+    }
+
+}
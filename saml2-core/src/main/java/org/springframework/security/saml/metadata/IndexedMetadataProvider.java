@@ -0,0 +1,64 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.provider.MetadataProvider;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+
+import javax.xml.namespace.QName;
+import java.util.List;
+
+/**
+ * Provider able to list the entities it contains together with their roles without creating the XMLObject
+ * representation of the metadata. MetadataManager uses the information during refresh instead of parsing
+ * the result of getMetadata, EntityDescriptors are then only loaded when looked up.
+ */
+public interface IndexedMetadataProvider extends MetadataProvider {
+
+    /**
+     * @return entityIDs of all entities available in the provider in order of their appearance
+     * @throws MetadataProviderException in case provider can't be accessed
+     */
+    List<String> getEntityIDs() throws MetadataProviderException;
+
+    /**
+     * @param entityID entity
+     * @return true when entity is available in the provider
+     * @throws MetadataProviderException in case provider can't be accessed
+     */
+    boolean containsEntity(String entityID) throws MetadataProviderException;
+
+    /**
+     * Verifies whether the entity contains role of the given type supporting the protocol.
+     *
+     * @param entityID          entity
+     * @param roleName          role element or schema type
+     * @param supportedProtocol protocol the role must support
+     * @return true when such role exists
+     * @throws MetadataProviderException in case provider can't be accessed
+     */
+    boolean hasRole(String entityID, QName roleName, String supportedProtocol) throws MetadataProviderException;
+
+    /**
+     * Returns version of the entity content which changes whenever the content changes. MetadataManager compares
+     * the versions between refreshes in order to report changed entities without loading them.
+     *
+     * @param entityID entity
+     * @return version of the entity content, null when the provider doesn't keep it
+     * @throws MetadataProviderException in case provider can't be accessed
+     */
+    String getEntityVersion(String entityID) throws MetadataProviderException;
+
+}
@@ -0,0 +1,85 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Entities affected by a refresh of the MetadataManager. Entities are compared by digest of their content, entities
+ * whose content can't be digested are considered changed whenever their provider was indexed again.
+ */
+public class MetadataChangeEvent {
+
+    private final Set<String> added;
+    private final Set<String> removed;
+    private final Set<String> changed;
+
+    /**
+     * @param added   entities which weren't available before the refresh
+     * @param removed entities which are no longer available
+     * @param changed entities whose content has changed
+     */
+    public MetadataChangeEvent(Set<String> added, Set<String> removed, Set<String> changed) {
+        this.added = Collections.unmodifiableSet(added);
+        this.removed = Collections.unmodifiableSet(removed);
+        this.changed = Collections.unmodifiableSet(changed);
+    }
+
+    /**
+     * @return entities which weren't available before the refresh
+     */
+    public Set<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return entities which are no longer available
+     */
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return entities whose content has changed
+     */
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return all added, removed and changed entities
+     */
+    public Set<String> getAffected() {
+        Set<String> affected = new HashSet<String>(added);
+        affected.addAll(removed);
+        affected.addAll(changed);
+        return affected;
+    }
+
+    /**
+     * @return true when no entity was affected
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataChangeEvent{added=" + added.size() + ", removed=" + removed.size() + ", changed=" + changed.size() + "}";
+    }
+
+}
@@ -0,0 +1,33 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+/**
+ * Listener notified by the MetadataManager about entities which were added, removed or changed by a refresh.
+ * Listeners can use the notification to invalidate data cached for the affected entities only.
+ *
+ * @see MetadataManager#addChangeListener(MetadataChangeListener)
+ */
+public interface MetadataChangeListener {
+
+    /**
+     * Called after the refresh has published new data, lookups of the manager already return the new content.
+     * Method is called from the thread performing the refresh and should return quickly.
+     *
+     * @param event entities affected by the refresh
+     */
+    void metadataChanged(MetadataChangeEvent event);
+
+}
@@ -27,6 +27,8 @@ import org.opensaml.xml.util.XMLHelper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.saml.context.SAMLContextProvider;
 import org.springframework.security.saml.context.SAMLMessageContext;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.key.ObservableKeyManager;
 import org.springframework.security.saml.util.SAMLUtil;
 import org.springframework.util.Assert;
 import org.springframework.web.filter.GenericFilterBean;
@@ -44,7 +46,8 @@ import java.io.PrintWriter;
 /**
  * The filter expects calls on configured URL and presents user with SAML2 metadata representing
  * this application deployment. In case the application is configured to automatically generate metadata,
- * the generation occurs upon first invocation of this filter (first request made to the server).
+ * the generation occurs upon first invocation of this filter (first request made to the server). Generated metadata
+ * are created again whenever keys of an ObservableKeyManager used by the generator change.
  *
  * @author Vladimir Schäfer
  */
@@ -82,6 +85,11 @@ public class MetadataDisplayFilter extends GenericFilterBean {
      */
     private String filterSuffix;
 
+    /**
+     * Provider with the generated metadata, null when metadata weren't generated.
+     */
+    private MetadataProvider generatedProvider;
+
     /**
      * The filter will be used in case the URL of the request ends with DEFAULT_FILTER_URL.
      *
@@ -201,6 +209,15 @@ public class MetadataDisplayFilter extends GenericFilterBean {
                         manager.addMetadataProvider(metadataProvider);
                         manager.setHostedSPName(descriptor.getEntityID());
                         manager.refreshMetadata();
+                        generatedProvider = metadataProvider;
+
+                        if (generator.getKeyManager() instanceof ObservableKeyManager) {
+                            ((ObservableKeyManager) generator.getKeyManager()).getObservers().add(new ObservableKeyManager.Observer() {
+                                public void onEvent(KeyManager keyManager) {
+                                    regenerateSystemMetadata();
+                                }
+                            });
+                        }
 
                     } catch (MetadataProviderException e) {
                         logger.error("Error generating system metadata", e);
@@ -215,6 +232,42 @@ public class MetadataDisplayFilter extends GenericFilterBean {
 
     }
 
+    /**
+     * Generates the system metadata again using the current keys and replaces the previously generated metadata
+     * in the metadata manager. Called after change of keys, errors are logged and the old metadata are kept.
+     */
+    protected void regenerateSystemMetadata() {
+
+        synchronized (MetadataManager.class) {
+
+            if (generatedProvider == null) {
+                return;
+            }
+
+            try {
+
+                EntityDescriptor descriptor = generator.generateMetadata();
+                ExtendedMetadata extendedMetadata = new ExtendedMetadata();
+                generator.generateExtendedMetadata(extendedMetadata);
+
+                logger.info("Keys have changed, re-created default metadata for system with entityID: " + descriptor.getEntityID());
+                MetadataMemoryProvider memoryProvider = new MetadataMemoryProvider(descriptor);
+                memoryProvider.initialize();
+                MetadataProvider metadataProvider = new ExtendedMetadataDelegate(memoryProvider, extendedMetadata);
+
+                manager.addMetadataProvider(metadataProvider);
+                manager.removeMetadataProvider(generatedProvider);
+                manager.refreshMetadata();
+                generatedProvider = metadataProvider;
+
+            } catch (MetadataProviderException e) {
+                logger.error("Error re-generating system metadata, previous metadata remain in use", e);
+            }
+
+        }
+
+    }
+
     protected String getDefaultEntityID(HttpServletRequest request, String alias) {
         StringBuffer sb = new StringBuffer();
         sb.append(request.getScheme()).append("://").append(request.getServerName()).append(":").append(request.getServerPort());
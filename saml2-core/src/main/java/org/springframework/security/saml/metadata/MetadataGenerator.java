@@ -535,6 +535,10 @@ public class MetadataGenerator implements ApplicationContextAware {
         this.entityBaseURL = entityBaseURL;
     }
 
+    public KeyManager getKeyManager() {
+        return keyManager;
+    }
+
     public void setKeyManager(KeyManager keyManager) {
         this.keyManager = keyManager;
     }
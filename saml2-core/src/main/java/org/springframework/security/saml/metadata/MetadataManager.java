@@ -14,7 +14,9 @@
  */
 package org.springframework.security.saml.metadata;
 
+import org.joda.time.DateTime;
 import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.common.TimeBoundSAMLObject;
 import org.opensaml.saml2.metadata.*;
 import org.opensaml.saml2.metadata.provider.*;
 import org.opensaml.xml.Configuration;
@@ -32,8 +34,11 @@ import org.springframework.security.saml.trust.AllowAllSignatureTrustEngine;
 import org.springframework.security.saml.util.SAMLUtil;
 import org.springframework.util.Assert;
 
+import javax.xml.namespace.QName;
+import java.security.MessageDigest;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -41,7 +46,14 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * identity and service providers configured inside the chained metadata providers. Exactly one service provider can
  * be determined as hosted.
  * <p/>
- * The class is synchronized using in internal ReentrantReadWriteLock.
+ * Data derived from the providers is kept in an immutable MetadataSnapshot which is rebuilt off to the side
+ * during each refresh and published atomically once the refresh completes. Lookups read the current snapshot
+ * without any locking. Changes to the list of available providers are synchronized using an internal
+ * ReentrantReadWriteLock.
+ * <p/>
+ * Entities of each provider are indexed separately and the index is reused by subsequent refreshes until the provider
+ * notifies about a change of its content, a refresh therefore only re-indexes the changed providers and merges
+ * the stored data of the others. Providers which don't support notifications are re-indexed during each refresh.
  * <p/>
  * All metadata providers are kept in two groups - available providers - which contain all the ones users have registered,
  * and active providers - all those which passed validation. List of active providers is updated during each refresh.
@@ -53,7 +65,7 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
     // Class logger
     protected final Logger log = LoggerFactory.getLogger(MetadataManager.class);
 
-    // Lock for the instance
+    // Lock for the list of available providers
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
     // Lock for the refresh mechanism
@@ -63,17 +75,38 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
     private String defaultIDP;
 
-    private ExtendedMetadata defaultExtendedMetadata;
+    private volatile ExtendedMetadata defaultExtendedMetadata;
+
+    // Read-only copy of the default extended metadata returned to callers, rebuilt during each refresh
+    private volatile ExtendedMetadata frozenDefaultExtendedMetadata;
 
-    // Timer used to refresh the metadata upon changes
-    private Timer timer;
+    // Scheduler used to refresh the metadata upon changes
+    private MetadataRefreshScheduler refreshScheduler;
 
     // Internal of metadata refresh checking in ms
     private long refreshCheckInterval = 10000l;
 
+    // Number of threads used to initialize providers during refresh
+    private int initializationThreads = 1;
+
+    // Storage of the data for fast restarts, null when disabled
+    private MetadataSnapshotStore snapshotStore;
+
+    // True while the published snapshot was loaded from the store and providers haven't been loaded yet
+    private volatile boolean storedSnapshot;
+
+    // Records of successful metadata signature verifications, null when verifications are not cached
+    private SignatureVerificationCache signatureVerificationCache;
+
+    // Number of threads used to verify signatures of entities within a single provider
+    private int signatureVerificationThreads = 1;
+
     // Flag indicating whether metadata needs to be reloaded
     private boolean refreshRequired = true;
 
+    // Earliest validUntil of entities in the published snapshot in ms, Long.MAX_VALUE when none expires
+    private volatile long nextExpiration = Long.MAX_VALUE;
+
     // Storage for cryptographic data used to verify metadata signatures
     protected KeyManager keyManager;
 
@@ -81,24 +114,74 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
     private List<ExtendedMetadataDelegate> availableProviders;
 
     /**
-     * Set of IDP names available in the system.
+     * Data published by the last refresh, replaced as a whole.
+     */
+    private volatile MetadataSnapshot snapshot;
+
+    /**
+     * Set of IDP names being collected during refresh.
      */
     private Set<String> idpName;
 
     /**
-     * Set of SP names available in the system.
+     * Set of SP names being collected during refresh.
      */
     private Set<String> spName;
 
     /**
-     * All valid aliases.
+     * All valid aliases being collected during refresh.
      */
     private Set<String> aliasSet;
 
+    /**
+     * EntityIDs of local IDPs and SPs per alias being collected during refresh.
+     */
+    private Map<String, String> aliasIndex;
+
+    /**
+     * Extended metadata of entities being collected during refresh.
+     */
+    private Map<String, ExtendedMetadata> extendedMetadataIndex;
+
+    /**
+     * EntityIDs of IDPs and SPs per SHA-1 hash being collected during refresh.
+     */
+    private Map<EntityHashKey, String> hashIndex;
+
+    /**
+     * Roles of entities being collected during refresh.
+     */
+    private RoleIndex roleIndex;
+
+    /**
+     * Endpoint tables of indexed roles being collected during refresh.
+     */
+    private EndpointIndex endpointIndex;
+
+    /**
+     * Content versions of entities being collected during refresh.
+     */
+    private Map<String, Object> entityVersions;
+
+    /**
+     * Listeners notified about entities affected by refresh.
+     */
+    private final List<MetadataChangeListener> changeListeners = new CopyOnWriteArrayList<MetadataChangeListener>();
+
+    /**
+     * Data indexed from each provider, reused until the provider changes. Only accessed during refresh.
+     */
+    private final Map<ExtendedMetadataDelegate, ProviderIndex> providerIndexes = new HashMap<ExtendedMetadataDelegate, ProviderIndex>();
+
+    /**
+     * Providers which notified about a change of their content since they were last indexed.
+     */
+    private final Map<ExtendedMetadataDelegate, Boolean> changedProviders = new ConcurrentHashMap<ExtendedMetadataDelegate, Boolean>();
+
     /**
      * Creates new metadata manager, automatically registers itself for notifications from metadata changes and calls
-     * reload upon a change. Also registers timer which verifies whether metadata needs to be reloaded in a specified
-     * time interval.
+     * reload upon a change. Method afterPropertiesSet starts scheduler which verifies whether metadata needs to be
+     * reloaded in a specified time interval.
      * <p/>
      * It is mandatory that method afterPropertiesSet is called after the construction.
      *
@@ -109,9 +192,9 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
         super();
 
-        this.idpName = new HashSet<String>();
-        this.spName = new HashSet<String>();
+        this.snapshot = new MetadataSnapshot();
         this.defaultExtendedMetadata = new ExtendedMetadata();
+        this.frozenDefaultExtendedMetadata = defaultExtendedMetadata.clone().freeze();
         availableProviders = new LinkedList<ExtendedMetadataDelegate>();
 
         setProviders(providers);
@@ -120,8 +203,9 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
     }
 
     /**
-     * Method must be called after provider construction. It creates the refresh timer and refreshes the metadata for
-     * the first time.
+     * Method must be called after provider construction. It refreshes the metadata for the first time and starts
+     * the refresh scheduler. In case snapshotStore is set and contains data, the stored snapshot is published
+     * instead and the refresh is performed in the background.
      *
      * @throws MetadataProviderException error
      */
@@ -129,25 +213,81 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
         Assert.notNull(keyManager, "KeyManager must be set");
 
-        // Create timer if needed
+        if (loadStoredSnapshot()) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        refreshMetadata();
+                    } catch (Throwable e) {
+                        log.warn("Background metadata refresh has failed", e);
+                    }
+                }
+            }, "Metadata-revalidation");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            refreshMetadata();
+        }
+
+        // Start scheduler if needed
         if (refreshCheckInterval > 0) {
-            log.debug("Creating metadata reload timer with interval {}", refreshCheckInterval);
-            this.timer = new Timer("Metadata-reload", true);
-            this.timer.schedule(new RefreshTask(), refreshCheckInterval, refreshCheckInterval);
+            if (refreshScheduler == null) {
+                refreshScheduler = new MetadataRefreshScheduler();
+            }
+            log.debug("Starting metadata refresh scheduler with interval {}", refreshCheckInterval);
+            refreshScheduler.start(this, refreshCheckInterval);
         } else {
-            log.debug("Metadata reload timer is not created, refreshCheckInternal is {}", refreshCheckInterval);
+            log.debug("Metadata refresh scheduler is not started, refreshCheckInternal is {}", refreshCheckInterval);
+        }
+
+    }
+
+    /**
+     * Publishes snapshot loaded from the snapshotStore, if any.
+     *
+     * @return true when stored snapshot was published
+     */
+    private boolean loadStoredSnapshot() {
+
+        if (snapshotStore == null) {
+            return false;
+        }
+
+        try {
+            MetadataSnapshot stored = snapshotStore.load();
+            if (stored != null) {
+                log.info("Using stored metadata snapshot {} until providers are loaded", snapshotStore.getFile());
+                storedSnapshot = true;
+                snapshot = stored;
+                return true;
+            }
+        } catch (MetadataProviderException e) {
+            log.warn("Stored metadata snapshot can't be used, providers will be loaded right away", e);
         }
 
-        refreshMetadata();
+        return false;
+
+    }
 
+    /**
+     * Writes the current snapshot into the snapshotStore, if set.
+     */
+    private void storeSnapshot() {
+        if (snapshotStore != null) {
+            try {
+                snapshotStore.store(snapshot);
+            } catch (MetadataProviderException e) {
+                log.warn("Metadata snapshot couldn't be stored", e);
+            }
+        }
     }
 
     /**
-     * Stops and removes the timer in case it was started.
+     * Stops the refresh scheduler in case it was started.
      */
     public void destroy() {
-        if (timer != null) {
-            timer.cancel();
+        if (refreshScheduler != null) {
+            refreshScheduler.stop();
         }
     }
 
@@ -158,6 +298,9 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
             lock.writeLock().lock();
 
+            for (ExtendedMetadataDelegate provider : availableProviders) {
+                provider.getObservers().remove(new ProviderChangeObserver(provider));
+            }
             availableProviders.clear();
             if (newProviders != null) {
                 for (MetadataProvider provider : newProviders) {
@@ -178,6 +321,10 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
     /**
      * Method can be repeatedly called to browse all configured providers and load SP and IDP names which
      * are supported by them. Providers which fail during initialization are ignored for this refresh.
+     * <p/>
+     * All data is collected into a new MetadataSnapshot while the previous one keeps serving lookups, the new
+     * snapshot and the list of active providers replace the old ones only after all providers were processed.
+     * Only providers which changed since the last refresh are re-indexed, stored data is used for the rest.
      */
     public void refreshMetadata() {
 
@@ -196,28 +343,36 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
             try {
 
-                // Let's load new metadata lists
-                lock.writeLock().lock();
-
-                // Remove existing providers, they'll get repopulated
-                super.setProviders(Collections.<MetadataProvider>emptyList());
-
                 // Reinitialize the sets
                 idpName = new HashSet<String>();
                 spName = new HashSet<String>();
                 aliasSet = new HashSet<String>();
+                aliasIndex = new HashMap<String, String>();
+                extendedMetadataIndex = new HashMap<String, ExtendedMetadata>();
+                hashIndex = new HashMap<EntityHashKey, String>();
+                roleIndex = new RoleIndex();
+                endpointIndex = new EndpointIndex();
+                entityVersions = new HashMap<String, Object>();
+
+                List<MetadataProvider> activeProviders = new ArrayList<MetadataProvider>();
+                List<ExtendedMetadataDelegate> providers = getAvailableProviders();
+                List<MetadataProviderException> errors = initializeProviders(providers);
+
+                // Data is merged in order of declaration, entities from earlier providers take precedence
+                for (int i = 0; i < providers.size(); i++) {
 
-                for (ExtendedMetadataDelegate provider : availableProviders) {
+                    ExtendedMetadataDelegate provider = providers.get(i);
 
                     try {
 
-                        log.debug("Refreshing metadata provider {}", provider.toString());
-                        initializeProviderFilters(provider);
-                        initializeProvider(provider);
+                        if (errors.get(i) != null) {
+                            throw errors.get(i);
+                        }
+
                         initializeProviderData(provider);
 
                         // Make provider available for queries
-                        super.addMetadataProvider(provider);
+                        activeProviders.add(provider);
                         log.debug("Metadata provider was initialized {}", provider.toString());
 
                     } catch (MetadataProviderException e) {
@@ -228,9 +383,53 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
                 }
 
+                // Forget data of providers which are no longer available
+                providerIndexes.keySet().retainAll(providers);
+
+                // Keep serving the stored data until at least some provider can be loaded
+                if (storedSnapshot && activeProviders.isEmpty() && !providers.isEmpty()) {
+                    log.warn("None of the metadata providers could be loaded, stored snapshot remains in use");
+                    return;
+                }
+
+                // Register active providers in the chain, lookups are served from the snapshot
+                // Each registration adds a new observer to the provider, so the chain is only rebuilt upon change
+                if (!activeProviders.equals(snapshot.getProviders())) {
+                    super.setProviders(Collections.<MetadataProvider>emptyList());
+                    for (MetadataProvider provider : activeProviders) {
+                        super.addMetadataProvider(provider);
+                    }
+                }
+
+                indexLogoutBindings();
+
+                long expiration = Long.MAX_VALUE;
+                for (MetadataProvider provider : activeProviders) {
+                    ProviderIndex index = providerIndexes.get(provider);
+                    if (index != null) {
+                        expiration = Math.min(expiration, index.getExpiration());
+                    }
+                }
+
+                MetadataSnapshot next = new MetadataSnapshot(activeProviders, idpName, spName, aliasSet, aliasIndex, extendedMetadataIndex, hashIndex, roleIndex, endpointIndex, entityVersions);
+                prepareSnapshot(next);
+
+                // Publish the new data
+                MetadataSnapshot previous = snapshot;
+                snapshot = next;
+                nextExpiration = expiration;
+                frozenDefaultExtendedMetadata = defaultExtendedMetadata.clone().freeze();
+
+                storedSnapshot = false;
+
                 // Clear the refresh flag
                 setRefreshRequired(false);
 
+                // Persist the verified data for the next start
+                storeSnapshot();
+
+                publishChanges(previous, next);
+
                 log.debug("Reloading metadata was finished");
 
             } catch (MetadataProviderException e) {
@@ -239,7 +438,14 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
             } finally {
 
-                lock.writeLock().unlock();
+                // Data is now only referenced from the snapshot
+                idpName = null;
+                spName = null;
+                aliasSet = null;
+                aliasIndex = null;
+                extendedMetadataIndex = null;
+                hashIndex = null;
+                entityVersions = null;
 
             }
 
@@ -275,6 +481,13 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
             ExtendedMetadataDelegate wrappedProvider = getWrappedProvider(newProvider);
             availableProviders.add(wrappedProvider);
 
+            // Track changes of the provider, newly added provider is always indexed
+            ProviderChangeObserver observer = new ProviderChangeObserver(wrappedProvider);
+            if (!wrappedProvider.getObservers().contains(observer)) {
+                wrappedProvider.getObservers().add(observer);
+            }
+            changedProviders.put(wrappedProvider, Boolean.TRUE);
+
         } finally {
             lock.writeLock().unlock();
         }
@@ -302,6 +515,8 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
             ExtendedMetadataDelegate wrappedProvider = getWrappedProvider(provider);
             availableProviders.remove(wrappedProvider);
+            wrappedProvider.getObservers().remove(new ProviderChangeObserver(wrappedProvider));
+            changedProviders.remove(wrappedProvider);
 
         } finally {
             lock.writeLock().unlock();
@@ -318,15 +533,330 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
      * @return active providers
      */
     public List<MetadataProvider> getProviders() {
+        return new ArrayList<MetadataProvider>(snapshot.getProviders());
+    }
+    /**
+     * Initializes filters and content of all given providers. In case initializationThreads is larger than one
+     * the providers are initialized in parallel, otherwise one after another in the calling thread.
+     *
+     * @param providers providers to initialize
+     * @return list with one item for each provider, containing null when initialization succeeded and the failure otherwise
+     */
+    private List<MetadataProviderException> initializeProviders(List<ExtendedMetadataDelegate> providers) {
+
+        List<MetadataProviderException> errors = new ArrayList<MetadataProviderException>(providers.size());
+
+        if (initializationThreads <= 1 || providers.size() <= 1) {
+
+            for (ExtendedMetadataDelegate provider : providers) {
+                try {
+                    log.debug("Refreshing metadata provider {}", provider.toString());
+                    initializeProviderFilters(provider);
+                    initializeProvider(provider);
+                    errors.add(null);
+                } catch (MetadataProviderException e) {
+                    errors.add(e);
+                }
+            }
+
+            return errors;
+
+        }
+
+        int threads = Math.min(initializationThreads, providers.size());
+        log.debug("Initializing {} metadata providers using {} threads", providers.size(), threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Metadata-initialization");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 
         try {
-            lock.readLock().lock();
-            return new ArrayList<MetadataProvider>(super.getProviders());
+
+            List<Future<Object>> results = new ArrayList<Future<Object>>(providers.size());
+            for (final ExtendedMetadataDelegate provider : providers) {
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws MetadataProviderException {
+                        log.debug("Refreshing metadata provider {}", provider.toString());
+                        initializeProviderFilters(provider);
+                        initializeProvider(provider);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Object> result : results) {
+                try {
+                    result.get();
+                    errors.add(null);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof MetadataProviderException) {
+                        errors.add((MetadataProviderException) cause);
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else {
+                        errors.add(new MetadataProviderException("Error initializing provider", cause));
+                    }
+                }
+            }
+
+            return errors;
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while initializing metadata providers", e);
+
         } finally {
-            lock.readLock().unlock();
+
+            executor.shutdownNow();
+
+        }
+
+    }
+
+    /**
+     * Notifies change listeners about entities added, removed or changed between the snapshots. Nothing is
+     * calculated when no listener is registered, including versions of the entities during indexing. Entities
+     * indexed before the first listener was added are therefore reported as changed once their provider is
+     * indexed again.
+     *
+     * @param previous snapshot published before the refresh
+     * @param next     snapshot published by the refresh
+     */
+    private void publishChanges(MetadataSnapshot previous, MetadataSnapshot next) {
+
+        if (changeListeners.isEmpty()) {
+            return;
+        }
+
+        Map<String, Object> previousVersions = previous.getEntityVersions();
+        Map<String, Object> nextVersions = next.getEntityVersions();
+
+        // Content of entities from the stored snapshot isn't known, all of them are considered changed
+        Set<String> previousEntities;
+        if (previousVersions != null) {
+            previousEntities = previousVersions.keySet();
+        } else {
+            previousEntities = new HashSet<String>(previous.getIDPEntityNames());
+            previousEntities.addAll(previous.getSPEntityNames());
+            previousEntities.addAll(previous.getExtendedMetadataIndex().keySet());
+        }
+
+        Set<String> added = new HashSet<String>();
+        Set<String> changed = new HashSet<String>();
+        for (Map.Entry<String, Object> entry : nextVersions.entrySet()) {
+            if (!previousEntities.contains(entry.getKey())) {
+                added.add(entry.getKey());
+            } else if (previousVersions == null || !entry.getValue().equals(previousVersions.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        Set<String> removed = new HashSet<String>(previousEntities);
+        removed.removeAll(nextVersions.keySet());
+
+        MetadataChangeEvent event = new MetadataChangeEvent(added, removed, changed);
+        if (event.isEmpty()) {
+            log.debug("Refresh didn't change any entity");
+            return;
         }
 
+        log.debug("Publishing metadata changes {}", event);
+        for (MetadataChangeListener listener : changeListeners) {
+            try {
+                listener.metadataChanged(event);
+            } catch (RuntimeException e) {
+                log.warn("Metadata change listener " + listener + " has failed", e);
+            }
+        }
+
+    }
+
+    /**
+     * Registers listener notified about entities added, removed or changed by each refresh.
+     *
+     * @param listener listener
+     */
+    public void addChangeListener(MetadataChangeListener listener) {
+        Assert.notNull(listener, "Listener mustn't be null");
+        changeListeners.add(listener);
+    }
+
+    /**
+     * @param listener listener to stop notifying
+     */
+    public void removeChangeListener(MetadataChangeListener listener) {
+        changeListeners.remove(listener);
     }
+
+    /**
+     * Called during refresh with the newly created snapshot right before it is published. The current snapshot
+     * keeps serving lookups until the method returns. Default implementation does nothing.
+     *
+     * @param next snapshot to be published
+     */
+    protected void prepareSnapshot(MetadataSnapshot next) {
+    }
+
+    /**
+     * Locates entity descriptor by querying active providers of the current snapshot in order of their declaration.
+     *
+     * @param entityID entity to locate
+     * @return descriptor or null if not found
+     * @throws MetadataProviderException never thrown, errors of individual providers are logged and skipped
+     */
+    @Override
+    public EntityDescriptor getEntityDescriptor(String entityID) throws MetadataProviderException {
+        return getEntityDescriptor(snapshot, entityID);
+    }
+
+    /**
+     * Locates entity descriptor by querying active providers of the given snapshot in order of their declaration.
+     *
+     * @param current  snapshot to use
+     * @param entityID entity to locate
+     * @return descriptor or null if not found
+     * @throws MetadataProviderException never thrown, errors of individual providers are logged and skipped
+     */
+    protected EntityDescriptor getEntityDescriptor(MetadataSnapshot current, String entityID) throws MetadataProviderException {
+        for (MetadataProvider provider : current.getProviders()) {
+            try {
+                EntityDescriptor descriptor = provider.getEntityDescriptor(entityID);
+                if (descriptor != null) {
+                    return descriptor;
+                }
+            } catch (MetadataProviderException e) {
+                log.warn("Error retrieving metadata from provider of type " + provider.getClass().getName() + ", proceeding to next provider", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Locates entities descriptor by querying active providers of the current snapshot in order of their declaration.
+     *
+     * @param name name of the descriptor
+     * @return descriptor or null if not found
+     * @throws MetadataProviderException never thrown, errors of individual providers are logged and skipped
+     */
+    @Override
+    public EntitiesDescriptor getEntitiesDescriptor(String name) throws MetadataProviderException {
+        for (MetadataProvider provider : snapshot.getProviders()) {
+            try {
+                EntitiesDescriptor descriptor = provider.getEntitiesDescriptor(name);
+                if (descriptor != null) {
+                    return descriptor;
+                }
+            } catch (MetadataProviderException e) {
+                log.warn("Error retrieving metadata from provider of type " + provider.getClass().getName() + ", proceeding to next provider", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Locates roles in the role index of the current snapshot. Active providers are queried in order of their
+     * declaration only when the index doesn't contain valid roles for the entity and doesn't include all providers.
+     *
+     * @param entityID entity
+     * @param roleName role
+     * @return roles from the first provider which contains the entity, or null if not found
+     * @throws MetadataProviderException never thrown, errors of individual providers are logged and skipped
+     */
+    @Override
+    public List<RoleDescriptor> getRole(String entityID, QName roleName) throws MetadataProviderException {
+        MetadataSnapshot current = snapshot;
+        List<RoleDescriptor> indexed = current.getRoleIndex().getRoles(entityID, roleName, null);
+        if (indexed != null && !indexed.isEmpty()) {
+            return indexed;
+        } else if (indexed == null && current.getRoleIndex().isComplete()) {
+            return null;
+        }
+        for (MetadataProvider provider : current.getProviders()) {
+            try {
+                List<RoleDescriptor> roles = provider.getRole(entityID, roleName);
+                if (roles != null && roles.size() > 0) {
+                    return roles;
+                }
+            } catch (MetadataProviderException e) {
+                log.warn("Error retrieving metadata from provider of type " + provider.getClass().getName() + ", proceeding to next provider", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Locates role in the role index of the current snapshot, the lookup requires no locking. Active providers
+     * are queried in order of their declaration only when the index doesn't contain a valid role and doesn't
+     * include all providers.
+     *
+     * @param entityID          entity
+     * @param roleName          role
+     * @param supportedProtocol protocol the role must support
+     * @return role or null if not found
+     * @throws MetadataProviderException never thrown, errors of individual providers are logged and skipped
+     */
+    @Override
+    public RoleDescriptor getRole(String entityID, QName roleName, String supportedProtocol) throws MetadataProviderException {
+        MetadataSnapshot current = snapshot;
+        List<RoleDescriptor> indexed = current.getRoleIndex().getRoles(entityID, roleName, supportedProtocol);
+        if (indexed != null && !indexed.isEmpty()) {
+            return indexed.get(0);
+        } else if (indexed == null && current.getRoleIndex().isComplete()) {
+            return null;
+        }
+        for (MetadataProvider provider : current.getProviders()) {
+            try {
+                RoleDescriptor role = provider.getRole(entityID, roleName, supportedProtocol);
+                if (role != null) {
+                    return role;
+                }
+            } catch (MetadataProviderException e) {
+                log.warn("Error retrieving metadata from provider of type " + provider.getClass().getName() + ", proceeding to next provider", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns endpoints of the role compiled into lookup tables. Tables of roles indexed during the last refresh
+     * are shared, table is created on demand for other roles (e.g. from providers loading entities on demand).
+     *
+     * @param descriptor IDP or SP role
+     * @return endpoint table
+     */
+    public EndpointTable getEndpointTable(SSODescriptor descriptor) {
+        EndpointTable table = snapshot.getEndpointIndex().getTable(descriptor);
+        if (table == null) {
+            table = new EndpointTable(descriptor);
+        }
+        return table;
+    }
+
+    /**
+     * Selects binding used for single logout between the IDP and SP. First binding of the IDP supported also by
+     * the SP is used, first binding of the IDP otherwise. Bindings between all IDPs and local SPs are selected
+     * during refresh.
+     *
+     * @param idp IDP
+     * @param sp  SP
+     * @return binding
+     * @throws MetadataProviderException in case IDP doesn't contain any single logout service
+     */
+    public String getLogoutBinding(IDPSSODescriptor idp, SPSSODescriptor sp) throws MetadataProviderException {
+        String binding = snapshot.getEndpointIndex().getLogoutBinding(idp, sp);
+        if (binding == null) {
+            binding = SAMLUtil.getLogoutBinding(getEndpointTable(idp), getEndpointTable(sp));
+        }
+        return binding;
+    }
+
     /**
      * Method provides list of all available providers. Not all of these providers may be used in case their validation failed.
      * Returned value is a copy of the data.
@@ -369,7 +899,12 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
     }
 
     /**
-     * Method populates local storage of IDP and SP names and verifies any name conflicts which might arise.
+     * Method populates local storage of IDP and SP names and verifies any name conflicts which might arise. Local
+     * IDPs and SPs with a valid unique alias are stored in the alias index, provided that this provider is the one
+     * supplying their extended metadata.
+     * <p/>
+     * Entities of the provider are only parsed when the provider is new, has changed since the last refresh or
+     * doesn't support change notifications. Data indexed during an earlier refresh is used otherwise.
      *
      * @param provider provider to initialize
      * @throws MetadataProviderException error
@@ -378,43 +913,70 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
         log.debug("Initializing provider data {}", provider);
 
-        List<String> stringSet = parseProvider(provider);
+        boolean changed = changedProviders.remove(provider) != null;
+        ProviderIndex index = providerIndexes.get(provider);
 
-        for (String key : stringSet) {
+        if (index == null || changed || !isObservable(provider)) {
+            providerIndexes.remove(provider);
+            index = indexProvider(provider);
+            providerIndexes.put(provider, index);
+        } else {
+            log.debug("Provider {} wasn't changed since last refresh, using existing data", provider);
+        }
+
+        // Roles of providers following one which can't be indexed would take precedence over it
+        boolean indexRoles = index.isRolesIndexed() && roleIndex.isComplete();
+        if (!index.isRolesIndexed()) {
+            roleIndex.markIncomplete();
+        }
 
-            RoleDescriptor roleDescriptor;
-            roleDescriptor = provider.getRole(key, IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS);
+        for (ProviderIndex.Entry entry : index.getEntries()) {
 
-            if (roleDescriptor != null) {
+            String key = entry.getEntityID();
+
+            if (!entityVersions.containsKey(key)) {
+                // Entries which couldn't be digested only equal to themselves
+                entityVersions.put(key, entry.getDigest() != null ? entry.getDigest() : entry);
+            }
+
+            if (indexRoles && entry.getDescriptor() != null) {
+                roleIndex.addEntity(key, entry.getDescriptor(), index.isRequireValidMetadata());
+                endpointIndex.addEntity(entry.getDescriptor());
+            }
+
+            if (entry.isIDP()) {
                 if (idpName.contains(key)) {
                     log.warn("Provider {} contains entity {} with IDP which was already contained in another metadata provider and will be ignored", provider, key);
                 } else {
                     idpName.add(key);
+                    indexHash(entry);
                 }
             }
 
-            roleDescriptor = provider.getRole(key, SPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS);
-            if (roleDescriptor != null) {
+            if (entry.isSP()) {
                 if (spName.contains(key)) {
                     log.warn("Provider {} contains entity {} which was already included in another metadata provider and will be ignored", provider, key);
                 } else {
                     spName.add(key);
+                    indexHash(entry);
                 }
             }
 
-            // Verify extended metadata
-            ExtendedMetadata extendedMetadata = getExtendedMetadata(key, provider);
+            ExtendedMetadata extendedMetadata = entry.getExtendedMetadata();
 
             if (extendedMetadata != null) {
 
+                // Extended metadata of the first provider containing the entity is used
+                boolean authoritative = !extendedMetadataIndex.containsKey(key);
+                if (authoritative) {
+                    extendedMetadataIndex.put(key, extendedMetadata);
+                }
+
                 if (extendedMetadata.isLocal()) {
 
                     String alias = extendedMetadata.getAlias();
                     if (alias != null) {
 
-                        // Verify alias is valid
-                        SAMLUtil.verifyAlias(alias, key);
-
                         // Verify alias is unique
                         if (aliasSet.contains(alias)) {
 
@@ -425,28 +987,235 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
                             aliasSet.add(alias);
                             log.debug("Local entity {} available under alias {}", key, alias);
 
+                            if (authoritative && (idpName.contains(key) || spName.contains(key))) {
+                                aliasIndex.put(alias, key);
+                            }
+
                         }
 
-                    } else {
+                    } else {
+
+                        log.debug("Local entity {} doesn't have an alias", key);
+
+                    }
+
+                } else {
+
+                    log.debug("Remote entity {} available", key);
+
+                }
+
+            } else {
+
+                log.debug("No extended metadata available for entity {}", key);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Parses all entities of the provider together with their roles, extended metadata and hashes. Aliases of local
+     * entities are verified for validity, their uniqueness is verified when the index is merged with data of other
+     * providers.
+     *
+     * @param provider provider to index
+     * @return index of the provider
+     * @throws MetadataProviderException in case provider can't be parsed or contains an invalid alias
+     */
+    private ProviderIndex indexProvider(ExtendedMetadataDelegate provider) throws MetadataProviderException {
+
+        log.debug("Indexing entities of provider {}", provider);
+
+        List<String> stringSet = parseProvider(provider);
+        List<ProviderIndex.Entry> entries = new ArrayList<ProviderIndex.Entry>(stringSet.size());
+
+        // Roles are only indexed for providers which keep all entities loaded
+        MetadataProvider delegate = provider.getDelegate();
+        boolean indexRoles = delegate instanceof AbstractMetadataProvider && !(delegate instanceof IndexedMetadataProvider);
+        boolean requireValid = !indexRoles || ((AbstractMetadataProvider) delegate).requireValidMetadata();
+        // Versions are only needed to report changes to listeners
+        boolean versions = !changeListeners.isEmpty();
+        long now = System.currentTimeMillis();
+        long expiration = Long.MAX_VALUE;
+
+        for (String key : stringSet) {
+
+            boolean idp = hasRole(provider, key, IDPSSODescriptor.DEFAULT_ELEMENT_NAME);
+            boolean sp = hasRole(provider, key, SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+
+            ExtendedMetadata extendedMetadata = getExtendedMetadata(key, provider);
+            if (extendedMetadata != null && extendedMetadata.isLocal() && extendedMetadata.getAlias() != null) {
+                SAMLUtil.verifyAlias(extendedMetadata.getAlias(), key);
+            }
+
+            EntityHashKey hash = null;
+            if (idp || sp) {
+                hash = new EntityHashKey(SAMLUtil.getEntityIdHash(key));
+            }
+
+            EntityDescriptor descriptor = null;
+            String digest = null;
+            if (indexRoles) {
+                descriptor = provider.getEntityDescriptor(key);
+                if (descriptor != null && requireValid) {
+                    expiration = Math.min(expiration, getExpiration(descriptor, now));
+                }
+                if (versions && descriptor != null && descriptor.getDOM() != null) {
+                    digest = getDigest(descriptor);
+                }
+            } else if (versions && delegate instanceof IndexedMetadataProvider) {
+                digest = ((IndexedMetadataProvider) delegate).getEntityVersion(key);
+            }
+
+            entries.add(new ProviderIndex.Entry(key, idp, sp, extendedMetadata, hash, descriptor, digest));
+
+        }
+
+        return new ProviderIndex(entries, indexRoles, requireValid, expiration);
+
+    }
+
+    /**
+     * @param descriptor entity with DOM
+     * @return digest of the entity content or null when it can't be calculated
+     */
+    private String getDigest(EntityDescriptor descriptor) {
+        try {
+            return ContentDigest.getDigest(descriptor.getDOM());
+        } catch (Exception e) {
+            log.debug("Digest of entity " + descriptor.getEntityID() + " can't be calculated", e);
+            return null;
+        }
+    }
+
+    /**
+     * Determines when the entity or some of its roles stops being valid, including validity of the enclosing
+     * EntitiesDescriptors. Times which already passed are ignored.
+     *
+     * @param descriptor entity
+     * @param now        current time in ms
+     * @return earliest future validUntil in ms, Long.MAX_VALUE when none is declared
+     */
+    private long getExpiration(EntityDescriptor descriptor, long now) {
+        long expiration = Long.MAX_VALUE;
+        List<XMLObject> objects = new ArrayList<XMLObject>(descriptor.getRoleDescriptors());
+        for (XMLObject object = descriptor; object != null; object = object.getParent()) {
+            objects.add(object);
+        }
+        for (XMLObject object : objects) {
+            if (object instanceof TimeBoundSAMLObject) {
+                DateTime validUntil = ((TimeBoundSAMLObject) object).getValidUntil();
+                if (validUntil != null && validUntil.getMillis() > now) {
+                    expiration = Math.min(expiration, validUntil.getMillis());
+                }
+            }
+        }
+        return expiration;
+    }
+
+    /**
+     * Requests re-indexing of providers containing entities whose validUntil has passed since the last refresh,
+     * so that the expired entities are removed from the snapshot and from the caches. The check is cheap in case
+     * no entity has expired. Method is called periodically by the refresh scheduler, refresh itself is performed
+     * by the subsequent call to refreshMetadata.
+     */
+    public void evictExpiredEntities() {
+
+        long now = System.currentTimeMillis();
+        if (now < nextExpiration) {
+            return;
+        }
+
+        try {
+
+            refreshLock.writeLock().lock();
 
-                        log.debug("Local entity {} doesn't have an alias", key);
+            for (Map.Entry<ExtendedMetadataDelegate, ProviderIndex> entry : providerIndexes.entrySet()) {
+                if (entry.getValue().getExpiration() <= now) {
+                    log.debug("Provider {} contains expired entities and will be indexed again", entry.getKey());
+                    changedProviders.put(entry.getKey(), Boolean.TRUE);
+                    refreshRequired = true;
+                }
+            }
 
-                    }
+            // Recalculated by the refresh
+            nextExpiration = Long.MAX_VALUE;
 
-                } else {
+        } finally {
+            refreshLock.writeLock().unlock();
+        }
 
-                    log.debug("Remote entity {} available", key);
+    }
 
-                }
+    /**
+     * Verifies whether entity contains role supporting SAML 2.0 protocol. Providers implementing
+     * IndexedMetadataProvider are queried without loading the entity.
+     *
+     * @param provider provider
+     * @param entityID entity
+     * @param roleName role to look for
+     * @return true when the role is present
+     * @throws MetadataProviderException in case provider fails
+     */
+    private boolean hasRole(ExtendedMetadataDelegate provider, String entityID, QName roleName) throws MetadataProviderException {
+        if (provider.getDelegate() instanceof IndexedMetadataProvider) {
+            return ((IndexedMetadataProvider) provider.getDelegate()).hasRole(entityID, roleName, SAMLConstants.SAML20P_NS);
+        } else {
+            return provider.getRole(entityID, roleName, SAMLConstants.SAML20P_NS) != null;
+        }
+    }
 
-            } else {
+    /**
+     * Providers which don't emit change events can't be tracked and are indexed during each refresh.
+     *
+     * @param provider provider
+     * @return true when changes of the provider content are notified to observers
+     */
+    private boolean isObservable(ExtendedMetadataDelegate provider) {
+        return provider.getDelegate() instanceof ObservableMetadataProvider;
+    }
 
-                log.debug("No extended metadata available for entity {}", key);
+    /**
+     * Stores SHA-1 hash of the entityID in the index used to locate senders of artifacts.
+     *
+     * @param entry entity to index
+     */
+    private void indexHash(ProviderIndex.Entry entry) {
+        if (!hashIndex.containsKey(entry.getHash())) {
+            hashIndex.put(entry.getHash(), entry.getEntityID());
+        }
+    }
 
+    /**
+     * Selects single logout bindings between all local SPs and all IDPs whose roles are indexed.
+     */
+    private void indexLogoutBindings() {
+        for (String spID : spName) {
+            ExtendedMetadata extendedMetadata = extendedMetadataIndex.get(spID);
+            if (extendedMetadata == null || !extendedMetadata.isLocal()) {
+                continue;
+            }
+            RoleDescriptor sp = getIndexedRole(spID, SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+            if (!(sp instanceof SPSSODescriptor)) {
+                continue;
+            }
+            for (String idpID : idpName) {
+                RoleDescriptor idp = getIndexedRole(idpID, IDPSSODescriptor.DEFAULT_ELEMENT_NAME);
+                if (idp instanceof IDPSSODescriptor) {
+                    endpointIndex.addLogoutBinding((IDPSSODescriptor) idp, (SPSSODescriptor) sp);
+                }
             }
-
         }
+    }
 
+    private RoleDescriptor getIndexedRole(String entityID, QName roleName) {
+        List<RoleDescriptor> roles = roleIndex.getRoles(entityID, roleName, SAMLConstants.SAML20P_NS);
+        if (roles == null || roles.isEmpty()) {
+            return null;
+        }
+        return roles.get(0);
     }
 
     /**
@@ -456,7 +1225,9 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
      * <p/>
      * Each provider must extend AbstractMetadataProvider or be of ExtendedMetadataDelegate type.
      * <p/>
-     * By default a SignatureValidationFilter is added together with any existing filters.
+     * By default a SignatureValidationFilter is added together with any existing filters. In case
+     * signatureVerificationCache is set, CachingSignatureValidationFilter is used instead. When
+     * signatureVerificationThreads is larger than one, signatures of individual entities are verified in parallel.
      *
      * @param provider provider to check
      * @throws MetadataProviderException in case initialization fails
@@ -471,7 +1242,18 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
             boolean requireSignature = provider.isMetadataRequireSignature();
             SignatureTrustEngine trustEngine = getTrustEngine(provider);
-            SignatureValidationFilter filter = new SignatureValidationFilter(trustEngine);
+            SignatureValidationFilter filter;
+            if (signatureVerificationCache != null) {
+                CachingSignatureValidationFilter cachingFilter = new CachingSignatureValidationFilter(trustEngine, signatureVerificationCache, getTrustKey(provider, trustEngine));
+                cachingFilter.setThreads(signatureVerificationThreads);
+                filter = cachingFilter;
+            } else if (signatureVerificationThreads > 1) {
+                ParallelSignatureValidationFilter parallelFilter = new ParallelSignatureValidationFilter(trustEngine);
+                parallelFilter.setThreads(signatureVerificationThreads);
+                filter = parallelFilter;
+            } else {
+                filter = new SignatureValidationFilter(trustEngine);
+            }
             filter.setRequireSignature(requireSignature);
 
             log.debug("Created new trust manager for metadata provider {}", provider);
@@ -500,6 +1282,46 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
     }
 
+    /**
+     * Creates key identifying the trust anchors and options used by the trust engine of the provider. Verifications
+     * cached with a different key are not reused.
+     *
+     * @param provider    provider
+     * @param trustEngine trust engine created for the provider
+     * @return key of the trust settings
+     * @throws MetadataProviderException in case key can't be created
+     */
+    private String getTrustKey(ExtendedMetadataDelegate provider, SignatureTrustEngine trustEngine) throws MetadataProviderException {
+
+        try {
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (trustEngine != null) {
+                digest.update(trustEngine.getClass().getName().getBytes("UTF-8"));
+            }
+            digest.update((byte) (provider.isMetadataTrustCheck() ? 1 : 0));
+            digest.update((byte) (provider.isForceMetadataRevocationCheck() ? 1 : 0));
+
+            Set<String> trustedKeys = provider.getMetadataTrustedKeys();
+            if (trustedKeys == null) {
+                trustedKeys = keyManager.getAvailableCredentials();
+            }
+            for (String key : new TreeSet<String>(trustedKeys)) {
+                X509Certificate certificate = keyManager.getCertificate(key);
+                digest.update(key.getBytes("UTF-8"));
+                if (certificate != null) {
+                    digest.update(certificate.getEncoded());
+                }
+            }
+
+            return SAMLUtil.toHex(digest.digest());
+
+        } catch (Exception e) {
+            throw new MetadataProviderException("Key of trust anchors can't be created", e);
+        }
+
+    }
+
     /**
      * Method is expected to create a trust engine used to verify signatures from this provider.
      *
@@ -577,7 +1399,8 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
     }
 
     /**
-     * Parses the provider and returns set of entityIDs contained inside the provider.
+     * Parses the provider and returns set of entityIDs contained inside the provider. Entities of providers
+     * implementing IndexedMetadataProvider are listed without parsing of the metadata.
      *
      * @param provider provider to parse
      * @return set of entityIDs available in the provider
@@ -585,6 +1408,14 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
      */
     protected List<String> parseProvider(MetadataProvider provider) throws MetadataProviderException {
 
+        MetadataProvider delegate = provider;
+        if (provider instanceof ExtendedMetadataDelegate) {
+            delegate = ((ExtendedMetadataDelegate) provider).getDelegate();
+        }
+        if (delegate instanceof IndexedMetadataProvider) {
+            return new LinkedList<String>(((IndexedMetadataProvider) delegate).getEntityIDs());
+        }
+
         List<String> result = new LinkedList<String>();
 
         XMLObject object = provider.getMetadata();
@@ -647,13 +1478,8 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
      * @return set of entityID names
      */
     public Set<String> getIDPEntityNames() {
-        try {
-            lock.readLock().lock();
-            // The set is never modified so we don't need to clone here, only make sure we get the right instance.
-            return Collections.unmodifiableSet(idpName);
-        } finally {
-            lock.readLock().unlock();
-        }
+        // The snapshot is never modified so we don't need to clone here
+        return snapshot.getIDPEntityNames();
     }
 
     /**
@@ -662,39 +1488,91 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
      * @return set of SP entity names available in the metadata
      */
     public Set<String> getSPEntityNames() {
-        try {
-            lock.readLock().lock();
-            // The set is never modified so we don't need to clone here, only make sure we get the right instance.
-            return Collections.unmodifiableSet(spName);
-        } finally {
-            lock.readLock().unlock();
-        }
+        // The snapshot is never modified so we don't need to clone here
+        return snapshot.getSPEntityNames();
     }
 
     /**
+     * Entities of dynamic providers are not included in the list of IDP names, they are queried
+     * in case IDP isn't found in the list.
+     *
      * @param idpID name of IDP to check
      * @return true if IDP entity ID is in the circle of trust with our entity
      */
     public boolean isIDPValid(String idpID) {
-        try {
-            lock.readLock().lock();
-            return idpName.contains(idpID);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return snapshot.getIDPEntityNames().contains(idpID) || hasDynamicRole(idpID, IDPSSODescriptor.DEFAULT_ELEMENT_NAME);
     }
 
     /**
+     * Entities of dynamic providers are not included in the list of SP names, they are queried
+     * in case SP isn't found in the list.
+     *
      * @param spID entity ID of SP to check
      * @return true if given SP entity ID is valid in circle of trust
      */
     public boolean isSPValid(String spID) {
-        try {
-            lock.readLock().lock();
-            return spName.contains(spID);
-        } finally {
-            lock.readLock().unlock();
+        return snapshot.getSPEntityNames().contains(spID) || hasDynamicRole(spID, SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+    }
+
+    /**
+     * Verifies whether some of the dynamic providers contains the entity with the given role supporting
+     * SAML 2.0 protocol. Unknown entities are remembered by the providers for their negativeCacheDuration and
+     * only entityIDs allowed by their entityIDPattern are requested, so that repeated or arbitrary entityIDs
+     * received in messages don't each cause a request to the source.
+     *
+     * @param entityID entity
+     * @param roleName role
+     * @return true when role is found
+     */
+    private boolean hasDynamicRole(String entityID, QName roleName) {
+        if (entityID == null) {
+            return false;
+        }
+        for (ExtendedMetadataDelegate provider : getDynamicProviders()) {
+            try {
+                if (provider.getRole(entityID, roleName, SAMLConstants.SAML20P_NS) != null) {
+                    return true;
+                }
+            } catch (MetadataProviderException e) {
+                log.warn("Error retrieving metadata from dynamic provider, proceeding to next provider", e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return providers of the current snapshot resolving entities on demand, which therefore can't be indexed
+     */
+    private List<ExtendedMetadataDelegate> getDynamicProviders() {
+        return getDynamicProviders(snapshot);
+    }
+
+    /**
+     * @param current snapshot to use
+     * @return providers of the snapshot resolving entities on demand, which therefore can't be indexed
+     */
+    private List<ExtendedMetadataDelegate> getDynamicProviders(MetadataSnapshot current) {
+        if (!current.hasDynamicProviders()) {
+            return Collections.emptyList();
+        }
+        List<ExtendedMetadataDelegate> result = new LinkedList<ExtendedMetadataDelegate>();
+        for (MetadataProvider provider : current.getProviders()) {
+            if (provider instanceof ExtendedMetadataDelegate && ((ExtendedMetadataDelegate) provider).getDelegate() instanceof DynamicMetadataProvider) {
+                result.add((ExtendedMetadataDelegate) provider);
+            }
         }
+        return result;
+    }
+
+    /**
+     * Returns data published by the last refresh of the manager. Instance is immutable and is replaced as a whole
+     * during each refresh, callers needing several consistent values should therefore read all of them from the
+     * same instance.
+     *
+     * @return current snapshot, never null
+     */
+    public MetadataSnapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
@@ -726,25 +1604,15 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
      */
     public String getDefaultIDP() throws MetadataProviderException {
 
-        try {
-
-            lock.readLock().lock();
-
-            if (defaultIDP != null) {
-                return defaultIDP;
+        if (defaultIDP != null) {
+            return defaultIDP;
+        } else {
+            Iterator<String> iterator = getIDPEntityNames().iterator();
+            if (iterator.hasNext()) {
+                return iterator.next();
             } else {
-                Iterator<String> iterator = getIDPEntityNames().iterator();
-                if (iterator.hasNext()) {
-                    return iterator.next();
-                } else {
-                    throw new MetadataProviderException("No IDP was configured, please update included metadata with at least one IDP");
-                }
+                throw new MetadataProviderException("No IDP was configured, please update included metadata with at least one IDP");
             }
-
-        } finally {
-
-            lock.readLock().unlock();
-
         }
 
     }
@@ -764,34 +1632,60 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
      * <p/>
      * In case none of the providers can supply the extended version, the default is used.
      * <p/>
-     * A copy of the internal representation is always returned, modifying the returned object will not be reflected
-     * in the subsequent calls.
+     * The returned object is frozen and shared by all callers, it is created once during refresh of the manager.
+     * Callers which need to modify the values must do so on a copy obtained using ExtendedMetadata.clone().
      *
      * @param entityID entity ID to load extended metadata for
      * @return extended metadata or defaults
      * @throws MetadataProviderException never thrown
      */
     public ExtendedMetadata getExtendedMetadata(String entityID) throws MetadataProviderException {
+        return getExtendedMetadata(snapshot, entityID);
+    }
 
-        try {
+    /**
+     * Locates ExtendedMetadata of the entity in the given snapshot, defaults are used in case none of its
+     * providers can supply the extended version.
+     *
+     * @param current  snapshot to use
+     * @param entityID entity ID to load extended metadata for
+     * @return extended metadata or defaults
+     * @throws MetadataProviderException never thrown
+     */
+    protected ExtendedMetadata getExtendedMetadata(MetadataSnapshot current, String entityID) throws MetadataProviderException {
 
-            lock.readLock().lock();
+        ExtendedMetadata extendedMetadata = current.getExtendedMetadata(entityID);
+        if (extendedMetadata != null) {
+            return extendedMetadata;
+        }
 
-            for (MetadataProvider provider : getProviders()) {
-                ExtendedMetadata extendedMetadata = getExtendedMetadata(entityID, provider);
+        // Entities of dynamic providers aren't indexed
+        for (ExtendedMetadataDelegate provider : getDynamicProviders(current)) {
+            try {
+                extendedMetadata = getExtendedMetadata(entityID, provider);
                 if (extendedMetadata != null) {
                     return extendedMetadata;
                 }
+            } catch (MetadataProviderException e) {
+                log.warn("Error retrieving extended metadata from dynamic provider, proceeding to next provider", e);
             }
+        }
 
-            return getDefaultExtendedMetadata().clone();
-
-        } finally {
-
-            lock.readLock().unlock();
+        return frozenDefaultExtendedMetadata;
 
-        }
+    }
 
+    /**
+     * Returns a modifiable copy of the extended metadata of the entity, changes of the copy are not reflected
+     * in the manager.
+     *
+     * @param entityID entity ID to load extended metadata for
+     * @return copy of the extended metadata or defaults
+     * @throws MetadataProviderException never thrown
+     * @see #getExtendedMetadata(String)
+     */
+    public ExtendedMetadata getExtendedMetadataCopy(String entityID) throws MetadataProviderException {
+        return getExtendedMetadata(entityID).clone();
     }
 
     private ExtendedMetadata getExtendedMetadata(String entityID, MetadataProvider provider) throws MetadataProviderException {
@@ -799,14 +1693,16 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
             ExtendedMetadataProvider extendedProvider = (ExtendedMetadataProvider) provider;
             ExtendedMetadata extendedMetadata = extendedProvider.getExtendedMetadata(entityID);
             if (extendedMetadata != null) {
-                return extendedMetadata.clone();
+                return extendedMetadata.clone().freeze();
             }
         }
         return null;
     }
 
     /**
-     * Locates entity descriptor whose entityId SHA-1 hash equals the one in the parameter.
+     * Locates entity descriptor whose entityId SHA-1 hash equals the one in the parameter. Hashes of all IDPs and SPs
+     * are calculated during refresh, the lookup doesn't compute any digests. Dynamic providers are queried by the hash
+     * in case it isn't known.
      *
      * @param hash hash of the entity descriptor
      * @return found descriptor or null
@@ -814,94 +1710,52 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
      */
     public EntityDescriptor getEntityDescriptor(byte[] hash) throws MetadataProviderException {
 
-        try {
-
-            lock.readLock().lock();
-
-            for (String idp : idpName) {
-                if (SAMLUtil.compare(hash, idp)) {
-                    return getEntityDescriptor(idp);
-                }
-            }
+        String entityID = snapshot.getEntityIdForHash(hash);
+        if (entityID != null) {
+            return getEntityDescriptor(entityID);
+        }
 
-            for (String sp : spName) {
-                if (SAMLUtil.compare(hash, sp)) {
-                    return getEntityDescriptor(sp);
+        for (ExtendedMetadataDelegate provider : getDynamicProviders()) {
+            try {
+                EntityDescriptor descriptor = ((DynamicMetadataProvider) provider.getDelegate()).getEntityDescriptor(hash);
+                if (descriptor != null) {
+                    return descriptor;
                 }
+            } catch (MetadataProviderException e) {
+                log.warn("Error retrieving metadata from dynamic provider, proceeding to next provider", e);
             }
-
-            return null;
-
-        } finally {
-
-            lock.readLock().unlock();
-
         }
 
+        return null;
+
     }
 
     /**
-     * Tries to load entityId for entity with the given alias. Fails in case two entities with the same alias
-     * are configured in the system.
+     * Tries to load entityId for entity with the given alias. Aliases are verified for uniqueness during
+     * the refresh, in case two entities are configured with the same alias only the first one is accessible.
      *
      * @param entityAlias alias to locate id for
      * @return entity id for the given alias or null if none exists
-     * @throws MetadataProviderException in case two entity have the same non-null alias
+     * @throws MetadataProviderException never thrown
      */
     public String getEntityIdForAlias(String entityAlias) throws MetadataProviderException {
 
-        try {
-
-            lock.readLock().lock();
-
-            if (entityAlias == null) {
-                return null;
-            }
-
-            String entityId = null;
-
-            for (String idp : idpName) {
-                ExtendedMetadata extendedMetadata = getExtendedMetadata(idp);
-                if (extendedMetadata.isLocal() && entityAlias.equals(extendedMetadata.getAlias())) {
-                    if (entityId != null) {
-                        throw new MetadataProviderException("Alias " + entityAlias + " is used both for entity " + entityId + " and " + idp);
-                    } else {
-                        entityId = idp;
-                    }
-                }
-            }
-
-            for (String sp : spName) {
-                ExtendedMetadata extendedMetadata = getExtendedMetadata(sp);
-                if (extendedMetadata.isLocal() && entityAlias.equals(extendedMetadata.getAlias())) {
-                    if (entityId != null) {
-                        throw new MetadataProviderException("Alias " + entityAlias + " is used both for entity " + entityId + " and " + sp);
-                    } else {
-                        entityId = sp;
-                    }
-                }
-            }
-
-            return entityId;
-
-        } finally {
-
-            lock.readLock().unlock();
-
+        if (entityAlias == null) {
+            return null;
         }
 
+        return snapshot.getEntityIdForAlias(entityAlias);
+
     }
 
     /**
+     * Returns the modifiable default extended metadata, changes of the object are reflected in values returned
+     * from getExtendedMetadata after the next refresh.
+     *
      * @return default extended metadata to be used in case no entity specific version exists, never null
      */
     public ExtendedMetadata getDefaultExtendedMetadata() {
-        try {
-            lock.readLock().lock();
-            return defaultExtendedMetadata;
-        } finally {
-            lock.readLock().unlock();
-        }
+        return defaultExtendedMetadata;
     }
 
     /**
@@ -911,9 +1765,8 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
      */
     public void setDefaultExtendedMetadata(ExtendedMetadata defaultExtendedMetadata) {
         Assert.notNull(defaultExtendedMetadata, "ExtendedMetadata parameter mustn't be null");
-        lock.writeLock().lock();
         this.defaultExtendedMetadata = defaultExtendedMetadata;
-        lock.writeLock().unlock();
+        this.frozenDefaultExtendedMetadata = defaultExtendedMetadata.clone().freeze();
     }
 
     /**
@@ -949,47 +1802,96 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
     /**
      * Interval in milliseconds used for re-verification of metadata and their reload. Upon trigger each provider
      * is asked to return it's metadata, which might trigger their reloading. In case metadata is reloaded the manager
-     * is notified and automatically refreshes all internal data by calling refreshMetadata.
+     * is notified and automatically refreshes all internal data by calling refreshMetadata. Providers can override
+     * the interval using ExtendedMetadataDelegate.setRefreshCheckInterval.
      * <p/>
-     * In case the value is smaller than zero the timer is not created. The default value is 10000l.
+     * In case the value is zero or less the refresh scheduler is not started. The default value is 10000l.
      * <p/>
      * The value can only be modified before the call to the afterBeanPropertiesSet, the changes are not applied after that.
      *
-     * @param refreshCheckInterval internal, timer not created if <= 2000
+     * @param refreshCheckInterval internal, scheduler not started if <= 0
      */
     public void setRefreshCheckInterval(long refreshCheckInterval) {
         this.refreshCheckInterval = refreshCheckInterval;
     }
 
     /**
-     * Task used to refresh the metadata when required.
+     * Number of threads used to initialize (load, parse and verify) providers during refresh. When larger than one
+     * the providers are initialized in parallel, the loaded data is still processed in order of declaration of
+     * the providers so precedence of entities contained in multiple providers isn't affected.
+     * <p/>
+     * Default value is 1, which initializes providers one after another in the refreshing thread.
+     *
+     * @param initializationThreads maximum number of providers initialized at the same time
      */
-    private class RefreshTask extends TimerTask {
-
-        @Override
-        public void run() {
-
-            try {
+    public void setInitializationThreads(int initializationThreads) {
+        this.initializationThreads = initializationThreads;
+    }
 
-                log.debug("Executing metadata refresh task");
+    /**
+     * Cache of successful metadata signature verifications. When set, signatures of metadata documents which didn't
+     * change since they were verified with the same trust anchors and revocation settings are not verified again.
+     * Cache can be persistent in order to avoid the verification after restart.
+     * <p/>
+     * Value can only be set before the call to the afterBeanPropertiesSet, verifications are not cached by default.
+     *
+     * @param signatureVerificationCache cache or null to verify all signatures
+     */
+    public void setSignatureVerificationCache(SignatureVerificationCache signatureVerificationCache) {
+        this.signatureVerificationCache = signatureVerificationCache;
+    }
 
-                // Invoking getMetadata performs a refresh in case it's needed
-                // Potentially expensive operation, but other threads can still load existing cached data
-                for (MetadataProvider provider : getProviders()) {
-                    provider.getMetadata();
-                }
+    /**
+     * Number of threads used to verify signatures of individual entities of a single provider. Useful for metadata
+     * where each EntityDescriptor is signed, entities with invalid signatures are removed without affecting
+     * the rest of the provider.
+     * <p/>
+     * Value can only be set before the call to the afterBeanPropertiesSet, default value is 1, which verifies
+     * entities one after another in the refreshing thread.
+     *
+     * @param signatureVerificationThreads maximum number of entities verified at the same time
+     */
+    public void setSignatureVerificationThreads(int signatureVerificationThreads) {
+        Assert.isTrue(signatureVerificationThreads > 0, "Number of threads must be positive");
+        this.signatureVerificationThreads = signatureVerificationThreads;
+    }
 
-                // Refresh the metadataManager if needed
-                if (isRefreshRequired()) {
-                    refreshMetadata();
-                }
+    /**
+     * Store used to persist data of the manager after each refresh and to load it during startup. When the store
+     * contains data, it is used immediately after the start while providers are loaded and verified in the background.
+     * Stored entities are not verified again, file of the store must be protected against modification.
+     * <p/>
+     * Value can only be set before the call to the afterBeanPropertiesSet, snapshots are not stored by default.
+     *
+     * @param snapshotStore store or null to disable
+     */
+    public void setSnapshotStore(MetadataSnapshotStore snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
 
-            } catch (Throwable e) {
-                log.warn("Metadata refreshing has failed", e);
-            }
+    /**
+     * @return store of metadata snapshots or null when not used
+     */
+    public MetadataSnapshotStore getSnapshotStore() {
+        return snapshotStore;
+    }
 
-        }
+    /**
+     * Scheduler used to check providers for changes, can only be set before the call to the afterBeanPropertiesSet.
+     * Allows customization of concurrency, jitter and backoff of the checks. Default scheduler is created
+     * automatically when not set.
+     *
+     * @param refreshScheduler scheduler
+     */
+    public void setRefreshScheduler(MetadataRefreshScheduler refreshScheduler) {
+        this.refreshScheduler = refreshScheduler;
+    }
 
+    /**
+     * @return scheduler checking providers for changes, null when none was set or created
+     */
+    public MetadataRefreshScheduler getRefreshScheduler() {
+        return refreshScheduler;
     }
 
     /**
@@ -1006,6 +1908,48 @@ public class MetadataManager extends ChainingMetadataProvider implements Extende
 
     }
 
+    /**
+     * Observer registered on each available provider, marks the provider for re-indexing upon change of its content.
+     */
+    private class ProviderChangeObserver implements ObservableMetadataProvider.Observer {
+
+        private final ExtendedMetadataDelegate provider;
+
+        ProviderChangeObserver(ExtendedMetadataDelegate provider) {
+            this.provider = provider;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void onEvent(MetadataProvider metadataProvider) {
+            changedProviders.put(provider, Boolean.TRUE);
+            setRefreshRequired(true);
+        }
+
+        private MetadataManager getManager() {
+            return MetadataManager.this;
+        }
+
+        /**
+         * Observers are equal when they belong to the same manager and track the same provider.
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ProviderChangeObserver)) {
+                return false;
+            }
+            ProviderChangeObserver other = (ProviderChangeObserver) obj;
+            return getManager() == other.getManager() && provider.equals(other.provider);
+        }
+
+        @Override
+        public int hashCode() {
+            return provider.hashCode();
+        }
+
+    }
+
     @Autowired
     public void setKeyManager(KeyManager keyManager) {
         this.keyManager = keyManager;
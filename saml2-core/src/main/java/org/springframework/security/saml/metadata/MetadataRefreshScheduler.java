@@ -0,0 +1,519 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.common.CacheableSAMLObject;
+import org.opensaml.saml2.common.TimeBoundSAMLObject;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.provider.AbstractReloadingMetadataProvider;
+import org.opensaml.saml2.metadata.provider.MetadataProvider;
+import org.opensaml.xml.XMLObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Scheduler periodically asking each active provider of the MetadataManager for its metadata, which might trigger
+ * their reloading, and refreshing the manager once some of the providers has changed.
+ * <p/>
+ * Each provider is checked in its own interval (see ExtendedMetadataDelegate.setRefreshCheckInterval), a slow
+ * provider therefore doesn't delay checks of the others. Intervals can be randomized using jitter in order to
+ * spread the load of multiple nodes loading the same remote metadata. Failing providers are checked with
+ * exponentially increasing delay up to maxBackoffInterval. Number of providers checked at the same time is limited
+ * by poolSize.
+ * <p/>
+ * With useMetadataValidity enabled the next check of each provider is planned from the cacheDuration and validUntil
+ * declared in its EntitiesDescriptors and EntityDescriptors, bounded by minRefreshInterval and maxRefreshInterval.
+ * Providers whose metadata declares neither are checked in their regular interval. Independently of the provider
+ * checks the scheduler asks the manager to evict entities whose validUntil has passed.
+ * <p/>
+ * Providers extending AbstractReloadingMetadataProvider (e.g. HTTP and filesystem providers) only return their cached
+ * metadata from getMetadata, the scheduler therefore reloads them by calling refresh. Their own refresh timer is
+ * disabled once they are scheduled by setting their minRefreshDelay and maxRefreshDelay to a time long enough
+ * for the timer to never fire, so that the metadata isn't fetched twice.
+ * <p/>
+ * Scheduler is automatically created and started by the MetadataManager unless its refreshCheckInterval
+ * is zero or less.
+ */
+public class MetadataRefreshScheduler {
+
+    // Class logger
+    protected final Logger log = LoggerFactory.getLogger(MetadataRefreshScheduler.class);
+
+    // Maximal number of providers checked at the same time
+    private int poolSize = 2;
+
+    // Maximal random change of each interval as a fraction of the interval
+    private double jitter = 0;
+
+    // Maximal delay between checks of a failing provider in ms
+    private long maxBackoffInterval = 300000l;
+
+    // True when checks of providers are planned from validity of their metadata
+    private boolean useMetadataValidity = false;
+
+    // Minimal delay between checks planned from validity of metadata in ms
+    private long minRefreshInterval = 30000l;
+
+    // Maximal delay between checks planned from validity of metadata in ms
+    private long maxRefreshInterval = 14400000l;
+
+    // Delay set to reloading providers so that their own refresh timer never fires, about 100 years in ms
+    private static final long DISABLED_REFRESH_DELAY = 3153600000000l;
+
+    // Random generator for the jitter
+    private final Random random = new Random();
+
+    // Refresh state of each scheduled provider
+    private final Map<ExtendedMetadataDelegate, ProviderRefresh> refreshes = new ConcurrentHashMap<ExtendedMetadataDelegate, ProviderRefresh>();
+
+    // Manager whose providers are refreshed, set when started
+    private MetadataManager manager;
+
+    // Default interval of provider checks and of verification whether manager needs to be refreshed
+    private long defaultInterval;
+
+    // Executor performing the refreshes, null when not started
+    private ScheduledExecutorService executor;
+
+    /**
+     * Starts periodic checks of providers of the given manager. Providers which become active after the start
+     * are scheduled automatically, the ones which are removed stop being checked.
+     *
+     * @param manager         manager whose providers should be refreshed
+     * @param defaultInterval interval used for providers without a specific one and for checking whether the manager
+     *                        requires refresh, in ms
+     */
+    public synchronized void start(MetadataManager manager, long defaultInterval) {
+
+        Assert.notNull(manager, "MetadataManager must be set");
+        Assert.isTrue(defaultInterval > 0, "Refresh interval must be positive");
+        Assert.isTrue(executor == null, "Scheduler was already started");
+
+        log.debug("Starting metadata refresh scheduler with default interval {} and pool size {}", defaultInterval, poolSize);
+
+        this.manager = manager;
+        this.defaultInterval = defaultInterval;
+        this.executor = Executors.newScheduledThreadPool(poolSize, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Metadata-reload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        executor.scheduleWithFixedDelay(new ManagerRefresh(), 0, defaultInterval, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Stops all scheduled checks.
+     */
+    public synchronized void stop() {
+
+        if (executor != null) {
+            log.debug("Stopping metadata refresh scheduler");
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        for (ProviderRefresh refresh : refreshes.values()) {
+            refresh.cancel();
+        }
+        refreshes.clear();
+
+    }
+
+    /**
+     * Returns time of the last successful check of the provider.
+     *
+     * @param provider provider
+     * @return time of the last successful check, null when provider wasn't checked successfully yet or isn't scheduled
+     */
+    public Date getLastRefresh(MetadataProvider provider) {
+        ProviderRefresh refresh = refreshes.get(getDelegate(provider));
+        if (refresh == null || refresh.lastRefresh == 0) {
+            return null;
+        }
+        return new Date(refresh.lastRefresh);
+    }
+
+    /**
+     * Returns time when the provider is going to be checked next time.
+     *
+     * @param provider provider
+     * @return time of the next check, null when provider isn't scheduled
+     */
+    public Date getNextRefresh(MetadataProvider provider) {
+        ProviderRefresh refresh = refreshes.get(getDelegate(provider));
+        if (refresh == null || refresh.nextRefresh == 0) {
+            return null;
+        }
+        return new Date(refresh.nextRefresh);
+    }
+
+    /**
+     * Returns number of consecutive failed checks of the provider.
+     *
+     * @param provider provider
+     * @return number of failures since the last successful check, 0 when provider isn't scheduled
+     */
+    public int getFailureCount(MetadataProvider provider) {
+        ProviderRefresh refresh = refreshes.get(getDelegate(provider));
+        if (refresh == null) {
+            return 0;
+        }
+        return refresh.failures;
+    }
+
+    private ExtendedMetadataDelegate getDelegate(MetadataProvider provider) {
+        if (provider instanceof ExtendedMetadataDelegate) {
+            return (ExtendedMetadataDelegate) provider;
+        } else {
+            return new ExtendedMetadataDelegate(provider);
+        }
+    }
+
+    /**
+     * Updates scheduled checks to match the current list of active providers.
+     */
+    private void synchronizeProviders() {
+
+        Set<ExtendedMetadataDelegate> active = new HashSet<ExtendedMetadataDelegate>();
+        for (MetadataProvider provider : manager.getProviders()) {
+            active.add(getDelegate(provider));
+        }
+
+        for (Iterator<Map.Entry<ExtendedMetadataDelegate, ProviderRefresh>> iterator = refreshes.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<ExtendedMetadataDelegate, ProviderRefresh> entry = iterator.next();
+            if (!active.contains(entry.getKey())) {
+                log.debug("Provider {} is no longer active, its refresh is cancelled", entry.getKey());
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+
+        for (ExtendedMetadataDelegate provider : active) {
+            if (!refreshes.containsKey(provider)) {
+                log.debug("Scheduling refresh of provider {}", provider);
+                disableTimer(provider);
+                ProviderRefresh refresh = new ProviderRefresh(provider);
+                refreshes.put(provider, refresh);
+                schedule(refresh, getInterval(provider));
+            }
+        }
+
+    }
+
+    /**
+     * Prevents reloading provider from refreshing on its own timer, refreshes are performed by the scheduler instead.
+     * Task already planned on the timer is rescheduled with the long delay once it runs.
+     *
+     * @param provider provider to be scheduled
+     */
+    private void disableTimer(ExtendedMetadataDelegate provider) {
+        if (provider.getDelegate() instanceof AbstractReloadingMetadataProvider) {
+            AbstractReloadingMetadataProvider reloading = (AbstractReloadingMetadataProvider) provider.getDelegate();
+            log.debug("Refresh timer of provider {} is disabled, provider is refreshed by the scheduler", provider);
+            reloading.setMaxRefreshDelay(DISABLED_REFRESH_DELAY);
+            reloading.setMinRefreshDelay(DISABLED_REFRESH_DELAY);
+        }
+    }
+
+    /**
+     * Refreshes the manager in case some provider has changed.
+     */
+    private void refreshManager() {
+        if (manager.isRefreshRequired()) {
+            manager.refreshMetadata();
+        }
+    }
+
+    /**
+     * @param provider provider
+     * @return interval specific for the provider or the default one
+     */
+    private long getInterval(ExtendedMetadataDelegate provider) {
+        if (provider.getRefreshCheckInterval() > 0) {
+            return provider.getRefreshCheckInterval();
+        } else {
+            return defaultInterval;
+        }
+    }
+
+    /**
+     * Calculates delay before next check of a provider from validity of its metadata, the regular interval is used
+     * in case metadata declares no validity or useMetadataValidity is disabled.
+     *
+     * @param metadata metadata of the provider
+     * @param interval regular interval of the provider
+     * @return delay in ms
+     */
+    private long getValidityInterval(XMLObject metadata, long interval) {
+        if (!useMetadataValidity) {
+            return interval;
+        }
+        long delay = getValidity(metadata, System.currentTimeMillis(), Long.MAX_VALUE);
+        if (delay == Long.MAX_VALUE) {
+            return interval;
+        }
+        return Math.max(minRefreshInterval, Math.min(delay, maxRefreshInterval));
+    }
+
+    /**
+     * Finds the shortest cacheDuration and the earliest validUntil within the metadata. Metadata is checked once
+     * three quarters of the time remaining until validUntil pass, so that it can be reloaded before it expires.
+     *
+     * @param object metadata element
+     * @param now    current time in ms
+     * @param delay  shortest delay found so far
+     * @return shortest delay in ms, Long.MAX_VALUE when no validity is declared
+     */
+    private long getValidity(XMLObject object, long now, long delay) {
+        if (object instanceof CacheableSAMLObject) {
+            Long cacheDuration = ((CacheableSAMLObject) object).getCacheDuration();
+            if (cacheDuration != null && cacheDuration > 0) {
+                delay = Math.min(delay, cacheDuration);
+            }
+        }
+        if (object instanceof TimeBoundSAMLObject && ((TimeBoundSAMLObject) object).getValidUntil() != null) {
+            long remaining = ((TimeBoundSAMLObject) object).getValidUntil().getMillis() - now;
+            delay = Math.min(delay, remaining - remaining / 4);
+        }
+        if (object instanceof EntitiesDescriptor) {
+            EntitiesDescriptor group = (EntitiesDescriptor) object;
+            for (EntitiesDescriptor nested : group.getEntitiesDescriptors()) {
+                delay = getValidity(nested, now, delay);
+            }
+            for (EntityDescriptor entity : group.getEntityDescriptors()) {
+                delay = getValidity(entity, now, delay);
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Calculates delay before next check of a provider which failed the given number of times in a row. Delay is
+     * doubled with each failure up to the maxBackoffInterval, but never gets shorter than the regular interval.
+     *
+     * @param interval regular interval of the provider
+     * @param failures number of failures
+     * @return delay in ms
+     */
+    private long getBackoffInterval(long interval, int failures) {
+        long delay = interval;
+        for (int i = 0; i < failures && delay < maxBackoffInterval; i++) {
+            delay = delay * 2;
+        }
+        return Math.max(interval, Math.min(delay, maxBackoffInterval));
+    }
+
+    /**
+     * Schedules next check of the provider after the given delay modified by the jitter.
+     *
+     * @param refresh refresh to schedule
+     * @param delay   delay in ms
+     */
+    private synchronized void schedule(ProviderRefresh refresh, long delay) {
+
+        if (executor == null || refresh.cancelled) {
+            return;
+        }
+
+        if (jitter > 0) {
+            long range = (long) (delay * jitter);
+            delay = delay - range + (long) (random.nextDouble() * 2 * range);
+        }
+
+        try {
+            refresh.nextRefresh = System.currentTimeMillis() + delay;
+            refresh.future = executor.schedule(refresh, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Refresh of provider {} wasn't scheduled, scheduler is stopped", refresh.provider);
+        }
+
+    }
+
+    /**
+     * Task periodically adding and removing providers to refresh and refreshing the manager when required.
+     */
+    private class ManagerRefresh implements Runnable {
+
+        public void run() {
+
+            try {
+
+                log.debug("Executing metadata refresh task");
+                synchronizeProviders();
+                manager.evictExpiredEntities();
+                refreshManager();
+
+            } catch (Throwable e) {
+                log.warn("Metadata refreshing has failed", e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Task checking a single provider, reschedules itself after each execution.
+     */
+    private class ProviderRefresh implements Runnable {
+
+        private final ExtendedMetadataDelegate provider;
+
+        private volatile long lastRefresh;
+
+        private volatile long nextRefresh;
+
+        private volatile int failures;
+
+        private volatile boolean cancelled;
+
+        private volatile ScheduledFuture<?> future;
+
+        private ProviderRefresh(ExtendedMetadataDelegate provider) {
+            this.provider = provider;
+        }
+
+        public void run() {
+
+            if (cancelled) {
+                return;
+            }
+
+            long interval = getInterval(provider);
+            long delay;
+
+            try {
+
+                // Reloading providers only return cached metadata from getMetadata, other providers
+                // perform a refresh in case it's needed
+                log.debug("Checking metadata provider {}", provider);
+                if (provider.getDelegate() instanceof AbstractReloadingMetadataProvider) {
+                    ((AbstractReloadingMetadataProvider) provider.getDelegate()).refresh();
+                }
+                XMLObject metadata = provider.getMetadata();
+                lastRefresh = System.currentTimeMillis();
+                failures = 0;
+                delay = getValidityInterval(metadata, interval);
+
+            } catch (Throwable e) {
+
+                failures++;
+                delay = getBackoffInterval(interval, failures);
+                log.warn("Metadata refreshing of provider " + provider + " has failed " + failures + " times in a row, next attempt in " + delay + " ms", e);
+
+            }
+
+            try {
+                refreshManager();
+            } catch (Throwable e) {
+                log.warn("Metadata refreshing has failed", e);
+            }
+
+            schedule(this, delay);
+
+        }
+
+        private void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> scheduled = future;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+
+    }
+
+    /**
+     * Maximal number of providers checked at the same time, can only be changed before the scheduler is started.
+     * <p/>
+     * Default value is 2.
+     *
+     * @param poolSize number of threads used for refreshing
+     */
+    public void setPoolSize(int poolSize) {
+        Assert.isTrue(poolSize > 0, "Pool size must be positive");
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Maximal random change of each interval expressed as a fraction of the interval, e.g. value 0.1 causes checks
+     * to happen anywhere between 90% and 110% of the interval.
+     * <p/>
+     * Default value is 0, intervals are not randomized.
+     *
+     * @param jitter fraction between 0 and 1
+     */
+    public void setJitter(double jitter) {
+        Assert.isTrue(jitter >= 0 && jitter <= 1, "Jitter must be between 0 and 1");
+        this.jitter = jitter;
+    }
+
+    /**
+     * Maximal delay between checks of a provider which keeps failing, delay is doubled with each subsequent failure.
+     * <p/>
+     * Default value is 300000 ms.
+     *
+     * @param maxBackoffInterval maximal delay in ms
+     */
+    public void setMaxBackoffInterval(long maxBackoffInterval) {
+        this.maxBackoffInterval = maxBackoffInterval;
+    }
+
+    /**
+     * When enabled, next check of each provider is planned from the cacheDuration and validUntil declared in its
+     * metadata instead of the regular interval.
+     * <p/>
+     * Default value is false.
+     *
+     * @param useMetadataValidity true to plan checks from validity of the metadata
+     */
+    public void setUseMetadataValidity(boolean useMetadataValidity) {
+        this.useMetadataValidity = useMetadataValidity;
+    }
+
+    /**
+     * Minimal delay between checks planned from validity of the metadata, also used when the metadata has already
+     * expired.
+     * <p/>
+     * Default value is 30000 ms.
+     *
+     * @param minRefreshInterval minimal delay in ms
+     */
+    public void setMinRefreshInterval(long minRefreshInterval) {
+        Assert.isTrue(minRefreshInterval > 0, "Refresh interval must be positive");
+        this.minRefreshInterval = minRefreshInterval;
+    }
+
+    /**
+     * Maximal delay between checks planned from validity of the metadata.
+     * <p/>
+     * Default value is 14400000 ms (4 hours).
+     *
+     * @param maxRefreshInterval maximal delay in ms
+     */
+    public void setMaxRefreshInterval(long maxRefreshInterval) {
+        Assert.isTrue(maxRefreshInterval > 0, "Refresh interval must be positive");
+        this.maxRefreshInterval = maxRefreshInterval;
+    }
+
+}
@@ -0,0 +1,255 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.provider.MetadataProvider;
+
+import java.util.*;
+
+/**
+ * Immutable view of all data the MetadataManager derives from its providers during a refresh. A new instance
+ * is built off to the side during each call to refreshMetadata and published at once when the refresh finishes,
+ * readers therefore never observe partially reloaded data and don't need any locking.
+ * <p/>
+ * Collections returned from the snapshot are unmodifiable.
+ */
+public class MetadataSnapshot {
+
+    /**
+     * Providers which passed validation, in order of their declaration.
+     */
+    private final List<MetadataProvider> providers;
+
+    /**
+     * Set of IDP names available in the system.
+     */
+    private final Set<String> idpNames;
+
+    /**
+     * Set of SP names available in the system.
+     */
+    private final Set<String> spNames;
+
+    /**
+     * All valid aliases of local entities.
+     */
+    private final Set<String> aliases;
+
+    /**
+     * Extended metadata of each entity as provided by the first provider which contains the entity.
+     */
+    private final Map<String, ExtendedMetadata> extendedMetadata;
+
+    /**
+     * EntityIDs of local IDPs and SPs indexed by their alias.
+     */
+    private final Map<String, String> aliasIndex;
+
+    /**
+     * EntityIDs of IDPs and SPs indexed by their SHA-1 hash.
+     */
+    private final Map<EntityHashKey, String> hashIndex;
+
+    /**
+     * True when some of the providers resolves entities on demand.
+     */
+    private final boolean dynamicProviders;
+
+    /**
+     * Roles of entities per entityID, role name and protocol.
+     */
+    private final RoleIndex roleIndex;
+
+    /**
+     * Endpoint tables of indexed roles.
+     */
+    private final EndpointIndex endpointIndex;
+
+    /**
+     * Content digest (or other object identifying content version) per entityID, null when not known.
+     */
+    private final Map<String, Object> entityVersions;
+
+    /**
+     * Creates an empty snapshot used before the first refresh of the manager.
+     */
+    MetadataSnapshot() {
+        this(Collections.<MetadataProvider>emptyList(), Collections.<String>emptySet(), Collections.<String>emptySet(),
+                Collections.<String>emptySet(), Collections.<String, String>emptyMap(),
+                Collections.<String, ExtendedMetadata>emptyMap(), Collections.<EntityHashKey, String>emptyMap(),
+                new RoleIndex(), new EndpointIndex(), Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Creates snapshot with the given data. Collections are not copied, caller mustn't modify them after
+     * the snapshot is created.
+     *
+     * @param providers        active providers
+     * @param idpNames         names of IDP entities
+     * @param spNames          names of SP entities
+     * @param aliases          aliases of local entities
+     * @param aliasIndex       entityIDs of local IDPs and SPs per alias
+     * @param extendedMetadata extended metadata per entityID
+     * @param hashIndex        entityIDs of IDPs and SPs per SHA-1 hash
+     * @param roleIndex        roles of entities
+     * @param endpointIndex    endpoint tables of indexed roles
+     * @param entityVersions   objects identifying content version of each entity, equal only for equal content,
+     *                         or null when not known
+     */
+    MetadataSnapshot(List<MetadataProvider> providers, Set<String> idpNames, Set<String> spNames, Set<String> aliases,
+                     Map<String, String> aliasIndex, Map<String, ExtendedMetadata> extendedMetadata,
+                     Map<EntityHashKey, String> hashIndex, RoleIndex roleIndex, EndpointIndex endpointIndex,
+                     Map<String, Object> entityVersions) {
+        this.providers = Collections.unmodifiableList(providers);
+        this.idpNames = Collections.unmodifiableSet(idpNames);
+        this.spNames = Collections.unmodifiableSet(spNames);
+        this.aliases = Collections.unmodifiableSet(aliases);
+        this.aliasIndex = Collections.unmodifiableMap(aliasIndex);
+        this.extendedMetadata = Collections.unmodifiableMap(extendedMetadata);
+        this.hashIndex = Collections.unmodifiableMap(hashIndex);
+        this.roleIndex = roleIndex;
+        this.endpointIndex = endpointIndex;
+        this.entityVersions = entityVersions != null ? Collections.unmodifiableMap(entityVersions) : null;
+        boolean dynamic = false;
+        for (MetadataProvider provider : providers) {
+            if (provider instanceof ExtendedMetadataDelegate && ((ExtendedMetadataDelegate) provider).getDelegate() instanceof DynamicMetadataProvider) {
+                dynamic = true;
+            }
+        }
+        this.dynamicProviders = dynamic;
+    }
+
+    /**
+     * @return active providers in order of their declaration
+     */
+    public List<MetadataProvider> getProviders() {
+        return providers;
+    }
+
+    /**
+     * Entities of providers resolving them on demand (see DynamicMetadataProvider) are not included
+     * in the names, hashes and extended metadata of the snapshot.
+     *
+     * @return true when some of the active providers resolves entities on demand
+     */
+    public boolean hasDynamicProviders() {
+        return dynamicProviders;
+    }
+
+    /**
+     * @param entityID entity
+     * @return true when entity is IDP or SP, or has extended metadata indexed in the snapshot
+     */
+    public boolean isIndexed(String entityID) {
+        return idpNames.contains(entityID) || spNames.contains(entityID) || extendedMetadata.containsKey(entityID);
+    }
+
+    /**
+     * @return names of all IDP entities
+     */
+    public Set<String> getIDPEntityNames() {
+        return idpNames;
+    }
+
+    /**
+     * @return names of all SP entities
+     */
+    public Set<String> getSPEntityNames() {
+        return spNames;
+    }
+
+    /**
+     * @return aliases of all local entities
+     */
+    public Set<String> getAliases() {
+        return aliases;
+    }
+
+    /**
+     * Locates local IDP or SP deployed under the given alias.
+     *
+     * @param alias alias
+     * @return entityID or null if no local IDP or SP uses the alias
+     */
+    public String getEntityIdForAlias(String alias) {
+        return aliasIndex.get(alias);
+    }
+
+    /**
+     * Returns extended metadata of the entity as supplied by the provider. The returned object is shared and frozen.
+     *
+     * @param entityID entity
+     * @return extended metadata or null when no provider supplies one
+     */
+    public ExtendedMetadata getExtendedMetadata(String entityID) {
+        return extendedMetadata.get(entityID);
+    }
+
+    /**
+     * Locates IDP or SP whose entityID SHA-1 hash equals the one in the parameter.
+     *
+     * @param hash SHA-1 hash of the entityID, e.g. SourceID of an artifact
+     * @return entityID or null if no such IDP or SP exists
+     */
+    public String getEntityIdForHash(byte[] hash) {
+        if (hash == null) {
+            return null;
+        }
+        return hashIndex.get(new EntityHashKey(hash));
+    }
+
+    /**
+     * @return extended metadata of all indexed entities
+     */
+    Map<String, ExtendedMetadata> getExtendedMetadataIndex() {
+        return extendedMetadata;
+    }
+
+    /**
+     * @return entityIDs of local entities per alias
+     */
+    Map<String, String> getAliasIndex() {
+        return aliasIndex;
+    }
+
+    /**
+     * @return entityIDs of IDPs and SPs per hash
+     */
+    Map<EntityHashKey, String> getHashIndex() {
+        return hashIndex;
+    }
+
+    /**
+     * @return roles of entities
+     */
+    RoleIndex getRoleIndex() {
+        return roleIndex;
+    }
+
+    /**
+     * @return endpoint tables of indexed roles
+     */
+    EndpointIndex getEndpointIndex() {
+        return endpointIndex;
+    }
+
+    /**
+     * @return content versions per entityID, null when not known
+     */
+    Map<String, Object> getEntityVersions() {
+        return entityVersions;
+    }
+
+}
@@ -0,0 +1,424 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.provider.MetadataProvider;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.util.XMLHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.util.SAMLUtil;
+import org.springframework.util.Assert;
+import org.w3c.dom.Element;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Stores data of the MetadataManager in a local binary file, so that it can be used right after a restart without
+ * waiting for all providers to be loaded, parsed and verified. The file contains serialized EntityDescriptors of all
+ * indexed entities together with their content digest, names of IDPs and SPs, SHA-1 hashes, aliases and extended
+ * metadata.
+ * <p/>
+ * Entities are serialized from the data loaded by StreamingMetadataProvider and StoredMetadataProvider, or from
+ * a copy of the DOM of other descriptors. Published descriptors and their DOM are never modified, entities without
+ * DOM are not stored. Only fields of ExtendedMetadata itself are stored, values of subclasses are lost.
+ * <p/>
+ * Manager stores the snapshot after each successful refresh. During startup the stored snapshot is memory mapped
+ * and published right away, entities are unmarshalled lazily upon their first lookup. Providers are then
+ * loaded and verified in the background and replace the stored data once done. Entities of dynamic providers
+ * are not stored.
+ * <p/>
+ * The file is written to a temporary file first and then renamed, readers of the previous version are not affected.
+ * Stored entities are trusted without verification of their signatures, the file must therefore be protected
+ * against modification by other parties.
+ */
+public class MetadataSnapshotStore {
+
+    // Class logger
+    protected final Logger log = LoggerFactory.getLogger(MetadataSnapshotStore.class);
+
+    /**
+     * Algorithm used to calculate content digest of the entities.
+     */
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final int MAGIC = 0x534d4453;
+
+    private static final int VERSION = 2;
+
+    private static final int FLAG_IDP = 1;
+
+    private static final int FLAG_SP = 2;
+
+    /**
+     * Location of the snapshot.
+     */
+    private final File file;
+
+    /**
+     * Parser pool used to create the stored entities.
+     */
+    private final ParserPool parserPool;
+
+    /**
+     * @param file       location of the snapshot file, directory must exist
+     * @param parserPool parser pool used to parse stored entities
+     */
+    public MetadataSnapshotStore(File file, ParserPool parserPool) {
+        Assert.notNull(file, "Snapshot file must be set");
+        Assert.notNull(parserPool, "Parser pool must be set");
+        this.file = file;
+        this.parserPool = parserPool;
+    }
+
+    /**
+     * Writes all indexed entities of the snapshot together with its indexes into the file.
+     *
+     * @param snapshot snapshot to store
+     * @throws MetadataProviderException in case snapshot can't be written
+     */
+    public void store(MetadataSnapshot snapshot) throws MetadataProviderException {
+
+        long start = System.currentTimeMillis();
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream output = null;
+
+        try {
+
+            Set<String> entityIDs = new LinkedHashSet<String>();
+            entityIDs.addAll(snapshot.getIDPEntityNames());
+            entityIDs.addAll(snapshot.getSPEntityNames());
+            entityIDs.addAll(snapshot.getExtendedMetadataIndex().keySet());
+
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+
+            // Count is written once all entities are known, entities which can't be located are skipped
+            List<byte[]> entities = new ArrayList<byte[]>(entityIDs.size());
+            List<String> storedIDs = new ArrayList<String>(entityIDs.size());
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+
+            for (String entityID : entityIDs) {
+                byte[] data = serialize(snapshot, entityID);
+                if (data != null) {
+                    entities.add(data);
+                    storedIDs.add(entityID);
+                } else {
+                    log.debug("Entity {} isn't available and won't be stored", entityID);
+                }
+            }
+
+            output.writeInt(storedIDs.size());
+            for (int i = 0; i < storedIDs.size(); i++) {
+                String entityID = storedIDs.get(i);
+                byte[] data = entities.get(i);
+                int flags = (snapshot.getIDPEntityNames().contains(entityID) ? FLAG_IDP : 0) | (snapshot.getSPEntityNames().contains(entityID) ? FLAG_SP : 0);
+                writeString(output, entityID);
+                output.writeByte(flags);
+                writeBytes(output, digest.digest(data));
+                writeBytes(output, data);
+            }
+
+            output.writeInt(snapshot.getAliases().size());
+            for (String alias : snapshot.getAliases()) {
+                writeString(output, alias);
+            }
+
+            output.writeInt(snapshot.getAliasIndex().size());
+            for (Map.Entry<String, String> entry : snapshot.getAliasIndex().entrySet()) {
+                writeString(output, entry.getKey());
+                writeString(output, entry.getValue());
+            }
+
+            output.writeInt(snapshot.getHashIndex().size());
+            for (Map.Entry<EntityHashKey, String> entry : snapshot.getHashIndex().entrySet()) {
+                writeBytes(output, entry.getKey().getHash());
+                writeString(output, entry.getValue());
+            }
+
+            output.writeInt(snapshot.getExtendedMetadataIndex().size());
+            for (Map.Entry<String, ExtendedMetadata> entry : snapshot.getExtendedMetadataIndex().entrySet()) {
+                writeString(output, entry.getKey());
+                writeExtendedMetadata(output, entry.getValue());
+            }
+
+            output.close();
+            output = null;
+
+            // Previous file might be still mapped by readers, it is therefore replaced rather than overwritten
+            if (!temporary.renameTo(file)) {
+                file.delete();
+                if (!temporary.renameTo(file)) {
+                    throw new MetadataProviderException("Snapshot file " + file + " can't be replaced");
+                }
+            }
+
+            log.debug("Stored {} entities into snapshot file {} in {} ms", new Object[]{storedIDs.size(), file, System.currentTimeMillis() - start});
+
+        } catch (MetadataProviderException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MetadataProviderException("Error storing metadata snapshot into " + file, e);
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    log.debug("Error closing snapshot file", e);
+                }
+                temporary.delete();
+            }
+        }
+
+    }
+
+    /**
+     * Loads snapshot from the file. Returned snapshot contains a single provider serving the stored entities.
+     *
+     * @return loaded snapshot or null when file doesn't exist
+     * @throws MetadataProviderException in case file can't be read or is corrupted
+     */
+    public MetadataSnapshot load() throws MetadataProviderException {
+
+        if (!file.isFile()) {
+            log.debug("Snapshot file {} doesn't exist", file);
+            return null;
+        }
+
+        RandomAccessFile input = null;
+
+        try {
+
+            input = new RandomAccessFile(file, "r");
+            ByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new MetadataProviderException("File " + file + " isn't a supported metadata snapshot");
+            }
+
+            Set<String> idpNames = new HashSet<String>();
+            Set<String> spNames = new HashSet<String>();
+            Map<String, StoredMetadataProvider.StoredEntity> entities = new LinkedHashMap<String, StoredMetadataProvider.StoredEntity>();
+
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                String entityID = readString(buffer);
+                int flags = buffer.get();
+                byte[] digest = readBytes(buffer);
+                int length = buffer.getInt();
+                entities.put(entityID, new StoredMetadataProvider.StoredEntity(buffer.position(), length, digest));
+                buffer.position(buffer.position() + length);
+                if ((flags & FLAG_IDP) != 0) {
+                    idpNames.add(entityID);
+                }
+                if ((flags & FLAG_SP) != 0) {
+                    spNames.add(entityID);
+                }
+            }
+
+            Set<String> aliases = new HashSet<String>();
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                aliases.add(readString(buffer));
+            }
+
+            Map<String, String> aliasIndex = new HashMap<String, String>();
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                aliasIndex.put(readString(buffer), readString(buffer));
+            }
+
+            Map<EntityHashKey, String> hashIndex = new HashMap<EntityHashKey, String>();
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                hashIndex.put(new EntityHashKey(readBytes(buffer)), readString(buffer));
+            }
+
+            Map<String, ExtendedMetadata> extendedMetadata = new HashMap<String, ExtendedMetadata>();
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                extendedMetadata.put(readString(buffer), readExtendedMetadata(buffer).freeze());
+            }
+
+            StoredMetadataProvider provider = new StoredMetadataProvider(file.getPath(), buffer, entities);
+            provider.setParserPool(parserPool);
+            provider.initialize();
+
+            List<MetadataProvider> providers = new ArrayList<MetadataProvider>(1);
+            providers.add(new ExtendedMetadataDelegate(provider));
+
+            // Stored entities are created on demand, roles are served by the provider
+            RoleIndex roleIndex = new RoleIndex();
+            roleIndex.markIncomplete();
+
+            log.debug("Loaded {} entities from snapshot file {}", entities.size(), file);
+            return new MetadataSnapshot(providers, idpNames, spNames, aliases, aliasIndex, extendedMetadata, hashIndex, roleIndex, new EndpointIndex(), null);
+
+        } catch (MetadataProviderException e) {
+            throw e;
+        } catch (BufferUnderflowException e) {
+            throw new MetadataProviderException("Snapshot file " + file + " is truncated", e);
+        } catch (Exception e) {
+            throw new MetadataProviderException("Error loading metadata snapshot from " + file, e);
+        } finally {
+            if (input != null) {
+                try {
+                    // Mapping stays valid after the file is closed
+                    input.close();
+                } catch (IOException e) {
+                    log.debug("Error closing snapshot file", e);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * @return location of the snapshot file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Serializes the entity from the first non-dynamic provider containing it into UTF-8 encoded XML.
+     *
+     * @param snapshot snapshot
+     * @param entityID entity
+     * @return serialized entity or null when not available
+     */
+    private byte[] serialize(MetadataSnapshot snapshot, String entityID) {
+        for (MetadataProvider provider : snapshot.getProviders()) {
+            MetadataProvider delegate = provider;
+            if (provider instanceof ExtendedMetadataDelegate) {
+                delegate = ((ExtendedMetadataDelegate) provider).getDelegate();
+            }
+            if (delegate instanceof DynamicMetadataProvider) {
+                continue;
+            }
+            try {
+                EntityDescriptor descriptor = provider.getEntityDescriptor(entityID);
+                if (descriptor == null) {
+                    continue;
+                }
+                if (delegate instanceof StreamingMetadataProvider) {
+                    return ((StreamingMetadataProvider) delegate).getEntityData(entityID);
+                } else if (delegate instanceof StoredMetadataProvider) {
+                    return ((StoredMetadataProvider) delegate).getEntityData(entityID);
+                } else if (descriptor.getDOM() != null) {
+                    return serialize(descriptor.getDOM());
+                } else {
+                    log.debug("Entity {} doesn't have DOM and won't be stored", entityID);
+                    return null;
+                }
+            } catch (Exception e) {
+                log.debug("Error retrieving entity " + entityID + " for snapshot", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Serializes copy of the element into UTF-8 encoded XML, the element itself isn't modified.
+     *
+     * @param element element of the entity
+     * @return serialized entity
+     * @throws Exception in case serialization fails
+     */
+    private byte[] serialize(Element element) throws Exception {
+        Element copy = SAMLUtil.importElement(element, parserPool.newDocument());
+        return XMLHelper.nodeToString(copy).getBytes("UTF-8");
+    }
+
+    private void writeExtendedMetadata(DataOutputStream output, ExtendedMetadata metadata) throws IOException {
+        output.writeBoolean(metadata.isLocal());
+        writeOptionalString(output, metadata.getAlias());
+        writeOptionalString(output, metadata.getSecurityProfile());
+        writeOptionalString(output, metadata.getSigningKey());
+        writeOptionalString(output, metadata.getEncryptionKey());
+        writeOptionalString(output, metadata.getTlsKey());
+        Set<String> trustedKeys = metadata.getTrustedKeys();
+        output.writeInt(trustedKeys == null ? -1 : trustedKeys.size());
+        if (trustedKeys != null) {
+            for (String key : trustedKeys) {
+                writeString(output, key);
+            }
+        }
+        output.writeBoolean(metadata.isRequireLogoutRequestSigned());
+        output.writeBoolean(metadata.isRequireLogoutResponseSigned());
+        output.writeBoolean(metadata.isRequireArtifactResolveSigned());
+    }
+
+    private ExtendedMetadata readExtendedMetadata(ByteBuffer buffer) throws UnsupportedEncodingException {
+        ExtendedMetadata metadata = new ExtendedMetadata();
+        metadata.setLocal(buffer.get() != 0);
+        metadata.setAlias(readOptionalString(buffer));
+        metadata.setSecurityProfile(readOptionalString(buffer));
+        metadata.setSigningKey(readOptionalString(buffer));
+        metadata.setEncryptionKey(readOptionalString(buffer));
+        metadata.setTlsKey(readOptionalString(buffer));
+        int count = buffer.getInt();
+        if (count >= 0) {
+            Set<String> trustedKeys = new LinkedHashSet<String>();
+            for (int i = 0; i < count; i++) {
+                trustedKeys.add(readString(buffer));
+            }
+            metadata.setTrustedKeys(trustedKeys);
+        }
+        metadata.setRequireLogoutRequestSigned(buffer.get() != 0);
+        metadata.setRequireLogoutResponseSigned(buffer.get() != 0);
+        metadata.setRequireArtifactResolveSigned(buffer.get() != 0);
+        return metadata;
+    }
+
+    private void writeOptionalString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            writeString(output, value);
+        }
+    }
+
+    private String readOptionalString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        return buffer.get() != 0 ? readString(buffer) : null;
+    }
+
+    private void writeString(DataOutputStream output, String value) throws IOException {
+        writeBytes(output, value.getBytes("UTF-8"));
+    }
+
+    private void writeBytes(DataOutputStream output, byte[] value) throws IOException {
+        output.writeInt(value.length);
+        output.write(value);
+    }
+
+    private String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        return new String(readBytes(buffer), "UTF-8");
+    }
+
+    private byte[] readBytes(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return value;
+    }
+
+}
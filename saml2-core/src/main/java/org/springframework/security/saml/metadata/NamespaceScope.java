@@ -0,0 +1,90 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import java.util.*;
+
+/**
+ * Namespace declarations in scope of the element currently processed by a SAX handler. Declarations reported
+ * by startPrefixMapping are collected and become part of the scope once the element they belong to is started.
+ * Default namespace is represented by an empty prefix, undeclared default namespace by an empty URI.
+ */
+final class NamespaceScope {
+
+    /**
+     * Declarations of the currently open elements, the innermost first.
+     */
+    private final LinkedList<Map<String, String>> frames = new LinkedList<Map<String, String>>();
+
+    /**
+     * Declarations reported for the element which wasn't started yet.
+     */
+    private Map<String, String> pending = new HashMap<String, String>();
+
+    /**
+     * Records declaration of the next element to be started.
+     *
+     * @param prefix prefix, empty for the default namespace
+     * @param uri    namespace
+     */
+    void declare(String prefix, String uri) {
+        pending.put(prefix, uri);
+    }
+
+    /**
+     * Makes all pending declarations part of the scope, to be called when element is started.
+     *
+     * @return declarations made on the started element
+     */
+    Map<String, String> push() {
+        Map<String, String> frame = pending;
+        frames.addFirst(frame);
+        pending = new HashMap<String, String>();
+        return frame;
+    }
+
+    /**
+     * Removes declarations of the innermost element, to be called when element is ended.
+     */
+    void pop() {
+        frames.removeFirst();
+    }
+
+    /**
+     * @param prefix prefix, empty for the default namespace
+     * @return namespace bound to the prefix or null when prefix isn't declared
+     */
+    String getURI(String prefix) {
+        for (Map<String, String> frame : frames) {
+            String uri = frame.get(prefix);
+            if (uri != null) {
+                return uri;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return all declarations in scope of the innermost element sorted by prefix
+     */
+    SortedMap<String, String> getInScope() {
+        SortedMap<String, String> result = new TreeMap<String, String>();
+        for (ListIterator<Map<String, String>> iterator = frames.listIterator(frames.size()); iterator.hasPrevious();) {
+            result.putAll(iterator.previous());
+        }
+        return result;
+    }
+
+}
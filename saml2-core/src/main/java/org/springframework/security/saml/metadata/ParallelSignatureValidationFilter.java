@@ -0,0 +1,273 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.RoleDescriptor;
+import org.opensaml.saml2.metadata.provider.FilterException;
+import org.opensaml.saml2.metadata.provider.SignatureValidationFilter;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.io.Unmarshaller;
+import org.opensaml.xml.signature.SignatureTrustEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.util.SAMLUtil;
+import org.springframework.util.Assert;
+import org.w3c.dom.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Signature validation filter verifying signatures of individual entities of an EntitiesDescriptor in parallel.
+ * Signatures of the EntitiesDescriptors themselves are verified first in the calling thread, signed entities
+ * (or entities with signed roles) are then verified using a pool of threads. Entities whose verification fails
+ * are removed from the metadata once all verifications finish, other entities are not affected.
+ * <p/>
+ * DOM implementations are not safe for concurrent use, not even for reading. Element of each signed entity is
+ * therefore first copied into its own document in the calling thread, worker threads then unmarshall and verify
+ * only the copies. Roles and affiliations whose signatures are invalid are removed from the original entities once
+ * all verifications finish. With threads set to one the filter behaves exactly as the SignatureValidationFilter.
+ */
+public class ParallelSignatureValidationFilter extends SignatureValidationFilter {
+
+    // Class logger
+    private final Logger log = LoggerFactory.getLogger(ParallelSignatureValidationFilter.class);
+
+    /**
+     * Maximal number of entities verified at the same time.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param engine trust engine used to verify signatures
+     */
+    public ParallelSignatureValidationFilter(SignatureTrustEngine engine) {
+        super(engine);
+    }
+
+    @Override
+    protected void processEntityGroup(EntitiesDescriptor entitiesDescriptor) throws FilterException {
+
+        if (threads <= 1) {
+            super.processEntityGroup(entitiesDescriptor);
+            return;
+        }
+
+        verifySignature(entitiesDescriptor, getGroupName(entitiesDescriptor), true);
+
+        List<EntityDescriptor> signed = new ArrayList<EntityDescriptor>();
+        collectSignedEntities(entitiesDescriptor, signed);
+        if (signed.isEmpty()) {
+            return;
+        }
+
+        int poolSize = Math.min(threads, signed.size());
+        log.debug("Verifying signatures of {} entities using {} threads", signed.size(), poolSize);
+
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Metadata-verification");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+
+            List<Future<Verification>> results = new ArrayList<Future<Verification>>(signed.size());
+            for (final EntityDescriptor entity : signed) {
+                final Element element = copyElement(entity);
+                results.add(executor.submit(new Callable<Verification>() {
+                    public Verification call() throws Exception {
+                        if (element == null) {
+                            throw new FilterException("Entity " + entity.getEntityID() + " doesn't have DOM, signature can't be verified");
+                        }
+                        return verify(element);
+                    }
+                }));
+            }
+
+            List<EntityDescriptor> invalid = new ArrayList<EntityDescriptor>();
+            for (int i = 0; i < results.size(); i++) {
+                EntityDescriptor entity = signed.get(i);
+                try {
+                    removeInvalidChildren(entity, results.get(i).get());
+                } catch (ExecutionException e) {
+                    log.error("Signature verification of entity " + entity.getEntityID() + " failed, entity will be removed", e.getCause());
+                    invalid.add(entity);
+                }
+            }
+
+            for (EntityDescriptor entity : invalid) {
+                ((EntitiesDescriptor) entity.getParent()).getEntityDescriptors().remove(entity);
+            }
+
+            log.debug("Signatures of {} entities were verified, {} invalid entities were removed", signed.size(), invalid.size());
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new FilterException("Interrupted while verifying metadata signatures", e);
+
+        } finally {
+
+            executor.shutdownNow();
+
+        }
+
+    }
+
+    /**
+     * Verifies signatures of nested EntitiesDescriptors, removing the invalid ones, and collects entities with
+     * signatures.
+     *
+     * @param group  group to process
+     * @param signed list to add entities with signatures to
+     */
+    private void collectSignedEntities(EntitiesDescriptor group, List<EntityDescriptor> signed) {
+
+        for (EntityDescriptor entity : group.getEntityDescriptors()) {
+            if (hasSignature(entity)) {
+                signed.add(entity);
+            }
+        }
+
+        List<EntitiesDescriptor> invalid = new ArrayList<EntitiesDescriptor>();
+        for (EntitiesDescriptor nested : group.getEntitiesDescriptors()) {
+            try {
+                verifySignature(nested, getGroupName(nested), true);
+                collectSignedEntities(nested, signed);
+            } catch (FilterException e) {
+                log.error("Signature verification of entities descriptor " + getGroupName(nested) + " failed, descriptor will be removed", e);
+                invalid.add(nested);
+            }
+        }
+        group.getEntitiesDescriptors().removeAll(invalid);
+
+    }
+
+    /**
+     * Copies element of the entity into a new document.
+     *
+     * @param entity entity
+     * @return copy of the entity element or null when entity doesn't have DOM
+     */
+    private Element copyElement(EntityDescriptor entity) {
+        Element element = entity.getDOM();
+        if (element == null) {
+            return null;
+        }
+        return SAMLUtil.importElement(element, element.getOwnerDocument().getImplementation().createDocument(null, null, null));
+    }
+
+    /**
+     * Unmarshalls the copied entity and verifies its signatures, called from the worker threads.
+     *
+     * @param element copy of the entity element in its own document
+     * @return positions of roles and affiliation removed from the copy due to invalid signatures
+     * @throws Exception in case entity can't be unmarshalled or its signature is invalid
+     */
+    private Verification verify(Element element) throws Exception {
+
+        Unmarshaller unmarshaller = Configuration.getUnmarshallerFactory().getUnmarshaller(element);
+        EntityDescriptor copy = (EntityDescriptor) unmarshaller.unmarshall(element);
+        List<RoleDescriptor> roles = new ArrayList<RoleDescriptor>(copy.getRoleDescriptors());
+        boolean affiliation = copy.getAffiliationDescriptor() != null;
+
+        processEntityDescriptor(copy);
+
+        Verification verification = new Verification();
+        for (int i = 0; i < roles.size(); i++) {
+            if (!copy.getRoleDescriptors().contains(roles.get(i))) {
+                verification.invalidRoles.add(i);
+            }
+        }
+        verification.invalidAffiliation = affiliation && copy.getAffiliationDescriptor() == null;
+        return verification;
+
+    }
+
+    /**
+     * Removes roles and affiliation which were removed from the verified copy due to invalid signatures.
+     *
+     * @param entity       original entity
+     * @param verification result of verification of the copy
+     */
+    private void removeInvalidChildren(EntityDescriptor entity, Verification verification) {
+
+        if (!verification.invalidRoles.isEmpty()) {
+            List<RoleDescriptor> invalid = new ArrayList<RoleDescriptor>();
+            for (Integer index : verification.invalidRoles) {
+                invalid.add(entity.getRoleDescriptors().get(index));
+            }
+            log.debug("Removing {} roles with invalid signatures from entity {}", invalid.size(), entity.getEntityID());
+            entity.getRoleDescriptors().removeAll(invalid);
+        }
+
+        if (verification.invalidAffiliation) {
+            log.debug("Removing affiliation with invalid signature from entity {}", entity.getEntityID());
+            entity.setAffiliationDescriptor(null);
+        }
+
+    }
+
+    private boolean hasSignature(EntityDescriptor entity) {
+        if (entity.isSigned()) {
+            return true;
+        }
+        for (RoleDescriptor role : entity.getRoleDescriptors()) {
+            if (role.isSigned()) {
+                return true;
+            }
+        }
+        return entity.getAffiliationDescriptor() != null && entity.getAffiliationDescriptor().isSigned();
+    }
+
+    private String getGroupName(EntitiesDescriptor group) {
+        if (group.getName() != null) {
+            return group.getName();
+        } else if (group.getID() != null) {
+            return group.getID();
+        } else {
+            return "(unnamed)";
+        }
+    }
+
+    /**
+     * Maximal number of entities verified at the same time, value of one or less disables parallel verification.
+     * <p/>
+     * Default value is the number of available processors.
+     *
+     * @param threads number of threads
+     */
+    public void setThreads(int threads) {
+        Assert.isTrue(threads > 0, "Number of threads must be positive");
+        this.threads = threads;
+    }
+
+    /**
+     * Children of an entity removed during verification of its copy.
+     */
+    private static class Verification {
+
+        private final List<Integer> invalidRoles = new ArrayList<Integer>();
+        private boolean invalidAffiliation;
+
+    }
+
+}
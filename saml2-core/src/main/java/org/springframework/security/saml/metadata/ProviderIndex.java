@@ -0,0 +1,144 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.EntityDescriptor;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Data extracted from a single metadata provider during refresh. Index is created once after the provider
+ * content changes and is reused by subsequent refreshes of the MetadataManager until the provider notifies
+ * about another change. Merging of indexes of all providers into the MetadataSnapshot doesn't require any
+ * access to the provider itself.
+ */
+final class ProviderIndex {
+
+    /**
+     * Entities of the provider in order of their appearance in the metadata document.
+     */
+    private final List<Entry> entries;
+
+    /**
+     * True when descriptors of all entities were loaded and their roles can be indexed.
+     */
+    private final boolean rolesIndexed;
+
+    /**
+     * True when the provider only returns valid roles.
+     */
+    private final boolean requireValidMetadata;
+
+    /**
+     * Earliest time in ms when some of the indexed entities stops being valid, Long.MAX_VALUE when none expires.
+     */
+    private final long expiration;
+
+    /**
+     * @param entries              entities of the provider, list mustn't be modified afterwards
+     * @param rolesIndexed         true when entries contain descriptors of the entities
+     * @param requireValidMetadata true when the provider only returns valid roles
+     * @param expiration           earliest validUntil of the indexed entities in ms, Long.MAX_VALUE when none
+     */
+    ProviderIndex(List<Entry> entries, boolean rolesIndexed, boolean requireValidMetadata, long expiration) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.rolesIndexed = rolesIndexed;
+        this.requireValidMetadata = requireValidMetadata;
+        this.expiration = expiration;
+    }
+
+    /**
+     * @return entities of the provider in order of their appearance
+     */
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    boolean isRolesIndexed() {
+        return rolesIndexed;
+    }
+
+    boolean isRequireValidMetadata() {
+        return requireValidMetadata;
+    }
+
+    long getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * Data of a single entity contained in the provider.
+     */
+    static final class Entry {
+
+        private final String entityID;
+        private final boolean idp;
+        private final boolean sp;
+        private final ExtendedMetadata extendedMetadata;
+        private final EntityHashKey hash;
+        private final EntityDescriptor descriptor;
+        private final String digest;
+
+        /**
+         * @param entityID         entity ID
+         * @param idp              true when entity contains an IDP role
+         * @param sp               true when entity contains a SP role
+         * @param extendedMetadata extended metadata supplied by the provider, with verified alias, or null
+         * @param hash             SHA-1 hash of the entityID
+         * @param descriptor       descriptor of the entity when its roles are indexed, null otherwise
+         * @param digest           digest of the entity content or null when not available
+         */
+        Entry(String entityID, boolean idp, boolean sp, ExtendedMetadata extendedMetadata, EntityHashKey hash, EntityDescriptor descriptor, String digest) {
+            this.entityID = entityID;
+            this.idp = idp;
+            this.sp = sp;
+            this.extendedMetadata = extendedMetadata;
+            this.hash = hash;
+            this.descriptor = descriptor;
+            this.digest = digest;
+        }
+
+        String getEntityID() {
+            return entityID;
+        }
+
+        boolean isIDP() {
+            return idp;
+        }
+
+        boolean isSP() {
+            return sp;
+        }
+
+        ExtendedMetadata getExtendedMetadata() {
+            return extendedMetadata;
+        }
+
+        EntityHashKey getHash() {
+            return hash;
+        }
+
+        EntityDescriptor getDescriptor() {
+            return descriptor;
+        }
+
+        String getDigest() {
+            return digest;
+        }
+
+    }
+
+}
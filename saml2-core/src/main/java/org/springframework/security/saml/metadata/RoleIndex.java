@@ -0,0 +1,211 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.common.TimeBoundSAMLObject;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.RoleDescriptor;
+import org.opensaml.xml.XMLObject;
+
+import javax.xml.namespace.QName;
+import java.util.*;
+
+/**
+ * Role descriptors of entities indexed by entityID, role name and supported protocol. Index is populated during
+ * refresh of the MetadataManager in order of declaration of the providers, for each key the roles of the first
+ * provider containing them are used, which equals to the result of querying the providers one after another.
+ * <p/>
+ * Providers which load entities on demand can't be indexed, the index is marked as incomplete once such provider
+ * is encountered and roles of all subsequent providers are skipped, so that precedence of the providers is kept.
+ * Lookups missing an incomplete index must be answered by the providers.
+ */
+final class RoleIndex {
+
+    /**
+     * Roles per entity, role name and optionally protocol.
+     */
+    private final Map<RoleKey, IndexedRoles> roles = new HashMap<RoleKey, IndexedRoles>();
+
+    /**
+     * False when roles of some providers are not included.
+     */
+    private boolean complete = true;
+
+    /**
+     * Adds roles of the entity, keys already present in the index are not changed. Must only be called before
+     * the index is published.
+     *
+     * @param entityID     entity ID
+     * @param descriptor   entity
+     * @param requireValid true when only valid roles may be returned from the index
+     */
+    void addEntity(String entityID, EntityDescriptor descriptor, boolean requireValid) {
+
+        Map<RoleKey, List<RoleDescriptor>> entityRoles = new LinkedHashMap<RoleKey, List<RoleDescriptor>>();
+
+        for (RoleDescriptor role : descriptor.getRoleDescriptors()) {
+            Set<QName> names = new HashSet<QName>(2);
+            names.add(role.getElementQName());
+            if (role.getSchemaType() != null) {
+                names.add(role.getSchemaType());
+            }
+            for (QName name : names) {
+                add(entityRoles, new RoleKey(entityID, name, null), role);
+                for (String protocol : role.getSupportedProtocols()) {
+                    add(entityRoles, new RoleKey(entityID, name, protocol), role);
+                }
+            }
+        }
+
+        for (Map.Entry<RoleKey, List<RoleDescriptor>> entry : entityRoles.entrySet()) {
+            if (!roles.containsKey(entry.getKey())) {
+                roles.put(entry.getKey(), new IndexedRoles(Collections.unmodifiableList(entry.getValue()), requireValid));
+            }
+        }
+
+    }
+
+    private void add(Map<RoleKey, List<RoleDescriptor>> entityRoles, RoleKey key, RoleDescriptor role) {
+        List<RoleDescriptor> list = entityRoles.get(key);
+        if (list == null) {
+            list = new ArrayList<RoleDescriptor>(1);
+            entityRoles.put(key, list);
+        }
+        list.add(role);
+    }
+
+    /**
+     * Marks the index as not containing roles of all providers. Must only be called before the index is published.
+     */
+    void markIncomplete() {
+        complete = false;
+    }
+
+    /**
+     * @return true when roles of all providers are included
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns roles of the entity with the given name supporting the protocol. Roles which are no longer valid are
+     * skipped in case the provider requires valid metadata.
+     *
+     * @param entityID entity ID
+     * @param roleName role name or schema type
+     * @param protocol protocol the roles must support, null for all roles with the name
+     * @return valid roles, possibly empty, or null in case the key is not indexed
+     */
+    List<RoleDescriptor> getRoles(String entityID, QName roleName, String protocol) {
+
+        IndexedRoles indexed = roles.get(new RoleKey(entityID, roleName, protocol));
+        if (indexed == null) {
+            return null;
+        } else if (!indexed.requireValid) {
+            return indexed.roles;
+        }
+
+        List<RoleDescriptor> valid = null;
+        for (int i = 0; i < indexed.roles.size(); i++) {
+            RoleDescriptor role = indexed.roles.get(i);
+            if (!isValid(role)) {
+                if (valid == null) {
+                    valid = new ArrayList<RoleDescriptor>(indexed.roles.subList(0, i));
+                }
+            } else if (valid != null) {
+                valid.add(role);
+            }
+        }
+
+        return valid == null ? indexed.roles : valid;
+
+    }
+
+    /**
+     * Verifies validity of the object and all its parents in the same way as the OpenSAML providers do.
+     *
+     * @param object object to verify
+     * @return true when neither the object nor any of its parents expired
+     */
+    private boolean isValid(XMLObject object) {
+        while (object != null) {
+            if (object instanceof TimeBoundSAMLObject && !((TimeBoundSAMLObject) object).isValid()) {
+                return false;
+            }
+            object = object.getParent();
+        }
+        return true;
+    }
+
+    /**
+     * Roles stored under a single key.
+     */
+    private static final class IndexedRoles {
+
+        private final List<RoleDescriptor> roles;
+        private final boolean requireValid;
+
+        private IndexedRoles(List<RoleDescriptor> roles, boolean requireValid) {
+            this.roles = roles;
+            this.requireValid = requireValid;
+        }
+
+    }
+
+    /**
+     * Key of the index, protocol is null for keys matching all roles with the name.
+     */
+    private static final class RoleKey {
+
+        private final String entityID;
+        private final QName roleName;
+        private final String protocol;
+        private final int hashCode;
+
+        private RoleKey(String entityID, QName roleName, String protocol) {
+            this.entityID = entityID;
+            this.roleName = roleName;
+            this.protocol = protocol;
+            int code = entityID != null ? entityID.hashCode() : 0;
+            code = 31 * code + (roleName != null ? roleName.hashCode() : 0);
+            code = 31 * code + (protocol != null ? protocol.hashCode() : 0);
+            this.hashCode = code;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RoleKey)) {
+                return false;
+            }
+            RoleKey key = (RoleKey) o;
+            return hashCode == key.hashCode && equals(entityID, key.entityID) && equals(roleName, key.roleName) && equals(protocol, key.protocol);
+        }
+
+        private static boolean equals(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+    }
+
+}
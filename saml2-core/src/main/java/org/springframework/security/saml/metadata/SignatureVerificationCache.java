@@ -0,0 +1,210 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records successful signature verifications of metadata documents, so that verification of a document which
+ * didn't change since it was last verified can be skipped. Keys are created by the CachingSignatureValidationFilter
+ * from the content digest of the document and the trust settings used for verification.
+ * <p/>
+ * Records expire after maxAge, so that changes in validity or revocation status of the signing certificates are
+ * detected eventually. When a file is given, the records are stored in it and survive restarts.
+ */
+public class SignatureVerificationCache {
+
+    // Class logger
+    protected final Logger log = LoggerFactory.getLogger(SignatureVerificationCache.class);
+
+    /**
+     * File with the records, null when cache isn't persistent.
+     */
+    private final File file;
+
+    /**
+     * Time of verification per key, in order of insertion.
+     */
+    private final Map<String, Long> verified = new LinkedHashMap<String, Long>();
+
+    /**
+     * Maximal age of a record in ms.
+     */
+    private long maxAge = 86400000l;
+
+    /**
+     * Maximal number of records.
+     */
+    private int maxSize = 100;
+
+    /**
+     * Creates cache kept only in memory.
+     */
+    public SignatureVerificationCache() {
+        this.file = null;
+    }
+
+    /**
+     * Creates cache persisted in the given file, records present in the file are loaded.
+     *
+     * @param file file to store records in
+     */
+    public SignatureVerificationCache(File file) {
+        Assert.notNull(file, "File must be set");
+        this.file = file;
+        load();
+    }
+
+    /**
+     * @param key key of the verification
+     * @return true when verification with the key succeeded within maxAge
+     */
+    public synchronized boolean isVerified(String key) {
+        Long time = verified.get(key);
+        return time != null && time + maxAge > System.currentTimeMillis();
+    }
+
+    /**
+     * Records successful verification.
+     *
+     * @param key key of the verification
+     */
+    public synchronized void markVerified(String key) {
+
+        verified.remove(key);
+        verified.put(key, System.currentTimeMillis());
+
+        long oldest = System.currentTimeMillis() - maxAge;
+        for (Iterator<Long> iterator = verified.values().iterator(); iterator.hasNext();) {
+            Long time = iterator.next();
+            if (verified.size() > maxSize || time <= oldest) {
+                iterator.remove();
+            }
+        }
+
+        save();
+
+    }
+
+    /**
+     * Removes all records.
+     */
+    public synchronized void clear() {
+        verified.clear();
+        save();
+    }
+
+    private void load() {
+
+        if (!file.isFile()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator > 0) {
+                    verified.put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+                }
+            }
+            log.debug("Loaded {} signature verification records from {}", verified.size(), file);
+        } catch (Exception e) {
+            log.warn("Signature verification records couldn't be loaded from " + file + ", all signatures will be verified", e);
+            verified.clear();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.debug("Error closing file", e);
+                }
+            }
+        }
+
+    }
+
+    private void save() {
+
+        if (file == null) {
+            return;
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+            for (Map.Entry<String, Long> entry : verified.entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.close();
+            writer = null;
+            if (!temporary.renameTo(file)) {
+                file.delete();
+                if (!temporary.renameTo(file)) {
+                    log.warn("Signature verification records couldn't be stored in {}", file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Signature verification records couldn't be stored in " + file, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    log.debug("Error closing file", e);
+                }
+                temporary.delete();
+            }
+        }
+
+    }
+
+    /**
+     * Maximal time after which a verified document must be verified again, e.g. in order to detect revocation
+     * of the signing certificate.
+     * <p/>
+     * Default value is 86400000 ms (one day).
+     *
+     * @param maxAge age in ms
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Maximal number of records kept, the oldest are removed first.
+     * <p/>
+     * Default value is 100.
+     *
+     * @param maxSize number of records
+     */
+    public void setMaxSize(int maxSize) {
+        Assert.isTrue(maxSize > 0, "Size must be positive");
+        this.maxSize = maxSize;
+    }
+
+}
@@ -0,0 +1,250 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.RoleDescriptor;
+import org.opensaml.saml2.metadata.provider.AbstractMetadataProvider;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.io.Unmarshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.util.SAMLUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.namespace.QName;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Provider serving entities from a snapshot loaded by the MetadataSnapshotStore. Entities were verified before
+ * the snapshot was written, filters are therefore not applied, only content digest and validity of each entity
+ * are checked when it's created upon the first lookup. Data of entities is read from the memory mapped snapshot
+ * file.
+ */
+final class StoredMetadataProvider extends AbstractMetadataProvider implements IndexedMetadataProvider {
+
+    // Class logger
+    private final Logger log = LoggerFactory.getLogger(StoredMetadataProvider.class);
+
+    /**
+     * File the data was loaded from.
+     */
+    private final String source;
+
+    /**
+     * Mapped content of the snapshot file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Stored entities in order of the snapshot.
+     */
+    private final Map<String, StoredEntity> entities;
+
+    /**
+     * Empty descriptor returned from getMetadata.
+     */
+    private EntitiesDescriptor metadata;
+
+    /**
+     * @param source   description of the snapshot source
+     * @param buffer   mapped content of the snapshot
+     * @param entities stored entities
+     */
+    StoredMetadataProvider(String source, ByteBuffer buffer, Map<String, StoredEntity> entities) {
+        this.source = source;
+        this.buffer = buffer;
+        this.entities = entities;
+    }
+
+    @Override
+    protected void doInitialization() throws MetadataProviderException {
+        metadata = (EntitiesDescriptor) Configuration.getBuilderFactory().getBuilder(EntitiesDescriptor.DEFAULT_ELEMENT_NAME).buildObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+    }
+
+    @Override
+    protected XMLObject doGetMetadata() throws MetadataProviderException {
+        return metadata;
+    }
+
+    @Override
+    public EntityDescriptor getEntityDescriptor(String entityID) throws MetadataProviderException {
+
+        StoredEntity entity = entities.get(entityID);
+        if (entity == null) {
+            return null;
+        }
+
+        EntityDescriptor descriptor = entity.descriptor;
+        if (descriptor == null && !entity.rejected) {
+            synchronized (entity) {
+                if (entity.descriptor == null && !entity.rejected) {
+                    entity.descriptor = createDescriptor(entityID, entity);
+                    entity.rejected = entity.descriptor == null;
+                }
+                descriptor = entity.descriptor;
+            }
+        }
+
+        return descriptor;
+
+    }
+
+    /**
+     * Entities descriptors are not kept by the provider.
+     *
+     * @param name name of the descriptor
+     * @return null
+     */
+    @Override
+    public EntitiesDescriptor getEntitiesDescriptor(String name) {
+        return null;
+    }
+
+    @Override
+    public List<RoleDescriptor> getRole(String entityID, QName roleName) throws MetadataProviderException {
+        EntityDescriptor descriptor = getEntityDescriptor(entityID);
+        if (descriptor == null) {
+            return null;
+        }
+        return descriptor.getRoleDescriptors(roleName);
+    }
+
+    @Override
+    public RoleDescriptor getRole(String entityID, QName roleName, String supportedProtocol) throws MetadataProviderException {
+        EntityDescriptor descriptor = getEntityDescriptor(entityID);
+        if (descriptor == null) {
+            return null;
+        }
+        List<RoleDescriptor> roles = descriptor.getRoleDescriptors(roleName, supportedProtocol);
+        if (roles != null && roles.size() > 0) {
+            return roles.get(0);
+        }
+        return null;
+    }
+
+    public List<String> getEntityIDs() {
+        return new ArrayList<String>(entities.keySet());
+    }
+
+    public boolean containsEntity(String entityID) {
+        return entities.containsKey(entityID);
+    }
+
+    public boolean hasRole(String entityID, QName roleName, String supportedProtocol) throws MetadataProviderException {
+        return getRole(entityID, roleName, supportedProtocol) != null;
+    }
+
+    /**
+     * Returns SHA-256 digest of the stored entity, same as the version of the entity captured by the
+     * StreamingMetadataProvider.
+     *
+     * @param entityID entity
+     * @return hex encoded digest, null when entity isn't stored
+     */
+    public String getEntityVersion(String entityID) {
+        StoredEntity entity = entities.get(entityID);
+        return entity != null ? SAMLUtil.toHex(entity.digest) : null;
+    }
+
+    /**
+     * Returns the stored data of the entity. Used by the MetadataSnapshotStore to store the entity again without
+     * marshalling the shared descriptor.
+     *
+     * @param entityID entity
+     * @return UTF-8 encoded XML of the entity, null when entity isn't available or is corrupted
+     * @throws MetadataProviderException never
+     */
+    byte[] getEntityData(String entityID) throws MetadataProviderException {
+        StoredEntity entity = entities.get(entityID);
+        if (entity == null || getEntityDescriptor(entityID) == null) {
+            return null;
+        }
+        return getData(entity);
+    }
+
+    private byte[] getData(StoredEntity entity) {
+        byte[] data = new byte[entity.length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(entity.offset);
+        view.get(data);
+        return data;
+    }
+
+    private EntityDescriptor createDescriptor(String entityID, StoredEntity entity) {
+
+        try {
+
+            byte[] data = getData(entity);
+
+            MessageDigest digest = MessageDigest.getInstance(MetadataSnapshotStore.DIGEST_ALGORITHM);
+            if (!MessageDigest.isEqual(entity.digest, digest.digest(data))) {
+                log.warn("Stored data of entity {} in {} is corrupted and will be ignored", entityID, source);
+                return null;
+            }
+
+            Document document = getParserPool().parse(new ByteArrayInputStream(data));
+            Element element = document.getDocumentElement();
+            Unmarshaller unmarshaller = Configuration.getUnmarshallerFactory().getUnmarshaller(element);
+            EntityDescriptor descriptor = (EntityDescriptor) unmarshaller.unmarshall(element);
+
+            if (!descriptor.isValid()) {
+                log.warn("Stored entity {} is no longer valid", entityID);
+                return null;
+            }
+
+            descriptor.releaseDOM();
+            descriptor.releaseChildrenDOM(true);
+            return descriptor;
+
+        } catch (Exception e) {
+            log.warn("Error creating stored entity " + entityID + " from " + source, e);
+            return null;
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "StoredMetadataProvider{source=" + source + ", entities=" + entities.size() + "}";
+    }
+
+    /**
+     * Location of a stored entity in the snapshot.
+     */
+    static class StoredEntity {
+
+        private final int offset;
+        private final int length;
+        private final byte[] digest;
+        private volatile EntityDescriptor descriptor;
+        private volatile boolean rejected;
+
+        StoredEntity(int offset, int length, byte[] digest) {
+            this.offset = offset;
+            this.length = length;
+            this.digest = digest;
+        }
+
+    }
+
+}
@@ -0,0 +1,1190 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.common.CacheableSAMLObject;
+import org.opensaml.saml2.common.TimeBoundSAMLObject;
+import org.opensaml.saml2.metadata.AffiliationDescriptor;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.RoleDescriptor;
+import org.opensaml.saml2.metadata.provider.*;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.io.Unmarshaller;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.credential.UsageType;
+import org.opensaml.xml.security.criteria.UsageCriteria;
+import org.opensaml.xml.signature.SignatureTrustEngine;
+import org.opensaml.xml.util.XMLConstants;
+import org.opensaml.xml.util.XMLHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.util.SAMLUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Metadata provider intended for large metadata aggregates. The file is read in a single streaming SAX pass which
+ * splits it into individual EntityDescriptors, each of them is kept as compressed bytes together with the list
+ * of its roles. EntityDescriptor objects are only created when the entity is looked up for the first time, heap use
+ * therefore scales with the number of entities actually used instead of the size of the whole aggregate.
+ * <p/>
+ * Signatures are verified with the trust engine of the SignatureValidationFilter configured on the provider (e.g. by
+ * the MetadataManager). Enveloped signatures of the root and of nested EntitiesDescriptors are verified during
+ * the streaming pass, content of a signed group is canonicalized directly into the digest of its reference and
+ * no object tree of the aggregate is created. Invalid signature of the root rejects the file, invalid signature
+ * of a nested group rejects entities of the group. Signed entities are verified individually by the filter once
+ * their own data is unmarshalled. Signatures placed where the filter wouldn't verify them, or group signatures
+ * which aren't the first child of the group, cause the file (or the entity) to be rejected. Other filters are
+ * applied to each entity when it's created.
+ * <p/>
+ * Name, ID, validUntil and cacheDuration of the root and of all nested EntitiesDescriptors are kept and set as parents
+ * of the created entities, so that validity of the whole aggregate is enforced when valid metadata are required.
+ * <p/>
+ * The provider implements IndexedMetadataProvider which lets MetadataManager list entities and their roles without
+ * creating the objects. Method getMetadata returns only the root element without any entities; entities and their
+ * roles must be looked up using getEntityDescriptor and getRole. File is reloaded upon call to getMetadata once
+ * its modification time changes, observers are notified after each reload.
+ */
+public class StreamingMetadataProvider extends AbstractObservableMetadataProvider implements IndexedMetadataProvider {
+
+    // Class logger
+    protected final Logger log = LoggerFactory.getLogger(StreamingMetadataProvider.class);
+
+    private static final String SIGNATURE = "Signature";
+
+    /**
+     * File with the metadata.
+     */
+    private final File metadataFile;
+
+    /**
+     * When true entities are stored using deflate compression.
+     */
+    private boolean compressEntities = true;
+
+    /**
+     * Data of the last successful load, replaced as a whole.
+     */
+    private volatile State state;
+
+    /**
+     * Creates provider loading metadata from the given file. Method initialize must be called before use.
+     *
+     * @param metadataFile file with EntitiesDescriptor or EntityDescriptor as the root element
+     * @throws MetadataProviderException in case file is null
+     */
+    public StreamingMetadataProvider(File metadataFile) throws MetadataProviderException {
+        if (metadataFile == null) {
+            throw new MetadataProviderException("Metadata file can't be null");
+        }
+        this.metadataFile = metadataFile;
+    }
+
+    /**
+     * Loads the metadata file for the first time.
+     *
+     * @throws MetadataProviderException in case file can't be loaded or its signature isn't valid
+     */
+    @Override
+    protected void doInitialization() throws MetadataProviderException {
+        state = load();
+        emitChangeEvent();
+    }
+
+    /**
+     * Reloads the file in case it was modified since the last load and returns the root element. Returned object
+     * doesn't contain any entities.
+     *
+     * @return root element of the metadata, null when valid metadata are required and the root is no longer valid
+     * @throws MetadataProviderException in case provider isn't initialized
+     */
+    @Override
+    public XMLObject getMetadata() throws MetadataProviderException {
+        XMLObject metadata = getState(true).metadata;
+        if (requireValidMetadata() && !isValid(metadata)) {
+            log.debug("Metadata file {} is no longer valid", metadataFile);
+            return null;
+        }
+        return metadata;
+    }
+
+    @Override
+    protected XMLObject doGetMetadata() throws MetadataProviderException {
+        return getState(false).metadata;
+    }
+
+    /**
+     * Creates the entity descriptor from the stored data when requested for the first time.
+     *
+     * @param entityID entity
+     * @return entity or null when not found, invalid or rejected by a filter
+     * @throws MetadataProviderException in case provider isn't initialized
+     */
+    @Override
+    public EntityDescriptor getEntityDescriptor(String entityID) throws MetadataProviderException {
+        Entry entry = getState(false).entries.get(entityID);
+        if (entry == null || !isAvailable(entry)) {
+            return null;
+        }
+        return getDescriptor(entityID, entry);
+    }
+
+    /**
+     * Entities descriptors are not kept by the provider.
+     *
+     * @param name name of the descriptor
+     * @return null
+     */
+    @Override
+    public EntitiesDescriptor getEntitiesDescriptor(String name) {
+        return null;
+    }
+
+    @Override
+    public List<RoleDescriptor> getRole(String entityID, QName roleName) throws MetadataProviderException {
+        EntityDescriptor descriptor = getEntityDescriptor(entityID);
+        if (descriptor == null) {
+            return null;
+        }
+        return descriptor.getRoleDescriptors(roleName);
+    }
+
+    @Override
+    public RoleDescriptor getRole(String entityID, QName roleName, String supportedProtocol) throws MetadataProviderException {
+        EntityDescriptor descriptor = getEntityDescriptor(entityID);
+        if (descriptor == null) {
+            return null;
+        }
+        List<RoleDescriptor> roles = descriptor.getRoleDescriptors(roleName, supportedProtocol);
+        if (roles != null && roles.size() > 0) {
+            return roles.get(0);
+        }
+        return null;
+    }
+
+    public List<String> getEntityIDs() throws MetadataProviderException {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, Entry> entry : getState(false).entries.entrySet()) {
+            if (isAvailable(entry.getValue())) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    public boolean containsEntity(String entityID) throws MetadataProviderException {
+        Entry entry = getState(false).entries.get(entityID);
+        return entry != null && isAvailable(entry);
+    }
+
+    public boolean hasRole(String entityID, QName roleName, String supportedProtocol) throws MetadataProviderException {
+        Entry entry = getState(false).entries.get(entityID);
+        if (entry == null || !isAvailable(entry)) {
+            return false;
+        }
+        Set<String> protocols = entry.roles.get(roleName);
+        return protocols != null && protocols.contains(supportedProtocol);
+    }
+
+    /**
+     * Returns SHA-256 digest of the entity as it was captured from the file, calculated while loading the file.
+     *
+     * @param entityID entity
+     * @return hex encoded digest, null when entity isn't available
+     * @throws MetadataProviderException in case provider isn't initialized
+     */
+    public String getEntityVersion(String entityID) throws MetadataProviderException {
+        Entry entry = getState(false).entries.get(entityID);
+        if (entry == null || !isAvailable(entry)) {
+            return null;
+        }
+        return SAMLUtil.toHex(entry.digest);
+    }
+
+    /**
+     * Returns the entity as it was captured from the file. Used by the MetadataSnapshotStore to store the entity
+     * without marshalling the shared descriptor.
+     *
+     * @param entityID entity
+     * @return UTF-8 encoded XML of the entity, null when entity isn't available or was rejected
+     * @throws MetadataProviderException in case provider isn't initialized or data can't be read
+     */
+    byte[] getEntityData(String entityID) throws MetadataProviderException {
+
+        Entry entry = getState(false).entries.get(entityID);
+        if (entry == null || !isAvailable(entry) || getDescriptor(entityID, entry) == null) {
+            return null;
+        }
+        if (!entry.compressed) {
+            return entry.data;
+        }
+
+        try {
+            InputStream input = new InflaterInputStream(new ByteArrayInputStream(entry.data));
+            ByteArrayOutputStream output = new ByteArrayOutputStream(entry.data.length * 4);
+            byte[] buffer = new byte[8192];
+            for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } catch (IOException e) {
+            throw new MetadataProviderException("Error reading data of entity " + entityID, e);
+        }
+
+    }
+
+    /**
+     * @return number of entities whose descriptors were already created from the stored data
+     */
+    public int getLoadedEntityCount() {
+        State current = state;
+        int result = 0;
+        if (current != null) {
+            for (Entry entry : current.entries.values()) {
+                if (entry.descriptor != null) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determines whether entities are stored compressed, which reduces memory use at the cost of slower
+     * first lookup of each entity. Change is applied during the next load.
+     * <p/>
+     * By default entities are compressed.
+     *
+     * @param compressEntities true to compress stored entities
+     */
+    public void setCompressEntities(boolean compressEntities) {
+        this.compressEntities = compressEntities;
+    }
+
+    /**
+     * @param reload true when file should be reloaded in case it was modified
+     * @return current data
+     * @throws MetadataProviderException in case provider isn't initialized
+     */
+    private State getState(boolean reload) throws MetadataProviderException {
+
+        if (!isInitialized() || state == null) {
+            throw new MetadataProviderException("Metadata provider has not been initialized");
+        }
+
+        if (reload && metadataFile.lastModified() != state.lastModified) {
+            reload();
+        }
+
+        return state;
+
+    }
+
+    private synchronized void reload() {
+
+        if (metadataFile.lastModified() == state.lastModified) {
+            return;
+        }
+
+        try {
+            log.debug("Metadata file {} was modified, reloading", metadataFile);
+            state = load();
+            emitChangeEvent();
+        } catch (MetadataProviderException e) {
+            log.error("Reloading of metadata file " + metadataFile + " failed, previous version will be used", e);
+        }
+
+    }
+
+    /**
+     * Parses the metadata file, verifies signatures and stores all entities.
+     *
+     * @return loaded data
+     * @throws MetadataProviderException in case loading fails
+     */
+    private State load() throws MetadataProviderException {
+
+        long lastModified = metadataFile.lastModified();
+        SignatureValidationFilter signatureFilter = getSignatureFilter();
+        AggregateHandler handler = new AggregateHandler(signatureFilter, getContentDigest());
+
+        InputStream input = null;
+
+        try {
+
+            log.debug("Loading metadata file {}", metadataFile);
+
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setValidating(false);
+            factory.setFeature(javax.xml.XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            try {
+                factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            } catch (Exception e) {
+                log.debug("Parser doesn't support disabling of DOCTYPE declarations", e);
+            }
+
+            SAXParser parser = factory.newSAXParser();
+            input = new BufferedInputStream(new FileInputStream(metadataFile));
+            parser.parse(input, handler);
+
+        } catch (SAXException e) {
+            if (e.getException() instanceof MetadataProviderException) {
+                throw (MetadataProviderException) e.getException();
+            }
+            throw new MetadataProviderException("Error parsing metadata file " + metadataFile, e);
+        } catch (Exception e) {
+            throw new MetadataProviderException("Error loading metadata file " + metadataFile, e);
+        } finally {
+            close(input);
+        }
+
+        XMLObject metadata;
+
+        if (handler.root != null) {
+
+            if (signatureFilter != null && handler.unsupportedSignature) {
+                throw new MetadataProviderException("Metadata file " + metadataFile + " contains signature which can't be verified");
+            }
+
+            // Signatures of groups were verified during the streaming pass
+            if (signatureFilter != null && signatureFilter.getRequireSignature() && !handler.rootSigned) {
+                throw new MetadataProviderException("Metadata file " + metadataFile + " isn't signed, but signature is required");
+            }
+
+            metadata = handler.root;
+
+        } else {
+
+            if (handler.entries.isEmpty()) {
+                throw new MetadataProviderException("Entity in metadata file " + metadataFile + " was rejected");
+            }
+
+            // Single entity is created right away, filters decide whether it is accepted
+            Entry entry = handler.entries.values().iterator().next();
+            metadata = createDescriptor(entry, true);
+            if (metadata == null) {
+                throw new MetadataProviderException("Entity in metadata file " + metadataFile + " was rejected");
+            }
+            entry.descriptor = (EntityDescriptor) metadata;
+
+        }
+
+        // Entities carrying own signature are verified right away, so that invalid ones are not listed
+        if (signatureFilter != null && handler.root != null) {
+            for (Iterator<Map.Entry<String, Entry>> iterator = handler.entries.entrySet().iterator(); iterator.hasNext();) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (entry.getValue().signed) {
+                    EntityDescriptor descriptor = createDescriptor(entry.getValue(), false);
+                    if (descriptor == null) {
+                        log.warn("Entity {} was rejected and will be ignored", entry.getKey());
+                        iterator.remove();
+                    } else {
+                        entry.getValue().descriptor = descriptor;
+                    }
+                }
+            }
+        }
+
+        log.debug("Loaded {} entities from metadata file {}", handler.entries.size(), metadataFile);
+        return new State(metadata, handler.entries, lastModified);
+
+    }
+
+    /**
+     * Returns descriptor of the entity, creates it when called for the first time.
+     *
+     * @param entityID entity
+     * @param entry    stored data of the entity
+     * @return descriptor or null when rejected
+     */
+    private EntityDescriptor getDescriptor(String entityID, Entry entry) {
+
+        EntityDescriptor descriptor = entry.descriptor;
+        if (descriptor != null || entry.rejected) {
+            return descriptor;
+        }
+
+        synchronized (entry) {
+
+            if (entry.descriptor == null && !entry.rejected) {
+                log.debug("Creating descriptor of entity {}", entityID);
+                descriptor = createDescriptor(entry, false);
+                if (descriptor == null) {
+                    log.warn("Entity {} was rejected and will be ignored", entityID);
+                    entry.rejected = true;
+                } else {
+                    entry.descriptor = descriptor;
+                }
+            }
+
+            return entry.descriptor;
+
+        }
+
+    }
+
+    /**
+     * Unmarshalls the stored entity, links it with the EntitiesDescriptor it was declared in and applies filters
+     * of the provider to it. Signature filter is only applied to the root entity and to signed entities.
+     *
+     * @param entry stored data
+     * @param root  true when the entity is the root element of the file
+     * @return descriptor or null when entity is rejected or invalid
+     */
+    private EntityDescriptor createDescriptor(Entry entry, boolean root) {
+
+        try {
+
+            InputStream input = new ByteArrayInputStream(entry.data);
+            if (entry.compressed) {
+                input = new InflaterInputStream(input);
+            }
+
+            Document document = getParserPool().parse(input);
+            Element element = document.getDocumentElement();
+            Unmarshaller unmarshaller = Configuration.getUnmarshallerFactory().getUnmarshaller(element);
+            EntityDescriptor descriptor = (EntityDescriptor) unmarshaller.unmarshall(element);
+
+            MetadataFilter filter = getMetadataFilter();
+            if (filter instanceof MetadataFilterChain) {
+                for (MetadataFilter chained : ((MetadataFilterChain) filter).getFilters()) {
+                    applyFilter(chained, descriptor, entry, root);
+                }
+            } else if (filter != null) {
+                applyFilter(filter, descriptor, entry, root);
+            }
+
+            // Parent isn't aware of the child, entities are only kept by the entries
+            descriptor.setParent(entry.parent);
+
+            if (requireValidMetadata() && !isValid(descriptor)) {
+                log.warn("Entity {} is no longer valid", descriptor.getEntityID());
+                return null;
+            }
+
+            descriptor.releaseDOM();
+            descriptor.releaseChildrenDOM(true);
+            return descriptor;
+
+        } catch (Exception e) {
+            log.warn("Error creating entity descriptor from metadata file " + metadataFile, e);
+            return null;
+        }
+
+    }
+
+    private void applyFilter(MetadataFilter filter, EntityDescriptor descriptor, Entry entry, boolean root) throws FilterException {
+        if (filter instanceof SignatureValidationFilter && !root && !entry.signed) {
+            return;
+        }
+        filter.doFilter(descriptor);
+    }
+
+    /**
+     * Verifies validity of the object and all its parents.
+     *
+     * @param object object to verify
+     * @return true when neither the object nor any of its parents expired
+     */
+    private boolean isValid(XMLObject object) {
+        while (object != null) {
+            if (object instanceof TimeBoundSAMLObject && !((TimeBoundSAMLObject) object).isValid()) {
+                return false;
+            }
+            object = object.getParent();
+        }
+        return true;
+    }
+
+    /**
+     * @param entry stored entity
+     * @return false when valid metadata are required and the entity or any of its parents expired
+     */
+    private boolean isAvailable(Entry entry) {
+        return !requireValidMetadata() || System.currentTimeMillis() < entry.validUntil;
+    }
+
+    /**
+     * @return signature filter configured on this provider, or null
+     */
+    private SignatureValidationFilter getSignatureFilter() {
+        MetadataFilter filter = getMetadataFilter();
+        if (filter instanceof SignatureValidationFilter) {
+            return (SignatureValidationFilter) filter;
+        } else if (filter instanceof MetadataFilterChain) {
+            for (MetadataFilter chained : ((MetadataFilterChain) filter).getFilters()) {
+                if (chained instanceof SignatureValidationFilter) {
+                    return (SignatureValidationFilter) chained;
+                }
+            }
+        }
+        return null;
+    }
+
+    private MessageDigest getContentDigest() throws MetadataProviderException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new MetadataProviderException("SHA-256 digest is not supported", e);
+        }
+    }
+
+    private void close(InputStream input) {
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                log.debug("Error closing metadata file", e);
+            }
+        }
+    }
+
+    private byte[] store(byte[] data) throws IOException {
+        if (!compressEntities) {
+            return data;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 16);
+        DeflaterOutputStream output = new DeflaterOutputStream(bytes);
+        output.write(data);
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Data of a single load of the file.
+     */
+    private static class State {
+
+        private final XMLObject metadata;
+        private final Map<String, Entry> entries;
+        private final long lastModified;
+
+        private State(XMLObject metadata, Map<String, Entry> entries, long lastModified) {
+            this.metadata = metadata;
+            this.entries = entries;
+            this.lastModified = lastModified;
+        }
+
+    }
+
+    /**
+     * Stored entity.
+     */
+    private static class Entry {
+
+        private final byte[] data;
+        private final byte[] digest;
+        private final boolean compressed;
+        private final boolean signed;
+        private final Map<QName, Set<String>> roles;
+        private final EntitiesDescriptor parent;
+        private final long validUntil;
+        private volatile EntityDescriptor descriptor;
+        private volatile boolean rejected;
+
+        private Entry(byte[] data, byte[] digest, boolean compressed, boolean signed, Map<QName, Set<String>> roles, EntitiesDescriptor parent, long validUntil) {
+            this.data = data;
+            this.digest = digest;
+            this.compressed = compressed;
+            this.signed = signed;
+            this.roles = roles;
+            this.parent = parent;
+            this.validUntil = validUntil;
+        }
+
+    }
+
+    /**
+     * EntitiesDescriptor whose signature is verified during the streaming pass. Start of the group and text
+     * preceding the first child element are kept until it's known whether the first child is a signature.
+     */
+    private static class SignedGroup {
+
+        private final int depth;
+        private final String id;
+        private final boolean root;
+        private final String qName;
+        private final int firstEntry;
+        private Attributes attributes;
+        private Map<String, String> namespaces;
+        private StringBuilder text = new StringBuilder();
+        private FragmentWriter signatureWriter;
+        private EnvelopedSignatureVerifier verifier;
+        private ExclusiveCanonicalizer canonicalizer;
+        private Exception failure;
+
+        /**
+         * @param depth      depth of the group element
+         * @param id         ID of the group, null when not set
+         * @param root       true when group is the root element
+         * @param qName      qualified name of the group element
+         * @param attributes attributes of the group element, copied
+         * @param namespaces namespaces in scope of the group element
+         * @param firstEntry number of entities stored before the group was started
+         */
+        private SignedGroup(int depth, String id, boolean root, String qName, Attributes attributes, Map<String, String> namespaces, int firstEntry) {
+            this.depth = depth;
+            this.id = id;
+            this.root = root;
+            this.qName = qName;
+            this.attributes = new AttributesImpl(attributes);
+            this.namespaces = namespaces;
+            this.firstEntry = firstEntry;
+        }
+
+    }
+
+    /**
+     * Writer serializing a captured element subtree into a standalone XML fragment.
+     */
+    private static class FragmentWriter {
+
+        private final StringBuilder out = new StringBuilder(4096);
+
+        private void start(String qName, Attributes attributes, Map<String, String> namespaces) {
+            out.append('<').append(qName);
+            for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+                if ("xml".equals(namespace.getKey())) {
+                    continue;
+                }
+                if (namespace.getKey().length() == 0) {
+                    out.append(" xmlns=\"");
+                } else {
+                    out.append(" xmlns:").append(namespace.getKey()).append("=\"");
+                }
+                escapeAttribute(namespace.getValue());
+                out.append('"');
+            }
+            for (int i = 0; i < attributes.getLength(); i++) {
+                out.append(' ').append(attributes.getQName(i)).append("=\"");
+                escapeAttribute(attributes.getValue(i));
+                out.append('"');
+            }
+            out.append('>');
+        }
+
+        private void end(String qName) {
+            out.append("</").append(qName).append('>');
+        }
+
+        private void characters(char[] ch, int start, int length) {
+            for (int i = start; i < start + length; i++) {
+                char c = ch[i];
+                switch (c) {
+                    case '&':
+                        out.append("&amp;");
+                        break;
+                    case '<':
+                        out.append("&lt;");
+                        break;
+                    case '>':
+                        out.append("&gt;");
+                        break;
+                    case '\r':
+                        out.append("&#xD;");
+                        break;
+                    default:
+                        out.append(c);
+                }
+            }
+        }
+
+        private void escapeAttribute(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&':
+                        out.append("&amp;");
+                        break;
+                    case '<':
+                        out.append("&lt;");
+                        break;
+                    case '"':
+                        out.append("&quot;");
+                        break;
+                    case '\t':
+                        out.append("&#x9;");
+                        break;
+                    case '\n':
+                        out.append("&#xA;");
+                        break;
+                    case '\r':
+                        out.append("&#xD;");
+                        break;
+                    default:
+                        out.append(c);
+                }
+            }
+        }
+
+        private void processingInstruction(String target, String data) {
+            out.append("<?").append(target);
+            if (data != null && data.length() > 0) {
+                out.append(' ').append(data);
+            }
+            out.append("?>");
+        }
+
+        private byte[] getBytes() throws UnsupportedEncodingException {
+            return out.toString().getBytes("UTF-8");
+        }
+
+    }
+
+    /**
+     * SAX handler splitting the file into entities and collecting EntitiesDescriptors and positions of signatures.
+     */
+    private class AggregateHandler extends DefaultHandler {
+
+        private final boolean verifySignature;
+
+        // Trust engine and criteria used to verify signatures of groups
+        private final SignatureTrustEngine trustEngine;
+        private final CriteriaSet trustCriteria;
+
+        // Digest of the captured entities
+        private final MessageDigest entityDigest;
+
+        private final NamespaceScope scope = new NamespaceScope();
+
+        private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+        private int depth;
+
+        // Root EntitiesDescriptor, null when root is an EntityDescriptor
+        private EntitiesDescriptor root;
+
+        // Open EntitiesDescriptors with their depths and validity, the innermost first
+        private final LinkedList<EntitiesDescriptor> groups = new LinkedList<EntitiesDescriptor>();
+        private final LinkedList<Integer> groupDepths = new LinkedList<Integer>();
+        private final LinkedList<Long> groupValidity = new LinkedList<Long>();
+
+        // Signatures outside of entities
+        private boolean rootSigned;
+        private boolean unsupportedSignature;
+
+        // Group whose first child element wasn't started yet, only kept when signatures are verified
+        private SignedGroup pendingGroup;
+
+        // Group whose Signature element is being captured
+        private SignedGroup signatureGroup;
+
+        // Signed groups whose content is being canonicalized, the innermost first
+        private final LinkedList<SignedGroup> signedGroups = new LinkedList<SignedGroup>();
+
+        // Entity being captured
+        private FragmentWriter entityWriter;
+        private int entityDepth;
+        private String entityID;
+        private long entityValidUntil;
+        private boolean entitySigned;
+        private boolean entityUnsupportedSignature;
+        private boolean signableChild;
+        private Map<QName, Set<String>> entityRoles;
+
+        private AggregateHandler(SignatureValidationFilter signatureFilter, MessageDigest entityDigest) {
+            this.verifySignature = signatureFilter != null;
+            this.entityDigest = entityDigest;
+            if (signatureFilter != null) {
+                trustEngine = signatureFilter.getSignatureTrustEngine();
+                trustCriteria = new CriteriaSet();
+                if (signatureFilter.getDefaultCriteria() != null) {
+                    trustCriteria.addAll(signatureFilter.getDefaultCriteria());
+                }
+                if (trustCriteria.get(UsageCriteria.class) == null) {
+                    trustCriteria.add(new UsageCriteria(UsageType.SIGNING));
+                }
+            } else {
+                trustEngine = null;
+                trustCriteria = null;
+            }
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            scope.declare(prefix, uri);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+
+            Map<String, String> declared = scope.push();
+            depth++;
+
+            try {
+                for (SignedGroup group : signedGroups) {
+                    if (group.canonicalizer != null) {
+                        group.canonicalizer.startElement(qName, attributes, declared);
+                    }
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+
+            if (signatureGroup != null) {
+                signatureGroup.signatureWriter.start(qName, attributes, declared);
+            } else if (pendingGroup != null) {
+                // Signature must be the first child, so that its transforms are known before the content is processed
+                if (isSignature(uri, localName)) {
+                    signatureGroup = pendingGroup;
+                    signatureGroup.signatureWriter = new FragmentWriter();
+                    signatureGroup.signatureWriter.start(qName, attributes, scope.getInScope());
+                }
+                pendingGroup = null;
+            }
+
+            if (entityWriter != null) {
+
+                entityWriter.start(qName, attributes, declared);
+
+                if (isSignature(uri, localName)) {
+                    if (depth == entityDepth + 1 || (depth == entityDepth + 2 && signableChild)) {
+                        entitySigned = true;
+                    } else {
+                        entityUnsupportedSignature = true;
+                    }
+                } else if (depth == entityDepth + 1) {
+                    String protocols = attributes.getValue(RoleDescriptor.PROTOCOL_ENUMERATION_ATTRIB_NAME);
+                    if (protocols != null) {
+                        entityRoles.put(new QName(uri, localName), new HashSet<String>(Arrays.asList(protocols.trim().split("\\s+"))));
+                    }
+                    signableChild = protocols != null || isMetadataElement(uri, localName, AffiliationDescriptor.DEFAULT_ELEMENT_LOCAL_NAME);
+                }
+
+            } else if (depth == 1) {
+
+                if (isMetadataElement(uri, localName, EntitiesDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                    root = startGroup(qName, attributes);
+                } else if (isMetadataElement(uri, localName, EntityDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                    startEntity(qName, attributes);
+                } else {
+                    throw new SAXException(new MetadataProviderException("Metadata file " + metadataFile + " must contain EntitiesDescriptor or EntityDescriptor as the root element"));
+                }
+
+            } else if (isGroupChild()) {
+
+                if (isMetadataElement(uri, localName, EntitiesDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                    startGroup(qName, attributes);
+                } else if (isMetadataElement(uri, localName, EntityDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                    startEntity(qName, attributes);
+                } else if (isSignature(uri, localName)) {
+                    if (signatureGroup != null) {
+                        rootSigned |= depth == 2;
+                    } else {
+                        unsupportedSignature = true;
+                    }
+                }
+
+            } else if (isSignature(uri, localName)) {
+
+                // Signatures e.g. in extensions of a group are not verified by the filter
+                unsupportedSignature = true;
+
+            }
+
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+
+            try {
+                for (SignedGroup group : signedGroups) {
+                    if (group.canonicalizer != null) {
+                        group.canonicalizer.endElement(qName);
+                    }
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+
+            if (signatureGroup != null) {
+                signatureGroup.signatureWriter.end(qName);
+                if (depth == signatureGroup.depth + 1) {
+                    startVerification();
+                }
+            } else if (entityWriter != null) {
+                entityWriter.end(qName);
+                if (depth == entityDepth) {
+                    storeEntity();
+                }
+            } else if (!groupDepths.isEmpty() && depth == groupDepths.getFirst()) {
+                if (!signedGroups.isEmpty() && signedGroups.getFirst().depth == depth) {
+                    finishVerification(signedGroups.removeFirst());
+                }
+                pendingGroup = null;
+                groups.removeFirst();
+                groupDepths.removeFirst();
+                groupValidity.removeFirst();
+            }
+
+            scope.pop();
+            depth--;
+
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (entityWriter != null) {
+                entityWriter.characters(ch, start, length);
+            } else if (signatureGroup != null) {
+                signatureGroup.signatureWriter.characters(ch, start, length);
+            } else if (pendingGroup != null) {
+                pendingGroup.text.append(ch, start, length);
+            }
+            try {
+                for (SignedGroup group : signedGroups) {
+                    if (group.canonicalizer != null) {
+                        group.canonicalizer.characters(ch, start, length);
+                    }
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) throws SAXException {
+            if (entityWriter != null) {
+                entityWriter.processingInstruction(target, data);
+            } else if (signatureGroup != null) {
+                signatureGroup.signatureWriter.processingInstruction(target, data);
+            }
+            // Only text preceding the signature is replayed, group with instruction there is treated as unsigned
+            pendingGroup = null;
+            try {
+                for (SignedGroup group : signedGroups) {
+                    if (group.canonicalizer != null) {
+                        group.canonicalizer.processingInstruction(target, data);
+                    }
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        /**
+         * Parses the captured Signature element of the group and starts canonicalization of the group content,
+         * beginning with the start tag of the group and text preceding the signature.
+         *
+         * @throws SAXException in case signature of the root can't be verified
+         */
+        private void startVerification() throws SAXException {
+
+            SignedGroup group = signatureGroup;
+            signatureGroup = null;
+
+            try {
+                byte[] signature = group.signatureWriter.getBytes();
+                Element element = getParserPool().parse(new ByteArrayInputStream(signature)).getDocumentElement();
+                group.verifier = new EnvelopedSignatureVerifier(element, group.id, group.root);
+                ExclusiveCanonicalizer canonicalizer = group.verifier.createCanonicalizer(group.namespaces);
+                canonicalizer.startElement(group.qName, group.attributes, Collections.<String, String>emptyMap());
+                char[] text = group.text.toString().toCharArray();
+                canonicalizer.characters(text, 0, text.length);
+                group.canonicalizer = canonicalizer;
+            } catch (Exception e) {
+                group.failure = e;
+                if (group.root) {
+                    rejectGroup(group);
+                }
+            }
+
+            // Captured data are no longer needed
+            group.signatureWriter = null;
+            group.text = null;
+            group.attributes = null;
+            group.namespaces = null;
+            signedGroups.addFirst(group);
+
+        }
+
+        /**
+         * Verifies signature of the group once its content was canonicalized.
+         *
+         * @param group ended group
+         * @throws SAXException in case signature of the root isn't valid
+         */
+        private void finishVerification(SignedGroup group) throws SAXException {
+            if (group.failure == null) {
+                try {
+                    group.canonicalizer.finish();
+                    group.verifier.verify(trustEngine, trustCriteria);
+                    log.debug("Signature of EntitiesDescriptor {} in metadata file {} was verified", group.id, metadataFile);
+                    return;
+                } catch (Exception e) {
+                    group.failure = e;
+                }
+            }
+            rejectGroup(group);
+        }
+
+        /**
+         * Rejects the whole file when signature of the root isn't valid, otherwise removes entities declared
+         * in the group.
+         *
+         * @param group group whose signature isn't valid
+         * @throws SAXException in case group is the root
+         */
+        private void rejectGroup(SignedGroup group) throws SAXException {
+
+            if (group.root) {
+                throw new SAXException(new MetadataProviderException("Signature of metadata file " + metadataFile + " isn't valid or trusted", group.failure));
+            }
+
+            log.warn("Signature of EntitiesDescriptor " + group.id + " in metadata file " + metadataFile + " isn't valid or trusted, its entities will be ignored", group.failure);
+            int index = 0;
+            for (Iterator<String> iterator = entries.keySet().iterator(); iterator.hasNext();) {
+                String rejected = iterator.next();
+                if (index++ >= group.firstEntry) {
+                    log.warn("Entity {} was rejected by signature verification and will be ignored", rejected);
+                    iterator.remove();
+                }
+            }
+
+        }
+
+        /**
+         * @return true when the current element is a direct child of an EntitiesDescriptor
+         */
+        private boolean isGroupChild() {
+            return !groupDepths.isEmpty() && depth == groupDepths.getFirst() + 1;
+        }
+
+        /**
+         * Creates EntitiesDescriptor with Name, ID, validUntil and cacheDuration of the started element and makes
+         * it the current group.
+         *
+         * @param attributes attributes of the element
+         * @return created descriptor
+         * @throws SAXException in case attributes can't be parsed
+         */
+        private EntitiesDescriptor startGroup(String qName, Attributes attributes) throws SAXException {
+
+            EntitiesDescriptor group = (EntitiesDescriptor) Configuration.getBuilderFactory().getBuilder(EntitiesDescriptor.DEFAULT_ELEMENT_NAME).buildObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+            group.setName(attributes.getValue(EntitiesDescriptor.NAME_ATTRIB_NAME));
+            group.setID(attributes.getValue(EntitiesDescriptor.ID_ATTRIB_NAME));
+            group.setValidUntil(getValidUntil(attributes));
+            String cacheDuration = attributes.getValue(CacheableSAMLObject.CACHE_DURATION_ATTRIB_NAME);
+            if (cacheDuration != null) {
+                group.setCacheDuration(XMLHelper.durationToLong(cacheDuration));
+            }
+
+            long validity = groups.isEmpty() ? Long.MAX_VALUE : groupValidity.getFirst();
+            if (group.getValidUntil() != null) {
+                validity = Math.min(validity, group.getValidUntil().getMillis());
+            }
+
+            // Parent isn't aware of the child, groups are only kept as parents of the entities
+            group.setParent(groups.isEmpty() ? null : groups.getFirst());
+
+            groups.addFirst(group);
+            groupDepths.addFirst(depth);
+            groupValidity.addFirst(validity);
+
+            if (verifySignature) {
+                pendingGroup = new SignedGroup(depth, group.getID(), depth == 1, qName, attributes, scope.getInScope(), entries.size());
+            }
+
+            return group;
+
+        }
+
+        private void startEntity(String qName, Attributes attributes) throws SAXException {
+            entityWriter = new FragmentWriter();
+            entityWriter.start(qName, attributes, scope.getInScope());
+            entityDepth = depth;
+            entityID = attributes.getValue(EntityDescriptor.ENTITY_ID_ATTRIB_NAME);
+            entityValidUntil = groups.isEmpty() ? Long.MAX_VALUE : groupValidity.getFirst();
+            DateTime validUntil = getValidUntil(attributes);
+            if (validUntil != null) {
+                entityValidUntil = Math.min(entityValidUntil, validUntil.getMillis());
+            }
+            entitySigned = false;
+            entityUnsupportedSignature = false;
+            signableChild = false;
+            entityRoles = new HashMap<QName, Set<String>>();
+        }
+
+        private DateTime getValidUntil(Attributes attributes) throws SAXException {
+            String validUntil = attributes.getValue(TimeBoundSAMLObject.VALID_UNTIL_ATTRIB_NAME);
+            if (validUntil == null) {
+                return null;
+            }
+            try {
+                return new DateTime(validUntil, ISOChronology.getInstanceUTC());
+            } catch (IllegalArgumentException e) {
+                throw new SAXException(new MetadataProviderException("Invalid validUntil " + validUntil + " in metadata file " + metadataFile, e));
+            }
+        }
+
+        private void storeEntity() throws SAXException {
+
+            try {
+
+                byte[] data = entityWriter.getBytes();
+                entityWriter = null;
+
+                if (entityID == null) {
+                    log.warn("Metadata file {} contains entity without entityID, it will be ignored", metadataFile);
+                } else if (entries.containsKey(entityID)) {
+                    log.warn("Metadata file {} contains entity {} more than once, only the first one will be used", metadataFile, entityID);
+                } else if (verifySignature && entityUnsupportedSignature) {
+                    log.warn("Entity {} contains signature which can't be verified, it will be ignored", entityID);
+                } else {
+                    EntitiesDescriptor parent = groups.isEmpty() ? null : groups.getFirst();
+                    entries.put(entityID, new Entry(store(data), entityDigest.digest(data), compressEntities, entitySigned, entityRoles, parent, entityValidUntil));
+                }
+
+            } catch (IOException e) {
+                throw new SAXException(new MetadataProviderException("Error storing entity " + entityID, e));
+            }
+
+        }
+
+        private boolean isSignature(String uri, String localName) {
+            return XMLConstants.XMLSIG_NS.equals(uri) && SIGNATURE.equals(localName);
+        }
+
+        private boolean isMetadataElement(String uri, String localName, String name) {
+            return SAMLConstants.SAML20MD_NS.equals(uri) && name.equals(localName);
+        }
+
+    }
+
+}
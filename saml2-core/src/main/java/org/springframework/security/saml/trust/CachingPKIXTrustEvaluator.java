@@ -0,0 +1,326 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.trust;
+
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.x509.CertPathPKIXTrustEvaluator;
+import org.opensaml.xml.security.x509.CertPathPKIXValidationOptions;
+import org.opensaml.xml.security.x509.PKIXTrustEvaluator;
+import org.opensaml.xml.security.x509.PKIXValidationInformation;
+import org.opensaml.xml.security.x509.PKIXValidationOptions;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.metadata.BoundedCache;
+import org.springframework.security.saml.metadata.CacheStatistics;
+import org.springframework.security.saml.util.SAMLUtil;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.*;
+
+/**
+ * PKIX trust evaluator keeping results of the delegate evaluator, so that certificate paths of the same peer
+ * certificates don't have to be built and validated again for every message. Results are stored under a key
+ * consisting of the fingerprints of the untrusted certificate and its chain, digest of the trust anchors and CRLs
+ * of the validation information and the validation options.
+ * <p/>
+ * Each result is kept at most for cacheTimeToLive and never beyond expiry of any certificate of the untrusted chain,
+ * the time the chain becomes valid or the next update of the used CRLs. Changes of metadata don't require clearing
+ * of the cache, as changed trust anchors or CRLs produce a different key, results of other entities are kept.
+ * Cache can be cleared explicitly by calling clearCache. Both successful and unsuccessful validations are cached,
+ * so that peers with untrusted certificates don't cause repeated path building. Exceptions thrown by the delegate
+ * evaluator are not cached.
+ */
+public class CachingPKIXTrustEvaluator implements PKIXTrustEvaluator {
+
+    // Class logger
+    private final Logger log = LoggerFactory.getLogger(CachingPKIXTrustEvaluator.class);
+
+    /**
+     * Evaluator performing the validation.
+     */
+    private final PKIXTrustEvaluator delegate;
+
+    /**
+     * Digests of validation information, instances are reused by the PKIXInformationResolver.
+     */
+    private final Map<PKIXValidationInformation, String> informationDigests = Collections.synchronizedMap(new WeakHashMap<PKIXValidationInformation, String>());
+
+    /**
+     * Counters of the cache.
+     */
+    private final CacheStatistics statistics = new CacheStatistics();
+
+    /**
+     * Results of validations, results of validations running during an invalidation are not kept.
+     */
+    private final BoundedCache<String, Boolean> cache = new BoundedCache<String, Boolean>(1000, statistics);
+
+    /**
+     * Maximum time results are kept in ms, 0 for no limit.
+     */
+    private long cacheTimeToLive = 3600000l;
+
+    /**
+     * Creates evaluator caching results of a CertPathPKIXTrustEvaluator.
+     */
+    public CachingPKIXTrustEvaluator() {
+        this(new CertPathPKIXTrustEvaluator());
+    }
+
+    /**
+     * @param delegate evaluator performing the validation
+     */
+    public CachingPKIXTrustEvaluator(PKIXTrustEvaluator delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate evaluator may not be null");
+        }
+        this.delegate = delegate;
+    }
+
+    public boolean validate(PKIXValidationInformation validationInfo, X509Credential untrustedCredential) throws SecurityException {
+
+        String key = getKey(validationInfo, untrustedCredential);
+
+        Boolean cached = cache.get(key);
+        if (cached != null) {
+            log.debug("Using cached result of PKIX validation of {}", untrustedCredential.getEntityCertificate().getSubjectX500Principal());
+            statistics.recordHit();
+            return cached;
+        }
+
+        long now = System.currentTimeMillis();
+        long generation = cache.getGeneration();
+        long start = System.nanoTime();
+        boolean valid = delegate.validate(validationInfo, untrustedCredential);
+        statistics.recordMiss(System.nanoTime() - start);
+
+        long expiration = getExpiration(validationInfo, untrustedCredential, now);
+        if (expiration > now) {
+            cache.put(key, valid, expiration, generation);
+        }
+
+        return valid;
+
+    }
+
+    public PKIXValidationOptions getPKIXValidationOptions() {
+        return delegate.getPKIXValidationOptions();
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void clearCache() {
+        cache.clear();
+        log.debug("PKIX validation cache cleared");
+    }
+
+    /**
+     * Determines time until which the result of the validation may be used. Time is limited by cacheTimeToLive,
+     * expiry of certificates of the untrusted chain, time when any of them becomes valid and next update of CRLs.
+     *
+     * @param validationInfo      validation information
+     * @param untrustedCredential validated credential
+     * @param now                 current time
+     * @return time until which the result is valid
+     */
+    protected long getExpiration(PKIXValidationInformation validationInfo, X509Credential untrustedCredential, long now) {
+
+        long expiration = cacheTimeToLive > 0 ? now + cacheTimeToLive : Long.MAX_VALUE;
+
+        for (X509Certificate certificate : getChain(untrustedCredential)) {
+            expiration = Math.min(expiration, certificate.getNotAfter().getTime());
+            long notBefore = certificate.getNotBefore().getTime();
+            if (notBefore > now) {
+                expiration = Math.min(expiration, notBefore);
+            }
+        }
+
+        expiration = Math.min(expiration, getNextUpdate(validationInfo.getCRLs(), now));
+        expiration = Math.min(expiration, getNextUpdate(untrustedCredential.getCRLs(), now));
+
+        return expiration;
+
+    }
+
+    private long getNextUpdate(Collection<X509CRL> crls, long now) {
+        long nextUpdate = Long.MAX_VALUE;
+        if (crls != null) {
+            for (X509CRL crl : crls) {
+                if (crl.getNextUpdate() != null && crl.getNextUpdate().getTime() > now) {
+                    nextUpdate = Math.min(nextUpdate, crl.getNextUpdate().getTime());
+                }
+            }
+        }
+        return nextUpdate;
+    }
+
+    /**
+     * Creates key of the cache.
+     *
+     * @param validationInfo      validation information
+     * @param untrustedCredential validated credential
+     * @return key
+     * @throws SecurityException in case certificates or CRLs can't be encoded
+     */
+    protected String getKey(PKIXValidationInformation validationInfo, X509Credential untrustedCredential) throws SecurityException {
+
+        MessageDigest digest = getMessageDigest();
+        for (X509Certificate certificate : getChain(untrustedCredential)) {
+            digest.update(getEncoded(certificate));
+        }
+        if (untrustedCredential.getCRLs() != null) {
+            for (X509CRL crl : untrustedCredential.getCRLs()) {
+                digest.update(getEncoded(crl));
+            }
+        }
+
+        StringBuilder key = new StringBuilder(200);
+        key.append(SAMLUtil.toHex(digest.digest()));
+        key.append(':').append(getInformationDigest(validationInfo));
+
+        PKIXValidationOptions options = delegate.getPKIXValidationOptions();
+        if (options != null) {
+            key.append(':').append(options.getDefaultVerificationDepth());
+            key.append(':').append(options.isProcessCredentialCRLs());
+            key.append(':').append(options.isProcessEmptyCRLs());
+            key.append(':').append(options.isProcessExpiredCRLs());
+            if (options instanceof CertPathPKIXValidationOptions) {
+                key.append(':').append(((CertPathPKIXValidationOptions) options).isForceRevocationEnabled());
+                key.append(':').append(((CertPathPKIXValidationOptions) options).isRevocationEnabled());
+            }
+        }
+
+        return key.toString();
+
+    }
+
+    /**
+     * Returns digest of trust anchors, CRLs and verification depth of the validation information. Order of anchors
+     * and CRLs doesn't influence the digest.
+     *
+     * @param validationInfo validation information
+     * @return digest
+     * @throws SecurityException in case certificates or CRLs can't be encoded
+     */
+    private String getInformationDigest(PKIXValidationInformation validationInfo) throws SecurityException {
+
+        String result = informationDigests.get(validationInfo);
+        if (result != null) {
+            return result;
+        }
+
+        SortedSet<String> parts = new TreeSet<String>();
+        MessageDigest digest = getMessageDigest();
+        if (validationInfo.getCertificates() != null) {
+            for (X509Certificate certificate : validationInfo.getCertificates()) {
+                parts.add("C" + SAMLUtil.toHex(digest.digest(getEncoded(certificate))));
+            }
+        }
+        if (validationInfo.getCRLs() != null) {
+            for (X509CRL crl : validationInfo.getCRLs()) {
+                parts.add("R" + SAMLUtil.toHex(digest.digest(getEncoded(crl))));
+            }
+        }
+        for (String part : parts) {
+            digest.update(part.getBytes());
+        }
+        result = SAMLUtil.toHex(digest.digest()) + ":" + validationInfo.getVerificationDepth();
+
+        informationDigests.put(validationInfo, result);
+        return result;
+
+    }
+
+    private Collection<X509Certificate> getChain(X509Credential credential) {
+        Collection<X509Certificate> chain = credential.getEntityCertificateChain();
+        if (chain == null || chain.isEmpty()) {
+            chain = Collections.singletonList(credential.getEntityCertificate());
+        } else if (!chain.contains(credential.getEntityCertificate())) {
+            chain = new ArrayList<X509Certificate>(chain);
+            chain.add(credential.getEntityCertificate());
+        }
+        return chain;
+    }
+
+    private MessageDigest getMessageDigest() throws SecurityException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new SecurityException("SHA-256 digest is not supported", e);
+        }
+    }
+
+    private byte[] getEncoded(X509Certificate certificate) throws SecurityException {
+        try {
+            return certificate.getEncoded();
+        } catch (CertificateEncodingException e) {
+            throw new SecurityException("Certificate can't be encoded", e);
+        }
+    }
+
+    private byte[] getEncoded(X509CRL crl) throws SecurityException {
+        try {
+            return crl.getEncoded();
+        } catch (CRLException e) {
+            throw new SecurityException("CRL can't be encoded", e);
+        }
+    }
+
+    /**
+     * @return counters of the cache
+     */
+    public CacheStatistics getCacheStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return number of currently cached results
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Maximum number of validation results kept in the cache, the least recently used results are removed once
+     * the limit is exceeded.
+     * <p/>
+     * Default value is 1000.
+     *
+     * @param maxCacheSize maximum number of results
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        cache.setMaxSize(maxCacheSize);
+    }
+
+    /**
+     * Maximum time a validation result is used. Value of 0 keeps the results until certificates or CRLs used
+     * for the validation expire or until the cache is cleared.
+     * <p/>
+     * Default value is 3600000 ms (one hour).
+     *
+     * @param cacheTimeToLive time to live in ms
+     */
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
+}
@@ -15,22 +15,36 @@
 package org.springframework.security.saml.trust;
 
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.security.MetadataCriteria;
+import org.opensaml.xml.security.CriteriaSet;
 import org.opensaml.xml.security.SecurityException;
 import org.opensaml.xml.security.credential.Credential;
 import org.opensaml.xml.security.credential.UsageType;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
+import org.opensaml.xml.security.criteria.UsageCriteria;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.key.ObservableKeyManager;
+import org.springframework.security.saml.metadata.BoundedCache;
+import org.springframework.security.saml.metadata.CacheStatistics;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
+import org.springframework.security.saml.metadata.MetadataChangeEvent;
+import org.springframework.security.saml.metadata.MetadataChangeListener;
 import org.springframework.security.saml.metadata.MetadataManager;
 
 import javax.xml.namespace.QName;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.Set;
 
 /**
  * Class customizes resolving from metadata by first using values present in the ExtenedeMetadata of an entity.
+ * <p/>
+ * Resolved credentials are kept in a cache bounded by maxCacheSize. Credentials of entities added, removed or
+ * changed by a metadata refresh are removed from the cache, credentials of other entities are kept. The observer
+ * registered by the OpenSAML parent class only clears its own cache, which isn't used by this class.
  *
  * @author Vladimir Schafer
  */
@@ -51,6 +65,16 @@ public class MetadataCredentialResolver extends org.opensaml.security.MetadataCr
      */
     protected KeyManager keyManager;
 
+    /**
+     * Counters of the cache.
+     */
+    private final CacheStatistics statistics = new CacheStatistics();
+
+    /**
+     * Cache of resolved credentials. [CredentialCacheKey, Credentials]
+     */
+    private final BoundedCache<CredentialCacheKey, Collection<Credential>> cache = new BoundedCache<CredentialCacheKey, Collection<Credential>>(1000, statistics);
+
     /**
      * Creates new resolver.
      *
@@ -61,6 +85,57 @@ public class MetadataCredentialResolver extends org.opensaml.security.MetadataCr
         super(metadataProvider);
         this.manager = metadataProvider;
         this.keyManager = keyManager;
+        this.manager.addChangeListener(new MetadataChangeObserver());
+        if (keyManager instanceof ObservableKeyManager) {
+            ((ObservableKeyManager) keyManager).getObservers().add(new KeyManagerObserver());
+        }
+    }
+
+    /**
+     * Resolves credentials from the cache, or from metadata when they aren't cached. Credentials loaded while
+     * the cache was being invalidated are not stored.
+     *
+     * @param criteriaSet criteria
+     * @return credentials
+     * @throws SecurityException error
+     */
+    @Override
+    protected Iterable<Credential> resolveFromSource(CriteriaSet criteriaSet) throws SecurityException {
+
+        checkCriteriaRequirements(criteriaSet);
+
+        String entityID = criteriaSet.get(EntityIDCriteria.class).getEntityID();
+        MetadataCriteria mdCriteria = criteriaSet.get(MetadataCriteria.class);
+        QName role = mdCriteria.getRole();
+        String protocol = mdCriteria.getProtocol();
+        UsageCriteria usageCriteria = criteriaSet.get(UsageCriteria.class);
+        UsageType usage;
+        if (usageCriteria != null) {
+            usage = usageCriteria.getUsage();
+        } else {
+            usage = UsageType.UNSPECIFIED;
+        }
+
+        CredentialCacheKey cacheKey = new CredentialCacheKey(entityID, role, protocol, usage);
+        Collection<Credential> credentials = cache.get(cacheKey);
+        if (credentials != null) {
+            log.debug("Retrieved credentials from cache using index: {}", cacheKey);
+            statistics.recordHit();
+            return credentials;
+        }
+
+        long generation = cache.getGeneration();
+        long start = System.nanoTime();
+        credentials = retrieveFromMetadata(entityID, role, protocol, usage);
+        statistics.recordMiss(System.nanoTime() - start);
+        if (cache.put(cacheKey, credentials, Long.MAX_VALUE, generation)) {
+            log.debug("Added new credential collection to cache with key: {}", cacheKey);
+        } else {
+            log.debug("Cache was invalidated during resolution, credentials with key {} weren't cached", cacheKey);
+        }
+
+        return credentials;
+
     }
 
     /**
@@ -118,4 +193,124 @@ public class MetadataCredentialResolver extends org.opensaml.security.MetadataCr
 
     }
 
+    /**
+     * Removes cached credentials of the given entities, or all cached credentials. Resolutions in progress
+     * won't keep their results in the cache.
+     *
+     * @param entityIDs entities to remove, null to clear the whole cache
+     */
+    protected void clearCache(final Set<String> entityIDs) {
+        if (entityIDs == null) {
+            cache.clear();
+        } else {
+            cache.invalidate(new BoundedCache.KeyFilter<CredentialCacheKey>() {
+                public boolean accept(CredentialCacheKey key) {
+                    return entityIDs.contains(key.id);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return counters of the credential cache
+     */
+    public CacheStatistics getCacheStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return number of currently cached credential collections
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Maximum number of credential collections kept in the cache, the least recently used values are removed once
+     * the limit is exceeded.
+     * <p/>
+     * Default value is 1000.
+     *
+     * @param maxCacheSize maximum number of values
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        cache.setMaxSize(maxCacheSize);
+    }
+
+    /**
+     * Key of the credential cache.
+     */
+    private static final class CredentialCacheKey {
+
+        private final String id;
+        private final QName role;
+        private final String protocol;
+        private final UsageType usage;
+
+        private CredentialCacheKey(String id, QName role, String protocol, UsageType usage) {
+            this.id = id;
+            this.role = role;
+            this.protocol = protocol;
+            this.usage = usage;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof CredentialCacheKey)) {
+                return false;
+            }
+            CredentialCacheKey other = (CredentialCacheKey) obj;
+            return id.equals(other.id) && role.equals(other.role) && usage == other.usage
+                    && (protocol == null ? other.protocol == null : protocol.equals(other.protocol));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 17;
+            result = 37 * result + id.hashCode();
+            result = 37 * result + role.hashCode();
+            if (protocol != null) {
+                result = 37 * result + protocol.hashCode();
+            }
+            result = 37 * result + usage.hashCode();
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%s,%s,%s,%s]", id, role, protocol, usage);
+        }
+
+    }
+
+    /**
+     * Listener removing cached credentials of entities affected by a metadata refresh, data of other entities
+     * is kept.
+     */
+    protected class MetadataChangeObserver implements MetadataChangeListener {
+
+        public void metadataChanged(MetadataChangeEvent event) {
+            Set<String> affected = event.getAffected();
+            clearCache(affected);
+            log.debug("Credential cache cleared for {} entities", affected.size());
+        }
+
+    }
+
+    /**
+     * An observer that clears the whole credential cache when keys of the key manager change, as keys configured
+     * in the extended metadata are resolved from the key manager.
+     */
+    protected class KeyManagerObserver implements ObservableKeyManager.Observer {
+
+        public void onEvent(KeyManager keyManager) {
+            clearCache(null);
+            log.debug("Credential cache cleared after change of keys");
+        }
+
+    }
+
 }
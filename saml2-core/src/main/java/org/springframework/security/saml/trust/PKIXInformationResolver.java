@@ -34,21 +34,27 @@ import org.opensaml.xml.util.DatatypeHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.key.ObservableKeyManager;
+import org.springframework.security.saml.metadata.BoundedCache;
+import org.springframework.security.saml.metadata.CacheStatistics;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
+import org.springframework.security.saml.metadata.MetadataChangeEvent;
+import org.springframework.security.saml.metadata.MetadataChangeListener;
 import org.springframework.security.saml.metadata.MetadataManager;
 
 import javax.xml.namespace.QName;
-import java.lang.ref.SoftReference;
 import java.security.cert.X509Certificate;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Implementation resolves PKIX information based on extended metadata configuration and provider data.
- * Values are cached and automatically cleared upon metadata refresh. At first data is loaded from the metadata
+ * Values are cached and cleared for entities which were added, removed or changed by a metadata refresh. At first data is loaded from the metadata
  * (or extended) metadata of the peer entity. In addition all trusted keys declared for the entity are also included.
+ * <p/>
+ * Cache is bounded by maxCacheSize, the least recently used values are removed once the limit is exceeded. Values
+ * can optionally expire after cacheTimeToLive. Lookups don't lock the cache and don't trigger refresh of the metadata.
  */
 public class PKIXInformationResolver implements PKIXValidationInformationResolver {
 
@@ -62,15 +68,25 @@ public class PKIXInformationResolver implements PKIXValidationInformationResolve
      */
     private MetadataManager metadata;
 
+    /**
+     * Lock returned from the deprecated getReadWriteLock, the cache itself doesn't use it.
+     */
+    private final ReadWriteLock rwlock = new ReentrantReadWriteLock();
+
+    /**
+     * Counters of the cache.
+     */
+    private final CacheStatistics statistics = new CacheStatistics();
+
     /**
      * Cache of resolved credentials. [MetadataCacheKey, Credentials]
      */
-    private Map<MetadataCacheKey, SoftReference<Collection<PKIXValidationInformation>>> cache;
+    private final BoundedCache<MetadataCacheKey, Collection<PKIXValidationInformation>> cache = new BoundedCache<MetadataCacheKey, Collection<PKIXValidationInformation>>(1000, statistics);
 
     /**
-     * Lock used to synchronize access to the credential cache.
+     * Time after which cached values are resolved again in ms, 0 for no limit.
      */
-    private ReadWriteLock rwlock;
+    private long cacheTimeToLive = 0;
 
     /**
      * Resolver for metadata.
@@ -99,17 +115,20 @@ public class PKIXInformationResolver implements PKIXValidationInformationResolve
         this.metadataResolver = metadataResolver;
         this.metadata = metadataProvider;
         this.keyManager = keyManager;
-        this.cache = new HashMap<MetadataCacheKey, SoftReference<Collection<PKIXValidationInformation>>>();
-        this.rwlock = new ReentrantReadWriteLock();
-        this.metadata.getObservers().add(new MetadataProviderObserver());
+        this.metadata.addChangeListener(new MetadataChangeObserver());
+        if (keyManager instanceof ObservableKeyManager) {
+            ((ObservableKeyManager) keyManager).getObservers().add(new KeyManagerObserver());
+        }
 
     }
 
     /**
-     * Get the lock instance used to synchronize access to the credential cache.
+     * Get the lock instance which was used to synchronize access to the credential cache.
      *
      * @return a read-write lock instance
+     * @deprecated cache no longer uses locking, the returned lock isn't used by the resolver
      */
+    @Deprecated
     protected ReadWriteLock getReadWriteLock() {
         return rwlock;
     }
@@ -133,22 +152,23 @@ public class PKIXInformationResolver implements PKIXValidationInformationResolve
             usage = UsageType.UNSPECIFIED;
         }
 
-        // See Jira issue SIDP-229.
-        log.debug("Forcing on-demand metadata provider refresh if necessary");
-        try {
-            metadata.getMetadata();
-        } catch (MetadataProviderException e) {
-            // don't care about errors at this level
-        }
-
         MetadataCacheKey cacheKey = new MetadataCacheKey(entityID, role, protocol, usage);
         Collection<PKIXValidationInformation> credentials = retrieveFromCache(cacheKey);
 
         if (credentials == null) {
+            long generation = cache.getGeneration();
+            long start = System.nanoTime();
             credentials = new LinkedList<PKIXValidationInformation>();
             populateMetadataAnchors(criteriaSet, credentials);
             populateTrustedKeysAnchors(criteriaSet, credentials);
+            statistics.recordMiss(System.nanoTime() - start);
             cacheCredentials(cacheKey, credentials);
+            if (generation != cache.getGeneration()) {
+                // Data might have been loaded from metadata which were changed in the meantime, only remove
+                // the value cached above, not one stored by a later resolution
+                log.debug("Cache was invalidated during resolution, removing credentials with key: {}", cacheKey);
+                cache.remove(cacheKey, credentials);
+            }
         }
 
         return credentials;
@@ -184,20 +204,11 @@ public class PKIXInformationResolver implements PKIXValidationInformationResolve
      */
     protected Collection<PKIXValidationInformation> retrieveFromCache(MetadataCacheKey cacheKey) {
         log.debug("Attempting to retrieve credentials from cache using index: {}", cacheKey);
-        Lock readLock = getReadWriteLock().readLock();
-        readLock.lock();
-        log.trace("Read lock over cache acquired");
-        try {
-            if (cache.containsKey(cacheKey)) {
-                SoftReference<Collection<PKIXValidationInformation>> reference = cache.get(cacheKey);
-                if (reference.get() != null) {
-                    log.debug("Retrieved credentials from cache using index: {}", cacheKey);
-                    return reference.get();
-                }
-            }
-        } finally {
-            readLock.unlock();
-            log.trace("Read lock over cache released");
+        Collection<PKIXValidationInformation> cached = cache.get(cacheKey);
+        if (cached != null) {
+            log.debug("Retrieved credentials from cache using index: {}", cacheKey);
+            statistics.recordHit();
+            return cached;
         }
 
         log.debug("Unable to retrieve credentials from cache using index: {}", cacheKey);
@@ -290,18 +301,67 @@ public class PKIXInformationResolver implements PKIXValidationInformationResolve
      * @param credentials collection of credentials to cache
      */
     protected void cacheCredentials(MetadataCacheKey cacheKey, Collection<PKIXValidationInformation> credentials) {
-        Lock writeLock = getReadWriteLock().writeLock();
-        writeLock.lock();
-        log.trace("Write lock over cache acquired");
-        try {
-            cache.put(cacheKey, new SoftReference<Collection<PKIXValidationInformation>>(credentials));
-            log.debug("Added new credential collection to cache with key: {}", cacheKey);
-        } finally {
-            writeLock.unlock();
-            log.trace("Write lock over cache released");
+        long expiration = cacheTimeToLive > 0 ? System.currentTimeMillis() + cacheTimeToLive : Long.MAX_VALUE;
+        cache.put(cacheKey, credentials, expiration);
+        log.debug("Added new credential collection to cache with key: {}", cacheKey);
+    }
+
+    /**
+     * Removes cached credentials of the given entities, or all cached credentials. Resolutions in progress
+     * won't keep their results in the cache.
+     *
+     * @param entityIDs entities to remove, null to clear the whole cache
+     */
+    protected void clearCache(final Set<String> entityIDs) {
+        if (entityIDs == null) {
+            cache.clear();
+        } else {
+            cache.invalidate(new BoundedCache.KeyFilter<MetadataCacheKey>() {
+                public boolean accept(MetadataCacheKey key) {
+                    return entityIDs.contains(key.id);
+                }
+            });
         }
     }
 
+    /**
+     * @return counters of the credential cache
+     */
+    public CacheStatistics getCacheStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return number of currently cached credential collections
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Maximum number of credential collections kept in the cache, the least recently used values are removed once
+     * the limit is exceeded.
+     * <p/>
+     * Default value is 1000.
+     *
+     * @param maxCacheSize maximum number of values
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        cache.setMaxSize(maxCacheSize);
+    }
+
+    /**
+     * Time after which cached credentials are resolved again, even when neither metadata nor keys changed.
+     * Value of 0 keeps the values until they are invalidated or evicted.
+     * <p/>
+     * Default value is 0.
+     *
+     * @param cacheTimeToLive time to live in ms
+     */
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
     /**
      * A class which serves as the key into the cache of credentials previously resolved.
      */
@@ -401,7 +461,35 @@ public class PKIXInformationResolver implements PKIXValidationInformationResolve
     }
 
     /**
-     * An observer that clears the credential cache if the underlying metadata changes.
+     * Listener removing cached credentials of entities affected by a metadata refresh, data of other entities
+     * is kept.
+     */
+    protected class MetadataChangeObserver implements MetadataChangeListener {
+
+        public void metadataChanged(MetadataChangeEvent event) {
+            Set<String> affected = event.getAffected();
+            clearCache(affected);
+            log.debug("Credential cache cleared for {} entities", affected.size());
+        }
+
+    }
+
+    /**
+     * An observer that clears the whole credential cache when keys of the key manager change, as trust anchors
+     * of all entities are affected.
+     */
+    protected class KeyManagerObserver implements ObservableKeyManager.Observer {
+
+        public void onEvent(KeyManager keyManager) {
+            clearCache(null);
+            log.debug("Credential cache cleared after change of keys");
+        }
+
+    }
+
+    /**
+     * An observer that clears the whole credential cache if the underlying metadata changes. Not registered
+     * by default, changes are handled per entity by the MetadataChangeObserver.
      */
     protected class MetadataProviderObserver implements ObservableMetadataProvider.Observer {
 
@@ -409,16 +497,8 @@ public class PKIXInformationResolver implements PKIXValidationInformationResolve
          * {@inheritDoc}
          */
         public void onEvent(MetadataProvider provider) {
-            Lock writeLock = getReadWriteLock().writeLock();
-            writeLock.lock();
-            log.trace("Write lock over cache acquired");
-            try {
-                cache.clear();
-                log.debug("Credential cache cleared");
-            } finally {
-                writeLock.unlock();
-                log.trace("Write lock over cache released");
-            }
+            clearCache(null);
+            log.debug("Credential cache cleared");
         }
     }
 
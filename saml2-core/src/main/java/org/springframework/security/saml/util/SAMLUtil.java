@@ -19,9 +19,15 @@ import org.opensaml.common.xml.SAMLConstants;
 import org.opensaml.saml2.metadata.*;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
 import org.opensaml.ws.message.decoder.MessageDecodingException;
+import org.opensaml.xml.util.XMLConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.metadata.EndpointTable;
 import org.springframework.security.saml.websso.WebSSOProfileOptions;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 
 import javax.servlet.http.HttpServletRequest;
 import java.security.MessageDigest;
@@ -37,6 +43,8 @@ public class SAMLUtil {
 
     private final static Logger log = LoggerFactory.getLogger(SAMLUtil.class);
 
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+
     /**
      * Returns assertion consumer service of the given SP.
      * <p/>
@@ -96,6 +104,49 @@ public class SAMLUtil {
 
     }
 
+    /**
+     * Returns assertion consumer service of the given SP using its compiled endpoint table. Service is selected
+     * in the same way as in getAssertionConsumerForBinding(IDPSSODescriptor, SPSSODescriptor, WebSSOProfileOptions, String).
+     *
+     * @param spEndpoints endpoints of the sp
+     * @param options     user supplied preferences
+     * @param binding     binding to be used, overrides other settings
+     * @return consumer service
+     * @throws MetadataProviderException in case index supplied in options is invalid or no consumer service can be found
+     */
+    public static AssertionConsumerService getAssertionConsumerForBinding(EndpointTable spEndpoints, WebSSOProfileOptions options, String binding) throws MetadataProviderException {
+
+        // Fixed binding
+        if (binding != null) {
+            AssertionConsumerService service = spEndpoints.getAssertionConsumerService(binding);
+            if (service != null) {
+                log.debug("Using consumer service determined by fixed binding {}", binding);
+                return service;
+            }
+            throw new MetadataProviderException("No consumer service found for binding " + binding);
+        }
+
+        // Use user preference
+        if (options.getAssertionConsumerIndex() != null) {
+            AssertionConsumerService service = spEndpoints.getAssertionConsumerService(options.getAssertionConsumerIndex());
+            if (service != null) {
+                log.debug("Using consumer service determined by user preference with binding {}", service.getBinding());
+                return service;
+            }
+            throw new MetadataProviderException("AssertionConsumerIndex " + options.getAssertionConsumerIndex() + " not found for spDescriptor " + spEndpoints.getDescriptor());
+        }
+
+        AssertionConsumerService service = spEndpoints.getDefaultAssertionConsumerService();
+        if (service != null) {
+            log.debug("Using default consumer service with binding {}", service.getBinding());
+            return service;
+        } else {
+            log.debug("No consumer service found for SP");
+            throw new MetadataProviderException("Service provider has no available consumer services " + spEndpoints.getDescriptor());
+        }
+
+    }
+
     /**
      * Returns SSOService for given binding of the IDP.
      *
@@ -115,6 +166,23 @@ public class SAMLUtil {
         throw new MetadataProviderException("Binding " + binding + " is not supported for this IDP");
     }
 
+    /**
+     * Returns SSOService for given binding of the IDP using its compiled endpoint table.
+     *
+     * @param idpEndpoints endpoints of the IDP
+     * @param binding      binding supported by the service
+     * @return SSO service capable of handling the given binding
+     * @throws MetadataProviderException if the service can't be determined
+     */
+    public static SingleSignOnService getSSOServiceForBinding(EndpointTable idpEndpoints, String binding) throws MetadataProviderException {
+        SingleSignOnService service = idpEndpoints.getSingleSignOnService(binding);
+        if (service == null) {
+            log.debug("No binding found for IDP with binding " + binding);
+            throw new MetadataProviderException("Binding " + binding + " is not supported for this IDP");
+        }
+        return service;
+    }
+
     /**
      * Returns Single logout service for given binding of the IDP.
      *
@@ -134,6 +202,23 @@ public class SAMLUtil {
         throw new MetadataProviderException("Binding " + binding + " is not supported for this IDP");
     }
 
+    /**
+     * Returns Single logout service for given binding using the compiled endpoint table.
+     *
+     * @param endpoints endpoints of the entity
+     * @param binding   binding supported by the service
+     * @return logout service capable of handling the given binding
+     * @throws MetadataProviderException if the service can't be determined
+     */
+    public static SingleLogoutService getLogoutServiceForBinding(EndpointTable endpoints, String binding) throws MetadataProviderException {
+        SingleLogoutService service = endpoints.getSingleLogoutService(binding);
+        if (service == null) {
+            log.debug("No binding found for IDP with binding " + binding);
+            throw new MetadataProviderException("Binding " + binding + " is not supported for this IDP");
+        }
+        return service;
+    }
+
     /**
      * Selects binding used to sent message to the IDP.
      *
@@ -155,6 +240,46 @@ public class SAMLUtil {
         return SAMLUtil.getDefaultBinding(idp);
     }
 
+    /**
+     * Selects binding used to sent message to the IDP using its compiled endpoint table.
+     *
+     * @param options      user specified preferences
+     * @param idpEndpoints endpoints of the idp
+     * @return binding to use for message delivery
+     * @throws MetadataProviderException in case IDP doesn't contain any SSO service
+     */
+    public static String getLoginBinding(WebSSOProfileOptions options, EndpointTable idpEndpoints) throws MetadataProviderException {
+
+        String requiredBinding = options.getBinding();
+        if (requiredBinding != null && idpEndpoints.getSingleSignOnService(requiredBinding) != null) {
+            return requiredBinding;
+        }
+
+        String binding = idpEndpoints.getDefaultSingleSignOnBinding();
+        if (binding == null) {
+            throw new MetadataProviderException("No SSO binding found for IDP");
+        }
+        return binding;
+
+    }
+
+    /**
+     * Selects binding used for single logout between IDP and SP using their compiled endpoint tables. First
+     * binding of the IDP supported also by the SP is used, first binding of the IDP otherwise.
+     *
+     * @param idpEndpoints endpoints of the idp
+     * @param spEndpoints  endpoints of the sp
+     * @return binding
+     * @throws MetadataProviderException in case IDP doesn't contain any single logout service
+     */
+    public static String getLogoutBinding(EndpointTable idpEndpoints, EndpointTable spEndpoints) throws MetadataProviderException {
+        String binding = idpEndpoints.getCommonSingleLogoutBinding(spEndpoints);
+        if (binding == null) {
+            throw new MetadataProviderException("IDP doesn't contain any SingleLogout endpoints");
+        }
+        return binding;
+    }
+
     public static String getLogoutBinding(IDPSSODescriptor idp, SPSSODescriptor sp) throws MetadataProviderException {
 
         List<SingleLogoutService> logoutServices = idp.getSingleLogoutServices();
@@ -233,6 +358,30 @@ public class SAMLUtil {
 
     }
 
+    /**
+     * Returns artifact resolution service with the given index using compiled endpoint table of the IDP.
+     *
+     * @param idpEndpoints  endpoints of the idp
+     * @param endpointIndex index of the service
+     * @return artifact resolution service
+     * @throws MessageDecodingException in case the service doesn't exist
+     */
+    public static ArtifactResolutionService getArtifactResolutionService(EndpointTable idpEndpoints, int endpointIndex) throws MessageDecodingException {
+
+        if (!idpEndpoints.hasArtifactResolutionServices()) {
+            log.error("Could not find any artifact resolution services in metadata.");
+            throw new MessageDecodingException("Could not find any artifact resolution services in metadata.");
+        }
+
+        ArtifactResolutionService artifactResolutionService = idpEndpoints.getArtifactResolutionService(endpointIndex);
+        if (artifactResolutionService == null) {
+            throw new MessageDecodingException("Could not find artifact resolution service with index " + endpointIndex + " in IDP data.");
+        }
+
+        return artifactResolutionService;
+
+    }
+
     /**
      * Determines whether filter with the given name should be invoked for the current request. Filter is used
      * when requestURI contains the filterName.
@@ -255,25 +404,53 @@ public class SAMLUtil {
      */
     public static boolean compare(byte[] hashID, String entityId) throws MetadataProviderException {
 
-        try {
-
-            MessageDigest sha1Digester = MessageDigest.getInstance("SHA-1");
-            byte[] hashedEntityId = sha1Digester.digest(entityId.getBytes());
+        byte[] hashedEntityId = getEntityIdHash(entityId);
 
-            for (int i = 0; i < hashedEntityId.length; i++) {
-                if (hashedEntityId[i] != hashID[i]) {
-                    return false;
-                }
+        for (int i = 0; i < hashedEntityId.length; i++) {
+            if (hashedEntityId[i] != hashID[i]) {
+                return false;
             }
+        }
 
-            return true;
+        return true;
+
+    }
+
+    /**
+     * Calculates SHA-1 hash of the entityId. The value corresponds to the SourceID of artifacts issued
+     * by the entity.
+     *
+     * @param entityId entity id to hash
+     * @return SHA-1 hash of the entity id
+     * @throws MetadataProviderException in case SHA-1 hash can't be initialized
+     */
+    public static byte[] getEntityIdHash(String entityId) throws MetadataProviderException {
 
+        try {
+            MessageDigest sha1Digester = MessageDigest.getInstance("SHA-1");
+            return sha1Digester.digest(entityId.getBytes());
         } catch (NoSuchAlgorithmException e) {
             throw new MetadataProviderException("SHA-1 message digest not available", e);
         }
 
     }
 
+    /**
+     * Encodes the data as lower case hexadecimal string, e.g. for printing of hashes or usage in cache keys
+     * and file names.
+     *
+     * @param data data to encode
+     * @return lower case hex representation of the data
+     */
+    public static String toHex(byte[] data) {
+        char[] result = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            result[i * 2] = HEX[(data[i] >> 4) & 0xf];
+            result[i * 2 + 1] = HEX[data[i] & 0xf];
+        }
+        return new String(result);
+    }
+
     /**
      * Verifies that the alias is valid.
      *
@@ -292,4 +469,33 @@ public class SAMLUtil {
 
     }
 
+    /**
+     * Imports deep copy of the element into the empty document as its document element. Namespace declarations and
+     * xml attributes inherited from ancestors of the element are set on the copy, so that the copy can be parsed,
+     * serialized or canonicalized independently of the original document. The original element is only read.
+     *
+     * @param element  element to copy
+     * @param document empty document to import the copy into
+     * @return copy of the element
+     */
+    public static Element importElement(Element element, Document document) {
+
+        Element copy = (Element) document.importNode(element, true);
+        document.appendChild(copy);
+
+        for (Node parent = element.getParentNode(); parent != null && parent.getNodeType() == Node.ELEMENT_NODE; parent = parent.getParentNode()) {
+            NamedNodeMap attributes = parent.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attribute = attributes.item(i);
+                String namespace = attribute.getNamespaceURI();
+                if ((XMLConstants.XMLNS_NS.equals(namespace) || XMLConstants.XML_NS.equals(namespace)) && !copy.hasAttributeNS(namespace, attribute.getLocalName())) {
+                    copy.setAttributeNS(namespace, attribute.getNodeName(), attribute.getNodeValue());
+                }
+            }
+        }
+
+        return copy;
+
+    }
+
 }
\ No newline at end of file
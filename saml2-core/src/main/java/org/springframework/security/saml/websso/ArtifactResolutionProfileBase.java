@@ -74,7 +74,7 @@ public abstract class ArtifactResolutionProfileBase extends AbstractProfileBase
 
             ExtendedMetadata extendedMetadata = metadata.getExtendedMetadata(idpEntityDescriptor.getEntityID());
             IDPSSODescriptor idpssoDescriptor = SAMLUtil.getIDPSSODescriptor(idpEntityDescriptor);
-            ArtifactResolutionService artifactResolutionService = SAMLUtil.getArtifactResolutionService(idpssoDescriptor, endpointIndex);
+            ArtifactResolutionService artifactResolutionService = SAMLUtil.getArtifactResolutionService(metadata.getEndpointTable(idpssoDescriptor), endpointIndex);
 
             // Create SAML message for artifact resolution
             ArtifactResolve artifactResolve = createArtifactResolve(context, artifactId, artifactResolutionService);
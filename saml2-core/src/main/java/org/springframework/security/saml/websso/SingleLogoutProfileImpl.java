@@ -63,9 +63,9 @@ public class SingleLogoutProfileImpl extends AbstractProfileBase implements Sing
         IDPSSODescriptor idpDescriptor = getIDPDescriptor(credential.getRemoteEntityID());
         ExtendedMetadata idpExtendedMetadata = context.getLocalExtendedMetadata();
         SPSSODescriptor spDescriptor = (SPSSODescriptor) context.getLocalEntityRoleMetadata();
-        String binding = SAMLUtil.getLogoutBinding(idpDescriptor, spDescriptor);
+        String binding = metadata.getLogoutBinding(idpDescriptor, spDescriptor);
 
-        SingleLogoutService logoutServiceIDP = SAMLUtil.getLogoutServiceForBinding(idpDescriptor, binding);
+        SingleLogoutService logoutServiceIDP = SAMLUtil.getLogoutServiceForBinding(metadata.getEndpointTable(idpDescriptor), binding);
         LogoutRequest logoutRequest = getLogoutRequest(context, credential, logoutServiceIDP);
 
         context.setCommunicationProfileId(logoutServiceIDP.getBinding());
@@ -254,8 +254,8 @@ public class SingleLogoutProfileImpl extends AbstractProfileBase implements Sing
 
         IDPSSODescriptor idpDescriptor = getIDPDescriptor(context.getPeerEntityId());
         SPSSODescriptor spDescriptor = (SPSSODescriptor) context.getLocalEntityRoleMetadata();
-        String binding = SAMLUtil.getLogoutBinding(idpDescriptor, spDescriptor);
-        SingleLogoutService logoutService = SAMLUtil.getLogoutServiceForBinding(idpDescriptor, binding);
+        String binding = metadata.getLogoutBinding(idpDescriptor, spDescriptor);
+        SingleLogoutService logoutService = SAMLUtil.getLogoutServiceForBinding(metadata.getEndpointTable(idpDescriptor), binding);
 
         logoutResponse.setID(generateID());
         logoutResponse.setIssuer(getIssuer(context.getLocalEntityId()));
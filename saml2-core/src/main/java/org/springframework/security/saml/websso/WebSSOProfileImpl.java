@@ -25,6 +25,7 @@ import org.opensaml.saml2.metadata.SingleSignOnService;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
 import org.opensaml.ws.message.encoder.MessageEncodingException;
 import org.springframework.security.saml.context.SAMLMessageContext;
+import org.springframework.security.saml.metadata.EndpointTable;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
 import org.springframework.security.saml.metadata.MetadataManager;
 import org.springframework.security.saml.processor.SAMLProcessor;
@@ -108,7 +109,8 @@ public class WebSSOProfileImpl extends AbstractProfileBase implements WebSSOProf
      * @throws MetadataProviderException in case service can't be determined
      */
     protected SingleSignOnService getSingleSignOnService(IDPSSODescriptor idpssoDescriptor, SPSSODescriptor spDescriptor, WebSSOProfileOptions options) throws MetadataProviderException {
-        return SAMLUtil.getSSOServiceForBinding(idpssoDescriptor, SAMLUtil.getLoginBinding(options, idpssoDescriptor, spDescriptor));
+        EndpointTable idpEndpoints = metadata.getEndpointTable(idpssoDescriptor);
+        return SAMLUtil.getSSOServiceForBinding(idpEndpoints, SAMLUtil.getLoginBinding(options, idpEndpoints));
     }
 
     /**
@@ -122,7 +124,7 @@ public class WebSSOProfileImpl extends AbstractProfileBase implements WebSSOProf
      * @throws MetadataProviderException in case index supplied in options is invalid or no consumer service can be found
      */
     protected AssertionConsumerService getAssertionConsumerService(IDPSSODescriptor idpssoDescriptor, SPSSODescriptor spDescriptor, WebSSOProfileOptions options, String binding) throws MetadataProviderException {
-        return SAMLUtil.getAssertionConsumerForBinding(idpssoDescriptor, spDescriptor, options, binding);
+        return SAMLUtil.getAssertionConsumerForBinding(metadata.getEndpointTable(spDescriptor), options, binding);
     }
 
     /**
@@ -33,6 +33,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
 import static org.easymock.EasyMock.*;
 
 /**
@@ -168,6 +171,35 @@ public class SAMLContextProviderImplTest extends SAMLTestBase {
         verifyMock();
     }
 
+    @Test
+    public void testLocalEntityTemplateShared() throws Exception {
+        expect(request.getContextPath()).andReturn("/SSO/alias/myAlias/sp").times(2);
+        replayMock();
+        SAMLMessageContext first = contextProvider.getLocalEntity(request, response);
+        SAMLMessageContext second = contextProvider.getLocalEntity(request, response);
+        assertNotSame(first, second);
+        assertNotSame(first.getInboundMessageTransport(), second.getInboundMessageTransport());
+        assertSame(first.getLocalEntityRoleMetadata(), second.getLocalEntityRoleMetadata());
+        assertSame(first.getLocalDecrypter(), second.getLocalDecrypter());
+        assertSame(first.getLocalTrustEngine(), second.getLocalTrustEngine());
+        assertSame(first.getLocalSSLTrustEngine(), second.getLocalSSLTrustEngine());
+        verifyMock();
+    }
+
+    @Test
+    public void testLocalEntityTemplateDisabled() throws Exception {
+        expect(request.getContextPath()).andReturn("/SSO/alias/myAlias/sp").times(2);
+        replayMock();
+        contextProvider.setUseTemplates(false);
+        SAMLMessageContext first = contextProvider.getLocalEntity(request, response);
+        SAMLMessageContext second = contextProvider.getLocalEntity(request, response);
+        assertNotNull(first.getLocalEntityRoleMetadata());
+        assertNotNull(first.getInboundMessageTransport());
+        assertNotSame(first.getLocalDecrypter(), second.getLocalDecrypter());
+        assertNotSame(first.getLocalTrustEngine(), second.getLocalTrustEngine());
+        verifyMock();
+    }
+
     @Test(expected = MetadataProviderException.class)
     public void testPopulateCredentialLocalEntity_invalidName() throws Exception {
         replayMock();
@@ -0,0 +1,158 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.key;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.xml.security.credential.Credential;
+import org.springframework.core.io.ClassPathResource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies caching of credentials resolved by the delegate key manager.
+ */
+public class CachingKeyManagerTest {
+
+    private JKSKeyManager jksKeyManager;
+
+    @Before
+    public void init() {
+        jksKeyManager = new JKSKeyManager(new ClassPathResource("org/springframework/security/saml/key/keystore.jks"), "nalle123", Collections.singletonMap("apollo", "nalle123"), "apollo");
+    }
+
+    /**
+     * Verifies that credentials are resolved only once until the cache is cleared.
+     */
+    @Test
+    public void testCredentialCache() {
+
+        CachingKeyManager keyManager = new CachingKeyManager(jksKeyManager);
+
+        Credential credential = keyManager.getCredential("apollo");
+        assertNotNull(credential);
+        assertSame(credential, keyManager.getCredential("apollo"));
+        assertSame(credential, keyManager.getDefaultCredential());
+
+        keyManager.clearCredentialCache();
+        Credential resolved = keyManager.getCredential("apollo");
+        assertNotSame(credential, resolved);
+        assertEquals(credential.getPublicKey(), resolved.getPublicKey());
+
+    }
+
+    /**
+     * Verifies that unknown names are not cached.
+     */
+    @Test
+    public void testUnknownCredential() {
+        CachingKeyManager keyManager = new CachingKeyManager(jksKeyManager);
+        assertNull(keyManager.getCredential("apollo13"));
+        assertNull(keyManager.getCredential("apollo13"));
+    }
+
+    /**
+     * Verifies that change of an observable delegate clears the cache and is forwarded to the observers.
+     */
+    @Test
+    public void testObservableDelegate() {
+
+        List<ObservableKeyManager.Observer> delegateObservers = new ArrayList<ObservableKeyManager.Observer>();
+        Credential first = jksKeyManager.getCredential("apollo");
+        Credential second = jksKeyManager.getCredential("apollo");
+
+        ObservableKeyManager delegate = createMock(ObservableKeyManager.class);
+        expect(delegate.getObservers()).andReturn(delegateObservers).anyTimes();
+        expect(delegate.getCredential("apollo")).andReturn(first);
+        expect(delegate.getCredential("apollo")).andReturn(second);
+        replay(delegate);
+
+        CachingKeyManager keyManager = new CachingKeyManager(delegate);
+        final List<KeyManager> events = new ArrayList<KeyManager>();
+        keyManager.getObservers().add(new ObservableKeyManager.Observer() {
+            public void onEvent(KeyManager keyManager) {
+                events.add(keyManager);
+            }
+        });
+
+        assertSame(first, keyManager.getCredential("apollo"));
+        assertSame(first, keyManager.getCredential("apollo"));
+
+        assertEquals(1, delegateObservers.size());
+        delegateObservers.get(0).onEvent(delegate);
+        assertEquals(Collections.singletonList(keyManager), events);
+        assertSame(second, keyManager.getCredential("apollo"));
+
+        verify(delegate);
+
+    }
+
+    /**
+     * Verifies that credential resolved while the cache was cleared isn't kept.
+     */
+    @Test
+    public void testClearDuringResolution() {
+
+        final CachingKeyManager[] keyManager = new CachingKeyManager[1];
+        final boolean[] clear = new boolean[]{true};
+        keyManager[0] = new CachingKeyManager(new JKSKeyManager(new ClassPathResource("org/springframework/security/saml/key/keystore.jks"), "nalle123", Collections.singletonMap("apollo", "nalle123"), "apollo") {
+            @Override
+            public Credential getCredential(String keyName) {
+                Credential credential = super.getCredential(keyName);
+                if (clear[0]) {
+                    clear[0] = false;
+                    keyManager[0].clearCredentialCache();
+                }
+                return credential;
+            }
+        });
+
+        Credential stale = keyManager[0].getCredential("apollo");
+        Credential resolved = keyManager[0].getCredential("apollo");
+        assertNotSame(stale, resolved);
+        assertSame(resolved, keyManager[0].getCredential("apollo"));
+
+    }
+
+    /**
+     * Verifies that failure of an observer doesn't prevent notification of the others.
+     */
+    @Test
+    public void testFailingObserver() {
+
+        CachingKeyManager keyManager = new CachingKeyManager(jksKeyManager);
+        final List<KeyManager> events = new ArrayList<KeyManager>();
+        keyManager.getObservers().add(new ObservableKeyManager.Observer() {
+            public void onEvent(KeyManager keyManager) {
+                throw new IllegalStateException("Observer failure");
+            }
+        });
+        keyManager.getObservers().add(new ObservableKeyManager.Observer() {
+            public void onEvent(KeyManager keyManager) {
+                events.add(keyManager);
+            }
+        });
+
+        keyManager.clearCredentialCache();
+        assertEquals(Collections.singletonList(keyManager), events);
+
+    }
+
+}
@@ -0,0 +1,184 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies reloading of the keystore and the overlap of old and new keys.
+ */
+public class ReloadingKeyManagerTest {
+
+    private File storeFile;
+    private ReloadingKeyManager keyManager;
+    private volatile int events;
+
+    @Before
+    public void init() throws Exception {
+
+        storeFile = File.createTempFile("keystore", ".jks");
+        store(load());
+
+        Map<String, String> passwords = new HashMap<String, String>();
+        passwords.put("apollo", "nalle123");
+        keyManager = new ReloadingKeyManager(new FileSystemResource(storeFile), "nalle123", passwords, "apollo");
+        keyManager.setRefreshCheckInterval(0);
+        keyManager.getObservers().add(new ObservableKeyManager.Observer() {
+            public void onEvent(KeyManager keyManager) {
+                events++;
+            }
+        });
+        keyManager.afterPropertiesSet();
+
+    }
+
+    @After
+    public void destroy() {
+        keyManager.destroy();
+        storeFile.delete();
+    }
+
+    /**
+     * Verifies that unchanged keystore isn't reloaded and observers aren't notified.
+     */
+    @Test
+    public void testNoChange() throws Exception {
+        assertNotNull(keyManager.getCredential("apollo"));
+        assertFalse(keyManager.reload());
+        assertEquals(0, events);
+    }
+
+    /**
+     * Verifies that changed keystore is reloaded, observers are notified and keys of the previous keystore
+     * are returned during the overlap.
+     */
+    @Test
+    public void testReload() throws Exception {
+
+        KeyStore keyStore = load();
+        keyStore.setCertificateEntry("apollo2", keyStore.getCertificate("apollo"));
+        store(keyStore);
+
+        assertTrue(keyManager.reload());
+        assertEquals(1, events);
+        assertTrue(keyManager.getAvailableCredentials().contains("apollo2"));
+        assertNotNull(keyManager.getCertificate("apollo2"));
+
+        int count = 0;
+        for (Credential credential : keyManager.resolve(new CriteriaSet(new EntityIDCriteria("apollo")))) {
+            assertNotNull(credential.getPrivateKey());
+            count++;
+        }
+        assertEquals(2, count);
+        assertFalse(keyManager.reload());
+
+    }
+
+    /**
+     * Verifies that observers are notified once the overlap ends, so that copies of the previous keys are dropped.
+     */
+    @Test
+    public void testOverlapEnd() throws Exception {
+
+        keyManager.setOverlapInterval(200);
+        KeyStore keyStore = load();
+        keyStore.deleteEntry("apollo");
+        store(keyStore);
+
+        assertTrue(keyManager.reload());
+        assertEquals(1, events);
+        assertNotNull(keyManager.resolveSingle(new CriteriaSet(new EntityIDCriteria("apollo"))));
+
+        for (int i = 0; i < 50 && events < 2; i++) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(2, events);
+        assertNull(keyManager.resolveSingle(new CriteriaSet(new EntityIDCriteria("apollo"))));
+        assertFalse(keyManager.expireOverlap());
+
+    }
+
+    /**
+     * Verifies that keys of the previous keystore aren't returned once the overlap is over.
+     */
+    @Test
+    public void testReloadWithoutOverlap() throws Exception {
+
+        keyManager.setOverlapInterval(0);
+        KeyStore keyStore = load();
+        keyStore.deleteEntry("apollo");
+        store(keyStore);
+
+        assertTrue(keyManager.reload());
+        assertNull(keyManager.getCredential("apollo"));
+        assertNull(keyManager.resolveSingle(new CriteriaSet(new EntityIDCriteria("apollo"))));
+
+    }
+
+    /**
+     * Verifies that keystore which can't be loaded is ignored.
+     */
+    @Test
+    public void testInvalidKeystore() throws Exception {
+
+        OutputStream output = new FileOutputStream(storeFile);
+        output.write(new byte[]{1, 2, 3});
+        output.close();
+
+        assertFalse(keyManager.reload());
+        assertEquals(0, events);
+        assertNotNull(keyManager.getCredential("apollo"));
+
+    }
+
+    private KeyStore load() throws Exception {
+        InputStream input = new ClassPathResource("org/springframework/security/saml/key/keystore.jks").getInputStream();
+        try {
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            keyStore.load(input, "nalle123".toCharArray());
+            return keyStore;
+        } finally {
+            input.close();
+        }
+    }
+
+    private void store(KeyStore keyStore) throws Exception {
+        OutputStream output = new FileOutputStream(storeFile);
+        try {
+            keyStore.store(output, "nalle123".toCharArray());
+        } finally {
+            output.close();
+        }
+    }
+
+}
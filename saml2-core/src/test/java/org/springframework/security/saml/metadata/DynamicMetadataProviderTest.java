@@ -0,0 +1,314 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.parse.ParserPool;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.security.saml.util.SAMLUtil;
+import org.springframework.util.FileCopyUtils;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ */
+public class DynamicMetadataProviderTest {
+
+    static final String IDP = "http://localhost:8080/opensso";
+    static final String SP = "http://localhost:8081/spring-security-saml2-webapp";
+
+    ApplicationContext context;
+    MetadataManager manager;
+    ParserPool pool;
+    File directory;
+    DynamicMetadataProvider provider;
+
+    @Before
+    public void initialize() throws Exception {
+
+        String resName = "/" + getClass().getName().replace('.', '/') + ".xml";
+        context = new ClassPathXmlApplicationContext(resName);
+        manager = context.getBean("metadata", MetadataManager.class);
+        pool = context.getBean("parserPool", ParserPool.class);
+
+        directory = File.createTempFile("metadata", "");
+        directory.delete();
+        directory.mkdir();
+        copy("classpath:testIDP.xml", IDP);
+        copy("classpath:testSP.xml", SP);
+
+        provider = new DynamicMetadataProvider(new FilesystemEntityMetadataSource(directory));
+        provider.setParserPool(pool);
+
+    }
+
+    @After
+    public void cleanup() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Verifies that entities are resolved on demand and are not listed by the manager.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testOnDemandLoading() throws Exception {
+
+        manager.addMetadataProvider(new ExtendedMetadataDelegate(provider));
+        manager.refreshMetadata();
+
+        assertFalse(manager.getIDPEntityNames().contains(IDP));
+        assertEquals(0, provider.getCacheSize());
+
+        assertTrue(manager.isIDPValid(IDP));
+        assertFalse(manager.isSPValid(IDP));
+        assertTrue(manager.isSPValid(SP));
+        assertNotNull(manager.getEntityDescriptor(IDP));
+        assertSame(manager.getEntityDescriptor(IDP), manager.getEntityDescriptor(IDP));
+        assertNotNull(manager.getExtendedMetadata(IDP));
+        assertEquals(2, provider.getCacheSize());
+
+        assertNull(manager.getEntityDescriptor("unknown"));
+        assertFalse(manager.isIDPValid("unknown"));
+
+    }
+
+    /**
+     * Verifies that entity can be located using hash of its entityID.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testHashLookup() throws Exception {
+
+        manager.addMetadataProvider(new ExtendedMetadataDelegate(provider));
+        manager.refreshMetadata();
+
+        assertEquals(IDP, manager.getEntityDescriptor(SAMLUtil.getEntityIdHash(IDP)).getEntityID());
+        assertNull(manager.getEntityDescriptor(SAMLUtil.getEntityIdHash("unknown")));
+
+    }
+
+    /**
+     * Verifies that least recently used entities are removed from the cache and can be resolved again.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testCacheSize() throws Exception {
+
+        provider.setMaxCacheSize(1);
+        provider.initialize();
+
+        assertNotNull(provider.getEntityDescriptor(IDP));
+        assertNotNull(provider.getEntityDescriptor(SP));
+        assertEquals(1, provider.getCacheSize());
+        assertEquals(1, provider.getCacheStatistics().getEvictionCount());
+        assertNotNull(provider.getEntityDescriptor(IDP));
+        assertEquals(3, provider.getCacheStatistics().getMissCount());
+
+    }
+
+    /**
+     * Verifies that entities are loaded again once they expire from the cache.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testCacheExpiration() throws Exception {
+
+        provider.setMinCacheDuration(0);
+        provider.setMaxCacheDuration(0);
+        provider.setNegativeCacheDuration(0);
+        provider.initialize();
+
+        assertNotNull(provider.getEntityDescriptor(IDP));
+        new File(directory, SAMLUtil.toHex(SAMLUtil.getEntityIdHash(IDP)) + ".xml").delete();
+        Thread.sleep(10);
+        assertNull(provider.getEntityDescriptor(IDP));
+
+    }
+
+    /**
+     * Verifies that failures of the source are cached and the source isn't queried again until they expire.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSourceFailure() throws Exception {
+
+        TestSource source = new TestSource();
+        source.failing = true;
+        provider = new DynamicMetadataProvider(source);
+        provider.setParserPool(pool);
+        provider.initialize();
+
+        try {
+            provider.getEntityDescriptor(IDP);
+            fail("Source failure should be reported");
+        } catch (MetadataProviderException e) {
+            // Expected
+        }
+        assertNull(provider.getEntityDescriptor(IDP));
+        assertEquals(1, source.requests.get());
+
+        source.failing = false;
+        provider.clearCache();
+        assertNotNull(provider.getEntityDescriptor(IDP));
+        assertEquals(2, source.requests.get());
+
+    }
+
+    /**
+     * Verifies that previously loaded entity is served when source fails after its expiration.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSourceFailure_expiredEntity() throws Exception {
+
+        TestSource source = new TestSource();
+        provider = new DynamicMetadataProvider(source);
+        provider.setParserPool(pool);
+        provider.setMinCacheDuration(0);
+        provider.setMaxCacheDuration(0);
+        provider.initialize();
+
+        EntityDescriptor descriptor = provider.getEntityDescriptor(IDP);
+        assertNotNull(descriptor);
+
+        source.failing = true;
+        Thread.sleep(10);
+        assertSame(descriptor, provider.getEntityDescriptor(IDP));
+        assertSame(descriptor, provider.getEntityDescriptor(IDP));
+        assertEquals(2, source.requests.get());
+
+    }
+
+    /**
+     * Verifies that concurrent lookups of the same entity perform a single request to the source.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testConcurrentLookup() throws Exception {
+
+        final TestSource source = new TestSource();
+        source.latch = new CountDownLatch(1);
+        provider = new DynamicMetadataProvider(source);
+        provider.setParserPool(pool);
+        provider.initialize();
+
+        final EntityDescriptor[] results = new EntityDescriptor[5];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[index] = provider.getEntityDescriptor(IDP);
+                    } catch (MetadataProviderException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        Thread.sleep(200);
+        source.latch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, source.requests.get());
+        for (EntityDescriptor result : results) {
+            assertNotNull(result);
+            assertSame(results[0], result);
+        }
+
+    }
+
+    /**
+     * Verifies that entityIDs not matching the pattern are not requested from the source.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testEntityIDPattern() throws Exception {
+
+        TestSource source = new TestSource();
+        provider = new DynamicMetadataProvider(source);
+        provider.setParserPool(pool);
+        provider.setEntityIDPattern("http://localhost:8080/.*");
+        provider.initialize();
+
+        assertNotNull(provider.getEntityDescriptor(IDP));
+        assertNull(provider.getEntityDescriptor(SP));
+        assertEquals(1, source.requests.get());
+
+    }
+
+    /**
+     * Source delegating to the filesystem directory, counts the requests and optionally fails or waits.
+     */
+    private class TestSource implements EntityMetadataSource {
+
+        private final EntityMetadataSource delegate;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile boolean failing;
+        private volatile CountDownLatch latch;
+
+        private TestSource() throws MetadataProviderException {
+            delegate = new FilesystemEntityMetadataSource(directory);
+        }
+
+        public InputStream getMetadata(String entityID, byte[] hash) throws MetadataProviderException {
+            requests.incrementAndGet();
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new MetadataProviderException(e);
+                }
+            }
+            if (failing) {
+                throw new MetadataProviderException("Source is not available");
+            }
+            return delegate.getMetadata(entityID, hash);
+        }
+
+    }
+
+    protected void copy(String resource, String entityID) throws Exception {
+        File target = new File(directory, SAMLUtil.toHex(SAMLUtil.getEntityIdHash(entityID)) + ".xml");
+        FileCopyUtils.copy(context.getResource(resource).getFile(), target);
+    }
+
+}
@@ -0,0 +1,169 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.springframework.security.saml.util.SAMLUtil;
+import org.springframework.util.FileCopyUtils;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests HTTPEntityMetadataSource against a server listening on the loopback interface.
+ */
+public class HTTPEntityMetadataSourceTest {
+
+    static final String ENTITY = "http://localhost:8080/opensso";
+
+    ServerSocket serverSocket;
+    Thread server;
+    List<String> requests;
+    volatile int status;
+    volatile byte[] body;
+    HTTPEntityMetadataSource source;
+
+    @Before
+    public void initialize() throws Exception {
+
+        requests = new ArrayList<String>();
+        serverSocket = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+        server = new Thread() {
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        try {
+                            handle(socket);
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        // Server was closed
+                    }
+                }
+            }
+        };
+        server.start();
+
+        source = new HTTPEntityMetadataSource("http://127.0.0.1:" + serverSocket.getLocalPort() + "/mdq", new HttpClient());
+
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        serverSocket.close();
+        server.join();
+    }
+
+    /**
+     * Verifies that metadata is requested using the entityID and the hash.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testRequest() throws Exception {
+
+        status = 200;
+        body = "<metadata/>".getBytes("UTF-8");
+
+        assertArrayEquals(body, FileCopyUtils.copyToByteArray(source.getMetadata(ENTITY, SAMLUtil.getEntityIdHash(ENTITY))));
+        assertArrayEquals(body, FileCopyUtils.copyToByteArray(source.getMetadata(null, SAMLUtil.getEntityIdHash(ENTITY))));
+
+        synchronized (requests) {
+            assertEquals(2, requests.size());
+            assertEquals("GET /mdq/entities/" + URLEncoder.encode(ENTITY, "UTF-8") + " HTTP/1.1", requests.get(0));
+            assertEquals("GET /mdq/entities/%7Bsha1%7D" + SAMLUtil.toHex(SAMLUtil.getEntityIdHash(ENTITY)) + " HTTP/1.1", requests.get(1));
+        }
+
+    }
+
+    /**
+     * Verifies that missing entity is reported as null.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testNotFound() throws Exception {
+        status = 404;
+        body = new byte[0];
+        assertNull(source.getMetadata(ENTITY, SAMLUtil.getEntityIdHash(ENTITY)));
+    }
+
+    /**
+     * Verifies that server error is reported as failure.
+     *
+     * @throws Exception error
+     */
+    @Test(expected = MetadataProviderException.class)
+    public void testServerError() throws Exception {
+        status = 500;
+        body = new byte[0];
+        source.getMetadata(ENTITY, SAMLUtil.getEntityIdHash(ENTITY));
+    }
+
+    /**
+     * Verifies that responses larger than the limit are rejected.
+     *
+     * @throws Exception error
+     */
+    @Test(expected = MetadataProviderException.class)
+    public void testMaxResponseSize() throws Exception {
+        status = 200;
+        body = new byte[10000];
+        source.setMaxResponseSize(5000);
+        source.getMetadata(ENTITY, SAMLUtil.getEntityIdHash(ENTITY));
+    }
+
+    /**
+     * Reads the request headers and writes the configured response.
+     *
+     * @param socket connection
+     * @throws IOException error
+     */
+    protected void handle(Socket socket) throws IOException {
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+        String line = reader.readLine();
+        synchronized (requests) {
+            requests.add(line);
+        }
+        while (line != null && line.length() > 0) {
+            line = reader.readLine();
+        }
+
+        OutputStream output = socket.getOutputStream();
+        String headers = "HTTP/1.1 " + status + " Status\r\n" +
+                "Content-Type: application/samlmetadata+xml\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: close\r\n\r\n";
+        output.write(headers.getBytes("ISO-8859-1"));
+        output.write(body);
+        output.flush();
+
+    }
+
+}
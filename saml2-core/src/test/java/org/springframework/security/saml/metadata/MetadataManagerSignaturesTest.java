@@ -16,16 +16,35 @@ package org.springframework.security.saml.metadata;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
 import org.opensaml.saml2.metadata.provider.FilesystemMetadataProvider;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureTrustEngine;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.security.saml.key.KeyManager;
+import org.springframework.util.FileCopyUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import static junit.framework.Assert.assertNotNull;
-import static org.junit.Assert.assertNull;
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
 
 /**
  * @author Vladimir Schäfer
@@ -232,6 +251,166 @@ public class MetadataManagerSignaturesTest {
 
     }
 
+    /**
+     * Test verifies that successful verifications are recorded in the persistent cache and that metadata is still
+     * accepted when its verification is skipped.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSignature_cachedVerification() throws Exception {
+
+        File file = File.createTempFile("verification", ".cache");
+
+        try {
+
+            manager.setSignatureVerificationCache(new SignatureVerificationCache(file));
+
+            ExtendedMetadataDelegate provider = getMetadata("classpath:testSP_signed.xml");
+            provider.setMetadataRequireSignature(true);
+
+            manager.addMetadataProvider(provider);
+            manager.refreshMetadata();
+
+            // Make sure entity was loaded and verification recorded
+            assertNotNull(manager.getEntityDescriptor("http://localhost/spring-security-saml2-sample"));
+            assertTrue(file.length() > 0);
+
+            // Verification is skipped once the same data is loaded again
+            manager.removeMetadataProvider(provider);
+            manager.setSignatureVerificationCache(new SignatureVerificationCache(file));
+            provider = getMetadata("classpath:testSP_signed.xml");
+            provider.setMetadataRequireSignature(true);
+            manager.addMetadataProvider(provider);
+            manager.refreshMetadata();
+
+            assertNotNull(manager.getEntityDescriptor("http://localhost/spring-security-saml2-sample"));
+
+        } finally {
+
+            file.delete();
+
+        }
+
+    }
+
+    /**
+     * Test verifies that trust engine is only invoked when the document or the trust anchors change.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSignature_cachedVerificationSkipped() throws Exception {
+
+        SignatureTrustEngine engine = createMock(SignatureTrustEngine.class);
+        expect(engine.getKeyInfoResolver()).andReturn(null).anyTimes();
+        expect(engine.validate(isA(Signature.class), isA(CriteriaSet.class))).andReturn(true).times(2);
+        replay(engine);
+
+        SignatureVerificationCache cache = new SignatureVerificationCache();
+        new CachingSignatureValidationFilter(engine, cache, "anchors").doFilter(parse("classpath:testSP_signed.xml"));
+        new CachingSignatureValidationFilter(engine, cache, "anchors").doFilter(parse("classpath:testSP_signed.xml"));
+        new CachingSignatureValidationFilter(engine, cache, "other").doFilter(parse("classpath:testSP_signed.xml"));
+
+        verify(engine);
+
+    }
+
+    /**
+     * Test verifies that parallel verification removes only the entity with invalid signature.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSignature_parallelVerification() throws Exception {
+
+        EntityDescriptor valid = (EntityDescriptor) parse("classpath:testSP_signed.xml");
+        EntityDescriptor invalid = (EntityDescriptor) parse("classpath:testSP_signed_ca.xml");
+        final String validEntityID = valid.getEntityID();
+
+        EntitiesDescriptor metadata = (EntitiesDescriptor) Configuration.getBuilderFactory().getBuilder(EntitiesDescriptor.DEFAULT_ELEMENT_NAME).buildObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+        metadata.getEntityDescriptors().add(valid);
+        metadata.getEntityDescriptors().add(invalid);
+
+        SignatureTrustEngine engine = new SignatureTrustEngine() {
+            public KeyInfoCredentialResolver getKeyInfoResolver() {
+                return null;
+            }
+            public boolean validate(Signature token, CriteriaSet trustBasisCriteria) {
+                return validEntityID.equals(((EntityDescriptor) token.getParent()).getEntityID());
+            }
+            public boolean validate(byte[] signature, byte[] content, String algorithmURI, CriteriaSet trustBasisCriteria, Credential candidateCredential) {
+                return false;
+            }
+        };
+
+        ParallelSignatureValidationFilter filter = new ParallelSignatureValidationFilter(engine);
+        filter.setThreads(2);
+        filter.doFilter(metadata);
+
+        assertEquals(1, metadata.getEntityDescriptors().size());
+        assertSame(valid, metadata.getEntityDescriptors().get(0));
+
+    }
+
+    /**
+     * Test verifies that entities of a single parsed aggregate are verified in parallel using copies in separate
+     * documents and that the shared document isn't used by the worker threads.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSignature_parallelVerificationSharedDocument() throws Exception {
+
+        String aggregate = "<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\">"
+                + read("classpath:testSP_signed.xml") + read("classpath:testSP_signed_ca.xml") + "</md:EntitiesDescriptor>";
+        Element element = pool.parse(new ByteArrayInputStream(aggregate.getBytes("UTF-8"))).getDocumentElement();
+        EntitiesDescriptor metadata = (EntitiesDescriptor) Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+        EntityDescriptor valid = metadata.getEntityDescriptors().get(0);
+        final Document shared = element.getOwnerDocument();
+        final Set<Document> documents = Collections.synchronizedSet(new HashSet<Document>());
+
+        SignatureTrustEngine engine = new SignatureTrustEngine() {
+            public KeyInfoCredentialResolver getKeyInfoResolver() {
+                return null;
+            }
+            public boolean validate(Signature token, CriteriaSet trustBasisCriteria) {
+                Document document = token.getDOM().getOwnerDocument();
+                documents.add(document);
+                return document != shared && "http://localhost/spring-security-saml2-sample".equals(((EntityDescriptor) token.getParent()).getEntityID());
+            }
+            public boolean validate(byte[] signature, byte[] content, String algorithmURI, CriteriaSet trustBasisCriteria, Credential candidateCredential) {
+                return false;
+            }
+        };
+
+        ParallelSignatureValidationFilter filter = new ParallelSignatureValidationFilter(engine);
+        filter.setThreads(2);
+        filter.doFilter(metadata);
+
+        assertEquals(1, metadata.getEntityDescriptors().size());
+        assertSame(valid, metadata.getEntityDescriptors().get(0));
+        assertSame(element, metadata.getDOM());
+        assertEquals(2, documents.size());
+        assertFalse(documents.contains(shared));
+
+    }
+
+    protected String read(String fileName) throws Exception {
+        String content = FileCopyUtils.copyToString(new InputStreamReader(context.getResource(fileName).getInputStream(), "UTF-8"));
+        return content.substring(content.indexOf("?>") + 2);
+    }
+
+    protected XMLObject parse(String fileName) throws Exception {
+        InputStream input = context.getResource(fileName).getInputStream();
+        try {
+            Element element = pool.parse(input).getDocumentElement();
+            return Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+        } finally {
+            input.close();
+        }
+    }
+
     protected ExtendedMetadataDelegate getMetadata(String fileName) throws Exception {
         File file = context.getResource(fileName).getFile();
         FilesystemMetadataProvider innterProvider = new FilesystemMetadataProvider(file);
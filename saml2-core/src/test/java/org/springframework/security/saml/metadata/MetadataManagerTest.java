@@ -17,16 +17,29 @@ package org.springframework.security.saml.metadata;
 import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.opensaml.common.xml.SAMLConstants;
 import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.RoleDescriptor;
+import org.opensaml.saml2.metadata.SPSSODescriptor;
 import org.opensaml.saml2.metadata.provider.MetadataProvider;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.saml2.metadata.provider.ObservableMetadataProvider;
+import org.opensaml.xml.parse.ParserPool;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.security.saml.util.SAMLUtil;
+import org.w3c.dom.Element;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.*;
@@ -219,6 +232,586 @@ public class MetadataManagerTest {
 
     }
 
+    /**
+     * Test verifies that concurrent cache misses for the same entity are served by a single load.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSingleFlightLoading() throws Exception {
+
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        MetadataProvider singleProvider = context.getBean("singleProvider", MetadataProvider.class);
+        ExtendedMetadataDelegate provider = new ExtendedMetadataDelegate(singleProvider) {
+            @Override
+            public EntityDescriptor getEntityDescriptor(String entityID) throws MetadataProviderException {
+                if (started.getCount() == 0 && "http://localhost:8080/noBinding".equals(entityID)) {
+                    loads.incrementAndGet();
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        throw new MetadataProviderException(e);
+                    }
+                }
+                return super.getEntityDescriptor(entityID);
+            }
+        };
+
+        manager.addMetadataProvider(provider);
+        manager.refreshMetadata();
+        started.countDown();
+
+        final EntityDescriptor[] results = new EntityDescriptor[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[index] = manager.getEntityDescriptor("http://localhost:8080/noBinding");
+                    } catch (MetadataProviderException e) {
+                        results[index] = null;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, loads.get());
+        for (EntityDescriptor result : results) {
+            assertNotNull(result);
+            assertSame(results[0], result);
+        }
+
+        manager.removeMetadataProvider(provider);
+        manager.refreshMetadata();
+
+    }
+
+    /**
+     * Test verifies that caches are bounded and their usage is counted.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testBoundedCache() throws Exception {
+
+        CachingMetadataManager caching = (CachingMetadataManager) manager;
+        CacheStatistics statistics = caching.getEntityCacheStatistics();
+        long hits = statistics.getHitCount();
+        long misses = statistics.getMissCount();
+        long evictions = statistics.getEvictionCount();
+
+        caching.setMaxCacheSize(2);
+        caching.refreshMetadata();
+        try {
+
+            caching.getEntityDescriptor("nest1");
+            caching.getEntityDescriptor("nest1");
+            assertEquals(hits + 1, statistics.getHitCount());
+            assertEquals(misses + 1, statistics.getMissCount());
+
+            caching.getEntityDescriptor("nest2");
+            caching.getEntityDescriptor("nest3");
+            caching.getEntityDescriptor("unknownEntity");
+            assertEquals(misses + 4, statistics.getMissCount());
+            assertTrue(statistics.getEvictionCount() >= evictions + 1);
+            assertTrue(caching.getEntityCacheSize() <= 2);
+
+            // Evicted value is loaded again
+            assertNotNull(caching.getEntityDescriptor("nest1"));
+            assertEquals(misses + 5, statistics.getMissCount());
+
+        } finally {
+            caching.setMaxCacheSize(1000);
+        }
+
+    }
+
+    /**
+     * Test verifies that the least recently used values are evicted first.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testBoundedCache_leastRecentlyUsed() throws Exception {
+
+        CachingMetadataManager caching = (CachingMetadataManager) manager;
+        CacheStatistics statistics = caching.getEntityCacheStatistics();
+
+        caching.setMaxCacheSize(2);
+        caching.setRefreshRequired(true);
+        caching.refreshMetadata();
+        try {
+
+            caching.getEntityDescriptor("nest1");
+            caching.getEntityDescriptor("nest2");
+            caching.getEntityDescriptor("nest1");
+            caching.getEntityDescriptor("nest3");
+
+            // Value nest2 was used least recently and was evicted
+            long misses = statistics.getMissCount();
+            caching.getEntityDescriptor("nest1");
+            assertEquals(misses, statistics.getMissCount());
+            caching.getEntityDescriptor("nest2");
+            assertEquals(misses + 1, statistics.getMissCount());
+
+        } finally {
+            caching.setMaxCacheSize(1000);
+        }
+
+    }
+
+    /**
+     * Test verifies that expired and failed values don't count towards the size of the cache.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testBoundedCache_expiration() throws Exception {
+
+        CachingMetadataManager caching = (CachingMetadataManager) manager;
+        CacheStatistics statistics = caching.getEntityCacheStatistics();
+
+        caching.setMaxCacheSize(2);
+        caching.setCacheTimeToLive(1);
+        caching.setRefreshRequired(true);
+        caching.refreshMetadata();
+        try {
+
+            for (int i = 0; i < 10; i++) {
+                caching.getEntityDescriptor("nest1");
+                Thread.sleep(5);
+            }
+            assertEquals(1, caching.getEntityCacheSize());
+
+            long evictions = statistics.getEvictionCount();
+            caching.setCacheTimeToLive(0);
+            caching.getEntityDescriptor("nest2");
+            assertEquals(2, caching.getEntityCacheSize());
+            assertEquals(evictions, statistics.getEvictionCount());
+
+            // Value nest1 was used least recently
+            caching.getEntityDescriptor("nest3");
+            assertEquals(evictions + 1, statistics.getEvictionCount());
+            long misses = statistics.getMissCount();
+            caching.getEntityDescriptor("nest2");
+            assertEquals(misses, statistics.getMissCount());
+
+        } finally {
+            caching.setMaxCacheSize(1000);
+            caching.setCacheTimeToLive(0);
+        }
+
+    }
+
+    /**
+     * Test verifies that caches of a new snapshot contain recently used entities once it's published.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testCacheWarmUp() throws Exception {
+
+        CachingMetadataManager caching = (CachingMetadataManager) manager;
+        CacheStatistics statistics = caching.getEntityCacheStatistics();
+        assertNotNull(caching.getEntityDescriptor("nest1"));
+
+        caching.setWarmUpCaches(true);
+        caching.setRefreshRequired(true);
+        caching.refreshMetadata();
+
+        long hits = statistics.getHitCount();
+        long misses = statistics.getMissCount();
+        assertNotNull(caching.getEntityDescriptor("nest1"));
+        assertEquals(hits + 1, statistics.getHitCount());
+        assertEquals(misses, statistics.getMissCount());
+
+    }
+
+    /**
+     * Test verifies that listeners are notified only about entities affected by the refresh.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testChangeEvents() throws Exception {
+
+        final List<MetadataChangeEvent> events = new ArrayList<MetadataChangeEvent>();
+        manager.addChangeListener(new MetadataChangeListener() {
+            public void metadataChanged(MetadataChangeEvent event) {
+                events.add(event);
+            }
+        });
+
+        MetadataProvider singleProvider = context.getBean("singleProvider", MetadataProvider.class);
+        manager.addMetadataProvider(singleProvider);
+        manager.refreshMetadata();
+
+        assertEquals(1, events.size());
+        assertEquals(Collections.singleton("http://localhost:8080/noBinding"), events.get(0).getAdded());
+        assertTrue(events.get(0).getRemoved().isEmpty());
+        assertTrue(events.get(0).getChanged().isEmpty());
+
+        // Unchanged content doesn't produce any event
+        manager.setRefreshRequired(true);
+        manager.refreshMetadata();
+        assertEquals(1, events.size());
+
+        manager.removeMetadataProvider(singleProvider);
+        manager.refreshMetadata();
+
+        assertEquals(2, events.size());
+        assertEquals(Collections.singleton("http://localhost:8080/noBinding"), events.get(1).getRemoved());
+        assertTrue(events.get(1).getAdded().isEmpty());
+        assertTrue(events.get(1).getChanged().isEmpty());
+
+    }
+
+    /**
+     * Test verifies that refresh publishes a new snapshot and leaves the previous one untouched.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSnapshotPublished() throws Exception {
+
+        MetadataSnapshot original = manager.getSnapshot();
+        assertEquals(manager.getProviders(), original.getProviders());
+        assertTrue(original.getIDPEntityNames().contains("nest1"));
+
+        manager.removeMetadataProvider(manager.getProviders().get(1));
+        manager.refreshMetadata();
+
+        MetadataSnapshot refreshed = manager.getSnapshot();
+        assertNotSame(original, refreshed);
+        assertFalse(refreshed.getIDPEntityNames().contains("nest1"));
+        assertTrue(original.getIDPEntityNames().contains("nest1"));
+        assertEquals(original.getProviders().size() - 1, refreshed.getProviders().size());
+
+    }
+
+    /**
+     * Test verifies that entities can be located using SHA-1 hash of their entityID.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testEntityDescriptorByHash() throws Exception {
+
+        byte[] hash = SAMLUtil.getEntityIdHash("nest2");
+        EntityDescriptor descriptor = manager.getEntityDescriptor(hash);
+        assertNotNull(descriptor);
+        assertEquals("nest2", descriptor.getEntityID());
+
+        // Hash must be compared by value
+        assertSame(descriptor, manager.getEntityDescriptor(SAMLUtil.getEntityIdHash("nest2")));
+        assertNull(manager.getEntityDescriptor(SAMLUtil.getEntityIdHash("unknownEntity")));
+
+    }
+
+    /**
+     * Test verifies that parallel initialization of providers produces the same data as the sequential one.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testParallelInitialization() throws Exception {
+
+        MetadataSnapshot sequential = manager.getSnapshot();
+
+        manager.setInitializationThreads(4);
+        manager.setRefreshRequired(true);
+        manager.refreshMetadata();
+
+        MetadataSnapshot parallel = manager.getSnapshot();
+        assertNotSame(sequential, parallel);
+        assertEquals(sequential.getProviders(), parallel.getProviders());
+        assertEquals(sequential.getIDPEntityNames(), parallel.getIDPEntityNames());
+        assertEquals(sequential.getSPEntityNames(), parallel.getSPEntityNames());
+        assertEquals("nest2alias", manager.getExtendedMetadata("nest2").getAlias());
+
+    }
+
+    /**
+     * Test verifies that roles are served from the role index and match content of the providers.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testRoleIndex() throws Exception {
+
+        RoleIndex index = manager.getSnapshot().getRoleIndex();
+        assertTrue(index.isComplete());
+
+        RoleDescriptor role = manager.getRole("nest1", IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS);
+        assertNotNull(role);
+        assertSame(manager.getEntityDescriptor("nest1").getIDPSSODescriptor(SAMLConstants.SAML20P_NS), role);
+        assertSame(role, index.getRoles("nest1", IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS).get(0));
+        assertSame(role, manager.getRole("nest1", IDPSSODescriptor.DEFAULT_ELEMENT_NAME).get(0));
+
+        RoleDescriptor spRole = manager.getRole("http://localhost:8081/spring-security-saml2-webapp", SPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS);
+        assertNotNull(spRole);
+        assertTrue(spRole instanceof SPSSODescriptor);
+
+        assertNull(manager.getRole("nest1", SPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+        assertNull(manager.getRole("nest1", IDPSSODescriptor.DEFAULT_ELEMENT_NAME, "urn:unknown:protocol"));
+        assertNull(manager.getRole("unknownEntity", IDPSSODescriptor.DEFAULT_ELEMENT_NAME));
+
+    }
+
+    /**
+     * Test verifies that endpoint tables are shared for indexed roles and select the same endpoints as the metadata.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testEndpointTable() throws Exception {
+
+        IDPSSODescriptor idp = (IDPSSODescriptor) manager.getRole("http://localhost:8080/opensso", IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS);
+        SPSSODescriptor sp = (SPSSODescriptor) manager.getRole("http://localhost:8081/spring-security-saml2-webapp", SPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS);
+
+        EndpointTable idpTable = manager.getEndpointTable(idp);
+        assertSame(idpTable, manager.getEndpointTable(idp));
+        assertSame(idp, idpTable.getDescriptor());
+
+        String binding = idpTable.getDefaultSingleSignOnBinding();
+        assertEquals(SAMLUtil.getDefaultBinding(idp), binding);
+        assertSame(SAMLUtil.getSSOServiceForBinding(idp, binding), idpTable.getSingleSignOnService(binding));
+        assertNull(idpTable.getSingleSignOnService("urn:unknown:binding"));
+
+        EndpointTable spTable = manager.getEndpointTable(sp);
+        assertSame(sp.getDefaultAssertionConsumerService(), spTable.getDefaultAssertionConsumerService());
+
+        assertEquals(SAMLUtil.getLogoutBinding(idp, sp), manager.getLogoutBinding(idp, sp));
+        assertEquals(SAMLUtil.getLogoutBinding(idp, sp), SAMLUtil.getLogoutBinding(idpTable, spTable));
+
+    }
+
+    /**
+     * Test verifies that extended metadata is shared between callers without copying and can't be modified, while
+     * copies remain modifiable.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testFrozenExtendedMetadata() throws Exception {
+
+        ExtendedMetadata extendedMetadata = manager.getExtendedMetadata("nest2");
+        assertTrue(extendedMetadata.isFrozen());
+        assertSame(extendedMetadata, manager.getExtendedMetadata("nest2"));
+
+        try {
+            extendedMetadata.setAlias("changed");
+            fail("Frozen extended metadata mustn't be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        ExtendedMetadata copy = manager.getExtendedMetadataCopy("nest2");
+        assertFalse(copy.isFrozen());
+        copy.setAlias("changed");
+        assertEquals("nest2alias", manager.getExtendedMetadata("nest2").getAlias());
+
+        // Default is shared as well and reflects changes after refresh
+        ExtendedMetadata defaults = manager.getExtendedMetadata("unknownEntity");
+        assertTrue(defaults.isFrozen());
+        assertSame(defaults, manager.getExtendedMetadata("unknownEntity2"));
+        manager.getDefaultExtendedMetadata().setSigningKey("newKey");
+        manager.setRefreshRequired(true);
+        manager.refreshMetadata();
+        assertEquals("newKey", manager.getExtendedMetadata("unknownEntity").getSigningKey());
+
+    }
+
+    /**
+     * Test verifies that only providers which notified about a change are re-indexed during refresh.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testIncrementalRefresh() throws Exception {
+
+        ExtendedMetadata original = manager.getSnapshot().getExtendedMetadata("nest2");
+        assertNotNull(original);
+
+        // No provider has changed, existing data is used
+        manager.setRefreshRequired(true);
+        manager.refreshMetadata();
+        assertSame(original, manager.getSnapshot().getExtendedMetadata("nest2"));
+
+        // Notification from the provider causes its re-indexing
+        ExtendedMetadataDelegate provider = manager.getAvailableProviders().get(1);
+        for (ObservableMetadataProvider.Observer observer : provider.getObservers()) {
+            observer.onEvent(provider);
+        }
+        manager.refreshMetadata();
+
+        ExtendedMetadata reindexed = manager.getSnapshot().getExtendedMetadata("nest2");
+        assertNotSame(original, reindexed);
+        assertEquals("nest2alias", reindexed.getAlias());
+        assertEquals(4, manager.getIDPEntityNames().size());
+
+    }
+
+    /**
+     * Test verifies that aliases of local entities are resolved from the index built during refresh and that
+     * the index is rebuilt once a provider is removed.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testAliasIndex() throws Exception {
+
+        ExtendedMetadataDelegate spProvider = context.getBean("localSPProvider", ExtendedMetadataDelegate.class);
+        ExtendedMetadataDelegate idpProvider = context.getBean("localIDPProvider", ExtendedMetadataDelegate.class);
+        assertNull(manager.getEntityIdForAlias("localSP"));
+
+        manager.addMetadataProvider(spProvider);
+        manager.addMetadataProvider(idpProvider);
+        manager.refreshMetadata();
+
+        // Lookups are served by the published snapshot
+        MetadataSnapshot snapshot = manager.getSnapshot();
+        assertEquals("testSP2", snapshot.getEntityIdForAlias("localSP"));
+        assertEquals("testSP2", manager.getEntityIdForAlias("localSP"));
+        assertEquals("http://localhost:8080/noBinding", manager.getEntityIdForAlias("localIDP"));
+        assertTrue(snapshot.getAliases().containsAll(Arrays.asList("localSP", "localIDP")));
+
+        // Resolved entities provide the role requested for the alias
+        assertNotNull(manager.getRole("testSP2", SPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+        assertNull(manager.getRole("testSP2", IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+        assertNotNull(manager.getRole("http://localhost:8080/noBinding", IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+
+        // Aliases of remote entities aren't indexed
+        assertNull(manager.getEntityIdForAlias("nest2alias"));
+        assertNull(manager.getEntityIdForAlias("myAlias"));
+
+        manager.removeMetadataProvider(spProvider);
+        manager.refreshMetadata();
+
+        assertNull(manager.getEntityIdForAlias("localSP"));
+        assertEquals("http://localhost:8080/noBinding", manager.getEntityIdForAlias("localIDP"));
+        assertFalse(manager.getSnapshot().getAliases().contains("localSP"));
+
+        // Previously published snapshot still contains the alias
+        assertEquals("testSP2", snapshot.getEntityIdForAlias("localSP"));
+
+    }
+
+    /**
+     * Test verifies that cached values are kept until a refresh publishes new data and are discarded afterwards.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testCacheGeneration() throws Exception {
+
+        ExtendedMetadata cached = manager.getExtendedMetadata("nest2");
+        assertSame(cached, manager.getExtendedMetadata("nest2"));
+
+        // Refresh which isn't required doesn't publish new data
+        manager.refreshMetadata();
+        assertSame(cached, manager.getExtendedMetadata("nest2"));
+
+        manager.setRefreshRequired(true);
+        manager.refreshMetadata();
+        ExtendedMetadata refreshed = manager.getExtendedMetadata("nest2");
+        assertNotSame(cached, refreshed);
+        assertEquals("nest2alias", refreshed.getAlias());
+
+    }
+
+    /**
+     * Test verifies that all active providers are periodically checked by the refresh scheduler.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testRefreshScheduler() throws Exception {
+
+        MetadataRefreshScheduler scheduler = manager.getRefreshScheduler();
+        assertNotNull(scheduler);
+
+        synchronized (this) {
+            wait(500);
+        }
+
+        for (MetadataProvider provider : manager.getProviders()) {
+            assertNotNull(scheduler.getLastRefresh(provider));
+            assertNotNull(scheduler.getNextRefresh(provider));
+            assertEquals(0, scheduler.getFailureCount(provider));
+        }
+
+    }
+
+    /**
+     * Test verifies that snapshot written by the store can be loaded and serves the same data and that storing
+     * doesn't modify DOM of the published entities.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSnapshotStore() throws Exception {
+
+        File file = File.createTempFile("metadata", ".snapshot");
+
+        try {
+
+            MetadataSnapshot snapshot = manager.getSnapshot();
+            EntityDescriptor published = manager.getEntityDescriptor("nest1");
+            Element element = published.getDOM();
+            assertNotNull(element);
+            Element documentElement = element.getOwnerDocument().getDocumentElement();
+
+            MetadataSnapshotStore store = new MetadataSnapshotStore(file, context.getBean("parserPool", ParserPool.class));
+            store.store(snapshot);
+
+            assertSame(element, published.getDOM());
+            assertSame(documentElement, element.getOwnerDocument().getDocumentElement());
+
+            MetadataSnapshot stored = store.load();
+            assertEquals(snapshot.getIDPEntityNames(), stored.getIDPEntityNames());
+            assertEquals(snapshot.getSPEntityNames(), stored.getSPEntityNames());
+            assertEquals(snapshot.getAliases(), stored.getAliases());
+            for (String alias : snapshot.getAliases()) {
+                assertEquals(snapshot.getEntityIdForAlias(alias), stored.getEntityIdForAlias(alias));
+            }
+            assertEquals("nest1", stored.getEntityIdForHash(SAMLUtil.getEntityIdHash("nest1")));
+            for (String entityID : snapshot.getExtendedMetadataIndex().keySet()) {
+                ExtendedMetadata expected = snapshot.getExtendedMetadata(entityID);
+                ExtendedMetadata actual = stored.getExtendedMetadata(entityID);
+                assertEquals(expected.isLocal(), actual.isLocal());
+                assertEquals(expected.getAlias(), actual.getAlias());
+                assertEquals(expected.getSecurityProfile(), actual.getSecurityProfile());
+                assertEquals(expected.getSigningKey(), actual.getSigningKey());
+                assertEquals(expected.getEncryptionKey(), actual.getEncryptionKey());
+                assertEquals(expected.getTlsKey(), actual.getTlsKey());
+                assertEquals(expected.getTrustedKeys(), actual.getTrustedKeys());
+                assertEquals(expected.isRequireLogoutRequestSigned(), actual.isRequireLogoutRequestSigned());
+                assertEquals(expected.isRequireLogoutResponseSigned(), actual.isRequireLogoutResponseSigned());
+                assertEquals(expected.isRequireArtifactResolveSigned(), actual.isRequireArtifactResolveSigned());
+                assertTrue(actual.isFrozen());
+            }
+
+            MetadataProvider provider = stored.getProviders().get(0);
+            assertEquals("nest1", provider.getEntityDescriptor("nest1").getEntityID());
+            assertNotNull(provider.getRole("nest1", IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+            assertNotNull(provider.getEntityDescriptor("http://localhost:8081/spring-security-saml2-webapp"));
+            assertNull(provider.getEntityDescriptor("unknown"));
+
+        } finally {
+
+            file.delete();
+
+        }
+
+    }
+
     private class MetadataReloader extends TimerTask {
 
         // State of the refresh flag during last execution
@@ -0,0 +1,213 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.saml2.metadata.provider.AbstractReloadingMetadataProvider;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.parse.ParserPool;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.util.FileCopyUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests scheduling of provider refreshes and eviction of expired entities.
+ */
+public class MetadataRefreshSchedulerTest {
+
+    static final String IDP = "http://localhost:8080/opensso";
+
+    ApplicationContext context;
+    MetadataManager manager;
+    ParserPool pool;
+    MetadataRefreshScheduler scheduler;
+
+    @Before
+    public void initialize() throws Exception {
+        String resName = "/" + getClass().getName().replace('.', '/') + ".xml";
+        context = new ClassPathXmlApplicationContext(resName);
+        manager = context.getBean("metadata", MetadataManager.class);
+        pool = context.getBean("parserPool", ParserPool.class);
+        scheduler = new MetadataRefreshScheduler();
+    }
+
+    @After
+    public void cleanup() {
+        scheduler.stop();
+    }
+
+    /**
+     * Verifies that reloading providers are refreshed by the scheduler and their own timer is disabled.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testReloadingProvider() throws Exception {
+
+        TestProvider provider = new TestProvider(getMetadata(""));
+        ExtendedMetadataDelegate delegate = new ExtendedMetadataDelegate(provider);
+        delegate.setRefreshCheckInterval(50);
+        manager.addMetadataProvider(delegate);
+        manager.refreshMetadata();
+        int fetches = provider.fetches.get();
+
+        scheduler.start(manager, 100000);
+        waitFor(provider.fetches, fetches + 3);
+
+        assertNotNull(scheduler.getLastRefresh(delegate));
+        assertTrue(provider.getMinRefreshDelay() > 365l * 24 * 3600 * 1000);
+        assertTrue(provider.getMaxRefreshDelay() > 365l * 24 * 3600 * 1000);
+
+    }
+
+    /**
+     * Verifies that next check is planned from the cacheDuration and validUntil of the metadata.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testMetadataValidity() throws Exception {
+
+        long validUntil = System.currentTimeMillis() + 1200000;
+        TestProvider provider = new TestProvider(getMetadata("validUntil=\"" + new DateTime(validUntil, ISOChronology.getInstanceUTC()) + "\" cacheDuration=\"PT1H\""));
+        ExtendedMetadataDelegate delegate = new ExtendedMetadataDelegate(provider);
+        delegate.setRefreshCheckInterval(50);
+        manager.addMetadataProvider(delegate);
+        manager.refreshMetadata();
+
+        scheduler.setUseMetadataValidity(true);
+        scheduler.setMinRefreshInterval(1000);
+        scheduler.setMaxRefreshInterval(7200000);
+        scheduler.start(manager, 100000);
+
+        // Three quarters of the remaining 20 minutes are shorter than the cacheDuration
+        long delay = waitForValidityDelay(delegate);
+        assertTrue("Unexpected delay " + delay, delay > 850000 && delay <= 900000);
+
+        scheduler.stop();
+        scheduler = new MetadataRefreshScheduler();
+        scheduler.setUseMetadataValidity(true);
+        scheduler.setMinRefreshInterval(1000);
+        scheduler.setMaxRefreshInterval(600000);
+        scheduler.start(manager, 100000);
+
+        // Delay is bounded by the maxRefreshInterval
+        delay = waitForValidityDelay(delegate);
+        assertEquals(600000, delay);
+
+    }
+
+    /**
+     * Verifies that entities whose validUntil has passed are removed by the refresh following the eviction.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testEvictExpiredEntities() throws Exception {
+
+        long validUntil = System.currentTimeMillis() + 1000;
+        TestProvider provider = new TestProvider(getMetadata("validUntil=\"" + new DateTime(validUntil, ISOChronology.getInstanceUTC()) + "\""));
+        manager.addMetadataProvider(new ExtendedMetadataDelegate(provider));
+        manager.refreshMetadata();
+
+        assertTrue(manager.getIDPEntityNames().contains(IDP));
+        manager.evictExpiredEntities();
+        assertFalse(manager.isRefreshRequired());
+
+        Thread.sleep(validUntil - System.currentTimeMillis() + 100);
+        manager.evictExpiredEntities();
+        assertTrue(manager.isRefreshRequired());
+
+        manager.refreshMetadata();
+        assertFalse(manager.getIDPEntityNames().contains(IDP));
+        assertNull(manager.getEntityDescriptor(IDP));
+
+    }
+
+    /**
+     * Waits until the scheduler checks the provider and returns delay of the next check.
+     *
+     * @param delegate provider
+     * @return delay between the last and the next check in ms
+     * @throws Exception error
+     */
+    protected long waitForValidityDelay(ExtendedMetadataDelegate delegate) throws Exception {
+        long end = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < end) {
+            if (scheduler.getLastRefresh(delegate) != null) {
+                long delay = scheduler.getNextRefresh(delegate).getTime() - scheduler.getLastRefresh(delegate).getTime();
+                if (delay > 1000) {
+                    return delay;
+                }
+            }
+            Thread.sleep(20);
+        }
+        fail("Provider wasn't checked");
+        return 0;
+    }
+
+    protected void waitFor(AtomicInteger counter, int value) throws Exception {
+        long end = System.currentTimeMillis() + 5000;
+        while (counter.get() < value && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertTrue("Provider wasn't refreshed", counter.get() >= value);
+    }
+
+    /**
+     * @param attributes attributes added to the EntityDescriptor
+     * @return metadata of the test IDP
+     * @throws Exception error
+     */
+    protected byte[] getMetadata(String attributes) throws Exception {
+        String metadata = new String(FileCopyUtils.copyToByteArray(context.getResource("classpath:testIDP.xml").getInputStream()), "UTF-8");
+        return metadata.replace("<EntityDescriptor ", "<EntityDescriptor " + attributes + " ").getBytes("UTF-8");
+    }
+
+    /**
+     * Reloading provider returning fixed metadata and counting the fetches.
+     */
+    private class TestProvider extends AbstractReloadingMetadataProvider {
+
+        private final byte[] metadata;
+        private final AtomicInteger fetches = new AtomicInteger();
+
+        private TestProvider(byte[] metadata) {
+            this.metadata = metadata;
+            setParserPool(pool);
+        }
+
+        @Override
+        protected String getMetadataIdentifier() {
+            return "test";
+        }
+
+        @Override
+        protected byte[] fetchMetadata() throws MetadataProviderException {
+            fetches.incrementAndGet();
+            return metadata;
+        }
+
+    }
+
+}
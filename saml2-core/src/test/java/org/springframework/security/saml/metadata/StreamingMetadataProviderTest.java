@@ -0,0 +1,402 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.metadata;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.saml2.metadata.provider.SignatureValidationFilter;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.security.SecurityHelper;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.credential.StaticCredentialResolver;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.Signer;
+import org.opensaml.xml.signature.impl.ExplicitKeySignatureTrustEngine;
+import org.opensaml.xml.util.XMLHelper;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.security.saml.key.KeyManager;
+import org.w3c.dom.Element;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ */
+public class StreamingMetadataProviderTest {
+
+    ApplicationContext context;
+    MetadataManager manager;
+    ParserPool pool;
+    Credential credential;
+
+    @Before
+    public void initialize() throws Exception {
+
+        String resName = "/" + getClass().getName().replace('.', '/') + ".xml";
+        context = new ClassPathXmlApplicationContext(resName);
+        manager = context.getBean("metadata", MetadataManager.class);
+        pool = context.getBean("parserPool", ParserPool.class);
+        credential = context.getBean("keyManager", KeyManager.class).getCredential("apollo");
+
+    }
+
+    /**
+     * Verifies that entities of nested EntitiesDescriptors are indexed by the manager without being created
+     * and are only created once looked up.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testLazyLoading() throws Exception {
+
+        StreamingMetadataProvider provider = getProvider("classpath:testIDPnestedMetadata.xml");
+        ExtendedMetadataDelegate delegate = new ExtendedMetadataDelegate(provider);
+
+        manager.addMetadataProvider(delegate);
+        manager.refreshMetadata();
+
+        assertTrue(provider.containsEntity("nest1"));
+        assertTrue(provider.hasRole("nest3", IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+        assertFalse(provider.hasRole("nest3", SPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+        assertTrue(manager.getIDPEntityNames().contains("nest1"));
+        assertTrue(manager.getIDPEntityNames().contains("nest2"));
+        assertTrue(manager.getIDPEntityNames().contains("nest3"));
+        assertEquals(0, provider.getLoadedEntityCount());
+
+        EntityDescriptor descriptor = manager.getEntityDescriptor("nest2");
+        assertNotNull(descriptor);
+        assertEquals("nest2", descriptor.getEntityID());
+        assertNotNull(manager.getRole("nest2", IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+        assertSame(descriptor, manager.getEntityDescriptor("nest2"));
+        assertEquals(1, provider.getLoadedEntityCount());
+
+        assertNull(manager.getEntityDescriptor("nest4"));
+
+    }
+
+    /**
+     * Verifies that entities are stored correctly without compression.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testUncompressed() throws Exception {
+
+        StreamingMetadataProvider provider = getProvider("classpath:testIDPnestedMetadata.xml");
+        provider.setCompressEntities(false);
+
+        manager.addMetadataProvider(new ExtendedMetadataDelegate(provider));
+        manager.refreshMetadata();
+
+        assertNotNull(manager.getEntityDescriptor("nest3"));
+
+    }
+
+    /**
+     * Verifies that signed single entity is accepted when signature is required.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSignature_validSelfSigned() throws Exception {
+
+        ExtendedMetadataDelegate provider = new ExtendedMetadataDelegate(getProvider("classpath:testSP_signed.xml"));
+        provider.setMetadataRequireSignature(true);
+
+        manager.addMetadataProvider(provider);
+        manager.refreshMetadata();
+
+        assertNotNull(manager.getEntityDescriptor("http://localhost/spring-security-saml2-sample"));
+
+    }
+
+    /**
+     * Verifies that entity with invalid signature is rejected.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSignature_invalidSelfSigned() throws Exception {
+
+        ExtendedMetadataDelegate provider = new ExtendedMetadataDelegate(getProvider("classpath:testSP_signed_invalid.xml"));
+        provider.setMetadataRequireSignature(true);
+
+        manager.addMetadataProvider(provider);
+        manager.refreshMetadata();
+
+        assertNull(manager.getEntityDescriptor("http://localhost/spring-security-saml2-sample"));
+
+    }
+
+    /**
+     * Verifies that unsigned aggregate is rejected once signature is required.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testMissingSignature() throws Exception {
+
+        ExtendedMetadataDelegate provider = new ExtendedMetadataDelegate(getProvider("classpath:testIDPnestedMetadata.xml"));
+        provider.setMetadataRequireSignature(true);
+
+        manager.addMetadataProvider(provider);
+        manager.refreshMetadata();
+
+        assertNull(manager.getEntityDescriptor("nest1"));
+
+    }
+
+    /**
+     * Verifies that signature of the aggregate is verified by the signature filter and that validity and cache
+     * duration of the root element are available.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSignedAggregate() throws Exception {
+
+        DateTime validUntil = new DateTime().plusDays(1);
+        StreamingMetadataProvider provider = getSignedProvider(signAggregate(validUntil));
+        provider.initialize();
+
+        assertTrue(provider.containsEntity("nest1"));
+        assertTrue(provider.containsEntity("nest3"));
+        assertNotNull(provider.getEntityDescriptor("nest2"));
+
+        EntitiesDescriptor root = (EntitiesDescriptor) provider.getMetadata();
+        assertEquals(validUntil.getMillis(), root.getValidUntil().getMillis());
+        assertEquals(Long.valueOf(3600000), root.getCacheDuration());
+
+    }
+
+    /**
+     * Verifies that aggregate modified after signing is rejected.
+     *
+     * @throws Exception error
+     */
+    @Test(expected = MetadataProviderException.class)
+    public void testSignedAggregate_modified() throws Exception {
+
+        String metadata = signAggregate(new DateTime().plusDays(1));
+        StreamingMetadataProvider provider = getSignedProvider(metadata.replace("\"nest3\"", "\"nest9\""));
+        provider.initialize();
+
+    }
+
+    /**
+     * Verifies that signature of a nested EntitiesDescriptor is verified during the streaming pass and that only
+     * entities of the group are rejected when the signature isn't valid.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testSignedNestedGroup() throws Exception {
+
+        String metadata = signNestedGroup();
+
+        StreamingMetadataProvider provider = getSignedProvider(metadata);
+        ((SignatureValidationFilter) provider.getMetadataFilter()).setRequireSignature(false);
+        provider.initialize();
+
+        assertTrue(provider.containsEntity("nest1"));
+        assertTrue(provider.containsEntity("nest2"));
+        assertTrue(provider.containsEntity("nest3"));
+        assertEquals(0, provider.getLoadedEntityCount());
+
+        provider = getSignedProvider(metadata.replace("\"nest2\"", "\"nest5\""));
+        ((SignatureValidationFilter) provider.getMetadataFilter()).setRequireSignature(false);
+        provider.initialize();
+
+        assertFalse(provider.containsEntity("nest1"));
+        assertFalse(provider.containsEntity("nest5"));
+        assertTrue(provider.containsEntity("nest3"));
+
+    }
+
+    /**
+     * Verifies that entities of expired aggregate or expired nested EntitiesDescriptor are not available when valid
+     * metadata are required.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testExpiredAggregate() throws Exception {
+
+        EntitiesDescriptor root = getAggregate();
+        root.getEntitiesDescriptors().get(0).setValidUntil(new DateTime().minusDays(1));
+
+        StreamingMetadataProvider provider = getProvider(write(XMLHelper.nodeToString(marshall(root))));
+        provider.setRequireValidMetadata(true);
+        provider.initialize();
+
+        assertFalse(provider.containsEntity("nest1"));
+        assertNull(provider.getEntityDescriptor("nest2"));
+        assertTrue(provider.containsEntity("nest3"));
+        assertNotNull(provider.getEntityDescriptor("nest3"));
+        assertNotNull(provider.getMetadata());
+
+        root = getAggregate();
+        root.setValidUntil(new DateTime().minusDays(1));
+
+        provider = getProvider(write(XMLHelper.nodeToString(marshall(root))));
+        provider.setRequireValidMetadata(true);
+        provider.initialize();
+
+        assertFalse(provider.containsEntity("nest3"));
+        assertNull(provider.getEntityDescriptor("nest3"));
+        assertNull(provider.getMetadata());
+
+    }
+
+    /**
+     * Verifies that only entities whose content was modified are reported as changed once the file is reloaded.
+     *
+     * @throws Exception error
+     */
+    @Test
+    public void testChangeEvents() throws Exception {
+
+        final List<MetadataChangeEvent> events = new ArrayList<MetadataChangeEvent>();
+        manager.addChangeListener(new MetadataChangeListener() {
+            public void metadataChanged(MetadataChangeEvent event) {
+                events.add(event);
+            }
+        });
+
+        String fileName = write(XMLHelper.nodeToString(marshall(getAggregate())));
+        StreamingMetadataProvider provider = getProvider(fileName);
+        manager.addMetadataProvider(new ExtendedMetadataDelegate(provider));
+        manager.refreshMetadata();
+
+        assertEquals(1, events.size());
+        assertEquals(3, events.get(0).getAdded().size());
+        String version = provider.getEntityVersion("nest1");
+        assertNotNull(version);
+
+        EntitiesDescriptor root = getAggregate();
+        root.getEntitiesDescriptors().get(1).getEntityDescriptors().get(0).setCacheDuration(3600000L);
+        File file = context.getResource(fileName).getFile();
+        long lastModified = file.lastModified();
+        write(file, XMLHelper.nodeToString(marshall(root)));
+        file.setLastModified(lastModified + 10000);
+
+        // Reloads the file and indexes the provider again
+        provider.getMetadata();
+        manager.setRefreshRequired(true);
+        manager.refreshMetadata();
+
+        assertEquals(version, provider.getEntityVersion("nest1"));
+        assertEquals(2, events.size());
+        assertEquals(Collections.singleton("nest3"), events.get(1).getChanged());
+        assertTrue(events.get(1).getAdded().isEmpty());
+        assertTrue(events.get(1).getRemoved().isEmpty());
+
+    }
+
+    protected StreamingMetadataProvider getSignedProvider(String metadata) throws Exception {
+        StreamingMetadataProvider provider = getProvider(write(metadata));
+        ExplicitKeySignatureTrustEngine trustEngine = new ExplicitKeySignatureTrustEngine(new StaticCredentialResolver(credential), Configuration.getGlobalSecurityConfiguration().getDefaultKeyInfoCredentialResolver());
+        SignatureValidationFilter filter = new SignatureValidationFilter(trustEngine);
+        filter.setRequireSignature(true);
+        provider.setMetadataFilter(filter);
+        return provider;
+    }
+
+    protected String signAggregate(DateTime validUntil) throws Exception {
+
+        EntitiesDescriptor root = getAggregate();
+        root.setID("aggregate");
+        root.setValidUntil(validUntil);
+        root.setCacheDuration(3600000L);
+
+        Signature signature = (Signature) Configuration.getBuilderFactory().getBuilder(Signature.DEFAULT_ELEMENT_NAME).buildObject(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(credential);
+        SecurityHelper.prepareSignatureParams(signature, credential, null, null);
+        root.setSignature(signature);
+
+        Element element = marshall(root);
+        Signer.signObject(signature);
+        return XMLHelper.nodeToString(element);
+
+    }
+
+    protected String signNestedGroup() throws Exception {
+
+        EntitiesDescriptor root = getAggregate();
+        EntitiesDescriptor group = root.getEntitiesDescriptors().get(0);
+        group.setID("group");
+
+        Signature signature = (Signature) Configuration.getBuilderFactory().getBuilder(Signature.DEFAULT_ELEMENT_NAME).buildObject(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(credential);
+        SecurityHelper.prepareSignatureParams(signature, credential, null, null);
+        group.setSignature(signature);
+
+        Element element = marshall(root);
+        Signer.signObject(signature);
+        return XMLHelper.nodeToString(element);
+
+    }
+
+    protected EntitiesDescriptor getAggregate() throws Exception {
+        Element element = pool.parse(context.getResource("classpath:testIDPnestedMetadata.xml").getInputStream()).getDocumentElement();
+        EntitiesDescriptor root = (EntitiesDescriptor) Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+        root.releaseDOM();
+        root.releaseChildrenDOM(true);
+        return root;
+    }
+
+    protected Element marshall(EntitiesDescriptor root) throws Exception {
+        return Configuration.getMarshallerFactory().getMarshaller(root).marshall(root);
+    }
+
+    protected String write(String metadata) throws Exception {
+        File file = File.createTempFile("metadata", ".xml");
+        file.deleteOnExit();
+        write(file, metadata);
+        return file.toURI().toString();
+    }
+
+    protected void write(File file, String metadata) throws Exception {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(metadata.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+
+    protected StreamingMetadataProvider getProvider(String fileName) throws Exception {
+        File file = context.getResource(fileName).getFile();
+        StreamingMetadataProvider provider = new StreamingMetadataProvider(file);
+        provider.setParserPool(pool);
+        return provider;
+    }
+
+}
@@ -0,0 +1,187 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.trust;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.xml.security.x509.BasicPKIXValidationInformation;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.opensaml.xml.security.x509.CertPathPKIXValidationOptions;
+import org.opensaml.xml.security.x509.PKIXTrustEvaluator;
+import org.opensaml.xml.security.x509.PKIXValidationInformation;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies caching of PKIX validation results.
+ */
+public class CachingPKIXTrustEvaluatorTest {
+
+    private PKIXTrustEvaluator delegate;
+    private CertPathPKIXValidationOptions options;
+    private KeyStore keyStore;
+    private PKIXValidationInformation information;
+    private X509Credential credential;
+
+    @Before
+    public void init() throws Exception {
+
+        InputStream input = new ClassPathResource("org/springframework/security/saml/key/keystore.jks").getInputStream();
+        keyStore = KeyStore.getInstance("JKS");
+        try {
+            keyStore.load(input, "nalle123".toCharArray());
+        } finally {
+            input.close();
+        }
+
+        BasicX509Credential basicCredential = new BasicX509Credential();
+        basicCredential.setEntityCertificate((X509Certificate) keyStore.getCertificate("apollo"));
+        credential = basicCredential;
+        information = new BasicPKIXValidationInformation(Collections.singletonList((X509Certificate) keyStore.getCertificate("ca")), null, 5);
+
+        options = new CertPathPKIXValidationOptions();
+        delegate = createMock(PKIXTrustEvaluator.class);
+        expect(delegate.getPKIXValidationOptions()).andReturn(options).anyTimes();
+
+    }
+
+    /**
+     * Verifies that results are reused until the cache is cleared.
+     */
+    @Test
+    public void testCachedResult() throws Exception {
+
+        CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate) {
+            @Override
+            protected long getExpiration(PKIXValidationInformation validationInfo, X509Credential untrustedCredential, long now) {
+                return now + 60000;
+            }
+        };
+
+        expect(delegate.validate(information, credential)).andReturn(true).times(2);
+        replay(delegate);
+
+        assertTrue(evaluator.validate(information, credential));
+        assertTrue(evaluator.validate(information, credential));
+        assertEquals(1, evaluator.getCacheStatistics().getHitCount());
+        assertEquals(1, evaluator.getCacheSize());
+
+        evaluator.clearCache();
+        assertEquals(0, evaluator.getCacheSize());
+        assertTrue(evaluator.validate(information, credential));
+
+        verify(delegate);
+
+    }
+
+    /**
+     * Verifies that unsuccessful validations are cached as well.
+     */
+    @Test
+    public void testNegativeResult() throws Exception {
+
+        CachingPKIXTrustEvaluator evaluator = getEvaluator();
+
+        expect(delegate.validate(information, credential)).andReturn(false);
+        replay(delegate);
+
+        assertFalse(evaluator.validate(information, credential));
+        assertFalse(evaluator.validate(information, credential));
+        assertEquals(1, evaluator.getCacheStatistics().getHitCount());
+
+        verify(delegate);
+
+    }
+
+    /**
+     * Verifies that validation with different trust anchors, CRLs or options doesn't use the cached result.
+     */
+    @Test
+    public void testKey() throws Exception {
+
+        CachingPKIXTrustEvaluator evaluator = getEvaluator();
+        List<X509Certificate> anchors = Collections.singletonList((X509Certificate) keyStore.getCertificate("ca"));
+        PKIXValidationInformation otherAnchors = new BasicPKIXValidationInformation(Collections.singletonList((X509Certificate) keyStore.getCertificate("apollo")), null, 5);
+        PKIXValidationInformation withCRL = new BasicPKIXValidationInformation(anchors, Collections.singletonList(getCRL()), 5);
+
+        expect(delegate.validate((PKIXValidationInformation) anyObject(), eq(credential))).andReturn(true).times(5);
+        replay(delegate);
+
+        evaluator.validate(information, credential);
+        evaluator.validate(otherAnchors, credential);
+        evaluator.validate(withCRL, credential);
+        options.setDefaultVerificationDepth(3);
+        evaluator.validate(information, credential);
+        options.setForceRevocationEnabled(true);
+        evaluator.validate(information, credential);
+        evaluator.validate(information, credential);
+
+        assertEquals(5, evaluator.getCacheStatistics().getMissCount());
+        assertEquals(1, evaluator.getCacheStatistics().getHitCount());
+        assertEquals(5, evaluator.getCacheSize());
+
+        verify(delegate);
+
+    }
+
+    /**
+     * Verifies that results for expired certificates are never cached.
+     */
+    @Test
+    public void testExpiredCertificate() throws Exception {
+
+        CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate);
+
+        expect(delegate.validate(information, credential)).andReturn(false).times(2);
+        replay(delegate);
+
+        assertFalse(evaluator.validate(information, credential));
+        assertFalse(evaluator.validate(information, credential));
+        assertEquals(0, evaluator.getCacheSize());
+
+        verify(delegate);
+
+    }
+
+    private CachingPKIXTrustEvaluator getEvaluator() {
+        return new CachingPKIXTrustEvaluator(delegate) {
+            @Override
+            protected long getExpiration(PKIXValidationInformation validationInfo, X509Credential untrustedCredential, long now) {
+                return now + 60000;
+            }
+        };
+    }
+
+    private X509CRL getCRL() throws Exception {
+        InputStream input = new ClassPathResource("org/springframework/security/saml/trust/test.crl").getInputStream();
+        try {
+            return (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(input);
+        } finally {
+            input.close();
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.trust;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.provider.MetadataProvider;
+import org.opensaml.security.MetadataCriteria;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.metadata.CacheStatistics;
+import org.springframework.security.saml.metadata.MetadataManager;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies caching of credentials resolved from metadata.
+ */
+public class MetadataCredentialResolverTest {
+
+    static final String IDP = "http://localhost:8080/opensso";
+    static final String ADDED_IDP = "http://localhost:8080/noBinding";
+
+    ApplicationContext context;
+    MetadataManager metadata;
+    KeyManager keyManager;
+
+    @Before
+    public void init() {
+
+        String resName = "/" + getClass().getName().replace('.', '/') + ".xml";
+        context = new ClassPathXmlApplicationContext(resName);
+        metadata = (MetadataManager) context.getBean("metadata");
+        keyManager = (KeyManager) context.getBean("keyManager");
+
+    }
+
+    /**
+     * Verifies that a metadata refresh only removes cached credentials of the entities it affected.
+     */
+    @Test
+    public void testRefreshEvictsAffectedEntities() throws Exception {
+
+        MetadataCredentialResolver resolver = new MetadataCredentialResolver(metadata, keyManager);
+        CacheStatistics statistics = resolver.getCacheStatistics();
+
+        resolver.resolve(getCriteria(IDP));
+        resolver.resolve(getCriteria(IDP));
+        assertEquals(1, statistics.getMissCount());
+        assertEquals(1, statistics.getHitCount());
+
+        // Added entity doesn't affect credentials of the IDP
+        MetadataProvider provider = context.getBean("singleProvider", MetadataProvider.class);
+        metadata.addMetadataProvider(provider);
+        metadata.refreshMetadata();
+
+        resolver.resolve(getCriteria(IDP));
+        resolver.resolve(getCriteria(ADDED_IDP));
+        assertEquals(2, statistics.getMissCount());
+        assertEquals(2, statistics.getHitCount());
+        assertEquals(2, resolver.getCacheSize());
+
+        // Only credentials of the removed entity are evicted
+        metadata.removeMetadataProvider(provider);
+        metadata.refreshMetadata();
+
+        assertEquals(1, resolver.getCacheSize());
+        resolver.resolve(getCriteria(IDP));
+        assertEquals(3, statistics.getHitCount());
+
+    }
+
+    protected CriteriaSet getCriteria(String entityID) {
+        CriteriaSet criteria = new CriteriaSet(new EntityIDCriteria(entityID));
+        criteria.add(new MetadataCriteria(IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+        return criteria;
+    }
+
+}
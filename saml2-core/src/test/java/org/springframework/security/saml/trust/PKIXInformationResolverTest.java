@@ -0,0 +1,112 @@
+/* Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.security.saml.trust;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.security.MetadataCriteria;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
+import org.opensaml.xml.security.x509.PKIXValidationInformation;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.metadata.CacheStatistics;
+import org.springframework.security.saml.metadata.MetadataManager;
+
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies caching of resolved PKIX information.
+ */
+public class PKIXInformationResolverTest {
+
+    static final String IDP = "http://localhost:8080/opensso";
+
+    ApplicationContext context;
+    MetadataManager metadata;
+    KeyManager keyManager;
+    CriteriaSet criteria;
+
+    @Before
+    public void init() {
+
+        String resName = "/" + getClass().getName().replace('.', '/') + ".xml";
+        context = new ClassPathXmlApplicationContext(resName);
+        metadata = (MetadataManager) context.getBean("metadata");
+        keyManager = (KeyManager) context.getBean("keyManager");
+
+        criteria = new CriteriaSet(new EntityIDCriteria(IDP));
+        criteria.add(new MetadataCriteria(IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+
+    }
+
+    /**
+     * Verifies that resolved PKIX information is served from the cache and that the cache is bounded.
+     */
+    @Test
+    public void testCache() throws Exception {
+
+        PKIXInformationResolver resolver = new PKIXInformationResolver(new MetadataCredentialResolver(metadata, keyManager), metadata, keyManager);
+        CacheStatistics statistics = resolver.getCacheStatistics();
+
+        assertSame(resolver.resolve(criteria), resolver.resolve(criteria));
+        assertEquals(1, statistics.getMissCount());
+        assertEquals(1, statistics.getHitCount());
+
+        resolver.setMaxCacheSize(1);
+        CriteriaSet otherCriteria = new CriteriaSet(new EntityIDCriteria(IDP));
+        otherCriteria.add(new MetadataCriteria(IDPSSODescriptor.DEFAULT_ELEMENT_NAME, null));
+        resolver.resolve(otherCriteria);
+        assertEquals(1, resolver.getCacheSize());
+        assertEquals(1, statistics.getEvictionCount());
+
+    }
+
+    /**
+     * Verifies that information resolved while the cache was invalidated isn't kept, and that the invalidation
+     * doesn't break subsequent caching.
+     */
+    @Test
+    public void testInvalidationDuringResolution() throws Exception {
+
+        final boolean[] invalidate = new boolean[]{true};
+        final PKIXInformationResolver[] resolver = new PKIXInformationResolver[1];
+        resolver[0] = new PKIXInformationResolver(new MetadataCredentialResolver(metadata, keyManager), metadata, keyManager) {
+            @Override
+            protected void populateTrustedKeysAnchors(CriteriaSet criteriaSet, Collection<PKIXValidationInformation> pkixInformation) throws SecurityException {
+                super.populateTrustedKeysAnchors(criteriaSet, pkixInformation);
+                if (invalidate[0]) {
+                    resolver[0].clearCache(null);
+                }
+            }
+        };
+
+        resolver[0].resolve(criteria);
+        assertEquals(0, resolver[0].getCacheSize());
+
+        invalidate[0] = false;
+        Iterable<PKIXValidationInformation> resolved = resolver[0].resolve(criteria);
+        assertEquals(1, resolver[0].getCacheSize());
+        assertSame(resolved, resolver[0].resolve(criteria));
+
+    }
+
+}